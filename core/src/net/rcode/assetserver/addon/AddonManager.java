@@ -101,6 +101,17 @@ public class AddonManager {
 		return null;
 	}
 	
+	/**
+	 * Configure every loaded addon again.  Used when the server reloads its
+	 * configuration so that addons register with the new filter lookup.
+	 * @throws Exception
+	 */
+	public void configureAll() throws Exception {
+		for (AddonEntry entry: addons.values()) {
+			entry.addon.configure(server);
+		}
+	}
+	
 	/**
 	 * Load an addon by name.  If already loaded, then just return
 	 * @param name
@@ -1,5 +1,7 @@
 package net.rcode.assetserver.cache;
 
+import java.util.List;
+
 public interface Cache {
 
 	/**
@@ -24,4 +26,19 @@ public interface Cache {
 	 * Clear the cache
 	 */
 	public void clear();
+	
+	/**
+	 * Remove all entries whose identity matches the predicate.  Like store, this
+	 * raises no exceptions on failure.
+	 * @param predicate
+	 * @return the number of entries removed
+	 */
+	public int purge(CachePredicate predicate);
+	
+	/**
+	 * Summarize all entries in the cache.  This may be an expensive operation and
+	 * is intended for diagnostics.
+	 * @return summaries of all entries (in no particular order)
+	 */
+	public List<CacheEntrySummary> summarize();
 }
\ No newline at end of file
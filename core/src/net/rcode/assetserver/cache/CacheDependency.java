@@ -1,7 +1,9 @@
 package net.rcode.assetserver.cache;
 
 /**
- * Dependency class.  Sub-classes must be serializable.
+ * Dependency class.  Sub-classes must be serializable.  toString() should
+ * describe what is depended upon (ie. "file:/path/to/file"); it is reported in
+ * asset manifests.
  * @author stella
  *
  */
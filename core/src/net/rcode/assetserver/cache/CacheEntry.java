@@ -1,12 +1,15 @@
 package net.rcode.assetserver.cache;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.zip.GZIPOutputStream;
 
 import net.rcode.assetserver.core.AssetLocator;
+import net.rcode.assetserver.core.GzipContentProvider;
 import net.rcode.assetserver.util.MessageDigestBuilder;
 
 /**
@@ -16,8 +19,8 @@ import net.rcode.assetserver.util.MessageDigestBuilder;
  * @author stella
  *
  */
-public class CacheEntry implements Serializable, AssetLocator {
-	public static final long GLOBAL_SERIAL_VERSION_UID=4;
+public class CacheEntry implements Serializable, AssetLocator, GzipContentProvider {
+	public static final long GLOBAL_SERIAL_VERSION_UID=6;
 	private static final long serialVersionUID=GLOBAL_SERIAL_VERSION_UID;
 	
 	private CacheIdentity identity;
@@ -25,6 +28,8 @@ public class CacheEntry implements Serializable, AssetLocator {
 	private String contentType;
 	private String characterEncoding;
 	private byte[] contents;
+	private byte[] gzipContents;
+	private long buildNanos;
 	private volatile transient String etag;
 	
 	protected CacheEntry() { }
@@ -59,6 +64,73 @@ public class CacheEntry implements Serializable, AssetLocator {
 		return identity;
 	}
 	
+	/**
+	 * @return the dependencies that determine this entry's validity (may be null)
+	 */
+	public CacheDependency[] getDependencies() {
+		return dependencies;
+	}
+	
+	/**
+	 * Compute the gzip encoded contents now so that they are stored along
+	 * with the entry.  Call prior to storing entries that will be served
+	 * compressed.
+	 * @throws IOException
+	 */
+	public void precompress() throws IOException {
+		getGzipContents();
+	}
+	
+	@Override
+	public long getGzipLength() throws IOException {
+		byte[] value=getGzipContents();
+		return value!=null ? value.length : -1;
+	}
+	
+	@Override
+	public void writeGzipTo(OutputStream out) throws IOException {
+		out.write(getGzipContents());
+	}
+	
+	/**
+	 * @return gzip encoded contents, computed on first access, or null
+	 * for a negative entry
+	 */
+	public byte[] getGzipContents() throws IOException {
+		byte[] value=gzipContents;
+		if (value==null && contents!=null) {
+			ByteArrayOutputStream buffer=new ByteArrayOutputStream(contents.length/3 + 32);
+			GZIPOutputStream gzipOut=new GZIPOutputStream(buffer);
+			gzipOut.write(contents);
+			gzipOut.close();
+			value=buffer.toByteArray();
+			gzipContents=value;
+		}
+		return value;
+	}
+	
+	/**
+	 * @return the time it took to produce this entry or 0 if unknown
+	 */
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+	
+	public void setBuildNanos(long buildNanos) {
+		this.buildNanos = buildNanos;
+	}
+	
+	/**
+	 * @return a summary of this entry
+	 */
+	public CacheEntrySummary summarize() {
+		CacheEntrySummary ret=new CacheEntrySummary();
+		ret.identity=identity;
+		ret.length=contents!=null ? contents.length : -1;
+		ret.buildNanos=buildNanos;
+		return ret;
+	}
+	
 	/**
 	 * 
 	 * @return true if all dependencies are valid
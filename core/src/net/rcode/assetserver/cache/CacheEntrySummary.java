@@ -0,0 +1,35 @@
+package net.rcode.assetserver.cache;
+
+/**
+ * Describes an entry in the cache without its contents.  Produced for
+ * reporting purposes.
+ * 
+ * @author stella
+ *
+ */
+public class CacheEntrySummary {
+	/**
+	 * Identity of the entry
+	 */
+	public CacheIdentity identity;
+	
+	/**
+	 * Length of the cached contents or -1 if a negative entry
+	 */
+	public long length;
+	
+	/**
+	 * Time that it took to build the entry or 0 if unknown
+	 */
+	public long buildNanos;
+	
+	/**
+	 * Time the entry was stored (millis since the epoch) or 0 if unknown
+	 */
+	public long storedAt;
+	
+	@Override
+	public String toString() {
+		return "CacheEntrySummary(" + identity.getFullPath() + ")";
+	}
+}
@@ -23,6 +23,30 @@ public class CacheIdentity implements Serializable {
 		this.environmentRedux=environmentRedux;
 	}
 	
+	public String getHandlerClassName() {
+		return handlerClassName;
+	}
+	
+	public String getMountPoint() {
+		return mountPoint;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public String getEnvironmentRedux() {
+		return environmentRedux;
+	}
+	
+	/**
+	 * @return the mount point and path joined (ie. the requested path)
+	 */
+	public String getFullPath() {
+		if (mountPoint==null) return path;
+		return mountPoint + path;
+	}
+	
 	/**
 	 * @return {serialVersionUID}-{consistent hash}
 	 */
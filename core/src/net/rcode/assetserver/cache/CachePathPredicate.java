@@ -0,0 +1,35 @@
+package net.rcode.assetserver.cache;
+
+/**
+ * Selects cache entries by the full path of their identity, either exactly or
+ * by prefix.  Identities without a path are never selected.
+ *
+ * @author stella
+ *
+ */
+public class CachePathPredicate implements CachePredicate {
+	private final String path;
+	private final boolean prefix;
+
+	/**
+	 * @param path full path to match
+	 * @param prefix true to select every path starting with path
+	 */
+	public CachePathPredicate(String path, boolean prefix) {
+		this.path=path;
+		this.prefix=prefix;
+	}
+
+	@Override
+	public boolean matches(CacheIdentity identity) {
+		String fullPath=identity.getFullPath();
+		if (fullPath==null) return false;
+		if (prefix) return fullPath.startsWith(path);
+		else return path.equals(fullPath);
+	}
+
+	@Override
+	public String toString() {
+		return prefix ? path + "*" : path;
+	}
+}
@@ -0,0 +1,15 @@
+package net.rcode.assetserver.cache;
+
+/**
+ * Selects cache entries by identity.  Used for targeted purges.
+ * 
+ * @author stella
+ *
+ */
+public interface CachePredicate {
+	/**
+	 * @param identity
+	 * @return true if the entry with the given identity is selected
+	 */
+	public boolean matches(CacheIdentity identity);
+}
@@ -40,6 +40,11 @@ public class FileCacheDependency extends CacheDependency implements Serializable
 			.isEquals();
 	}
 	
+	@Override
+	public String toString() {
+		return "file:" + dependentPath;
+	}
+	
 	@Override
 	public int hashCode() {
 		return dependentPath.hashCode();
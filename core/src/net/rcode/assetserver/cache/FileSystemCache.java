@@ -10,12 +10,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implement the cache for a location.
+ * <p>
+ * Each entry is a file holding the serialized identity, a summary header (the
+ * content length and build time) and then the serialized entry.  Identity checks
+ * and summaries only read up to the header.
  * @author stella
  *
  */
@@ -37,6 +43,50 @@ public class FileSystemCache implements Cache {
 		}
 	}
 	
+	@Override
+	public int purge(CachePredicate predicate) {
+		File[] entries=location.listFiles();
+		if (entries==null) return 0;
+		
+		int count=0;
+		for (File entry: entries) {
+			if (!entry.isFile() || isTempFile(entry)) continue;
+			try {
+				if (predicate.matches(readIdentityFrom(entry))) {
+					if (entry.delete()) count++;
+				}
+			} catch (IOException e) {
+				// Unreadable entries are garbage.  Remove them.
+				logger.info("Deleting unreadable cache file " + entry + ": " + e.getMessage());
+				entry.delete();
+			}
+		}
+		return count;
+	}
+	
+	@Override
+	public List<CacheEntrySummary> summarize() {
+		List<CacheEntrySummary> ret=new ArrayList<CacheEntrySummary>();
+		File[] entries=location.listFiles();
+		if (entries==null) return ret;
+		
+		for (File entry: entries) {
+			if (!entry.isFile() || isTempFile(entry)) continue;
+			try {
+				CacheEntrySummary summary=readSummaryFrom(entry);
+				summary.storedAt=entry.lastModified();
+				ret.add(summary);
+			} catch (IOException e) {
+				// Ignore - most likely a concurrent store or purge
+			}
+		}
+		return ret;
+	}
+	
+	private static boolean isTempFile(File file) {
+		return file.getName().endsWith(".save");
+	}
+	
 	/* (non-Javadoc)
 	 * @see net.rcode.assetserver.cache.AssetCache#lookup(net.rcode.assetserver.cache.CacheIdentity)
 	 */
@@ -73,11 +123,15 @@ public class FileSystemCache implements Cache {
 			FileOutputStream out=new FileOutputStream(tempFile);
 			try {
 				ObjectOutputStream oout=new ObjectOutputStream(new BufferedOutputStream(out));
-				// When we write, we put the identity first so that we can do
-				// quick checks of identity without reading the whole contents
+				// When we write, we put the identity and the summary first so
+				// that we can do quick checks of identity and summaries without
+				// reading the whole contents
 				// We then follow with the entry (which will output a shared
 				// reference for its embedded identity field)
+				CacheEntrySummary summary=entry.summarize();
 				oout.writeObject(entry.getIdentity());
+				oout.writeLong(summary.length);
+				oout.writeLong(summary.buildNanos);
 				oout.writeObject(entry);
 				
 				oout.flush();
@@ -207,6 +261,35 @@ public class FileSystemCache implements Cache {
 		}
 	}
 	
+	/**
+	 * Read the summary from the given file without reading the entry
+	 * @param file
+	 * @return summary
+	 * @throws IOException
+	 */
+	private CacheEntrySummary readSummaryFrom(File file) throws IOException {
+		InputStream in=new FileInputStream(file);
+		try {
+			ObjectInputStream oin=new ObjectInputStream(new BufferedInputStream(in));
+			CacheEntrySummary ret=new CacheEntrySummary();
+			try {
+				ret.identity=(CacheIdentity) oin.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Could not instantiate serialized class");
+			} catch (ClassCastException e) {
+				throw new IOException("Entry not of expected type");
+			}
+			ret.length=oin.readLong();
+			ret.buildNanos=oin.readLong();
+			
+			oin.close();
+			in=null;
+			return ret;
+		} finally {
+			if (in!=null) in.close();
+		}
+	}
+	
 	/**
 	 * Read an entry from the given file.
 	 * @param seqFile
@@ -219,9 +302,11 @@ public class FileSystemCache implements Cache {
 			ObjectInputStream oin=new ObjectInputStream(new BufferedInputStream(in));
 			Object ret;
 			try {
-				// Dummy read the identity object followed by the
-				// actual entry
+				// Dummy read the identity object and summary followed
+				// by the actual entry
 				oin.readObject();
+				oin.readLong();
+				oin.readLong();
 				ret=oin.readObject();
 			} catch (ClassNotFoundException e) {
 				throw new IOException("Could not instantiate serialized class");
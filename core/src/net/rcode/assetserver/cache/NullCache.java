@@ -1,5 +1,8 @@
 package net.rcode.assetserver.cache;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Implements Cache but does nothing
  * @author stella
@@ -20,4 +23,14 @@ public class NullCache implements Cache {
 	public void clear() {
 	}
 
+	@Override
+	public int purge(CachePredicate predicate) {
+		return 0;
+	}
+
+	@Override
+	public List<CacheEntrySummary> summarize() {
+		return Collections.emptyList();
+	}
+
 }
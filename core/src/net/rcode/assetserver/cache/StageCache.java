@@ -0,0 +1,192 @@
+package net.rcode.assetserver.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.rcode.assetserver.util.BufferAccessor;
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
+/**
+ * Memory cache of the output of individual filter stages, keyed by the filter,
+ * its configuration and a hash of its input.  This lets a filter whose input did
+ * not change skip its work even though the asset as a whole is rebuilt (ie. the
+ * optimizer after an edit that does not change the preprocessor output).
+ * <p>
+ * Entries carry no dependencies: the key describes everything the output is a
+ * function of, so an entry never goes stale, it just stops being asked for.
+ * The cache is bounded by the total size of the outputs it holds and evicts the
+ * least recently used entries beyond that.  This budget is separate from the
+ * shared cache, which holds final results.
+ *
+ * @author stella
+ *
+ */
+public class StageCache {
+	public static final long DEFAULT_MAX_BYTES=32L * 1024 * 1024;
+
+	/**
+	 * The output of a stage.  Contents are shared and must not be modified.
+	 */
+	public static class Entry implements BufferAccessor {
+		private final byte[] contents;
+		private final String contentType;
+		private final String characterEncoding;
+		private final boolean shouldCache;
+
+		public Entry(byte[] contents, String contentType, String characterEncoding, boolean shouldCache) {
+			this.contents=contents;
+			this.contentType=contentType;
+			this.characterEncoding=characterEncoding;
+			this.shouldCache=shouldCache;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		/**
+		 * @return shouldCache() of the result the stage produced
+		 */
+		public boolean shouldCache() {
+			return shouldCache;
+		}
+
+		@Override
+		public InputStream openInput() {
+			return new ByteArrayInputStream(contents);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return contents;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(contents);
+		}
+
+		@Override
+		public long length() {
+			return contents.length;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries=new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	public StageCache(long maxBytes) {
+		this.maxBytes=maxBytes;
+	}
+
+	public StageCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Compute the key for a stage
+	 * @param filterId
+	 * @param config the filter's description of its configuration
+	 * @param input the input to the stage
+	 * @param contentType of the input
+	 * @param characterEncoding of the input
+	 * @return key
+	 * @throws IOException
+	 */
+	public static String key(String filterId, String config, BufferAccessor input,
+			String contentType, String characterEncoding) throws IOException {
+		MessageDigestBuilder digest=new MessageDigestBuilder("MD5");
+		digest.append(filterId);
+		digest.append("\n");
+		digest.append(config);
+		digest.append("\n");
+		digest.append(contentType!=null ? contentType : "");
+		digest.append("\n");
+		digest.append(characterEncoding!=null ? characterEncoding : "");
+		digest.append("\n");
+		digest.append(input);
+		return digest.getValueAsHex();
+	}
+
+	/**
+	 * @param key
+	 * @return the entry or null
+	 */
+	public synchronized Entry lookup(String key) {
+		Entry entry=entries.get(key);
+		if (entry!=null) hits++;
+		else misses++;
+		return entry;
+	}
+
+	/**
+	 * Store an entry, evicting the least recently used entries over budget.
+	 * Entries larger than the whole budget are not stored.
+	 * @param key
+	 * @param entry
+	 */
+	public synchronized void store(String key, Entry entry) {
+		if (entry.length()>maxBytes) return;
+		Entry previous=entries.put(key, entry);
+		if (previous!=null) bytes-=previous.length();
+		bytes+=entry.length();
+		evict();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes=0;
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Change the budget, evicting entries as needed
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes=maxBytes;
+		evict();
+	}
+
+	/**
+	 * @return total size of the cached outputs
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iter=entries.entrySet().iterator();
+		while (bytes>maxBytes && iter.hasNext()) {
+			bytes-=iter.next().getValue().length();
+			iter.remove();
+		}
+	}
+}
@@ -1,12 +1,10 @@
 package net.rcode.assetserver.core;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -23,29 +21,21 @@ import java.util.regex.Pattern;
  * The "." and ".." path components are also rejected.  Use higher level logic to convert
  * potentially relative paths to absolute paths.
  * 
+ * <h2>Parsing</h2>
+ * Paths are parsed on every request, so parsing is a single hand written pass over
+ * each component: the parameter string is cut out of the basename, the component is
+ * url decoded (same rules as URLDecoder with UTF-8) and then validated, without
+ * regular expressions.  Components that need no decoding are substrings of the
+ * original path.
+ * 
  * @author stella
  *
  */
 public class AssetPath implements Cloneable {
 	static final String[] EMPTY_STRINGS=new String[0];
 	static final Pattern PATH_SPLIT_PATTERN=Pattern.compile("\\/");
-	/**
-	 * If a path component matches this pattern it is wholly invalid
-	 */
-	static final Pattern INVALID_COMPONENT=Pattern.compile("^(\\.\\.?)|CON|PRN|AUX|NUL|COM[0-9]|LPT[0-9]$", Pattern.CASE_INSENSITIVE);
-	static final Pattern INVALID_COMPONENT_SPANS=
-		Pattern.compile("[\\\\\\/\\:\"'\\<\\>\\|\\?\\*]|[\\x00-\\x1f]", Pattern.MULTILINE);
 	
-	/**
-	 * The pattern to extract the parameter string.  This must be applied to the
-	 * basename before url decoding of the component.  Group 1= param string,
-	 * Group 2=extension
-	 */
-	static final Pattern PARAMSTRING_PATTERN=
-		Pattern.compile("(?:\\$([^\\$]*)\\$)((?:\\.[A-Za-z0-9]+)+)$");
-	
-	static final Pattern EXTENSION_PATTERN=
-		Pattern.compile("((\\.[A-Za-z0-9]+)+)$");
+	private static final Charset UTF8=Charset.forName("UTF-8");
 	
 	/**
 	 * The mount that this path is bound to
@@ -88,12 +78,19 @@ public class AssetPath implements Cloneable {
 	private String cacheFullPath;
 	
 	public AssetPath(AssetMount mount, String mountPoint, String path) throws IllegalArgumentException {
+		this(mount, mountPoint, parseComponents(mountPoint, null), path);
+	}
+	
+	/**
+	 * Construct with mount point components that were already parsed.  The array
+	 * is shared, not copied.
+	 */
+	AssetPath(AssetMount mount, String mountPoint, String[] mountPointComponents, String path) throws IllegalArgumentException {
 		this.mount=mount;
 		this.mountPoint=mountPoint;
 		this.path=path;
-		this.mountPointComponents=parseComponents(mountPoint, false);
-		this.pathComponents=parseComponents(path, true);
-		
+		this.mountPointComponents=mountPointComponents;
+		this.pathComponents=parseComponents(path, this);
 	}
 	
 	private AssetPath copy() {
@@ -156,67 +153,77 @@ public class AssetPath implements Cloneable {
 	}
 	
 	/**
-	 * Initializes the derived fields of this class
+	 * Split a path into normalized components
+	 * @param p path with a leading slash.  A single trailing slash is ignored.
+	 * @param parameterTarget if not null, the parameter string is extracted from
+	 * the last component and stored in it
+	 * @return components
+	 * @throws IllegalArgumentException if the path or a component is not valid
 	 */
-	private String[] parseComponents(String p, boolean scanForParameters) throws IllegalArgumentException {
+	static String[] parseComponents(String p, AssetPath parameterTarget) throws IllegalArgumentException {
 		if (p==null || p.isEmpty()) {
 			// Valid but empty path
 			return EMPTY_STRINGS;
 		}
 		
 		// Path must start with a slash
-		if (!p.startsWith("/")) {
+		if (p.charAt(0)!='/') {
 			throw new IllegalArgumentException("Path must start with a leading slash");
-		} else {
-			// Strip the leading slash off so as to split properly
-			p=p.substring(1);
-		}
-		
-		// But ending slashes, we just truncate
-		if (p.endsWith("/")) {
-			p=p.substring(0, p.length()-1);
 		}
 		
-		// Special case - empty string
-		if (p.isEmpty()) {
+		// Components lie in [1,end).  One ending slash is truncated and any
+		// further empty components at the end are dropped.
+		int end=p.length();
+		if (end>1 && p.charAt(end-1)=='/') end--;
+		while (end>1 && p.charAt(end-1)=='/') end--;
+		if (end<=1) {
 			return EMPTY_STRINGS;
 		}
 		
-		// Split the components
-		String[] components=PATH_SPLIT_PATTERN.split(p);
+		int count=1;
+		for (int i=1; i<end; i++) {
+			if (p.charAt(i)=='/') count++;
+		}
 		
-		// Now iterate over each, normalize and validate
-		for (int i=0; i<components.length; i++) {
-			components[i]=normalizeComponent(components[i], scanForParameters && i==(components.length-1));
+		String[] components=new String[count];
+		int start=1;
+		for (int i=0; i<count; i++) {
+			int slash=i<count-1 ? p.indexOf('/', start) : end;
+			components[i]=normalizeComponent(p, start, slash, i==count-1 ? parameterTarget : null);
+			start=slash+1;
 		}
 		
 		return components;
 	}
 	
 	/**
-	 * Normalize a single path component.  Sets valid=false if not valid.  The component
-	 * is checked for syntactic validity in this step.
-	 * @param comp
-	 * @param baseName if true, then the parameter string is extracted and stored
+	 * Normalize a single path component p[start,end): extract the parameter string,
+	 * url decode and validate
+	 * @param parameterTarget if not null, then the parameter string is extracted and stored
 	 * @throws IllegalArgumentException if the component is not valid
 	 */
-	private String normalizeComponent(String comp, boolean scanForParameters) {
-		// Extract parameters
-		if (scanForParameters) {
-			Matcher paramMatcher=PARAMSTRING_PATTERN.matcher(comp);
-			if (paramMatcher.find()) {
-				this.parameterString=paramMatcher.group(1);
-				comp=comp.substring(0, paramMatcher.start()) +
-					paramMatcher.group(2);
+	private static String normalizeComponent(String p, int start, int end, AssetPath parameterTarget) {
+		// Extract parameters.  The basename must end with $params$ followed by
+		// one or more extensions (.[A-Za-z0-9]+).  Extensions cannot contain a '$',
+		// so the closing '$' is the last one in the component.  As with the regular
+		// expression this replaces, a single line terminator may follow the
+		// extensions and is dropped.
+		String comp=null;
+		if (parameterTarget!=null) {
+			int close=p.lastIndexOf('$', end-1);
+			int extensionEnd=end-lineTerminatorLength(p, start, end);
+			if (close>start && isExtensionSequence(p, close+1, extensionEnd)) {
+				int open=p.lastIndexOf('$', close-1);
+				if (open>=start) {
+					parameterTarget.parameterString=p.substring(open+1, close);
+					comp=p.substring(start, open) + p.substring(close+1, extensionEnd);
+				}
 			}
 		}
 		
 		// URL decode
-		try {
-			comp=URLDecoder.decode(comp, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		}
+		if (comp!=null) comp=urlDecode(comp, 0, comp.length());
+		else comp=urlDecode(p, start, end);
 		
 		// After decoding, it cannot contain illegal values
 		if (!isValidComponent(comp)) {
@@ -225,6 +232,107 @@ public class AssetPath implements Cloneable {
 		
 		return comp;
 	}
+	
+	/**
+	 * @return length of the line terminator ending s[start,end) or 0
+	 */
+	private static int lineTerminatorLength(String s, int start, int end) {
+		if (end-start>=2 && s.charAt(end-2)=='\r' && s.charAt(end-1)=='\n') return 2;
+		if (end>start) {
+			char c=s.charAt(end-1);
+			if (c=='\n' || c=='\r' || c=='\u0085' || c=='\u2028' || c=='\u2029') return 1;
+		}
+		return 0;
+	}
+	
+	/**
+	 * @return true if s[start,end) is one or more extensions, each a dot
+	 * followed by one or more ascii letters or digits
+	 */
+	private static boolean isExtensionSequence(String s, int start, int end) {
+		if (start>=end || s.charAt(start)!='.') return false;
+		boolean dot=true;
+		for (int i=start+1; i<end; i++) {
+			char c=s.charAt(i);
+			if (c=='.') {
+				if (dot) return false;
+				dot=true;
+			} else if ((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9')) {
+				dot=false;
+			} else {
+				return false;
+			}
+		}
+		return !dot;
+	}
+	
+	/**
+	 * Decode s[start,end) following the rules of URLDecoder.decode(s, "UTF-8").  If
+	 * nothing needs decoding, this is just a substring.
+	 * @throws IllegalArgumentException if an escape is malformed
+	 */
+	static String urlDecode(String s, int start, int end) throws IllegalArgumentException {
+		int i=start;
+		while (i<end) {
+			char c=s.charAt(i);
+			if (c=='%' || c=='+') break;
+			i++;
+		}
+		if (i==end) return s.substring(start, end);
+		
+		StringBuilder sb=new StringBuilder(end-start);
+		sb.append(s, start, i);
+		byte[] bytes=null;
+		while (i<end) {
+			char c=s.charAt(i);
+			if (c=='+') {
+				sb.append(' ');
+				i++;
+			} else if (c=='%') {
+				// Decode a run of consecutive escapes as UTF-8
+				if (bytes==null) bytes=new byte[(end-i)/3];
+				int pos=0;
+				while (i+2<end && c=='%') {
+					bytes[pos++]=(byte)decodeEscape(s.charAt(i+1), s.charAt(i+2));
+					i+=3;
+					if (i<end) c=s.charAt(i);
+				}
+				if (i<end && c=='%') {
+					throw new IllegalArgumentException("URLDecoder: Incomplete trailing escape (%) pattern");
+				}
+				sb.append(new String(bytes, 0, pos, UTF8));
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Value of a two character escape as Integer.parseInt(s, 16) reads it (which
+	 * allows a sign)
+	 */
+	private static int decodeEscape(char c1, char c2) throws IllegalArgumentException {
+		int value;
+		if (c1=='+' || c1=='-') {
+			int digit=Character.digit(c2, 16);
+			if (digit<0) throw illegalHex(c1, c2);
+			if (c1=='-' && digit>0) {
+				throw new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern - negative value");
+			}
+			value=digit;
+		} else {
+			int high=Character.digit(c1, 16), low=Character.digit(c2, 16);
+			if (high<0 || low<0) throw illegalHex(c1, c2);
+			value=high*16 + low;
+		}
+		return value;
+	}
+	
+	private static IllegalArgumentException illegalHex(char c1, char c2) {
+		return new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern - " + c1 + c2);
+	}
 
 	public AssetMount getMount() {
 		return mount;
@@ -264,28 +372,30 @@ public class AssetPath implements Cloneable {
 	}
 	
 	public Collection<String> getParameterNames() {
+		initParameters();
 		return Collections.unmodifiableCollection(parameters.keySet());
 	}
 	
-	private static final Pattern AMPSPLIT=Pattern.compile("\\&");
 	protected void initParameters() {
 		if (parameters!=null) return;
 		parameters=new HashMap<String, String>();
 		if (parameterString==null || parameterString.isEmpty()) return;
 		
-		String nvcmps[]=AMPSPLIT.split(parameterString);
-		for (String nv: nvcmps) {
-			String name, value;
-			int eqpos=nv.indexOf('=');
-			if (eqpos<0) {
-				name=nv;
-				value="";
+		// Split on '&', dropping trailing empty pairs as String.split does
+		String ps=parameterString;
+		int end=ps.length();
+		while (end>0 && ps.charAt(end-1)=='&') end--;
+		int start=0;
+		while (start<end) {
+			int amp=ps.indexOf('&', start);
+			if (amp<0 || amp>end) amp=end;
+			int eqpos=ps.indexOf('=', start);
+			if (eqpos<0 || eqpos>amp) {
+				parameters.put(urlDecode(ps, start, amp), "");
 			} else {
-				name=nv.substring(0, eqpos);
-				value=nv.substring(eqpos+1);
+				parameters.put(urlDecode(ps, start, eqpos), urlDecode(ps, eqpos+1, amp));
 			}
-			
-			parameters.put(urlDecode(name), urlDecode(value));
+			start=amp+1;
 		}
 		
 		parameters=Collections.unmodifiableMap(parameters);
@@ -301,14 +411,6 @@ public class AssetPath implements Cloneable {
 		return "AssetPath(mountPoint=" + mountPoint + ", path=" + path + ")";
 	}
 	
-	private static String urlDecode(String value) {
-		try {
-			return URLDecoder.decode(value, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	/**
 	 * Adds components to a (possibly empty) StringBuilder, preserving the rules that
 	 * the path always starts with a slash and never ends with a slash.  The root path
@@ -333,16 +435,43 @@ public class AssetPath implements Cloneable {
 	 * @return true if the given component is legal
 	 */
 	public static boolean isValidComponent(String component) {
-		// See if any of the invalid bits are found in the string
-		if (INVALID_COMPONENT_SPANS.matcher(component).find()) {
-			return false;
-		}
-
-		// See if the whole pattern matches any of the invalid patterns
-		if (INVALID_COMPONENT.matcher(component).matches()) {
-			return false;
+		int length=component.length();
+		for (int i=0; i<length; i++) {
+			char c=component.charAt(i);
+			if (c<0x20) return false;
+			switch (c) {
+			case '\\': case '/': case ':': case '"': case '\'':
+			case '<': case '>': case '|': case '?': case '*':
+				return false;
+			}
 		}
 		
+		// Special names (compared ignoring ascii case)
+		if (length==1) return component.charAt(0)!='.';
+		if (length==2) return !(component.charAt(0)=='.' && component.charAt(1)=='.');
+		if (length==3) {
+			return !(matchesIgnoreCase(component, "con") || matchesIgnoreCase(component, "prn") ||
+					matchesIgnoreCase(component, "aux") || matchesIgnoreCase(component, "nul"));
+		}
+		if (length==4) {
+			char digit=component.charAt(3);
+			if (digit>='0' && digit<='9') {
+				return !(matchesIgnoreCase(component, "com") || matchesIgnoreCase(component, "lpt"));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return true if the first lowerName.length() characters of s equal lowerName
+	 * ignoring ascii case
+	 */
+	private static boolean matchesIgnoreCase(String s, String lowerName) {
+		for (int i=0; i<lowerName.length(); i++) {
+			char c=s.charAt(i);
+			if (c>='A' && c<='Z') c=(char)(c + ('a'-'A'));
+			if (c!=lowerName.charAt(i)) return false;
+		}
 		return true;
 	}
 	
@@ -1,12 +1,16 @@
 package net.rcode.assetserver.core;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
@@ -25,17 +29,15 @@ public class AssetRoot {
 	private AssetServer server;
 	
 	/**
-	 * Map of path to the owning mount point.
+	 * Map of path to the owning mount point.  Replaced rather than modified
+	 * when mounts are added.
 	 */
-	private Map<String, AssetMount> mountPoints=new HashMap<String, AssetMount>();
+	private volatile Map<String, AssetMount> mountPoints=Collections.emptyMap();
 	
 	/**
-	 * If !null, then this pattern is the regular expression matching valid mounted
-	 * paths.  The first capture group will contain the key into mountPoints that
-	 * matched and the second capture group will contain the rest of the path
-	 * (no slash).
+	 * Trie of mount points used to match paths.  Replaced along with mountPoints.
 	 */
-	private volatile Pattern mountPattern;
+	private volatile MountTrie mountTrie=MountTrie.EMPTY;
 	
 	public AssetRoot() {
 		this(null);
@@ -62,60 +64,28 @@ public class AssetRoot {
 	}
 	
 	/**
-	 * Add a mount point.  This cannot be called concurrently with read operations
-	 * and should only be used at setup time.
+	 * Add a mount point.  This may be called while requests are being resolved.
+	 * Readers see either the mounts before or after the addition.
 	 * @param mountPoint
 	 * @param mount
 	 */
-	public void add(String mountPoint, AssetMount mount) {
-		mountPoints.put(normalizeMountPoint(mountPoint), mount);
-		mountPattern=null;
+	public synchronized void add(String mountPoint, AssetMount mount) {
+		mountPoint=normalizeMountPoint(mountPoint);
+		Map<String, AssetMount> newMountPoints=new HashMap<String, AssetMount>(mountPoints);
+		newMountPoints.put(mountPoint, mount);
+		MountTrie newTrie=mountTrie.with(mountPoint, mount);
+		
+		mountPoints=newMountPoints;
+		mountTrie=newTrie;
 	}
 	
-	protected String normalizeMountPoint(String mountPoint) {
+	protected static String normalizeMountPoint(String mountPoint) {
 		if (mountPoint==null) return null;
 		if (mountPoint.endsWith("/")) mountPoint=mountPoint.substring(0, mountPoint.length()-1);
 		if (mountPoint.equals("")) mountPoint=null;
 		return mountPoint;
 	}
 	
-	protected Pattern getMountPattern() {
-		Pattern ret=mountPattern;
-		if (ret==null) {
-			StringBuilder patternStr=new StringBuilder();
-			boolean hasRoot=false;
-			boolean hasNonRoot=false;
-			patternStr.append("^(");
-			for (String mountPoint: mountPoints.keySet()) {
-				if (mountPoint==null) {
-					hasRoot=true;
-				} else {
-					hasNonRoot=true;
-					if (patternStr.length()>2) patternStr.append('|');
-					patternStr.append(Pattern.quote(mountPoint));
-				}
-			}
-			if (hasNonRoot) {
-				patternStr.append(")");
-				if (hasRoot) patternStr.append("?");
-			} else {
-				patternStr.setLength(0);
-				if (hasRoot) {
-					patternStr.append("^");
-				} else {
-					// No mount points
-					return null;
-				}
-			}
-			
-			
-			patternStr.append("(\\/.*)$");
-			ret=Pattern.compile(patternStr.toString());
-			mountPattern=ret;
-		}
-		return ret;
-	}
-	
 	/**
 	 * Fully resolve a full path to an AssetLocator
 	 * @param fullPath
@@ -137,31 +107,20 @@ public class AssetRoot {
 	 * @return matching AssetPath or null if no mounts are matched
 	 */
 	public AssetPath match(String fullPath) {
-		Pattern p=getMountPattern();
-		if (p==null) return null;
+		MountTrie.Node node=mountTrie.match(fullPath);
+		if (node==null) return null;
 		
-		Matcher m=p.matcher(fullPath);
-		if (m.matches()) {
-			String mountPoint;
-			String mountPath;
-			if (m.groupCount()==2) {
-				mountPoint=m.group(1);
-				mountPath=m.group(2);
-			} else {
-				mountPoint=null;
-				mountPath=m.group(1);
-			}
-			AssetMount mount=mountPoints.get(mountPoint);
-			if (mount!=null) {
-				try {
-					return new AssetPath(mount, mountPoint, mountPath);
-				} catch (IllegalArgumentException e) {
-					server.getLogger().warn("Illegal path '" + fullPath + "': " + e.getMessage());
-					return null;
-				}
+		String mountPoint=node.mountPoint;
+		String mountPath=mountPoint!=null ? fullPath.substring(mountPoint.length()) : fullPath;
+		try {
+			if (node.mountPointComponents!=null) {
+				return new AssetPath(node.mount, mountPoint, node.mountPointComponents, mountPath);
 			}
+			return new AssetPath(node.mount, mountPoint, mountPath);
+		} catch (IllegalArgumentException e) {
+			server.getLogger().warn("Illegal path '" + fullPath + "': " + e.getMessage());
+			return null;
 		}
-		return null;
 	}
 	
 	/**
@@ -173,34 +132,37 @@ public class AssetRoot {
 	 * @throws Exception 
 	 */
 	private boolean overlapped(AssetPath assetPath) throws Exception {
-		Pattern p=getMountPattern();
-		if (p==null) return false;
-		
-		Matcher m=p.matcher(assetPath.getFullPath());
-		if (m.matches()) {
-			String mountPoint;
-			if (m.groupCount()==2) {
-				mountPoint=m.group(1);
-			} else {
-				mountPoint=null;
-			}
-			AssetMount mount=mountPoints.get(mountPoint);
-			if (mount==null || mount==assetPath.getMount()) return false;
-			else return true;
-		} else {
-			return false;
-		}
+		MountTrie.Node node=mountTrie.match(assetPath.getFullPath());
+		if (node==null || node.mount==assetPath.getMount()) return false;
+		else return true;
 	}
 
 	/**
 	 * Scans the namespace as defined by config, invoking the given callback.
-	 * TODO: Add symlink cycle detection.  Not critical right now because the ResourceMount
-	 * explicitly disallows symlinks
+	 * Directories whose physical location is already being scanned further up the
+	 * tree (symlink cycles) are skipped.
+	 * <p>
+	 * If config.getParallelism() is greater than one, directories are listed on a
+	 * ForkJoinPool of that size.  With ordered delivery (the default), the callback
+	 * is still invoked on the calling thread in the same order as a sequential
+	 * scan; listing runs ahead of delivery and subtrees rejected by
+	 * handleDirectory are abandoned.  With unordered delivery, the callback is
+	 * invoked from the pool threads as entries are found and must be thread safe.
 	 * @param config
 	 * @param callback
 	 * @throws Exception
 	 */
 	public void scan(ScanConfig config, ScanCallback callback) throws Exception {
+		ForkJoinPool pool=null;
+		if (config.getParallelism()>1) pool=new ForkJoinPool(config.getParallelism());
+		try {
+			scanMounts(config, callback, pool);
+		} finally {
+			if (pool!=null) pool.shutdownNow();
+		}
+	}
+	
+	private void scanMounts(ScanConfig config, ScanCallback callback, ForkJoinPool pool) throws Exception {
 		String requestPath=normalizeMountPoint(config.getBaseDir());	// May be null (root)
 		
 		// Iterate over all mount points that share the given prefix
@@ -226,45 +188,97 @@ public class AssetRoot {
 				}
 
 				AssetPath assetPath=new AssetPath(mount, mountPoint!=null ? mountPoint : "", localPath!=null ? localPath : "");
-				scanMount(assetPath, config, callback);
+				scanMount(assetPath, config, callback, pool);
 			}
 		}
 	}
 
 	private void scanMount(AssetPath assetPath, ScanConfig config,
-			ScanCallback callback) throws Exception {
+			ScanCallback callback, ForkJoinPool pool) throws Exception {
 		// Stat the path and decide what to do
 		ResourceStat stat=assetPath.getMount().stat(assetPath);
 		if (stat==null) return;
-		if (stat.isDirectory) {
+		if (!stat.isDirectory) {
+			// Process the resource
+			scanResource(assetPath, stat.associatedResources, callback);
+		} else if (pool==null) {
 			// Traverse the directory
-			scanDirectory(assetPath, config, callback);
+			scanDirectory(assetPath, stat.physicalPath, callback, null);
+		} else if (config.isOrdered()) {
+			ListedDirectory root;
+			try {
+				root=pool.invoke(new ListTask(assetPath, stat.physicalPath, null));
+			} catch (ScanException e) {
+				throw e.unwrap();
+			}
+			deliver(root, callback);
 		} else {
-			// Process the resource
-			scanResource(assetPath, config, stat.associatedResources, callback);
+			try {
+				pool.invoke(new UnorderedScanTask(assetPath, stat.physicalPath, null, callback));
+			} catch (ScanException e) {
+				throw e.unwrap();
+			}
 		}
 	}
 
-	private void scanDirectory(AssetPath parentPath, ScanConfig config,
-			ScanCallback callback) throws Exception {
+	/**
+	 * Canonical paths of the directories on the branch being scanned
+	 */
+	private static class Ancestors {
+		final String canonicalPath;
+		final Ancestors parent;
+		
+		Ancestors(String canonicalPath, Ancestors parent) {
+			this.canonicalPath=canonicalPath;
+			this.parent=parent;
+		}
+		
+		static boolean contains(Ancestors ancestors, String canonicalPath) {
+			for (Ancestors a=ancestors; a!=null; a=a.parent) {
+				if (a.canonicalPath.equals(canonicalPath)) return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Decide whether a directory should be entered.  Directories overlapped by a
+	 * more specific mount and directories that link back to one being scanned are
+	 * skipped.
+	 * @return the ancestors for the directory's children or null to skip it
+	 */
+	private Ancestors enterDirectory(AssetPath path, File physicalPath, Ancestors ancestors) throws Exception {
 		// Skip resources that are overlapped by another more specific resource
 		// in another mount
-		if (overlapped(parentPath)) return;
+		if (overlapped(path)) return null;
+		
+		// Mounts without a physical location cannot have cycles
+		if (physicalPath==null) return new Ancestors("", ancestors);
+		
+		String canonicalPath=physicalPath.getCanonicalPath();
+		if (Ancestors.contains(ancestors, canonicalPath)) return null;
+		return new Ancestors(canonicalPath, ancestors);
+	}
+
+	private void scanDirectory(AssetPath parentPath, File physicalPath,
+			ScanCallback callback, Ancestors ancestors) throws Exception {
+		Ancestors childAncestors=enterDirectory(parentPath, physicalPath, ancestors);
+		if (childAncestors==null) return;
 		if (!callback.handleDirectory(parentPath)) return;
 		
 		Collection<ResourceStat> children=parentPath.getMount().listChildren(parentPath);
 		for (ResourceStat child: children) {
 			if (child.isDirectory) {
 				// Recusrive scan
-				scanDirectory(child.path, config, callback);
+				scanDirectory(child.path, child.physicalPath, callback, childAncestors);
 			} else {
 				// Handle the resource
-				scanResource(child.path, config, child.associatedResources, callback);
+				scanResource(child.path, child.associatedResources, callback);
 			}
 		}
 	}
 
-	private void scanResource(AssetPath assetPath, ScanConfig config,
+	private void scanResource(AssetPath assetPath,
 			Collection<AssetPath> associatedResources, ScanCallback callback) throws Exception {
 		// Skip resources that are overlapped by another more specific resource
 		// in another mount
@@ -280,4 +294,152 @@ public class AssetRoot {
 			}
 		}
 	}
+	
+	/**
+	 * Carries a checked exception out of a ForkJoinTask
+	 */
+	private static class ScanException extends RuntimeException {
+		private static final long serialVersionUID=1L;
+
+		ScanException(Exception cause) {
+			super(cause);
+		}
+		
+		/**
+		 * @return the original exception.  A task joined from another thread
+		 * may rethrow a copy wrapping the original.
+		 */
+		Exception unwrap() {
+			Throwable cause=getCause();
+			while (cause instanceof ScanException) cause=cause.getCause();
+			return (Exception)cause;
+		}
+	}
+	
+	/**
+	 * A listed directory awaiting ordered delivery.  Child directories are
+	 * listed by forked tasks, so the contents of the tree are gathered ahead
+	 * of the callback.
+	 */
+	private static class ListedDirectory {
+		AssetPath path;
+		List<ResourceStat> children=new ArrayList<ResourceStat>();
+		
+		/**
+		 * Listing tasks for directory children, parallel to children (null for
+		 * resources)
+		 */
+		List<ListTask> childTasks=new ArrayList<ListTask>();
+	}
+	
+	private class ListTask extends RecursiveTask<ListedDirectory> {
+		private static final long serialVersionUID=1L;
+		
+		private final AssetPath path;
+		private final File physicalPath;
+		private final Ancestors ancestors;
+		
+		ListTask(AssetPath path, File physicalPath, Ancestors ancestors) {
+			this.path=path;
+			this.physicalPath=physicalPath;
+			this.ancestors=ancestors;
+		}
+		
+		@Override
+		protected ListedDirectory compute() {
+			try {
+				Ancestors childAncestors=enterDirectory(path, physicalPath, ancestors);
+				if (childAncestors==null) return null;
+				
+				ListedDirectory ret=new ListedDirectory();
+				ret.path=path;
+				for (ResourceStat child: path.getMount().listChildren(path)) {
+					ListTask childTask=null;
+					if (child.isDirectory) {
+						childTask=new ListTask(child.path, child.physicalPath, childAncestors);
+						childTask.fork();
+					}
+					ret.children.add(child);
+					ret.childTasks.add(childTask);
+				}
+				return ret;
+			} catch (Exception e) {
+				throw new ScanException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Invoke the callback for a listed directory and its children in scan order
+	 */
+	private void deliver(ListedDirectory directory, ScanCallback callback) throws Exception {
+		if (directory==null) return;
+		if (!callback.handleDirectory(directory.path)) {
+			cancel(directory);
+			return;
+		}
+		
+		for (int i=0; i<directory.children.size(); i++) {
+			ListTask childTask=directory.childTasks.get(i);
+			if (childTask!=null) {
+				ListedDirectory child;
+				try {
+					child=childTask.join();
+				} catch (ScanException e) {
+					throw e.unwrap();
+				}
+				deliver(child, callback);
+			} else {
+				ResourceStat child=directory.children.get(i);
+				scanResource(child.path, child.associatedResources, callback);
+			}
+		}
+	}
+	
+	private static void cancel(ListedDirectory directory) {
+		for (ListTask childTask: directory.childTasks) {
+			if (childTask!=null) childTask.cancel(false);
+		}
+	}
+	
+	private class UnorderedScanTask extends RecursiveAction {
+		private static final long serialVersionUID=1L;
+		
+		private final AssetPath path;
+		private final File physicalPath;
+		private final Ancestors ancestors;
+		private final ScanCallback callback;
+		
+		UnorderedScanTask(AssetPath path, File physicalPath, Ancestors ancestors, ScanCallback callback) {
+			this.path=path;
+			this.physicalPath=physicalPath;
+			this.ancestors=ancestors;
+			this.callback=callback;
+		}
+		
+		@Override
+		protected void compute() {
+			try {
+				Ancestors childAncestors=enterDirectory(path, physicalPath, ancestors);
+				if (childAncestors==null) return;
+				if (!callback.handleDirectory(path)) return;
+				
+				List<UnorderedScanTask> subtasks=new ArrayList<UnorderedScanTask>();
+				for (ResourceStat child: path.getMount().listChildren(path)) {
+					if (child.isDirectory) {
+						UnorderedScanTask subtask=new UnorderedScanTask(child.path, child.physicalPath, childAncestors, callback);
+						subtask.fork();
+						subtasks.add(subtask);
+					} else {
+						scanResource(child.path, child.associatedResources, callback);
+					}
+				}
+				for (UnorderedScanTask subtask: subtasks) subtask.join();
+			} catch (ScanException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ScanException(e);
+			}
+		}
+	}
 }
@@ -1,18 +1,25 @@
 package net.rcode.assetserver.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
 import net.rcode.assetserver.addon.AddonManager;
 import net.rcode.assetserver.cache.Cache;
 import net.rcode.assetserver.cache.FileSystemCache;
+import net.rcode.assetserver.cache.StageCache;
 import net.rcode.assetserver.ejs.EjsRuntime;
+import net.rcode.assetserver.metrics.Gauge;
+import net.rcode.assetserver.metrics.MetricsRegistry;
+import net.rcode.assetserver.util.IOUtil;
+import net.rcode.assetserver.util.MessageDigestBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,14 +42,23 @@ public class AssetServer {
 	private File configFile;
 	private String defaultTextFileEncoding="UTF-8";
 	
-	private ResourceContextManager contextManager;
-	private AssetRoot root;
+	private volatile ConfigurationSnapshot snapshot;
+	private ThreadLocal<ConfigurationSnapshot> loadingSnapshot=new ThreadLocal<ConfigurationSnapshot>();
+	private final Object reloadLock=new Object();
 	private MimeMapping mimeMapping;
 	private File sharedCacheLocation;
 	private Cache sharedCache;
+	private volatile StageCache stageCache=new StageCache();
 	private AddonManager addonManager;
-	private FilterChainInitializerLookup filterLookup;
 	private boolean globalDisableOptimization;
+	private MetricsRegistry metrics;
+	private FilterExecutionScheduler filterScheduler;
+	private ComboResolver comboResolver;
+	
+	/**
+	 * Memory mounts by mount point.  These outlive configuration reloads.
+	 */
+	private Map<String, MemoryAssetMount> memoryMounts=new LinkedHashMap<String, MemoryAssetMount>();
 	
 	private ServerConfig config;
 	
@@ -51,6 +67,9 @@ public class AssetServer {
 		
 		this.javascriptRuntime=new EjsRuntime();
 		initializeJavaScriptRuntime();
+		initializeMetrics();
+		filterScheduler=new FilterExecutionScheduler(metrics);
+		comboResolver=new ComboResolver(this);
 		
 		mimeMapping=new MimeMapping();
 		mimeMapping.loadDefaults();
@@ -58,8 +77,6 @@ public class AssetServer {
 		setupLocation(location);
 		setSharedCacheLocation(new File(configDirectory, ".ascache"));
 		
-		root=new AssetRoot(this);
-		
 		// Setup addon manager
 		addonManager=new AddonManager(this);
 		
@@ -74,59 +91,177 @@ public class AssetServer {
 		// Add the .asaddon directory
 		addonManager.getSearchPath().add(new File(configDirectory, ".asaddon"));
 		
+		snapshot=loadConfiguration();
+		filterScheduler.setConfiguredLimits(snapshot.maxConcurrentFilters, snapshot.filterLimits);
+	}
+	
+	/**
+	 * Evaluate the server configuration, producing a new snapshot.  While
+	 * evaluating, getRoot() and friends on the loading thread refer to the
+	 * snapshot under construction.
+	 * @return new snapshot
+	 * @throws Exception
+	 */
+	private ConfigurationSnapshot loadConfiguration() throws Exception {
+		ConfigurationSnapshot ret=new ConfigurationSnapshot();
+		ret.root=new AssetRoot(this);
+		
 		// Initialize the context builder and the root context
 		ResourceContextBuilder contextBuilder=new ResourceContextBuilder();
 		ResourceContext rootContext=new ResourceContext(null);
-		filterLookup=new FilterChainInitializerLookup();
-		filterLookup.addBuiltins();
+		ret.filterLookup=new FilterChainInitializerLookup();
+		ret.filterLookup.addBuiltins();
 		
-		rootContext.setFilterLookup(filterLookup);
+		rootContext.setFilterLookup(ret.filterLookup);
 		
-		// Initialize with server defaults
-		Reader defaultsReader=new InputStreamReader(getClass().getResourceAsStream("asconfig-defaults.js"), "UTF-8");
+		loadingSnapshot.set(ret);
 		try {
-			contextBuilder.evaluateServerConfig(rootContext, this, defaultsReader, "asconfig-defaults.js");
+			// Addons that are already loaded register with the new lookup
+			addonManager.configureAll();
+			
+			// Initialize with server defaults
+			Reader defaultsReader=new InputStreamReader(getClass().getResourceAsStream("asconfig-defaults.js"), "UTF-8");
+			try {
+				contextBuilder.evaluateServerConfig(rootContext, this, defaultsReader, "asconfig-defaults.js");
+			} finally {
+				defaultsReader.close();
+			}
+			
+			// See if we have an asconfig
+			MessageDigestBuilder configDigest=new MessageDigestBuilder("MD5");
+			if (configFile.isFile()) {
+				// Load the root configuration
+				logger.info("Loading server configuration from " + configFile);
+				byte[] configContents=IOUtil.slurpBinary(new FileInputStream(configFile), (int)configFile.length());
+				configDigest.append(configContents);
+				
+				Reader configReader=new InputStreamReader(new ByteArrayInputStream(configContents), "UTF-8");
+				try {
+					contextBuilder.evaluateServerConfig(rootContext, this, configReader, configFile.toString());
+				} finally {
+					configReader.close();
+				}
+			} else {
+				// Setup a default mount configuration (single directory mount)
+				// and let the mount handler process asaccess files
+				logger.info("No server configuration file found: " + configFile);
+			}
+			ret.configHash=configDigest.getValueAsHex();
+			
+			// If no mounts, then add one
+			if (ret.root.getMountPoints().isEmpty()) {
+				logger.info("No mounts configured. Setting up directory " + configDirectory + " as server root.");
+				ResourceMount rootMount=new ResourceMount(configDirectory, this);
+				ret.root.add("/", rootMount);
+			}
+			
+			// Memory mounts keep their contents across reloads
+			synchronized (memoryMounts) {
+				for (Map.Entry<String, MemoryAssetMount> entry: memoryMounts.entrySet()) {
+					ret.root.add(entry.getKey(), entry.getValue());
+				}
+			}
+			
+			// And put it all together with the ResourceContextManager
+			rootContext.setHash(ret.configHash);
+			rootContext.freeze();
+			ret.contextManager=new ResourceContextManager(rootContext, contextBuilder);
 		} finally {
-			defaultsReader.close();
+			loadingSnapshot.remove();
 		}
 		
-		// See if we have an asconfig
-		if (configFile.isFile()) {
-			// Load the root configuration
-			logger.info("Loading server configuration from " + configFile);
-			Reader configReader=new InputStreamReader(new FileInputStream(configFile), "UTF-8");
+		return ret;
+	}
+	
+	/**
+	 * Reevaluate the configuration and, if successful, atomically replace the
+	 * root, context manager and filter lookup.  Requests already in progress
+	 * complete against the configuration they started with.  Settings applied
+	 * to long lived objects (ServerConfig, MimeMapping, the filter scheduler) are
+	 * re-applied by the new configuration but are not reset beforehand.
+	 * <p>
+	 * Cache entries remain valid across a reload only if the configuration
+	 * source is unchanged.
+	 * 
+	 * @return true if the new configuration is in effect, false if it
+	 * failed to load (the error is logged and the previous configuration is kept)
+	 */
+	public boolean reload() {
+		synchronized (reloadLock) {
+			ConfigurationSnapshot next;
 			try {
-				contextBuilder.evaluateServerConfig(rootContext, this, configReader, configFile.toString());
-			} finally {
-				configReader.close();
+				next=loadConfiguration();
+			} catch (Throwable t) {
+				logger.error("Error reloading configuration from " + configFile + ".  Keeping previous configuration.", t);
+				metrics.counter("assetserver_config_reloads_total", "Configuration reloads by result", "result", "failure").increment();
+				return false;
 			}
-		} else {
-			// Setup a default mount configuration (single directory mount)
-			// and let the mount handler process asaccess files
-			logger.info("No server configuration file found: " + configFile);
+			
+			boolean changed=!next.configHash.equals(snapshot.configHash);
+			snapshot=next;
+			filterScheduler.setConfiguredLimits(next.maxConcurrentFilters, next.filterLimits);
+			metrics.counter("assetserver_config_reloads_total", "Configuration reloads by result", "result", "success").increment();
+			logger.info("Reloaded configuration" + (changed ? "" : " (unchanged)") + ":\n" + summarizeConfiguration());
+			return true;
 		}
+	}
+	
+	/**
+	 * @return the snapshot in effect for the current thread: the one being
+	 * loaded, the one pinned by the current RequestContext or the current one
+	 */
+	private ConfigurationSnapshot currentSnapshot() {
+		ConfigurationSnapshot ret=loadingSnapshot.get();
+		if (ret!=null) return ret;
 		
-		// If no mounts, then add one
-		if (root.getMountPoints().isEmpty()) {
-			logger.info("No mounts configured. Setting up directory " + configDirectory + " as server root.");
-			ResourceMount rootMount=new ResourceMount(configDirectory, this);
-			root.add("/", rootMount);
+		RequestContext requestContext=RequestContext.getCurrent();
+		if (requestContext!=null) {
+			ret=requestContext.getConfigurationSnapshot();
+			if (ret!=null) return ret;
 		}
-		
-		// And put it all together with the ResourceContextManager
-		contextManager=new ResourceContextManager(rootContext, contextBuilder);
+		return snapshot;
+	}
+	
+	/**
+	 * @return a hash of the configuration in effect, suitable for inclusion in
+	 * cache identities
+	 */
+	public String getConfigHash() {
+		return currentSnapshot().configHash;
 	}
 	
 	public Logger getLogger() {
 		return logger;
 	}
 	
+	/**
+	 * @return the metrics registry for this server.  Metrics are always collected
+	 * but are only exposed if a front-end chooses to publish them.
+	 */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return the scheduler bounding concurrent filter execution
+	 */
+	public FilterExecutionScheduler getFilterScheduler() {
+		return filterScheduler;
+	}
+	
+	/**
+	 * @return the resolver for combined (multi-asset) requests
+	 */
+	public ComboResolver getComboResolver() {
+		return comboResolver;
+	}
+	
 	public AddonManager getAddonManager() {
 		return addonManager;
 	}
 	
 	public FilterChainInitializerLookup getFilterLookup() {
-		return filterLookup;
+		return currentSnapshot().filterLookup;
 	}
 	
 	public String getDefaultTextFileEncoding() {
@@ -138,7 +273,7 @@ public class AssetServer {
 	}
 	
 	public ResourceContextManager getContextManager() {
-		return contextManager;
+		return currentSnapshot().contextManager;
 	}
 	
 	public void setGlobalDisableOptimization(boolean globalDisableOptimization) {
@@ -195,6 +330,21 @@ public class AssetServer {
 		return sharedCache;
 	}
 	
+	/**
+	 * @return the cache of memoized filter stages or null if stages are not memoized
+	 */
+	public StageCache getStageCache() {
+		return stageCache;
+	}
+	
+	/**
+	 * Set the cache of memoized filter stages (null to disable memoization)
+	 * @param stageCache
+	 */
+	public void setStageCache(StageCache stageCache) {
+		this.stageCache=stageCache;
+	}
+	
 	/**
 	 * Get the shared runtime for executing script
 	 * @return shared runtime
@@ -204,7 +354,43 @@ public class AssetServer {
 	}
 	
 	public AssetRoot getRoot() {
-		return root;
+		return currentSnapshot().root;
+	}
+	
+	/**
+	 * Get the memory mount at the given mount point, creating and mounting it
+	 * if necessary.  Unlike mounts declared in the configuration, memory mounts
+	 * and their contents are kept when the configuration is reloaded.
+	 * @param mountPoint
+	 * @return memory mount
+	 */
+	public MemoryAssetMount getMemoryMount(String mountPoint) {
+		// Existing mounts were added to the root when created and are added
+		// to every configuration loaded since
+		mountPoint=AssetRoot.normalizeMountPoint(mountPoint);
+		MemoryAssetMount ret;
+		synchronized (memoryMounts) {
+			ret=memoryMounts.get(mountPoint);
+		}
+		if (ret!=null) return ret;
+		
+		// Hold the reload lock so that a concurrent reload cannot miss the new mount
+		synchronized (reloadLock) {
+			synchronized (memoryMounts) {
+				ret=memoryMounts.get(mountPoint);
+				if (ret!=null) return ret;
+				ret=new MemoryAssetMount(this);
+				memoryMounts.put(mountPoint, ret);
+			}
+			
+			// Add it to the configuration in effect rather than getRoot(), which
+			// may be the stale one pinned by the calling request.  It is also
+			// added to a configuration being loaded in case that one fails.
+			if (snapshot!=null) snapshot.root.add(mountPoint, ret);
+			ConfigurationSnapshot loading=loadingSnapshot.get();
+			if (loading!=null) loading.root.add(mountPoint, ret);
+			return ret;
+		}
 	}
 	
 	/**
@@ -242,10 +428,32 @@ public class AssetServer {
 		javascriptRuntime.loadLibraryStd();
 	}
 	
+	private void initializeMetrics() {
+		metrics=new MetricsRegistry();
+		metrics.registerJvmGauges();
+		metrics.gauge("assetserver_rhino_compilations", "Number of scripts compiled by the EJS runtime", new Gauge() {
+			public double getValue() {
+				return javascriptRuntime.getCompileCount();
+			}
+		});
+		metrics.gauge("assetserver_stage_cache_bytes", "Size of the memoized filter stage outputs", new Gauge() {
+			public double getValue() {
+				StageCache current=stageCache;
+				return current!=null ? current.getBytes() : 0;
+			}
+		});
+		metrics.gauge("assetserver_stage_cache_hits", "Number of filter stages answered from the stage cache", new Gauge() {
+			public double getValue() {
+				StageCache current=stageCache;
+				return current!=null ? current.getHits() : 0;
+			}
+		});
+	}
+	
 	public CharSequence summarizeConfiguration() {
 		StringBuilder out=new StringBuilder(512);
 		out.append("Mounts:\n");
-		for (Map.Entry<String,AssetMount> entry: root.getMountPoints().entrySet()) {
+		for (Map.Entry<String,AssetMount> entry: getRoot().getMountPoints().entrySet()) {
 			out.append("  ");
 			if (entry.getKey()==null) out.append("/");
 			else out.append(entry.getKey());
@@ -256,7 +464,7 @@ public class AssetServer {
 		
 		int i=1;
 		out.append("Root Filters:\n");
-		for (ResourceContext.FilterBinding binding: contextManager.getRootContext().getFilters()) {
+		for (ResourceContext.FilterBinding binding: getContextManager().getRootContext().getFilters()) {
 			out.append("  ");
 			out.append(String.valueOf(i));
 			out.append(". ");
@@ -304,7 +512,9 @@ public class AssetServer {
 	 * @return 
 	 */
 	public RequestContext enterRequestContext() {
-		return RequestContext.enter();
+		RequestContext ret=RequestContext.enter();
+		if (ret.getConfigurationSnapshot()==null) ret.setConfigurationSnapshot(currentSnapshot());
+		return ret;
 	}
 	
 	/**
@@ -316,4 +526,29 @@ public class AssetServer {
 	
 	// --- The following methods exist to ease access from JavaScript
 	
+	/**
+	 * Limit the number of requests executing filters at once.  Only valid
+	 * while the configuration is loading.
+	 * @param limit limit or 0 for unlimited
+	 */
+	public void limitFilters(int limit) {
+		loadingSnapshotForConfig("limitFilters").maxConcurrentFilters=limit;
+	}
+	
+	/**
+	 * Limit the number of requests executing the given filter at once.  Only
+	 * valid while the configuration is loading.
+	 * @param filterId
+	 * @param limit limit or 0 for unlimited
+	 */
+	public void limitFilters(String filterId, int limit) {
+		loadingSnapshotForConfig("limitFilters").filterLimits.put(filterId, limit);
+	}
+	
+	private ConfigurationSnapshot loadingSnapshotForConfig(String function) {
+		ConfigurationSnapshot ret=loadingSnapshot.get();
+		if (ret==null) throw new IllegalStateException(function + " can only be called from the server configuration");
+		return ret;
+	}
+	
 }
@@ -0,0 +1,239 @@
+package net.rcode.assetserver.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.rcode.assetserver.cache.Cache;
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+import net.rcode.assetserver.cache.CacheIdentity;
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
+/**
+ * Resolves a list of textual assets into a single concatenated asset (a "combo").
+ * Each member is resolved through the AssetRoot as if it were requested
+ * individually.  The members must share a content type, and the result is
+ * always encoded as UTF-8, with a separator between members that depends on
+ * the content type (";" for javascript so that files missing a trailing
+ * semicolon combine safely).
+ * <p>
+ * If every member comes from the cache, the combined result is cached as well,
+ * with a dependency list that is the union of the members' dependencies.
+ * Its identity includes the contexts of the members, so that a change to an
+ * access file that applies to any member builds the combo again.
+ * The HTTP front-end exposes this at DEFAULT_PATH with the member paths
+ * given as the query string:
+ * <pre>
+ *    /_combo?/js/a.js&amp;/js/b.js
+ * </pre>
+ *
+ * @author stella
+ *
+ */
+public class ComboResolver {
+	public static final String DEFAULT_PATH="/_combo";
+	public static final String DEFAULT_SEPARATOR="\n";
+	private static final String OUTPUT_ENCODING="UTF-8";
+
+	/**
+	 * Raised for a combo request that cannot be satisfied as given (as opposed
+	 * to a failure resolving one of its members)
+	 */
+	public static class InvalidComboException extends IllegalArgumentException {
+		private static final long serialVersionUID=1L;
+
+		public InvalidComboException(String message) {
+			super(message);
+		}
+	}
+
+	private AssetServer server;
+	private Map<String, String> separators=new ConcurrentHashMap<String, String>();
+	private int maxMembers=100;
+
+	public ComboResolver(AssetServer server) {
+		this.server=server;
+		separators.put("text/javascript", "\n;\n");
+		separators.put("application/javascript", "\n;\n");
+		separators.put("application/x-javascript", "\n;\n");
+		separators.put("text/css", "\n");
+	}
+
+	/**
+	 * @param contentType
+	 * @return the separator placed between members of the given content type
+	 */
+	public String getSeparator(String contentType) {
+		String ret=separators.get(contentType);
+		return ret!=null ? ret : DEFAULT_SEPARATOR;
+	}
+
+	public void setSeparator(String contentType, String separator) {
+		separators.put(contentType, separator);
+	}
+
+	public int getMaxMembers() {
+		return maxMembers;
+	}
+	public void setMaxMembers(int maxMembers) {
+		this.maxMembers = maxMembers;
+	}
+
+	/**
+	 * Parse a combo query string ("/a.js&amp;/b.js") into a list of paths.
+	 * Each component is url decoded.  Components that are not paths (do not
+	 * start with a slash) are ignored so that cache busting parameters
+	 * such as "v=3" can be appended.
+	 * @param queryString
+	 * @return list of paths
+	 * @throws InvalidComboException if a component is not properly encoded
+	 */
+	public static List<String> parseQuery(String queryString) throws InvalidComboException {
+		if (queryString==null || queryString.length()==0) return Collections.emptyList();
+		List<String> ret=new ArrayList<String>();
+		for (String component: queryString.split("&")) {
+			try {
+				component=URLDecoder.decode(component, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalArgumentException e) {
+				throw new InvalidComboException("Illegal combo member " + component);
+			}
+			if (component.startsWith("/")) ret.add(component);
+		}
+		return ret;
+	}
+
+	/**
+	 * Resolve the list of paths to a combined asset
+	 * @param paths
+	 * @return combined locator or null if any member does not exist
+	 * @throws InvalidComboException if the list is empty, too long or contains
+	 * non-textual or mixed content types
+	 * @throws Exception
+	 */
+	public AssetLocator resolve(List<String> paths) throws InvalidComboException, Exception {
+		if (paths.isEmpty()) throw new InvalidComboException("No combo members specified");
+		if (paths.size()>maxMembers) throw new InvalidComboException("Too many combo members (max " + maxMembers + ")");
+
+		server.enterRequestContext();
+		try {
+			CacheIdentity identity=identify(paths);
+			Cache cache=server.getSharedCache();
+			if (cache!=null) {
+				CacheEntry existing=cache.lookup(identity);
+				if (existing!=null && existing.isValid()) {
+					if (existing.isNullContent()) return null;
+					else return existing;
+				}
+			}
+
+			return build(identity, paths, cache);
+		} finally {
+			server.exitRequestContext();
+		}
+	}
+
+	/**
+	 * The identity of a combo is its member paths along with the configuration
+	 * and the contexts the members resolve in.  The member entries are keyed on
+	 * their contexts too, but their source files are all the combo depends on.
+	 * @param paths
+	 * @return identity
+	 * @throws IOException
+	 */
+	private CacheIdentity identify(List<String> paths) throws IOException {
+		AssetRoot root=server.getRoot();
+		StringBuilder identityPath=new StringBuilder(paths.size()*32);
+		MessageDigestBuilder contexts=new MessageDigestBuilder("MD5");
+		for (String path: paths) {
+			if (identityPath.length()>0) identityPath.append('&');
+			identityPath.append(path);
+
+			AssetPath assetPath=root.match(path);
+			String contextHash=assetPath!=null ? ResourceMount.contextHash(assetPath) : null;
+			contexts.append(contextHash!=null ? contextHash : "-");
+			contexts.append("&");
+		}
+		return new CacheIdentity(getClass().getName(), null, identityPath.toString(),
+				server.getConfigHash() + "-" + contexts.getValueAsHex());
+	}
+
+	private AssetLocator build(CacheIdentity identity, List<String> paths, Cache cache) throws Exception {
+		long buildStart=System.nanoTime();
+		MimeMapping mimeMapping=server.getMimeMapping();
+		AssetRoot root=server.getRoot();
+
+		Set<CacheDependency> dependencies=new LinkedHashSet<CacheDependency>();
+		boolean cacheable=true;
+		String contentType=null;
+
+		ByteArrayOutputStream buffer=new ByteArrayOutputStream(8192);
+		Writer out=new OutputStreamWriter(buffer, OUTPUT_ENCODING);
+		char[] chunk=new char[4096];
+		for (int i=0; i<paths.size(); i++) {
+			String path=paths.get(i);
+			AssetLocator member=root.resolve(path);
+			if (member==null) return null;
+
+			String memberType=member.getContentType();
+			if (!mimeMapping.isTextualMimeType(memberType)) {
+				throw new InvalidComboException("Combo member " + path + " is not textual");
+			}
+			if (contentType==null) {
+				contentType=memberType;
+			} else if (!contentType.equals(memberType)) {
+				throw new InvalidComboException("Combo member " + path + " has content type " + memberType + " (expected " + contentType + ")");
+			}
+
+			// Accumulate dependencies.  Only members that came from the cache
+			// carry their dependencies with them.
+			if (member instanceof CacheEntry) {
+				CacheDependency[] memberDependencies=((CacheEntry)member).getDependencies();
+				if (memberDependencies!=null) {
+					for (CacheDependency dependency: memberDependencies) {
+						if (dependency!=null) dependencies.add(dependency);
+					}
+				}
+			} else {
+				cacheable=false;
+			}
+
+			// Transcode the member into the output
+			if (i>0) out.write(getSeparator(contentType));
+			String memberEncoding=member.getCharacterEncoding();
+			if (memberEncoding==null) memberEncoding=server.getDefaultTextFileEncoding();
+			Reader in=new InputStreamReader(member.openInput(), memberEncoding);
+			try {
+				for (;;) {
+					int r=in.read(chunk);
+					if (r<0) break;
+					out.write(chunk, 0, r);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		out.close();
+
+		CacheEntry ret=new CacheEntry(identity, dependencies.toArray(new CacheDependency[dependencies.size()]),
+				contentType, OUTPUT_ENCODING, buffer.toByteArray());
+		ret.setBuildNanos(System.nanoTime()-buildStart);
+		ret.precompress();
+		if (cacheable && cache!=null) cache.store(ret);
+		return ret;
+	}
+}
@@ -0,0 +1,72 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+
+import net.rcode.assetserver.cache.FileCacheDependency;
+
+/**
+ * Polls the server's configuration file and calls AssetServer.reload() when
+ * it changes.  Runs on its own daemon thread.
+ * 
+ * @author stella
+ *
+ */
+public class ConfigurationReloader implements Runnable {
+	public static final long DEFAULT_INTERVAL=2000;
+	
+	private AssetServer server;
+	private long interval=DEFAULT_INTERVAL;
+	private volatile boolean running;
+	private Thread thread;
+	
+	public ConfigurationReloader(AssetServer server) {
+		this.server=server;
+	}
+	
+	public long getInterval() {
+		return interval;
+	}
+	
+	/**
+	 * @param interval Milliseconds between checks of the configuration file
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+	
+	public synchronized void start() {
+		if (thread!=null) return;
+		running=true;
+		thread=new Thread(this, "config-reloader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public synchronized void stop() {
+		if (thread==null) return;
+		running=false;
+		thread.interrupt();
+		thread=null;
+	}
+	
+	@Override
+	public void run() {
+		File configFile=server.getConfigFile();
+		FileCacheDependency lastSeen=new FileCacheDependency(configFile);
+		AssetServer.logger.info("Watching " + configFile + " for changes");
+		
+		while (running) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				break;
+			}
+			
+			if (!lastSeen.isValid()) {
+				lastSeen=new FileCacheDependency(configFile);
+				AssetServer.logger.info("Configuration file " + configFile + " changed.  Reloading.");
+				server.reload();
+			}
+		}
+	}
+}
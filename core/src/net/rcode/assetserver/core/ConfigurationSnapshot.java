@@ -0,0 +1,33 @@
+package net.rcode.assetserver.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The parts of an AssetServer that are produced by evaluating its
+ * configuration.  A snapshot is never modified once loaded.  Reloading the
+ * configuration produces a new snapshot which replaces the old one as a unit,
+ * and each RequestContext stays pinned to the snapshot that was current when
+ * it was entered.
+ * 
+ * @author stella
+ *
+ */
+class ConfigurationSnapshot {
+	AssetRoot root;
+	ResourceContextManager contextManager;
+	FilterChainInitializerLookup filterLookup;
+	
+	/**
+	 * Hash of the configuration source.  Included in cache identities so that
+	 * entries survive a reload only if the configuration did not change.
+	 */
+	String configHash;
+	
+	/**
+	 * Filter execution limits given by limitFilters().  Handed to the
+	 * FilterExecutionScheduler once the snapshot is in effect.
+	 */
+	int maxConcurrentFilters;
+	Map<String, Integer> filterLimits=new HashMap<String, Integer>();
+}
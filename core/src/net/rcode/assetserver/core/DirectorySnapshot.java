@@ -0,0 +1,260 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable in-memory image of a directory tree: names, sizes, modification times
+ * and directory flags stored in parallel arrays.  Entries are laid out breadth first
+ * so that the children of a directory are contiguous and sorted by name, which lets
+ * lookups binary search one directory level at a time without touching the file
+ * system.
+ * <p>
+ * A snapshot is refreshed by building a new one from the previous.  Directories
+ * whose modification time has not changed reuse their previous listing, so a
+ * refresh costs a stat per entry but only lists directories that changed.
+ *
+ * @author stella
+ *
+ */
+class DirectorySnapshot {
+	private static final Logger logger=LoggerFactory.getLogger(DirectorySnapshot.class);
+
+	/**
+	 * Guards against symlink cycles
+	 */
+	static final int MAX_DEPTH=64;
+
+	/**
+	 * Decides which directory entries are part of the snapshot
+	 */
+	static interface EntryFilter {
+		public boolean accept(File parent, String name) throws IOException;
+	}
+
+	private final File root;
+	private final String[] names;
+	private final int[] parents;
+
+	/**
+	 * Index of the first child for directories, -1 for files
+	 */
+	private final int[] firstChild;
+	private final int[] childCount;
+	private final long[] lengths;
+	private final long[] lastModified;
+
+	private DirectorySnapshot(File root, String[] names, int[] parents, int[] firstChild, int[] childCount,
+			long[] lengths, long[] lastModified) {
+		this.root=root;
+		this.names=names;
+		this.parents=parents;
+		this.firstChild=firstChild;
+		this.childCount=childCount;
+		this.lengths=lengths;
+		this.lastModified=lastModified;
+	}
+
+	/**
+	 * Snapshot the tree under root
+	 * @param root
+	 * @param filter
+	 * @param previous if not null, listings of unchanged directories are taken from it
+	 * @return new snapshot
+	 * @throws IOException
+	 */
+	static DirectorySnapshot build(File root, EntryFilter filter, DirectorySnapshot previous) throws IOException {
+		if (previous!=null && !previous.root.equals(root)) previous=null;
+
+		Builder b=new Builder();
+		b.add("", -1, root, previous!=null ? 0 : -1, 0);
+		int depthWarnings=0;
+		for (int i=0; i<b.size; i++) {
+			if (!b.isDirectory[i]) continue;
+			File dir=b.files.get(i);
+			if (b.depth[i]>=MAX_DEPTH) {
+				if (depthWarnings++==0) logger.warn("Not descending into " + dir + ": nesting exceeds " + MAX_DEPTH + " levels (symlink cycle?)");
+				b.firstChild[i]=b.size;
+				continue;
+			}
+
+			// List children, reusing the previous listing if the directory is unchanged
+			String[] childNames;
+			int prevIndex=b.previousIndex[i];
+			if (prevIndex>=0 && previous.firstChild[prevIndex]>=0 && previous.lastModified[prevIndex]==b.lastModified[i]) {
+				childNames=previous.childNames(prevIndex);
+			} else {
+				String[] listed=dir.list();
+				if (listed==null) listed=AssetPath.EMPTY_STRINGS;
+				List<String> accepted=new ArrayList<String>(listed.length);
+				for (String name: listed) {
+					if (filter==null || filter.accept(dir, name)) accepted.add(name);
+				}
+				childNames=accepted.toArray(new String[accepted.size()]);
+				Arrays.sort(childNames);
+			}
+
+			b.firstChild[i]=b.size;
+			for (String name: childNames) {
+				int childPrevIndex=-1;
+				if (b.previousIndex[i]>=0) childPrevIndex=previous.findChild(b.previousIndex[i], name, 0, name.length());
+				b.add(name, i, new File(dir, name), childPrevIndex, b.depth[i]+1);
+			}
+			b.childCount[i]=b.size-b.firstChild[i];
+		}
+
+		return b.toSnapshot(root);
+	}
+
+	private static class Builder {
+		int size;
+		List<String> names=new ArrayList<String>();
+		List<File> files=new ArrayList<File>();
+		int[] parents=new int[64];
+		int[] firstChild=new int[64];
+		int[] childCount=new int[64];
+		int[] previousIndex=new int[64];
+		int[] depth=new int[64];
+		boolean[] isDirectory=new boolean[64];
+		long[] lengths=new long[64];
+		long[] lastModified=new long[64];
+
+		void add(String name, int parent, File file, int prevIndex, int entryDepth) {
+			if (size==parents.length) {
+				int capacity=size*2;
+				parents=Arrays.copyOf(parents, capacity);
+				firstChild=Arrays.copyOf(firstChild, capacity);
+				childCount=Arrays.copyOf(childCount, capacity);
+				previousIndex=Arrays.copyOf(previousIndex, capacity);
+				depth=Arrays.copyOf(depth, capacity);
+				isDirectory=Arrays.copyOf(isDirectory, capacity);
+				lengths=Arrays.copyOf(lengths, capacity);
+				lastModified=Arrays.copyOf(lastModified, capacity);
+			}
+			names.add(name);
+			files.add(file);
+			parents[size]=parent;
+			firstChild[size]=-1;
+			childCount[size]=0;
+			previousIndex[size]=prevIndex;
+			depth[size]=entryDepth;
+			isDirectory[size]=file.isDirectory();
+			lengths[size]=isDirectory[size] ? 0 : file.length();
+			lastModified[size]=file.lastModified();
+			size++;
+		}
+
+		DirectorySnapshot toSnapshot(File root) {
+			return new DirectorySnapshot(root, names.toArray(new String[size]),
+					Arrays.copyOf(parents, size), Arrays.copyOf(firstChild, size),
+					Arrays.copyOf(childCount, size), Arrays.copyOf(lengths, size),
+					Arrays.copyOf(lastModified, size));
+		}
+	}
+
+	/**
+	 * @return number of entries, including the root
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Find the entry for the given path components
+	 * @param components
+	 * @return index or -1 if not present
+	 */
+	public int find(String[] components) {
+		int index=0;
+		for (String comp: components) {
+			index=findChild(index, comp, 0, comp.length());
+			if (index<0) return -1;
+		}
+		return index;
+	}
+
+	/**
+	 * Binary search the children of a directory for name[start,end)
+	 * @return index of the child or -1
+	 */
+	int findChild(int directory, String name, int start, int end) {
+		int low=firstChild[directory];
+		if (low<0) return -1;
+		int high=low+childCount[directory]-1;
+		while (low<=high) {
+			int mid=(low+high)>>>1;
+			int cmp=compare(names[mid], name, start, end);
+			if (cmp<0) low=mid+1;
+			else if (cmp>0) high=mid-1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	private static int compare(String entry, String s, int start, int end) {
+		int len1=entry.length(), len2=end-start;
+		int n=Math.min(len1, len2);
+		for (int i=0; i<n; i++) {
+			char c1=entry.charAt(i), c2=s.charAt(start+i);
+			if (c1!=c2) return c1-c2;
+		}
+		return len1-len2;
+	}
+
+	public boolean isDirectory(int index) {
+		return firstChild[index]>=0;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public long length(int index) {
+		return lengths[index];
+	}
+
+	public long lastModified(int index) {
+		return lastModified[index];
+	}
+
+	public int getChildCount(int directory) {
+		return childCount[directory];
+	}
+
+	/**
+	 * @param directory
+	 * @param n
+	 * @return index of the nth child of the directory
+	 */
+	public int getChild(int directory, int n) {
+		return firstChild[directory]+n;
+	}
+
+	String[] childNames(int directory) {
+		int first=firstChild[directory];
+		return Arrays.copyOfRange(names, first, first+childCount[directory]);
+	}
+
+	/**
+	 * @param index
+	 * @return the file for the entry
+	 */
+	public File toFile(int index) {
+		if (index==0) return root;
+		StringBuilder path=new StringBuilder(128);
+		appendPath(path, index);
+		return new File(root, path.toString());
+	}
+
+	private void appendPath(StringBuilder path, int index) {
+		int parent=parents[index];
+		if (parent>0) appendPath(path, parent);
+		path.append(File.separatorChar).append(names[index]);
+	}
+}
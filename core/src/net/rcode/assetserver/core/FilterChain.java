@@ -7,6 +7,9 @@ import java.util.ListIterator;
 import java.util.Set;
 
 import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.StageCache;
+import net.rcode.assetserver.metrics.MetricsRegistry;
+import net.rcode.assetserver.util.IOUtil;
 
 /**
  * A recursive, push-style filter mechanism for translating content.
@@ -39,15 +42,82 @@ public class FilterChain {
 	 * Process all filters until the filters list is empty.  The list of filters
 	 * can be modified at each step.  Filter iteration also stops if a filter
 	 * returns null.
+	 * <p>
+	 * Execution is subject to the server's FilterExecutionScheduler and may fail
+	 * with a FilterOverloadException before any filters run.
 	 * @throws Exception 
 	 */
 	public void processFilters() throws Exception {
+		MetricsRegistry metrics=server!=null ? server.getMetrics() : null;
+		RequestTimings timings=RequestContext.getCurrentTimings();
+		FilterExecutionScheduler.Permit permit=null;
+		if (server!=null && current!=null && !filters.isEmpty()) {
+			permit=server.getFilterScheduler().acquire(this);
+		}
+		try {
+			runFilters(metrics, timings);
+		} finally {
+			if (permit!=null) permit.release();
+		}
+	}
+	
+	private void runFilters(MetricsRegistry metrics, RequestTimings timings) throws Exception {
 		while (current!=null && !filters.isEmpty()) {
 			ResourceFilter filter=filters.removeFirst();
-			current=filter.filter(this, current);
+			String id=filter.getId();
+			if (id==null) id=filter.getClass().getName();
+			
+			RequestTimings.Stage stage=null;
+			if (timings!=null) stage=timings.begin("filter." + id, assetPath.getFullPath());
+			long startTime=System.nanoTime();
+			try {
+				current=applyFilter(filter, id);
+			} finally {
+				if (metrics!=null) recordFilterMetrics(metrics, id, System.nanoTime()-startTime);
+				if (stage!=null) timings.end(stage);
+			}
 		}
 	}
 	
+	/**
+	 * Invoke a filter on the current locator, going through the server's
+	 * StageCache if the filter can be memoized.  A result is only memoized if
+	 * the filter left the dependencies and the filter list alone, since a hit
+	 * could not repeat either.
+	 */
+	private AssetLocator applyFilter(ResourceFilter filter, String id) throws Exception {
+		StageCache stageCache=server!=null ? server.getStageCache() : null;
+		String config=stageCache!=null ? filter.getStageConfig(this) : null;
+		if (config==null) return filter.filter(this, current);
+		
+		String key=StageCache.key(id, config, current, current.getContentType(), current.getCharacterEncoding());
+		StageCache.Entry entry=stageCache.lookup(key);
+		if (entry==null) {
+			int dependencyCount=dependencies.size();
+			int filterCount=filters.size();
+			AssetLocator result=filter.filter(this, current);
+			if (result==null || result==current) return result;
+			if (dependencies.size()!=dependencyCount || filters.size()!=filterCount) {
+				server.getLogger().warn("Filter " + id + " changed the filter chain and cannot be memoized");
+				return result;
+			}
+			entry=new StageCache.Entry(IOUtil.toByteArray(result), result.getContentType(),
+					result.getCharacterEncoding(), result.shouldCache());
+			stageCache.store(key, entry);
+		}
+		
+		BufferAssetLocator ret=new BufferAssetLocator(entry);
+		ret.setContentType(entry.getContentType());
+		ret.setCharacterEncoding(entry.getCharacterEncoding());
+		ret.setShouldCache(entry.shouldCache());
+		return ret;
+	}
+	
+	private static void recordFilterMetrics(MetricsRegistry metrics, String id, long nanos) {
+		metrics.counter("assetserver_filter_executions_total", "Number of filter executions", "filter", id).increment();
+		metrics.histogram("assetserver_filter_duration_seconds", "Time spent executing filters", "filter", id).observeNanos(nanos);
+	}
+	
 	/**
 	 * Get the current asset locator
 	 * @return current or null if a "not found" condition
@@ -104,7 +174,8 @@ public class FilterChain {
 	}
 	
 	/**
-	 * @return the file representing the root resource
+	 * @return the file representing the root resource or null if the root
+	 * resource does not come from the file system
 	 */
 	public File getRootFile() {
 		return rootFile;
@@ -0,0 +1,170 @@
+package net.rcode.assetserver.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.rcode.assetserver.core.PatternPredicateFactory.NameLiteralPredicate;
+import net.rcode.assetserver.core.PatternPredicateFactory.NamePatternPredicate;
+import net.rcode.assetserver.core.PatternPredicateFactory.PrefixPatternPredicate;
+import net.rcode.assetserver.core.ResourceContext.FilterBinding;
+
+/**
+ * Index over the filter bindings of a frozen ResourceContext that finds the
+ * bindings matching a path without evaluating every predicate.  Bindings are
+ * bucketed by what their predicate requires of a path:
+ * <ul>
+ * <li>NameLiteralPredicate: the exact base name
+ * <li>NamePatternPredicate whose pattern ends in a literal extension
+ *     (ie. "*.js", "jquery-*.min.js"): the extension of the base name
+ * <li>PrefixPatternPredicate: a literal path prefix
+ * </ul>
+ * Any other predicate is general and considered for every path.  Lookup
+ * gathers the candidates from the buckets a path falls into plus the general
+ * bindings, then evaluates only those predicates in binding order, so the
+ * result is the same as a linear pass over all of the bindings.
+ *
+ * @author stella
+ *
+ */
+class FilterDispatchIndex {
+	private static final int[] NO_BINDINGS=new int[0];
+
+	private final FilterBinding[] bindings;
+	private final Map<String, int[]> byName;
+	private final Map<String, int[]> byExtension;
+	private final Map<String, int[]> byPrefix;
+	private final int[] general;
+
+	public FilterDispatchIndex(List<FilterBinding> bindingList) {
+		bindings=bindingList.toArray(new FilterBinding[bindingList.size()]);
+
+		Map<String, List<Integer>> names=new HashMap<String, List<Integer>>();
+		Map<String, List<Integer>> extensions=new HashMap<String, List<Integer>>();
+		Map<String, List<Integer>> prefixes=new HashMap<String, List<Integer>>();
+		List<Integer> generalList=new ArrayList<Integer>();
+		for (int i=0; i<bindings.length; i++) {
+			AssetPredicate predicate=bindings[i].predicate;
+			if (predicate instanceof NameLiteralPredicate) {
+				addToBucket(names, ((NameLiteralPredicate)predicate).getName(), i);
+				continue;
+			}
+			if (predicate instanceof NamePatternPredicate) {
+				String extension=literalExtension(((NamePatternPredicate)predicate).getPattern());
+				if (extension!=null) {
+					addToBucket(extensions, extension, i);
+					continue;
+				}
+			}
+			if (predicate instanceof PrefixPatternPredicate) {
+				addToBucket(prefixes, ((PrefixPatternPredicate)predicate).getPrefix(), i);
+				continue;
+			}
+			generalList.add(i);
+		}
+
+		byName=toArrays(names);
+		byExtension=toArrays(extensions);
+		byPrefix=toArrays(prefixes);
+		general=toArray(generalList);
+	}
+
+	/**
+	 * @param pattern a name pattern
+	 * @return the extension (without the dot) that every name matching the
+	 * pattern ends with or null if there is none
+	 */
+	static String literalExtension(String pattern) {
+		int dot=pattern.lastIndexOf('.');
+		if (dot<0 || dot==pattern.length()-1) return null;
+		for (int i=dot+1; i<pattern.length(); i++) {
+			char c=pattern.charAt(i);
+			if (c=='*' || c=='?') return null;
+		}
+		return pattern.substring(dot+1);
+	}
+
+	/**
+	 * @return number of bindings that are evaluated for every path
+	 */
+	public int getGeneralCount() {
+		return general.length;
+	}
+
+	/**
+	 * @param assetPath
+	 * @return the bindings whose predicates match, in binding order
+	 */
+	public List<FilterBinding> match(AssetPath assetPath) {
+		if (bindings.length==0) return Collections.emptyList();
+
+		BitSet candidates=new BitSet(bindings.length);
+		mark(candidates, general);
+
+		String name=assetPath.getBaseName();
+		if (name!=null) {
+			if (!byName.isEmpty()) mark(candidates, byName.get(name));
+			if (!byExtension.isEmpty()) {
+				int dot=name.lastIndexOf('.');
+				if (dot>=0) mark(candidates, byExtension.get(name.substring(dot+1)));
+			}
+		}
+
+		if (!byPrefix.isEmpty()) {
+			// Every ancestor of the path (and the path itself) is a potential prefix
+			String fullPath=assetPath.getFullPath();
+			for (int slash=fullPath.indexOf('/', 1); slash>=0; slash=fullPath.indexOf('/', slash+1)) {
+				mark(candidates, byPrefix.get(fullPath.substring(0, slash)));
+			}
+			mark(candidates, byPrefix.get(fullPath));
+		}
+
+		List<FilterBinding> ret=null;
+		for (int i=candidates.nextSetBit(0); i>=0; i=candidates.nextSetBit(i+1)) {
+			FilterBinding binding=bindings[i];
+			if (binding.predicate.matches(assetPath)) {
+				if (ret==null) ret=new ArrayList<FilterBinding>(4);
+				ret.add(binding);
+			}
+		}
+		if (ret==null) return Collections.emptyList();
+		return ret;
+	}
+
+	private static void mark(BitSet candidates, int[] indexes) {
+		if (indexes==null) return;
+		for (int index: indexes) {
+			candidates.set(index);
+		}
+	}
+
+	private static void addToBucket(Map<String, List<Integer>> buckets, String key, int index) {
+		List<Integer> bucket=buckets.get(key);
+		if (bucket==null) {
+			bucket=new ArrayList<Integer>(2);
+			buckets.put(key, bucket);
+		}
+		bucket.add(index);
+	}
+
+	private static Map<String, int[]> toArrays(Map<String, List<Integer>> buckets) {
+		if (buckets.isEmpty()) return Collections.emptyMap();
+		Map<String, int[]> ret=new HashMap<String, int[]>(buckets.size()*2);
+		for (Map.Entry<String, List<Integer>> entry: buckets.entrySet()) {
+			ret.put(entry.getKey(), toArray(entry.getValue()));
+		}
+		return ret;
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		if (list.isEmpty()) return NO_BINDINGS;
+		int[] ret=new int[list.size()];
+		for (int i=0; i<ret.length; i++) {
+			ret[i]=list.get(i);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,306 @@
+package net.rcode.assetserver.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.rcode.assetserver.metrics.Gauge;
+import net.rcode.assetserver.metrics.MetricsRegistry;
+
+/**
+ * Bounds the number of filter chains that may execute concurrently so that
+ * expensive filters (EJS, optimizers) cannot occupy every request thread.
+ * Requests that do not run filters (static files, cache hits) never touch
+ * the scheduler.
+ * <p>
+ * There is an overall limit and optional limits per filter id.  A chain
+ * acquires the overall permit and then a permit for each distinct filter id
+ * it starts with (in sorted order, so that two chains can never wait on each
+ * other).  Permits are held by the outermost chain on a thread for the
+ * duration of processFilters, and nested chains (such as those
+ * created by an EJS read()) run under them without acquiring again.
+ * <p>
+ * If more than maxQueueDepth chains are already waiting, or a chain waits
+ * longer than queueTimeout, a FilterOverloadException is raised instead.
+ * <p>
+ * Limits come from two places.  Those set with setMaxConcurrent() and
+ * setFilterLimit() (the command line) take precedence over those supplied by
+ * the configuration (limitFilters() in the .asconfig file), which are
+ * replaced as a set each time the configuration loads.  Changing a limit
+ * resizes its semaphore in place, so chains already running stay counted
+ * against it.  A limit of zero means unlimited.
+ *
+ * @author stella
+ *
+ */
+public class FilterExecutionScheduler {
+	/**
+	 * Represents the permits held by a chain.  Must be released.
+	 */
+	public static class Permit {
+		private FilterExecutionScheduler scheduler;
+		private List<LimitSemaphore> acquired=new ArrayList<LimitSemaphore>(2);
+
+		private Permit(FilterExecutionScheduler scheduler) {
+			this.scheduler=scheduler;
+		}
+
+		public void release() {
+			for (int i=acquired.size()-1; i>=0; i--) {
+				acquired.get(i).release();
+			}
+			acquired.clear();
+			scheduler.active.set(null);
+		}
+	}
+
+	/**
+	 * A fair semaphore whose number of permits can change while permits are
+	 * held.  Shrinking may leave it negative until holders release.
+	 */
+	private static class LimitSemaphore extends Semaphore {
+		private static final long serialVersionUID=1L;
+		private volatile int limit;
+
+		public LimitSemaphore(int limit) {
+			super(limit, true);
+			this.limit=limit;
+		}
+
+		public synchronized void resize(int newLimit) {
+			if (newLimit>limit) release(newLimit-limit);
+			else if (newLimit<limit) reducePermits(limit-newLimit);
+			limit=newLimit;
+		}
+	}
+
+	private Integer overrideMaxConcurrent;
+	private Map<String, Integer> overrideFilterLimits=new HashMap<String, Integer>();
+	private int configuredMaxConcurrent;
+	private Map<String, Integer> configuredFilterLimits=Collections.emptyMap();
+
+	private volatile int maxConcurrent;
+	private volatile LimitSemaphore globalPermits;
+	private ConcurrentMap<String, LimitSemaphore> filterPermits=new ConcurrentHashMap<String, LimitSemaphore>();
+	private volatile int maxQueueDepth;
+	private volatile long queueTimeoutMillis=30000;
+	private volatile int retryAfterSeconds=5;
+
+	private AtomicInteger queued=new AtomicInteger();
+	private ThreadLocal<Permit> active=new ThreadLocal<Permit>();
+	private MetricsRegistry metrics;
+
+	public FilterExecutionScheduler(MetricsRegistry metrics) {
+		this.metrics=metrics;
+		if (metrics!=null) {
+			metrics.gauge("assetserver_filter_queue_depth", "Filter chains waiting for an execution permit", new Gauge() {
+				public double getValue() {
+					return queued.get();
+				}
+			});
+		}
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Set the maximum number of outermost filter chains that may execute at
+	 * once, overriding the configuration
+	 * @param maxConcurrent limit or 0 for unlimited
+	 */
+	public synchronized void setMaxConcurrent(int maxConcurrent) {
+		overrideMaxConcurrent=maxConcurrent;
+		updateLimits();
+	}
+
+	/**
+	 * @param filterId
+	 * @return the limit for the given filter id or 0 if unlimited
+	 */
+	public int getFilterLimit(String filterId) {
+		LimitSemaphore permits=filterPermits.get(filterId);
+		return permits!=null ? permits.limit : 0;
+	}
+
+	/**
+	 * Limit the number of chains running the given filter concurrently,
+	 * overriding the configuration
+	 * @param filterId
+	 * @param limit limit or 0 for unlimited
+	 */
+	public synchronized void setFilterLimit(String filterId, int limit) {
+		overrideFilterLimits.put(filterId, limit);
+		updateLimits();
+	}
+
+	/**
+	 * Replace the limits supplied by the configuration.  Limits from a previous
+	 * configuration that are not given again are removed.
+	 * @param maxConcurrent overall limit or 0 for unlimited
+	 * @param filterLimits limits by filter id
+	 */
+	public synchronized void setConfiguredLimits(int maxConcurrent, Map<String, Integer> filterLimits) {
+		configuredMaxConcurrent=maxConcurrent;
+		configuredFilterLimits=new HashMap<String, Integer>(filterLimits);
+		updateLimits();
+	}
+
+	/**
+	 * Bring the semaphores in line with the overrides and configured limits
+	 */
+	private void updateLimits() {
+		maxConcurrent=overrideMaxConcurrent!=null ? overrideMaxConcurrent.intValue() : configuredMaxConcurrent;
+		globalPermits=resize(globalPermits, maxConcurrent);
+
+		Set<String> ids=new HashSet<String>(filterPermits.keySet());
+		ids.addAll(configuredFilterLimits.keySet());
+		ids.addAll(overrideFilterLimits.keySet());
+		for (String id: ids) {
+			Integer limit=overrideFilterLimits.get(id);
+			if (limit==null) limit=configuredFilterLimits.get(id);
+			LimitSemaphore permits=resize(filterPermits.get(id), limit!=null ? limit.intValue() : 0);
+			if (permits!=null) filterPermits.put(id, permits);
+			else filterPermits.remove(id);
+		}
+	}
+
+	/**
+	 * @return the semaphore resized to the limit, a new one if there was none
+	 * or null if unlimited
+	 */
+	private static LimitSemaphore resize(LimitSemaphore permits, int limit) {
+		if (limit<=0) return null;
+		if (permits==null) return new LimitSemaphore(limit);
+		permits.resize(limit);
+		return permits;
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @param maxQueueDepth Maximum number of chains that may wait for a permit
+	 * before further chains are rejected (0 for unlimited)
+	 */
+	public void setMaxQueueDepth(int maxQueueDepth) {
+		this.maxQueueDepth=maxQueueDepth;
+	}
+
+	public long getQueueTimeoutMillis() {
+		return queueTimeoutMillis;
+	}
+
+	/**
+	 * @param queueTimeoutMillis Maximum time to wait for a permit before rejecting
+	 */
+	public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+		this.queueTimeoutMillis=queueTimeoutMillis;
+	}
+
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds=retryAfterSeconds;
+	}
+
+	/**
+	 * @return the number of chains currently waiting for a permit
+	 */
+	public int getQueuedCount() {
+		return queued.get();
+	}
+
+	/**
+	 * Acquire the permits needed to run the given chain.
+	 * @param chain
+	 * @return a Permit to release when done or null if no permits are
+	 * needed (no limits apply or an outer chain on this thread holds them)
+	 * @throws FilterOverloadException if the queue is full or the wait timed out
+	 * @throws InterruptedException
+	 */
+	public Permit acquire(FilterChain chain) throws FilterOverloadException, InterruptedException {
+		if (active.get()!=null) return null;
+
+		LimitSemaphore global=globalPermits;
+		Set<String> limitedIds=null;
+		if (!filterPermits.isEmpty()) {
+			for (ResourceFilter filter: chain.getFilters()) {
+				String id=filter.getId();
+				if (id!=null && filterPermits.containsKey(id)) {
+					if (limitedIds==null) limitedIds=new TreeSet<String>();
+					limitedIds.add(id);
+				}
+			}
+		}
+		if (global==null && limitedIds==null) return null;
+
+		Permit permit=new Permit(this);
+		long deadline=System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+		boolean success=false;
+		try {
+			if (global!=null) acquireOne(permit, global, deadline);
+			if (limitedIds!=null) {
+				for (String id: limitedIds) {
+					LimitSemaphore s=filterPermits.get(id);
+					if (s!=null) acquireOne(permit, s, deadline);
+				}
+			}
+			success=true;
+		} finally {
+			if (!success) permit.release();
+		}
+
+		active.set(permit);
+		return permit;
+	}
+
+	private void acquireOne(Permit permit, LimitSemaphore semaphore, long deadline) throws FilterOverloadException, InterruptedException {
+		if (semaphore.tryAcquire()) {
+			permit.acquired.add(semaphore);
+			return;
+		}
+
+		// Need to wait
+		int depth=queued.incrementAndGet();
+		long startTime=System.nanoTime();
+		try {
+			int max=maxQueueDepth;
+			if (max>0 && depth>max) {
+				reject("queue_full");
+				throw new FilterOverloadException("Filter execution queue is full", retryAfterSeconds);
+			}
+
+			long remaining=deadline-startTime;
+			if (remaining<=0 || !semaphore.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+				reject("timeout");
+				throw new FilterOverloadException("Timed out waiting to execute filters", retryAfterSeconds);
+			}
+			permit.acquired.add(semaphore);
+		} finally {
+			queued.decrementAndGet();
+			if (metrics!=null) {
+				metrics.histogram("assetserver_filter_queue_wait_seconds", "Time spent waiting for a filter execution permit").observeNanos(System.nanoTime()-startTime);
+			}
+		}
+	}
+
+	private void reject(String reason) {
+		if (metrics!=null) {
+			metrics.counter("assetserver_filter_rejections_total", "Filter chains rejected due to overload", "reason", reason).increment();
+		}
+	}
+}
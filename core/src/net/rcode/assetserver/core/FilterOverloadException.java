@@ -0,0 +1,26 @@
+package net.rcode.assetserver.core;
+
+/**
+ * Thrown when the FilterExecutionScheduler sheds load rather than queueing
+ * another filter chain.  HTTP handlers translate this to a 503 response.
+ *
+ * @author stella
+ *
+ */
+public class FilterOverloadException extends Exception {
+	private static final long serialVersionUID=1L;
+
+	private int retryAfterSeconds;
+
+	public FilterOverloadException(String message, int retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds=retryAfterSeconds;
+	}
+
+	/**
+	 * @return suggested number of seconds a client should wait before retrying
+	 */
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
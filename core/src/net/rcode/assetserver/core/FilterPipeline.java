@@ -0,0 +1,117 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+
+import net.rcode.assetserver.cache.Cache;
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+import net.rcode.assetserver.cache.CacheIdentity;
+import net.rcode.assetserver.util.IOUtil;
+
+/**
+ * The part of resolving an asset that is shared by mounts that run their
+ * contents through a filter chain: look the result up in the shared cache and,
+ * on a miss, build it with a FilterChain and store it.  Sub-classes supply the
+ * root locator and set up the chain.
+ * <p>
+ * Cache entries hold their contents in memory, so a cached result is collected
+ * into a byte array here even if the chain produced a StreamingAssetLocator.
+ * Only results that are not cached reach the client as a stream.
+ * <p>
+ * The cache lookup is recorded in the request timings and the cache lookup
+ * metrics.  Errors from processing the chain (including FilterOverloadException)
+ * are passed to the caller.
+ *
+ * @author stella
+ *
+ */
+abstract class FilterPipeline {
+	protected final AssetServer server;
+	protected final AssetPath assetPath;
+	private final File rootFile;
+
+	/**
+	 * @param server
+	 * @param assetPath
+	 * @param rootFile the file the contents come from or null
+	 */
+	FilterPipeline(AssetServer server, AssetPath assetPath, File rootFile) {
+		this.server=server;
+		this.assetPath=assetPath;
+		this.rootFile=rootFile;
+	}
+
+	/**
+	 * Create the locator to start the chain with.  Only called on a cache miss.
+	 * @return root locator
+	 * @throws Exception
+	 */
+	protected abstract AssetLocator createRootLocator() throws Exception;
+
+	/**
+	 * Add the dependencies and filters for the chain.  The chain is active in
+	 * the request context, so dependencies added through the context also
+	 * reach enclosing chains.
+	 * @param requestContext
+	 * @param chain
+	 * @throws Exception
+	 */
+	protected abstract void initializeChain(RequestContext requestContext, FilterChain chain) throws Exception;
+
+	/**
+	 * Resolve the asset from the cache or by building it
+	 * @param requestContext
+	 * @param identity cache identity of the result
+	 * @return locator or null if the chain produced nothing
+	 * @throws Exception
+	 */
+	public AssetLocator resolve(RequestContext requestContext, CacheIdentity identity) throws Exception {
+		RequestTimings timings=requestContext.getTimings();
+		Cache cache=server.getSharedCache();
+		if (cache!=null) {
+			RequestTimings.Stage stage=null;
+			if (timings!=null) stage=timings.begin("cache-lookup", null);
+			CacheEntry cacheEntry=cache.lookup(identity);
+			boolean hit=cacheEntry!=null && cacheEntry.isValid();
+			if (stage!=null) timings.end(stage);
+
+			if (hit) {
+				recordCacheLookup("hit");
+				if (cacheEntry.isNullContent()) return null;
+				else return cacheEntry;
+			}
+			recordCacheLookup(cacheEntry==null ? "miss" : "stale");
+		}
+
+		long buildStart=System.nanoTime();
+		FilterChain chain=new FilterChain(server, assetPath, createRootLocator(), rootFile);
+		requestContext.pushActiveFilterChain(chain);
+		try {
+			initializeChain(requestContext, chain);
+			chain.processFilters();
+
+			// Cache negative results or things explicitly cacheable
+			AssetLocator resolvedLocator=chain.getCurrent();
+			if (cache==null || (resolvedLocator!=null && !resolvedLocator.shouldCache())) return resolvedLocator;
+
+			CacheDependency[] dependencies=chain.getDependencies().toArray(new CacheDependency[chain.getDependencies().size()]);
+			CacheEntry cacheEntry;
+			if (resolvedLocator==null) {
+				cacheEntry=new CacheEntry(identity, dependencies, null, null, null);
+			} else {
+				cacheEntry=new CacheEntry(identity, dependencies, resolvedLocator.getContentType(),
+						resolvedLocator.getCharacterEncoding(), IOUtil.toByteArray(resolvedLocator));
+				if (server.getMimeMapping().isTextualMimeType(cacheEntry.getContentType())) cacheEntry.precompress();
+			}
+			cacheEntry.setBuildNanos(System.nanoTime()-buildStart);
+			cache.store(cacheEntry);
+			return resolvedLocator==null ? null : cacheEntry;
+		} finally {
+			requestContext.popActiveFilterChain();
+		}
+	}
+
+	private void recordCacheLookup(String result) {
+		server.getMetrics().counter("assetserver_cache_lookups_total", "Shared cache lookups by result", "result", result).increment();
+	}
+}
@@ -0,0 +1,30 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A push-style transformation from bytes to bytes, produced by a
+ * StreamingResourceFilter.  The source is written to the stream returned from
+ * open() and the transformed result goes to the given stream as it is produced,
+ * so stages chain together without buffering the whole of anything in between.
+ * <p>
+ * A stage runs after the filter chain has been processed (when the result is
+ * collected for the cache or written to the client) and may run more than once.  It must
+ * therefore be a pure function of its input and must not touch the FilterChain
+ * or the RequestContext.
+ *
+ * @author stella
+ *
+ */
+public interface FilterStage {
+	/**
+	 * Open the stage for input.  Closing the returned stream completes the
+	 * stage, writing any remaining output.  The stage is free to close out
+	 * when it is done; callers guard streams they still need.
+	 * @param out receives the transformed output
+	 * @return stream to write the input to
+	 * @throws IOException
+	 */
+	public OutputStream open(OutputStream out) throws IOException;
+}
@@ -0,0 +1,26 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implemented by AssetLocators that can supply their contents already
+ * gzip encoded, sparing HTTP handlers from compressing on every request.
+ * 
+ * @author stella
+ *
+ */
+public interface GzipContentProvider {
+	/**
+	 * @return the length of the gzip encoded contents or -1 if not available
+	 * @throws IOException
+	 */
+	public long getGzipLength() throws IOException;
+	
+	/**
+	 * Write the gzip encoded contents.  Only valid if getGzipLength() is not -1.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeGzipTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,528 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.rcode.assetserver.cache.CacheIdentity;
+import net.rcode.assetserver.util.BlockOutputStream;
+import net.rcode.assetserver.util.BufferAccessor;
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves assets fetched from an upstream HTTP origin.  A path under the mount is
+ * appended to the origin url and fetched with a GET.  The response is run through
+ * the filter chain and the shared cache like a file from a ResourceMount.
+ * <p>
+ * Upstream responses are kept in memory along with their validators (ETag and
+ * Last-Modified).  Once a response is older than the revalidation interval, the
+ * next request for it sends a conditional GET and a 304 keeps the stored body.
+ * The stored responses are bounded by their total size and the least recently
+ * used are dropped beyond that.
+ * Concurrent requests for a path that needs fetching share a single upstream
+ * request.  The number of upstream requests in flight is bounded and idle
+ * connections are reused through the JDK's keep-alive cache.
+ * <p>
+ * Shared cache entries depend on the upstream validators through an
+ * UpstreamCacheDependency, so filtered results are rebuilt only when the upstream
+ * asset changes.
+ * <p>
+ * Upstream mounts cannot be listed and therefore do not take part in scans.
+ *
+ * @author stella
+ *
+ */
+public class HttpProxyAssetMount extends AssetMount {
+	private static final Logger logger=LoggerFactory.getLogger(HttpProxyAssetMount.class);
+
+	/**
+	 * Live mounts by origin so that deserialized cache dependencies can find them
+	 */
+	private static final Map<String, WeakReference<HttpProxyAssetMount>> MOUNTS=new ConcurrentHashMap<String, WeakReference<HttpProxyAssetMount>>();
+
+	public static final long DEFAULT_MAX_RESPONSE_BYTES=64L * 1024 * 1024;
+
+	/**
+	 * Bytes charged for each stored response on top of its body, so that
+	 * missing resources also count against the budget
+	 */
+	private static final int RESPONSE_OVERHEAD=256;
+
+	private final URL origin;
+	private final String originKey;
+	private final AssetServer server;
+
+	private Semaphore connectionPermits;
+	private int maxConnections=8;
+	private int connectTimeout=5000;
+	private int readTimeout=30000;
+	private long revalidateMillis=1000;
+	private int maxBodySize=32*1024*1024;
+
+	/**
+	 * Upstream responses by path, least recently used first.  Guarded by
+	 * synchronizing on the map.
+	 */
+	private final LinkedHashMap<String, UpstreamResponse> responses=new LinkedHashMap<String, UpstreamResponse>(64, 0.75f, true);
+	private long responseBytes;
+	private long maxResponseBytes=DEFAULT_MAX_RESPONSE_BYTES;
+	private final ConcurrentHashMap<String, FutureTask<UpstreamResponse>> inFlight=new ConcurrentHashMap<String, FutureTask<UpstreamResponse>>();
+
+	public HttpProxyAssetMount(URL origin, AssetServer server) {
+		String s=origin.toExternalForm();
+		while (s.endsWith("/")) s=s.substring(0, s.length()-1);
+		this.originKey=s;
+		try {
+			this.origin=new URL(s);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		this.server=server;
+		this.connectionPermits=new Semaphore(maxConnections, true);
+		MOUNTS.put(originKey, new WeakReference<HttpProxyAssetMount>(this));
+	}
+
+	static HttpProxyAssetMount forOrigin(String originKey) {
+		WeakReference<HttpProxyAssetMount> ref=MOUNTS.get(originKey);
+		return ref!=null ? ref.get() : null;
+	}
+
+	String getOriginKey() {
+		return originKey;
+	}
+
+	public URL getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Bound the number of upstream requests in flight at once
+	 * @param maxConnections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections<1) throw new IllegalArgumentException("maxConnections must be positive");
+		this.maxConnections=maxConnections;
+		this.connectionPermits=new Semaphore(maxConnections, true);
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @param revalidateMillis how long an upstream response is used before it is
+	 * revalidated with a conditional request (0 revalidates on every use)
+	 */
+	public void setRevalidateMillis(long revalidateMillis) {
+		this.revalidateMillis=revalidateMillis;
+	}
+
+	public long getRevalidateMillis() {
+		return revalidateMillis;
+	}
+
+	/**
+	 * @param maxResponseBytes total size of the upstream responses to keep in
+	 * memory.  Responses are evicted as needed.
+	 */
+	public void setMaxResponseBytes(long maxResponseBytes) {
+		synchronized (responses) {
+			this.maxResponseBytes=maxResponseBytes;
+			evictResponses();
+		}
+	}
+
+	public long getMaxResponseBytes() {
+		synchronized (responses) {
+			return maxResponseBytes;
+		}
+	}
+
+	/**
+	 * @return total size charged for the stored upstream responses
+	 */
+	public long getResponseBytes() {
+		synchronized (responses) {
+			return responseBytes;
+		}
+	}
+
+	/**
+	 * @param maxBodySize largest upstream body accepted.  The connection of a
+	 * larger response is dropped.
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		this.maxBodySize=maxBodySize;
+	}
+
+	public int getMaxBodySize() {
+		return maxBodySize;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout=connectTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout=readTimeout;
+	}
+
+	@Override
+	public String toString() {
+		return "HttpProxyAssetMount(" + originKey + ")";
+	}
+
+	/**
+	 * An upstream response.  Missing resources are recorded with a null body
+	 * so that they are not fetched again until revalidation is due.
+	 */
+	static class UpstreamResponse {
+		final BufferAccessor body;
+		final String contentType;
+		final String eTag;
+		final String lastModified;
+
+		/**
+		 * A string that changes whenever the upstream content does
+		 */
+		final String validator;
+		final long checkedAt;
+
+		UpstreamResponse(BufferAccessor body, String contentType, String eTag, String lastModified,
+				String validator, long checkedAt) {
+			this.body=body;
+			this.contentType=contentType;
+			this.eTag=eTag;
+			this.lastModified=lastModified;
+			this.validator=validator;
+			this.checkedAt=checkedAt;
+		}
+
+		UpstreamResponse revalidated(long now) {
+			return new UpstreamResponse(body, contentType, eTag, lastModified, validator, now);
+		}
+
+		long size(String path) {
+			return (body!=null ? body.length() : 0) + path.length() + RESPONSE_OVERHEAD;
+		}
+	}
+
+	/**
+	 * Get the upstream response for a path, revalidating or fetching it if
+	 * needed
+	 * @param path path under the mount (starting with a slash)
+	 * @return response or null if the upstream does not have it
+	 * @throws IOException
+	 */
+	UpstreamResponse getUpstream(final String path) throws IOException {
+		UpstreamResponse current=lookupResponse(path);
+		if (current!=null && System.currentTimeMillis()-current.checkedAt<revalidateMillis) {
+			return current.body!=null ? current : null;
+		}
+
+		// Coalesce with a fetch that is already in flight
+		FutureTask<UpstreamResponse> task=new FutureTask<UpstreamResponse>(new Callable<UpstreamResponse>() {
+			@Override
+			public UpstreamResponse call() throws Exception {
+				return fetch(path, lookupResponse(path));
+			}
+		});
+		FutureTask<UpstreamResponse> existing=inFlight.putIfAbsent(path, task);
+		if (existing!=null) {
+			task=existing;
+		} else {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(path);
+			}
+		}
+
+		try {
+			UpstreamResponse ret=task.get();
+			return ret.body!=null ? ret : null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + path);
+		} catch (ExecutionException e) {
+			Throwable cause=e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			throw new IOException("Error fetching " + path + " from " + originKey, cause);
+		}
+	}
+
+	private UpstreamResponse fetch(String path, UpstreamResponse previous) throws IOException {
+		URL url=toUrl(path);
+		Semaphore permits=connectionPermits;
+		try {
+			if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out waiting for a connection to " + originKey);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for a connection to " + originKey);
+		}
+
+		try {
+			HttpURLConnection conn=(HttpURLConnection)url.openConnection();
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setUseCaches(false);
+			conn.setInstanceFollowRedirects(true);
+			if (previous!=null && previous.body!=null) {
+				if (previous.eTag!=null) conn.setRequestProperty("If-None-Match", previous.eTag);
+				if (previous.lastModified!=null) conn.setRequestProperty("If-Modified-Since", previous.lastModified);
+			}
+
+			int status=conn.getResponseCode();
+			long now=System.currentTimeMillis();
+			if (status==HttpURLConnection.HTTP_NOT_MODIFIED && previous!=null && previous.body!=null) {
+				drain(conn.getInputStream());
+				UpstreamResponse ret=previous.revalidated(now);
+				store(path, ret);
+				return ret;
+			} else if (status==HttpURLConnection.HTTP_OK) {
+				long length=conn.getContentLengthLong();
+				BlockOutputStream body=length<=maxBodySize ? readBody(conn.getInputStream()) : null;
+				if (body==null) {
+					// Too large to drain: drop the connection rather than reuse it
+					conn.disconnect();
+					throw new IOException("Upstream response for " + url + " exceeds " + maxBodySize + " bytes");
+				}
+				String eTag=conn.getHeaderField("ETag"), lastModified=conn.getHeaderField("Last-Modified");
+				String validator;
+				if (eTag!=null) validator="E:" + eTag;
+				else if (lastModified!=null) validator="L:" + lastModified;
+				else {
+					MessageDigestBuilder digest=new MessageDigestBuilder("MD5");
+					digest.append(body.getBytes());
+					validator="H:" + digest.getValueAsHex();
+				}
+				UpstreamResponse ret=new UpstreamResponse(body, conn.getContentType(), eTag, lastModified, validator, now);
+				store(path, ret);
+				return ret;
+			} else if (status==HttpURLConnection.HTTP_NOT_FOUND || status==HttpURLConnection.HTTP_GONE) {
+				drain(conn.getErrorStream());
+				UpstreamResponse ret=new UpstreamResponse(null, null, null, null, null, now);
+				store(path, ret);
+				return ret;
+			} else {
+				drain(conn.getErrorStream());
+				throw new IOException("Upstream returned " + status + " for " + url);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	private UpstreamResponse lookupResponse(String path) {
+		synchronized (responses) {
+			return responses.get(path);
+		}
+	}
+
+	/**
+	 * Store a response, evicting the least recently used responses over
+	 * budget.  A response larger than the whole budget replaces nothing and
+	 * is fetched again on its next use.
+	 */
+	private void store(String path, UpstreamResponse response) {
+		long size=response.size(path);
+		synchronized (responses) {
+			UpstreamResponse previous=size<=maxResponseBytes ? responses.put(path, response) : responses.remove(path);
+			if (previous!=null) responseBytes-=previous.size(path);
+			if (size<=maxResponseBytes) responseBytes+=size;
+			evictResponses();
+		}
+	}
+
+	private void evictResponses() {
+		Iterator<Map.Entry<String, UpstreamResponse>> iter=responses.entrySet().iterator();
+		while (responseBytes>maxResponseBytes && iter.hasNext()) {
+			Map.Entry<String, UpstreamResponse> eldest=iter.next();
+			responseBytes-=eldest.getValue().size(eldest.getKey());
+			iter.remove();
+		}
+	}
+
+	/**
+	 * @return the body or null if it is larger than maxBodySize, in which
+	 * case the stream is left unread and unclosed
+	 */
+	private BlockOutputStream readBody(InputStream in) throws IOException {
+		BlockOutputStream out=new BlockOutputStream();
+		byte[] buffer=new byte[8192];
+		for (;;) {
+			int r;
+			try {
+				r=in.read(buffer);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			if (r<0) break;
+			if (out.length()+r>maxBodySize) return null;
+			out.write(buffer, 0, r);
+		}
+		in.close();
+		return out;
+	}
+
+	/**
+	 * Read and close a response body so that the connection can be reused
+	 */
+	private static void drain(InputStream in) {
+		if (in==null) return;
+		try {
+			try {
+				byte[] buffer=new byte[4096];
+				while (in.read(buffer)>=0) { }
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Connection will not be reused
+		}
+	}
+
+	private URL toUrl(String path) throws IOException {
+		try {
+			String basePath=origin.getPath();
+			URI uri=new URI(origin.getProtocol(), origin.getAuthority(), basePath + path, null, null);
+			return uri.toURL();
+		} catch (URISyntaxException e) {
+			throw new IOException("Illegal upstream path " + path, e);
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return the current validator for the path or null if the upstream does
+	 * not have it
+	 * @throws IOException
+	 */
+	String getValidator(String path) throws IOException {
+		UpstreamResponse response=getUpstream(path);
+		return response!=null ? response.validator : null;
+	}
+
+	@Override
+	public AssetLocator resolve(AssetPath assetPath) throws Exception {
+		String path=assetPath.getPath();
+		if (path.length()==0) path="/";
+		if (server==null) {
+			UpstreamResponse upstream=getUpstream(path);
+			return upstream!=null ? createRootLocator(assetPath, upstream) : null;
+		}
+
+		RequestContext requestContext=server.enterRequestContext();
+		try {
+			RequestTimings timings=requestContext.getTimings();
+			RequestTimings.Stage stage=null;
+			if (timings!=null) stage=timings.begin("resolve", assetPath.getFullPath());
+			try {
+				return resolveInContext(assetPath, path, requestContext, timings);
+			} finally {
+				if (stage!=null) timings.end(stage);
+			}
+		} finally {
+			server.exitRequestContext();
+		}
+	}
+
+	private AssetLocator resolveInContext(final AssetPath assetPath, final String path, RequestContext requestContext,
+			RequestTimings timings) throws Exception {
+		RequestTimings.Stage stage=null;
+		if (timings!=null) stage=timings.begin("upstream", null);
+		final UpstreamResponse upstream;
+		try {
+			upstream=getUpstream(path);
+		} finally {
+			if (stage!=null) timings.end(stage);
+		}
+		if (upstream==null) return null;
+
+		CacheIdentity identity=new CacheIdentity(getClass().getName(),
+				assetPath.getMountPoint(), assetPath.getPath(),
+				server.getConfigHash());
+		FilterPipeline pipeline=new FilterPipeline(server, assetPath, null) {
+			@Override
+			protected AssetLocator createRootLocator() {
+				return HttpProxyAssetMount.this.createRootLocator(assetPath, upstream);
+			}
+
+			@Override
+			protected void initializeChain(RequestContext requestContext, FilterChain chain) {
+				requestContext.addDependency(new UpstreamCacheDependency(HttpProxyAssetMount.this, path, upstream.validator));
+				ResourceContext rootContext=server.getContextManager().getRootContext();
+				for (ResourceContext.FilterBinding binding: rootContext.getMatchingFilters(assetPath)) {
+					binding.initializer.initializeChain(chain);
+				}
+			}
+		};
+		return pipeline.resolve(requestContext, identity);
+	}
+
+	private BufferAssetLocator createRootLocator(AssetPath assetPath, UpstreamResponse upstream) {
+		BufferAssetLocator rootLocator=new BufferAssetLocator(upstream.body);
+		rootLocator.setETag("U:" + upstream.validator);
+		setContentType(rootLocator, assetPath, upstream);
+		return rootLocator;
+	}
+
+	private void setContentType(BufferAssetLocator locator, AssetPath assetPath, UpstreamResponse upstream) {
+		String contentType=upstream.contentType, characterEncoding=null;
+		if (contentType!=null) {
+			int semi=contentType.indexOf(';');
+			if (semi>=0) {
+				int charset=contentType.toLowerCase().indexOf("charset=", semi);
+				if (charset>=0) characterEncoding=contentType.substring(charset+8).trim();
+				contentType=contentType.substring(0, semi).trim();
+			}
+		}
+		if (server!=null) {
+			MimeMapping mimeMapping=server.getMimeMapping();
+			String baseName=assetPath.getBaseName();
+			if (baseName!=null) {
+				// Trust the file extension over generic upstream types
+				String mapped=mimeMapping.lookup(baseName);
+				if (mapped!=null && (contentType==null || "application/octet-stream".equals(contentType))) contentType=mapped;
+			}
+			if (characterEncoding==null && mimeMapping.isTextualMimeType(contentType)) {
+				characterEncoding=server.getDefaultTextFileEncoding();
+			}
+		}
+		locator.setContentType(contentType!=null ? contentType : "application/octet-string");
+		locator.setCharacterEncoding(characterEncoding);
+	}
+
+	/**
+	 * Log and swallow errors checking a dependency.  An unreachable upstream
+	 * invalidates the entry so that the error surfaces on the rebuild.
+	 */
+	boolean isCurrent(String path, String validator) {
+		try {
+			String current=getValidator(path);
+			return current!=null && current.equals(validator);
+		} catch (IOException e) {
+			logger.warn("Error revalidating " + path + " against " + originKey + ": " + e.getMessage());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+import net.rcode.assetserver.util.JsonWriter;
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
+/**
+ * Builds a manifest of the assets under a base directory of the server: for
+ * each asset path, the hash, size and content type of the processed contents
+ * along with what the result depends on.  Templates and other services use it
+ * for cache-busting URLs and preload hints.
+ * <p>
+ * The tree is scanned with AssetRoot.scan (in parallel if configured) and every
+ * asset is resolved through its filter chain.  The dependencies recorded while
+ * resolving (or by the cache entry, on a cache hit) are kept with each manifest
+ * entry.  Subsequent calls to update() scan again but only resolve assets that
+ * are new, whose dependencies are no longer valid or whose context (the
+ * .asaccess files that apply to them) changed, so keeping a manifest current
+ * costs little more than listing the tree.  Entries without any dependencies
+ * are always resolved again.  A configuration reload invalidates every entry.
+ *
+ * @author stella
+ *
+ */
+public class ManifestBuilder {
+	private AssetServer server;
+	private String baseDir="";
+	private int parallelism=1;
+
+	private volatile SortedMap<String, Entry> entries=Collections.unmodifiableSortedMap(new ConcurrentSkipListMap<String, Entry>());
+	private String configHash;
+
+	/**
+	 * An immutable manifest entry
+	 */
+	public static class Entry {
+		private final String path;
+		private final String hash;
+		private final long size;
+		private final String contentType;
+		private final CacheDependency[] dependencies;
+		private final String contextHash;
+
+		public Entry(String path, String hash, long size, String contentType, CacheDependency[] dependencies, String contextHash) {
+			this.path=path;
+			this.hash=hash;
+			this.size=size;
+			this.contentType=contentType;
+			this.dependencies=dependencies;
+			this.contextHash=contextHash;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return hex MD5 of the processed contents
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public CacheDependency[] getDependencies() {
+			return dependencies;
+		}
+
+		/**
+		 * @return hash of the context the asset was resolved in or null
+		 */
+		public String getContextHash() {
+			return contextHash;
+		}
+
+		/**
+		 * @param currentContextHash hash of the context that applies now
+		 * @return true if the entry has dependencies, all are still valid and
+		 * the context did not change
+		 */
+		public boolean isCurrent(String currentContextHash) {
+			if (contextHash==null ? currentContextHash!=null : !contextHash.equals(currentContextHash)) return false;
+			if (dependencies.length==0) return false;
+			for (CacheDependency dependency: dependencies) {
+				if (!dependency.isValid()) return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Counts from one call to update()
+	 */
+	public static class UpdateResult {
+		public int resolved;
+		public int reused;
+		public int removed;
+		public List<String> failed=new ArrayList<String>();
+
+		@Override
+		public String toString() {
+			return "resolved=" + resolved + ", reused=" + reused + ", removed=" + removed + ", failed=" + failed.size();
+		}
+	}
+
+	public ManifestBuilder(AssetServer server) {
+		this.server=server;
+	}
+
+	public String getBaseDir() {
+		return baseDir;
+	}
+
+	/**
+	 * @param baseDir directory to build the manifest for ("" for the whole tree)
+	 */
+	public synchronized void setBaseDir(String baseDir) {
+		this.baseDir=baseDir;
+		this.entries=Collections.unmodifiableSortedMap(new ConcurrentSkipListMap<String, Entry>());
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism number of threads to scan and resolve with
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism=parallelism;
+	}
+
+	/**
+	 * @return the entries as of the last update, sorted by path
+	 */
+	public SortedMap<String, Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Scan the tree and bring the manifest up to date
+	 * @return what was done
+	 * @throws Exception if the scan fails.  Assets that fail to resolve are
+	 * left out of the manifest and reported in the result instead.
+	 */
+	public synchronized UpdateResult update() throws Exception {
+		final Map<String, Entry> previous=entries;
+		final ConcurrentSkipListMap<String, Entry> updated=new ConcurrentSkipListMap<String, Entry>();
+		final UpdateResult result=new UpdateResult();
+		final AtomicInteger resolved=new AtomicInteger();
+		final AtomicInteger reused=new AtomicInteger();
+		final List<String> failed=Collections.synchronizedList(result.failed);
+
+		String currentConfigHash=server.getConfigHash();
+		final boolean reuse=currentConfigHash!=null && currentConfigHash.equals(configHash);
+
+		ScanConfig config=new ScanConfig();
+		config.setBaseDir(baseDir);
+		config.setRecursive(true);
+		config.setParallelism(parallelism);
+		config.setOrdered(false);
+
+		server.getRoot().scan(config, new ScanCallback() {
+			@Override
+			public boolean handleAsset(AssetPath path) throws Exception {
+				String fullPath=path.getFullParameterizedPath();
+				Entry entry=previous.get(fullPath);
+				if (reuse && entry!=null && entry.isCurrent(ResourceMount.contextHash(path))) {
+					updated.put(fullPath, entry);
+					reused.incrementAndGet();
+					return true;
+				}
+
+				try {
+					entry=resolveEntry(path);
+				} catch (Exception e) {
+					server.getLogger().warn("Error resolving " + fullPath + " for manifest", e);
+					failed.add(fullPath);
+					return true;
+				}
+				if (entry!=null) updated.put(fullPath, entry);
+				resolved.incrementAndGet();
+				return true;
+			}
+
+			@Override
+			public boolean handleDirectory(AssetPath path) throws Exception {
+				return true;
+			}
+		});
+
+		result.resolved=resolved.get();
+		result.reused=reused.get();
+		for (String path: previous.keySet()) {
+			if (!updated.containsKey(path)) result.removed++;
+		}
+
+		entries=Collections.unmodifiableSortedMap(updated);
+		configHash=currentConfigHash;
+		return result;
+	}
+
+	/**
+	 * Resolve an asset, recording the dependencies of the result
+	 * @return the entry or null if the asset does not resolve
+	 */
+	private Entry resolveEntry(AssetPath path) throws Exception {
+		// Taken before resolving so that a concurrent change leaves the entry
+		// stale rather than wrong
+		String contextHash=ResourceMount.contextHash(path);
+		RequestContext requestContext=server.enterRequestContext();
+		try {
+			// Dependencies added while resolving land on every active chain,
+			// including this one
+			FilterChain collector=new FilterChain(server, path, null, null);
+			requestContext.pushActiveFilterChain(collector);
+			AssetLocator locator;
+			try {
+				locator=path.getMount().resolve(path);
+			} finally {
+				requestContext.popActiveFilterChain();
+			}
+			if (locator==null) return null;
+
+			Set<CacheDependency> dependencies=new LinkedHashSet<CacheDependency>(collector.getDependencies());
+			if (locator instanceof CacheEntry) {
+				CacheDependency[] entryDependencies=((CacheEntry)locator).getDependencies();
+				if (entryDependencies!=null) Collections.addAll(dependencies, entryDependencies);
+			}
+
+			byte[] contents=locator.getBytes();
+			MessageDigestBuilder digest=new MessageDigestBuilder("MD5");
+			digest.append(contents);
+			return new Entry(path.getFullParameterizedPath(), digest.getValueAsHex(), contents.length,
+					locator.getContentType(), dependencies.toArray(new CacheDependency[dependencies.size()]), contextHash);
+		} finally {
+			server.exitRequestContext();
+		}
+	}
+
+	/**
+	 * Write the manifest as JSON:
+	 * <pre>
+	 * {"assets":{"/js/app.js":{"hash":"...","size":1234,"contentType":"text/javascript",
+	 *   "dependencies":["file:/site/js/app.js"]}, ...}}
+	 * </pre>
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Appendable out) throws IOException {
+		JsonWriter json=new JsonWriter(out);
+		json.beginObject().name("assets").beginObject();
+		for (Entry entry: entries.values()) {
+			json.name(entry.getPath()).beginObject();
+			json.name("hash").value(entry.getHash());
+			json.name("size").value(entry.getSize());
+			json.name("contentType").value(entry.getContentType());
+			json.name("dependencies").beginArray();
+			for (CacheDependency dependency: entry.getDependencies()) {
+				json.value(dependency.toString());
+			}
+			json.endArray();
+			json.endObject();
+		}
+		json.endObject().endObject();
+	}
+}
@@ -0,0 +1,338 @@
+package net.rcode.assetserver.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
+/**
+ * Serves assets held in memory.  This is intended for content produced by
+ * another process or component (generated locale bundles, uploads) that would
+ * otherwise have to be written to disk to be served.
+ * <p>
+ * Entries are keyed by their path under the mount and stored in a sorted
+ * concurrent map.  Directories are implicit: a directory exists while any entry
+ * lies below it.  Each put and remove is atomic with respect to concurrent
+ * requests, which see either the old or the new entry, never a mix.  Entries are
+ * immutable once put; the contents are copied and the ETag is computed up front.
+ * <p>
+ * Every change increments a version counter and stamps the changed entry with
+ * it.  Resolving a path records a MemoryCacheDependency on the entry's version,
+ * so cached results of filters that read memory assets are invalidated when the
+ * asset is replaced or removed.
+ * <p>
+ * Memory mounts are normally obtained with AssetServer.getMemoryMount(), which
+ * keeps them mounted across configuration reloads.
+ *
+ * @author stella
+ *
+ */
+public class MemoryAssetMount extends AssetMount {
+	/**
+	 * Live mounts by id so that deserialized cache dependencies can find them
+	 */
+	private static final Map<String, WeakReference<MemoryAssetMount>> MOUNTS=new ConcurrentHashMap<String, WeakReference<MemoryAssetMount>>();
+
+	private final String id=UUID.randomUUID().toString();
+	private final AssetServer server;
+	private final AtomicLong version=new AtomicLong();
+	private final ConcurrentSkipListMap<String, Entry> entries=new ConcurrentSkipListMap<String, Entry>();
+
+	public MemoryAssetMount(AssetServer server) {
+		this.server=server;
+		MOUNTS.put(id, new WeakReference<MemoryAssetMount>(this));
+	}
+
+	/**
+	 * @param id
+	 * @return the live mount with the given id or null
+	 */
+	static MemoryAssetMount forId(String id) {
+		WeakReference<MemoryAssetMount> ref=MOUNTS.get(id);
+		MemoryAssetMount ret=ref!=null ? ref.get() : null;
+		if (ref!=null && ret==null) MOUNTS.remove(id);
+		return ret;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryAssetMount(" + entries.size() + " entries)";
+	}
+
+	/**
+	 * An immutable in memory asset
+	 */
+	public static class Entry implements AssetLocator {
+		private final byte[] contents;
+		private final String contentType;
+		private final String characterEncoding;
+		private final String eTag;
+		private final long version;
+
+		Entry(byte[] contents, String contentType, String characterEncoding, long version) {
+			this.contents=contents;
+			this.contentType=contentType;
+			this.characterEncoding=characterEncoding;
+			this.version=version;
+
+			MessageDigestBuilder digest=new MessageDigestBuilder("MD5");
+			digest.append(contents);
+			this.eTag="M:" + digest.getValueAsHex();
+		}
+
+		/**
+		 * @return the mount version at which this entry was put
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		@Override
+		public boolean shouldCache() {
+			return false;
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		@Override
+		public String getETag() {
+			return eTag;
+		}
+
+		@Override
+		public InputStream openInput() {
+			return new ByteArrayInputStream(contents);
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return contents;
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(contents);
+		}
+
+		@Override
+		public long length() {
+			return contents.length;
+		}
+	}
+
+	/**
+	 * @return version counter, incremented by every change to the mount
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * @param path
+	 * @return version of the entry at path or 0 if there is none
+	 */
+	public long getVersion(String path) {
+		Entry entry=entries.get(normalizePath(path));
+		return entry!=null ? entry.version : 0;
+	}
+
+	/**
+	 * Put an entry, taking the content type from the server's mime mapping
+	 * @param path
+	 * @param contents
+	 */
+	public void put(String path, byte[] contents) {
+		put(path, contents, null);
+	}
+
+	/**
+	 * Put an entry, replacing any existing entry at the path.  The contents
+	 * are copied.
+	 * @param path path under the mount (ie. "/locale/en.js")
+	 * @param contents
+	 * @param contentType content type or null to look it up from the name
+	 * @throws IllegalArgumentException if the path is not valid
+	 */
+	public void put(String path, byte[] contents, String contentType) throws IllegalArgumentException {
+		String key=normalizePath(path);
+		if (key.length()==0) throw new IllegalArgumentException("Illegal memory asset path: " + path);
+
+		String characterEncoding=null;
+		if (server!=null) {
+			MimeMapping mimeMapping=server.getMimeMapping();
+			if (contentType==null) contentType=mimeMapping.lookup(key.substring(key.lastIndexOf('/')+1));
+			if (mimeMapping.isTextualMimeType(contentType)) characterEncoding=server.getDefaultTextFileEncoding();
+		}
+		if (contentType==null) contentType="application/octet-string";
+
+		byte[] copy=new byte[contents.length];
+		System.arraycopy(contents, 0, copy, 0, contents.length);
+		entries.put(key, new Entry(copy, contentType, characterEncoding, version.incrementAndGet()));
+	}
+
+	/**
+	 * Remove the entry at path
+	 * @param path
+	 * @return true if there was an entry
+	 */
+	public boolean remove(String path) {
+		if (entries.remove(normalizePath(path))==null) return false;
+		version.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Remove the entry at path and every entry below it
+	 * @param path
+	 * @return number of entries removed
+	 */
+	public int removeTree(String path) {
+		String key=normalizePath(path);
+		int count=0;
+		if (key.length()>0 && entries.remove(key)!=null) count++;
+
+		String prefix=key.length()==0 ? "" : key + '/';
+		for (String childKey: entries.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+			if (entries.remove(childKey)!=null) count++;
+		}
+		if (count>0) version.incrementAndGet();
+		return count;
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	public void clear() {
+		removeTree("");
+	}
+
+	/**
+	 * Convert a path to a map key: components separated by single slashes
+	 * with no leading or trailing slash
+	 * @throws IllegalArgumentException if a component is "." or ".."
+	 */
+	private static String normalizePath(String path) throws IllegalArgumentException {
+		StringBuilder sb=new StringBuilder(path.length());
+		for (String component: AssetPath.PATH_SPLIT_PATTERN.split(path)) {
+			if (component.length()==0) continue;
+			if (".".equals(component) || "..".equals(component) || component.indexOf('\\')>=0) {
+				throw new IllegalArgumentException("Illegal memory asset path: " + path);
+			}
+			if (sb.length()>0) sb.append('/');
+			sb.append(component);
+		}
+		return sb.toString();
+	}
+
+	private static String toKey(AssetPath assetPath) {
+		String[] components=assetPath.getPathComponents();
+		if (components.length==1) return components[0];
+		StringBuilder sb=new StringBuilder(assetPath.getPath().length());
+		for (String component: components) {
+			if (sb.length()>0) sb.append('/');
+			sb.append(component);
+		}
+		return sb.toString();
+	}
+
+	private boolean isDirectory(String key) {
+		if (key.length()==0) return true;
+		String prefix=key + '/';
+		String next=entries.ceilingKey(prefix);
+		return next!=null && next.startsWith(prefix);
+	}
+
+	@Override
+	public AssetLocator resolve(AssetPath assetPath) throws Exception {
+		String key=toKey(assetPath);
+		Entry entry=entries.get(key);
+
+		RequestContext requestContext=RequestContext.getCurrent();
+		if (requestContext!=null) {
+			requestContext.addDependency(new MemoryCacheDependency(this, key, entry!=null ? entry.version : 0));
+		}
+		return entry;
+	}
+
+	@Override
+	public boolean canStat() {
+		return true;
+	}
+
+	@Override
+	public ResourceStat stat(AssetPath assetPath) throws Exception {
+		String key=toKey(assetPath);
+		boolean directory;
+		if (entries.containsKey(key)) directory=false;
+		else if (isDirectory(key)) directory=true;
+		else return null;
+
+		ResourceStat ret=new ResourceStat();
+		ret.path=assetPath;
+		ret.physicalPath=null;
+		ret.isDirectory=directory;
+		return ret;
+	}
+
+	@Override
+	public Collection<ResourceStat> listChildren(AssetPath parentPath) throws Exception {
+		String key=toKey(parentPath);
+		String prefix=key.length()==0 ? "" : key + '/';
+
+		// Child name -> is directory.  Skip over the contents of each child
+		// directory rather than visiting every entry beneath it.
+		Map<String, Boolean> children=new TreeMap<String, Boolean>();
+		String next=entries.ceilingKey(prefix);
+		while (next!=null && next.startsWith(prefix)) {
+			String rest=next.substring(prefix.length());
+			int slash=rest.indexOf('/');
+			if (slash<0) {
+				children.put(rest, Boolean.FALSE);
+				next=entries.higherKey(next);
+			} else {
+				String name=rest.substring(0, slash);
+				if (!children.containsKey(name)) children.put(name, Boolean.TRUE);
+				// '0' is the character after '/'
+				next=entries.ceilingKey(prefix + name + '0');
+			}
+		}
+		if (children.isEmpty()) return Collections.emptySet();
+
+		Collection<ResourceStat> ret=new ArrayList<ResourceStat>(children.size());
+		for (Map.Entry<String, Boolean> child: children.entrySet()) {
+			AssetPath childPath=parentPath.createChild(child.getKey());
+			if (childPath==null) continue;
+
+			ResourceStat childStat=new ResourceStat();
+			childStat.path=childPath;
+			childStat.physicalPath=null;
+			childStat.isDirectory=child.getValue().booleanValue();
+			ret.add(childStat);
+		}
+		return ret;
+	}
+}
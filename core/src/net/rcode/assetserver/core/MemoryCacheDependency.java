@@ -0,0 +1,54 @@
+package net.rcode.assetserver.core;
+
+import java.io.Serializable;
+
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+
+/**
+ * Declare a dependency on an entry of a MemoryAssetMount.  Stores the version
+ * of the entry (0 if it did not exist) and is invalid once the entry has been
+ * put again or removed.  Dependencies on a mount that no longer exists (ie. from
+ * a previous process) are always invalid.
+ *
+ * @author stella
+ *
+ */
+public class MemoryCacheDependency extends CacheDependency implements Serializable {
+	private static final long serialVersionUID=CacheEntry.GLOBAL_SERIAL_VERSION_UID;
+
+	private String mountId;
+	private String path;
+	private long version;
+
+	protected MemoryCacheDependency() { }
+	public MemoryCacheDependency(MemoryAssetMount mount, String path, long version) {
+		this.mountId=mount.getId();
+		this.path=path;
+		this.version=version;
+	}
+
+	@Override
+	public boolean isValid() {
+		MemoryAssetMount mount=MemoryAssetMount.forId(mountId);
+		return mount!=null && mount.getVersion(path)==version;
+	}
+
+	@Override
+	public String toString() {
+		return "memory:/" + path;
+	}
+
+	@Override
+	public int hashCode() {
+		return mountId.hashCode() ^ path.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj==null) return false;
+		if (!(obj instanceof MemoryCacheDependency)) return false;
+		MemoryCacheDependency other=(MemoryCacheDependency)obj;
+		return other.mountId.equals(mountId) && other.path.equals(path);
+	}
+}
@@ -0,0 +1,164 @@
+package net.rcode.assetserver.core;
+
+/**
+ * Immutable trie of mount points keyed by path segment.  Lookups find the
+ * longest mount point that is a segment-wise prefix of a path and do not
+ * allocate.  Updates return a new trie that shares every node not on the
+ * path to the changed mount point, so readers can use a trie published
+ * through a volatile field without locking.
+ *
+ * @author stella
+ *
+ */
+class MountTrie {
+	static final MountTrie EMPTY=new MountTrie(new Node(null, null, null, Node.NO_CHILDREN));
+
+	static class Node {
+		static final Node[] NO_CHILDREN=new Node[0];
+
+		/**
+		 * The segment leading to this node from its parent (null for the root)
+		 */
+		final String segment;
+
+		/**
+		 * Normalized mount point (see AssetRoot.normalizeMountPoint) if a mount is
+		 * attached here
+		 */
+		final String mountPoint;
+
+		/**
+		 * The parsed mount point, shared by every AssetPath matched here (null if
+		 * no mount is attached or the mount point does not parse)
+		 */
+		final String[] mountPointComponents;
+
+		/**
+		 * The mount attached at this node or null
+		 */
+		final AssetMount mount;
+
+		/**
+		 * Children sorted by segment
+		 */
+		final Node[] children;
+
+		Node(String segment, String mountPoint, AssetMount mount, Node[] children) {
+			this(segment, mountPoint, null, mount, children);
+		}
+
+		Node(String segment, String mountPoint, String[] mountPointComponents, AssetMount mount, Node[] children) {
+			this.segment=segment;
+			this.mountPoint=mountPoint;
+			this.mountPointComponents=mountPointComponents;
+			this.mount=mount;
+			this.children=children;
+		}
+
+		/**
+		 * Binary search for the child whose segment equals s[start,end)
+		 * @return index of the child or -(insertion point)-1
+		 */
+		int indexOf(String s, int start, int end) {
+			int low=0, high=children.length-1;
+			while (low<=high) {
+				int mid=(low+high)>>>1;
+				int cmp=compare(children[mid].segment, s, start, end);
+				if (cmp<0) low=mid+1;
+				else if (cmp>0) high=mid-1;
+				else return mid;
+			}
+			return -(low+1);
+		}
+
+		private static int compare(String segment, String s, int start, int end) {
+			int len1=segment.length(), len2=end-start;
+			int n=Math.min(len1, len2);
+			for (int i=0; i<n; i++) {
+				char c1=segment.charAt(i), c2=s.charAt(start+i);
+				if (c1!=c2) return c1-c2;
+			}
+			return len1-len2;
+		}
+	}
+
+	private final Node root;
+
+	private MountTrie(Node root) {
+		this.root=root;
+	}
+
+	/**
+	 * Return a trie with the given mount attached at mountPoint, replacing any
+	 * mount previously attached there
+	 * @param mountPoint normalized mount point (null for the root)
+	 * @param mount
+	 * @return new trie
+	 */
+	MountTrie with(String mountPoint, AssetMount mount) {
+		String[] segments=mountPoint!=null ? splitSegments(mountPoint) : AssetPath.EMPTY_STRINGS;
+		return new MountTrie(with(root, segments, 0, mountPoint, mount));
+	}
+
+	private static Node with(Node node, String[] segments, int index, String mountPoint, AssetMount mount) {
+		if (index==segments.length) {
+			String[] mountPointComponents;
+			try {
+				mountPointComponents=AssetPath.parseComponents(mountPoint, null);
+			} catch (IllegalArgumentException e) {
+				// Reported when a path is matched
+				mountPointComponents=null;
+			}
+			return new Node(node.segment, mountPoint, mountPointComponents, mount, node.children);
+		}
+
+		String segment=segments[index];
+		int childIndex=node.indexOf(segment, 0, segment.length());
+		Node[] children;
+		if (childIndex>=0) {
+			children=node.children.clone();
+			children[childIndex]=with(children[childIndex], segments, index+1, mountPoint, mount);
+		} else {
+			int insertAt=-childIndex-1;
+			Node child=with(new Node(segment, null, null, Node.NO_CHILDREN), segments, index+1, mountPoint, mount);
+			children=new Node[node.children.length+1];
+			System.arraycopy(node.children, 0, children, 0, insertAt);
+			children[insertAt]=child;
+			System.arraycopy(node.children, insertAt, children, insertAt+1, node.children.length-insertAt);
+		}
+		return new Node(node.segment, node.mountPoint, node.mountPointComponents, node.mount, children);
+	}
+
+	private static String[] splitSegments(String mountPoint) {
+		String trimmed=mountPoint.startsWith("/") ? mountPoint.substring(1) : mountPoint;
+		return AssetPath.PATH_SPLIT_PATTERN.split(trimmed);
+	}
+
+	/**
+	 * Find the node of the longest mount point that prefixes fullPath.  A mount
+	 * point only matches when it is followed by a slash in fullPath, so the
+	 * remainder of the path (from mountPoint.length() or 0 for the root)
+	 * always starts with a slash.
+	 * @param fullPath
+	 * @return matching node or null
+	 */
+	Node match(String fullPath) {
+		if (fullPath.length()==0 || fullPath.charAt(0)!='/') return null;
+
+		Node node=root;
+		Node best=node.mount!=null ? node : null;
+		int pos=0;
+		for (;;) {
+			int start=pos+1;
+			int end=fullPath.indexOf('/', start);
+			if (end<0) break;
+
+			int childIndex=node.indexOf(fullPath, start, end);
+			if (childIndex<0) break;
+			node=node.children[childIndex];
+			if (node.mount!=null) best=node;
+			pos=end;
+		}
+		return best;
+	}
+}
@@ -35,13 +35,17 @@ public class PatternPredicateFactory {
 		
 		public NamePatternPredicate(String pattern) {
 			this.srcPattern=pattern;
-			this.namePattern=new NamePattern(pattern);
+			this.namePattern=new NamePattern(pattern).freeze();
+		}
+		
+		public String getPattern() {
+			return srcPattern;
 		}
 		
 		@Override
 		public boolean matches(AssetPath assetPath) {
 			String name=assetPath.getBaseName();
-			return namePattern.matches(name);
+			return name!=null && namePattern.matches(name);
 		}
 		
 		@Override
@@ -66,6 +70,10 @@ public class PatternPredicateFactory {
 			this.nameLiteral=nameLiteral;
 		}
 		
+		public String getName() {
+			return nameLiteral;
+		}
+		
 		@Override
 		public boolean matches(AssetPath assetPath) {
 			String name=assetPath.getBaseName();
@@ -127,16 +135,26 @@ public class PatternPredicateFactory {
 			this.components=components;
 			this.prefix=PathPattern.joinComponents(components, 0, prefixLength);
 			if (prefixLength<components.length) {
-				// Would use Arrays.copyOfRange but still trying to hang onto Java 5 compatibility
-				String[] patternComponents=new String[components.length - prefixLength];
-				for (int i=0; i<prefixLength; i++) {
-					patternComponents[i]=components[i+prefixLength];
-				}
+				String[] patternComponents=Arrays.copyOfRange(components, prefixLength, components.length);
 				this.pattern=new PathPattern(patternComponents);
 				this.components=patternComponents;	// Override components
 			}
 		}
 		
+		/**
+		 * @return the literal path prefix, with a leading but no trailing slash
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+		
+		/**
+		 * @return true if only the prefix itself matches (there is no pattern after it)
+		 */
+		public boolean isExact() {
+			return pattern==null;
+		}
+		
 		@Override
 		public boolean matches(AssetPath assetPath) {
 			String path=assetPath.getFullPath();
@@ -53,8 +53,55 @@ public class RequestContext {
 		}
 	}
 	
+	/**
+	 * @return the bound RequestContext or null
+	 */
+	public static RequestContext getCurrent() {
+		return INSTANCE.get();
+	}
+	
+	/**
+	 * @return the timings of the bound RequestContext or null if there is no
+	 * bound context or timing is not enabled on it
+	 */
+	public static RequestTimings getCurrentTimings() {
+		RequestContext instance=INSTANCE.get();
+		if (instance==null) return null;
+		return instance.timings;
+	}
+	
 	private int refCount;
 	private List<FilterChain> activeFilterChains=new ArrayList<FilterChain>();
+	private RequestTimings timings;
+	private ConfigurationSnapshot configurationSnapshot;
+	
+	/**
+	 * Start recording stage timings for this request.  Has no effect if already
+	 * enabled.
+	 * @return the timings
+	 */
+	public RequestTimings enableTimings() {
+		if (timings==null) timings=new RequestTimings();
+		return timings;
+	}
+	
+	/**
+	 * @return stage timings or null if not enabled
+	 */
+	public RequestTimings getTimings() {
+		return timings;
+	}
+	
+	/**
+	 * @return the server configuration this request is pinned to or null
+	 */
+	ConfigurationSnapshot getConfigurationSnapshot() {
+		return configurationSnapshot;
+	}
+	
+	void setConfigurationSnapshot(ConfigurationSnapshot configurationSnapshot) {
+		this.configurationSnapshot = configurationSnapshot;
+	}
 	
 	/**
 	 * Resource resolution typically involves maintaining a stack of FilterChain
@@ -0,0 +1,138 @@
+package net.rcode.assetserver.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how long each stage of resolving a request took.  Stages nest: a
+ * filter that resolves other resources (ie. an EJS read(...)) will have the
+ * stages of those nested resolutions recorded at a greater depth.
+ * <p>
+ * An instance is attached to the RequestContext only when timing has been
+ * asked for (see ServerConfig.isDebugTiming()) or when the "trace" logger
+ * is enabled at debug level, in which case every completed stage is also
+ * written to that logger as a structured event.
+ * 
+ * @author stella
+ *
+ */
+public class RequestTimings {
+	private static final Logger traceLogger=LoggerFactory.getLogger("trace");
+	
+	public static class Stage {
+		public final String name;
+		public final String detail;
+		public final int depth;
+		public final long startNanos;
+		public long durationNanos=-1;
+		
+		Stage(String name, String detail, int depth) {
+			this.name=name;
+			this.detail=detail;
+			this.depth=depth;
+			this.startNanos=System.nanoTime();
+		}
+		
+		public double getDurationMillis() {
+			return durationNanos / 1000000.0;
+		}
+	}
+	
+	private List<Stage> stages=new ArrayList<Stage>();
+	private int depth;
+	private boolean trace=traceLogger.isDebugEnabled();
+	
+	/**
+	 * @return true if trace events should be emitted for stages
+	 */
+	public static boolean isTraceEnabled() {
+		return traceLogger.isDebugEnabled();
+	}
+	
+	/**
+	 * Begin a stage.  Must be balanced with a call to end(stage).
+	 * @param name stage name (should be a valid HTTP token)
+	 * @param detail free form detail (typically the path being processed) or null
+	 * @return the stage
+	 */
+	public Stage begin(String name, String detail) {
+		Stage stage=new Stage(name, detail, depth++);
+		stages.add(stage);
+		return stage;
+	}
+	
+	/**
+	 * End a stage previously started with begin
+	 * @param stage
+	 */
+	public void end(Stage stage) {
+		stage.durationNanos=System.nanoTime() - stage.startNanos;
+		depth=stage.depth;
+		
+		if (trace) {
+			StringBuilder event=new StringBuilder(128);
+			event.append("stage=").append(stage.name);
+			event.append(" depth=").append(stage.depth);
+			event.append(" durMs=").append(formatMillis(stage.durationNanos));
+			if (stage.detail!=null) event.append(" path=").append(stage.detail);
+			traceLogger.debug(event.toString());
+		}
+	}
+	
+	/**
+	 * @return all stages in the order they were started
+	 */
+	public List<Stage> getStages() {
+		return Collections.unmodifiableList(stages);
+	}
+	
+	/**
+	 * Format completed stages as the value of a Server-Timing header
+	 * @return header value or null if no stages completed
+	 */
+	public String toServerTiming() {
+		StringBuilder ret=new StringBuilder(stages.size()*48);
+		for (Stage stage: stages) {
+			if (stage.durationNanos<0) continue;
+			if (ret.length()>0) ret.append(", ");
+			ret.append(stage.name);
+			ret.append(";dur=").append(formatMillis(stage.durationNanos));
+			if (stage.detail!=null || stage.depth>0) {
+				ret.append(";desc=\"");
+				for (int i=0; i<stage.depth; i++) ret.append('>');
+				if (stage.detail!=null) {
+					if (stage.depth>0) ret.append(' ');
+					appendQuoted(ret, stage.detail);
+				}
+				ret.append('"');
+			}
+		}
+		
+		if (ret.length()==0) return null;
+		return ret.toString();
+	}
+	
+	private static void appendQuoted(StringBuilder dest, String s) {
+		for (int i=0; i<s.length(); i++) {
+			char c=s.charAt(i);
+			if (c=='"' || c=='\\') dest.append('\\');
+			if (c>=0x20 && c<0x7f) dest.append(c);
+		}
+	}
+	
+	private static String formatMillis(long nanos) {
+		// Microsecond resolution is plenty
+		long micros=nanos/1000;
+		StringBuilder ret=new StringBuilder(12);
+		ret.append(micros/1000).append('.');
+		long frac=micros%1000;
+		if (frac<100) ret.append('0');
+		if (frac<10) ret.append('0');
+		ret.append(frac);
+		return ret.toString();
+	}
+}
@@ -1,5 +1,6 @@
 package net.rcode.assetserver.core;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,8 +16,12 @@ import java.util.List;
  * the .asaccess file and if found, a copy of the previous context is made and used
  * as the basis to evaluate the new access file against.
  * <p>
- * Upon freezing, a hash is taken of the context state and this is used as a scope
- * identifier for an external cache (so that when invalidated, the cache can be flushed).
+ * Before freezing, the creator sets a hash of the context state (for the root, the
+ * configuration hash; for children, the parent hash plus the .asaccess contents).
+ * This is used as a scope identifier for an external cache (so that when invalidated,
+ * the cache can be flushed).
+ * Freezing also compiles the filter bindings into a FilterDispatchIndex so that
+ * getMatchingFilters() does not have to evaluate every predicate.
  * 
  * @author stella
  *
@@ -25,6 +30,8 @@ public class ResourceContext {
 	private boolean frozen;
 	private ResourceContext parent;
 	private List<FilterBinding> filters;
+	private FilterDispatchIndex dispatchIndex;
+	private String hash;
 	private FilterChainInitializerLookup filterLookup;
 	
 	/**
@@ -85,6 +92,7 @@ public class ResourceContext {
 		
 		frozen=true;
 		filters=Collections.unmodifiableList(filters);
+		dispatchIndex=new FilterDispatchIndex(filters);
 	}
 	
 	/**
@@ -94,6 +102,24 @@ public class ResourceContext {
 		return frozen;
 	}
 	
+	/**
+	 * @return hash identifying the state of this context (including its parents)
+	 * or null if it has not been set
+	 */
+	public String getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Set the hash that identifies the state of this context.  Cached results
+	 * that were produced under the context are keyed by it.
+	 * @param hash
+	 */
+	public void setHash(String hash) {
+		if (frozen) throw new IllegalStateException("ResourceContext is frozen");
+		this.hash=hash;
+	}
+	
 	/**
 	 * @return reference to the parent context
 	 */
@@ -109,6 +135,22 @@ public class ResourceContext {
 		return filters;
 	}
 	
+	/**
+	 * Get the filter bindings whose predicates match the given path.  Frozen
+	 * contexts consult their dispatch index; others test every binding.
+	 * @param assetPath
+	 * @return matching bindings in binding order
+	 */
+	public List<FilterBinding> getMatchingFilters(AssetPath assetPath) {
+		if (dispatchIndex!=null) return dispatchIndex.match(assetPath);
+		
+		List<FilterBinding> ret=new ArrayList<FilterBinding>();
+		for (FilterBinding binding: filters) {
+			if (binding.predicate.matches(assetPath)) ret.add(binding);
+		}
+		return ret;
+	}
+	
 	public FilterChainInitializer lookupFilterInitializer(String name) {
 		FilterChainInitializer ret;
 		if (filterLookup!=null) {
@@ -1,57 +1,154 @@
 package net.rcode.assetserver.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.ref.SoftReference;
 import java.util.concurrent.ConcurrentHashMap;
 
+import net.rcode.assetserver.util.IOUtil;
+import net.rcode.assetserver.util.MessageDigestBuilder;
+
 /**
  * Manages a root ResourceContext and a cache of child contexts mapped by key.
  * Child contexts are maintained as soft references relying on the ability to
  * regenerate them on demand.  Note that since contexts typically form a chain
  * to the root, collection will only occur at the leaves and proceed rootward
- * as the references expire. (TODO: references not currently implemented)
+ * as the references expire.  A child whose parent was collected and rebuilt
+ * no longer matches its parent and is rebuilt in turn.
  * <p>
- * This class does not actually manage the creation the contexts but it will
- * maintain contexts created by an outside agent (@see ResourceMount).
+ * Directory contexts are resolved with resolveDirectory(), which evaluates the
+ * .asaccess file of a directory (if any) once and caches the result, keyed by
+ * directory and stamped with the modification time and length of the file.
+ * A changed, added or removed file is picked up on the next resolution.
  * <p>
  * Lookup operations are typically lightly synchronized (just by way of the interal
  * controls of a ConcurrentHashMap) but mutate operations have explicit synchronization.
- * 
+ *
  * @author stella
  *
  */
 public class ResourceContextManager {
 	private ResourceContext rootContext;
 	private ResourceContextBuilder builder;
-	
-	private ConcurrentHashMap<Object, ResourceContext> childCache=new ConcurrentHashMap<Object, ResourceContext>();
-	
+
+	private ConcurrentHashMap<Object, SoftReference<ChildEntry>> childCache=new ConcurrentHashMap<Object, SoftReference<ChildEntry>>();
+
+	/**
+	 * A cached child context along with what it was built from
+	 */
+	private static class ChildEntry {
+		public final ResourceContext parent;
+		public final ResourceContext context;
+		public final long modified;
+		public final long length;
+
+		public ChildEntry(ResourceContext parent, ResourceContext context, long modified, long length) {
+			this.parent=parent;
+			this.context=context;
+			this.modified=modified;
+			this.length=length;
+		}
+
+		public boolean isValid(ResourceContext currentParent, long currentModified, long currentLength) {
+			return parent==currentParent && modified==currentModified && length==currentLength;
+		}
+	}
+
 	public ResourceContextManager(ResourceContext rootContext, ResourceContextBuilder builder) {
 		this.rootContext=rootContext;
 		this.builder=builder;
 	}
-	
+
 	public ResourceContext getRootContext() {
 		return rootContext;
 	}
-	
+
 	public ResourceContextBuilder getBuilder() {
 		return builder;
 	}
-	
+
 	/**
 	 * Lookup a ResourceContext by an opaque key (must properly implement disjoint equals and hashCode)
 	 * @param key
 	 * @return ResourceContext or null
 	 */
 	public ResourceContext lookup(Object key) {
-		return childCache.get(key);
+		ChildEntry entry=getEntry(key);
+		return entry!=null ? entry.context : null;
 	}
-	
+
 	/**
 	 * Put a ResourceContext into the cache.
 	 * @param key
 	 * @param context
 	 */
 	public synchronized void put(Object key, ResourceContext context) {
-		childCache.put(key, context);
+		childCache.put(key, new SoftReference<ChildEntry>(new ChildEntry(context.getParent(), context, 0, 0)));
+	}
+
+	private ChildEntry getEntry(Object key) {
+		SoftReference<ChildEntry> ref=childCache.get(key);
+		return ref!=null ? ref.get() : null;
+	}
+
+	/**
+	 * Get the context that applies within a directory.  If the directory has no
+	 * access file, this is the parent.  Otherwise it is a frozen child of the
+	 * parent built by evaluating the access file.
+	 * @param parent context of the containing directory (or the root context)
+	 * @param directory
+	 * @return context for the directory
+	 * @throws IOException if the access file could not be read
+	 */
+	public ResourceContext resolveDirectory(ResourceContext parent, File directory) throws IOException {
+		File accessFile=new File(directory, AssetServer.ACCESS_NAME);
+		long modified=accessFile.lastModified();
+		long length=modified!=0 ? accessFile.length() : 0;
+
+		String key=directory.getPath();
+		ChildEntry entry=getEntry(key);
+		if (entry!=null && entry.isValid(parent, modified, length)) return entry.context;
+
+		synchronized (this) {
+			// Another thread may have just built it
+			entry=getEntry(key);
+			if (entry!=null && entry.isValid(parent, modified, length)) return entry.context;
+
+			ResourceContext context;
+			if (modified==0) {
+				context=parent;
+			} else {
+				context=buildChild(parent, accessFile, key);
+			}
+			childCache.put(key, new SoftReference<ChildEntry>(new ChildEntry(parent, context, modified, length)));
+			return context;
+		}
+	}
+
+	private ResourceContext buildChild(ResourceContext parent, File accessFile, String key) throws IOException {
+		byte[] contents=IOUtil.slurpBinary(new FileInputStream(accessFile), (int)accessFile.length());
+
+		ResourceContext context=new ResourceContext(parent);
+		context.importParent();
+
+		MessageDigestBuilder digest=new MessageDigestBuilder("MD5");
+		digest.append(parent.getHash()!=null ? parent.getHash() : "");
+		digest.append(key);
+		digest.append(contents);
+		context.setHash(digest.getValueAsHex());
+
+		Reader reader=new InputStreamReader(new ByteArrayInputStream(contents), "UTF-8");
+		try {
+			builder.evaluateAsAccess(context, reader, accessFile.toString());
+		} finally {
+			reader.close();
+		}
+
+		context.freeze();
+		return context;
 	}
 }
@@ -30,6 +30,26 @@ public abstract class ResourceFilter implements FilterChainInitializer {
 		chain.getFilters().addLast(this);
 	}
 	
+	/**
+	 * Filters whose result depends only on the contents, content type and
+	 * character encoding of their input return a description of their own
+	 * configuration.  The FilterChain then memoizes the filter in the server's
+	 * StageCache, so input that was seen before is answered with the earlier
+	 * output without invoking the filter.  Anything else that can change the
+	 * result must be part of the description.
+	 * <p>
+	 * Since a memoized filter is not invoked on a hit, it must not add
+	 * dependencies or change the filter list.  A result produced while doing
+	 * either is used but not memoized.
+	 * <p>
+	 * Base class implementation returns null (always invoke the filter)
+	 * @param context
+	 * @return configuration or null if the result cannot be memoized
+	 */
+	public String getStageConfig(FilterChain context) {
+		return null;
+	}
+	
 	/**
 	 * Filters an AssetLocator from a source to a target
 	 * @param context
@@ -2,17 +2,19 @@ package net.rcode.assetserver.core;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import net.rcode.assetserver.cache.Cache;
-import net.rcode.assetserver.cache.CacheDependency;
-import net.rcode.assetserver.cache.CacheEntry;
 import net.rcode.assetserver.cache.CacheIdentity;
 import net.rcode.assetserver.cache.FileCacheDependency;
-import net.rcode.assetserver.util.IOUtil;
 import net.rcode.assetserver.util.NamePattern;
 
 /**
@@ -39,6 +41,20 @@ import net.rcode.assetserver.util.NamePattern;
  * <p>
  * Prior to matching a resource, the file is located on the filesystem and compared to
  * its canonical path in order to work around case insesntive file systems.
+ * <p>
+ * Symbolic links are rejected unless symlink roots have been added.  In that case a
+ * path that crosses a link is evaluated one component at a time, and every link must
+ * point within the mount location or one of the symlink roots.
+ * <p>
+ * For read-mostly trees, a snapshot of the directory tree can be taken with
+ * enableSnapshot().  Resolution, stat and listing are then answered from memory,
+ * and changes on disk are only seen after refreshSnapshot().
+ * <p>
+ * Filters are bound by the root context, refined by an .asaccess file in any
+ * directory between the mount location and the resource (see ResourceContextManager).
+ * The context resolved for a directory is cached.  With a snapshot it is kept until
+ * the snapshot is refreshed.  Without one, the access files are checked again once
+ * the context is older than the context check interval (1 second by default).
  * 
  * @author stella
  *
@@ -64,6 +80,125 @@ public class ResourceMount extends AssetMount {
 	 */
 	private AssetServer server;
 	
+	/**
+	 * Canonical directories that symbolic links may point into
+	 */
+	private List<File> symlinkRoots=new CopyOnWriteArrayList<File>();
+	
+	/**
+	 * If !null, the tree is served from this snapshot
+	 */
+	private volatile DirectorySnapshot snapshot;
+	
+	/**
+	 * At most this many resolved paths are cached per mount
+	 */
+	private static final int MAX_RESOLVED_PATHS=20000;
+	
+	/**
+	 * Results of resolveToFile keyed by decoded relative path, least recently
+	 * used first
+	 */
+	private Map<String, ResolvedPath> resolvedPaths=Collections.synchronizedMap(new LinkedHashMap<String, ResolvedPath>(256, 0.75f, true) {
+		private static final long serialVersionUID=1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ResolvedPath> eldest) {
+			return size()>MAX_RESOLVED_PATHS;
+		}
+	});
+	
+	/**
+	 * Resolved contexts keyed by decoded relative directory path, least recently
+	 * used first
+	 */
+	private Map<String, ResolvedContext> resolvedContexts=Collections.synchronizedMap(new LinkedHashMap<String, ResolvedContext>(64, 0.75f, true) {
+		private static final long serialVersionUID=1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ResolvedContext> eldest) {
+			return size()>MAX_RESOLVED_PATHS;
+		}
+	});
+	
+	private volatile long contextCheckMillis=1000;
+	
+	/**
+	 * A cached resolveContext result.  It stays valid for the context manager
+	 * and snapshot it was resolved under, and without a snapshot, until it is
+	 * older than the check interval.
+	 */
+	private static class ResolvedContext {
+		public final ResourceContext context;
+		public final ResourceContextManager contextManager;
+		public final DirectorySnapshot snapshot;
+		public final long checkedAt;
+		
+		public ResolvedContext(ResourceContext context, ResourceContextManager contextManager,
+				DirectorySnapshot snapshot, long checkedAt) {
+			this.context=context;
+			this.contextManager=contextManager;
+			this.snapshot=snapshot;
+			this.checkedAt=checkedAt;
+		}
+	}
+	
+	/**
+	 * A cached resolveToFile result.  The result stays valid as long as the
+	 * directory containing the file has not been modified (renames, deletions
+	 * and case changes all touch it) and the entry itself was not replaced.  If
+	 * an ancestor is moved, the directory no longer exists at its old path,
+	 * which also reads as a change.
+	 * <p>
+	 * The entry is compared by its own attributes (file key, modification time,
+	 * size and whether it is a link) because directory times are too coarse on
+	 * some filesystems to notice a replacement within the same tick.
+	 */
+	private static class ResolvedPath {
+		/**
+		 * The resolved file or null if the path is not valid
+		 */
+		public final File file;
+		public final File directory;
+		public final long directoryModified;
+		public final File entry;
+		
+		/**
+		 * Attributes of the entry itself or null if it did not exist
+		 */
+		public final BasicFileAttributes entryAttributes;
+		
+		public ResolvedPath(File file, File directory, long directoryModified, File entry, BasicFileAttributes entryAttributes) {
+			this.file=file;
+			this.directory=directory;
+			this.directoryModified=directoryModified;
+			this.entry=entry;
+			this.entryAttributes=entryAttributes;
+		}
+		
+		public boolean isValid() {
+			if (directory.lastModified()!=directoryModified) return false;
+			BasicFileAttributes current=readEntryAttributes(entry);
+			if (current==null || entryAttributes==null) return current==entryAttributes;
+			return current.isSymbolicLink()==entryAttributes.isSymbolicLink() &&
+				current.size()==entryAttributes.size() &&
+				current.lastModifiedTime().equals(entryAttributes.lastModifiedTime()) &&
+				(current.fileKey()==null ? entryAttributes.fileKey()==null : current.fileKey().equals(entryAttributes.fileKey()));
+		}
+	}
+	
+	/**
+	 * @return attributes of the file (not following a link) or null if it cannot
+	 * be read
+	 */
+	private static BasicFileAttributes readEntryAttributes(File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
 	public ResourceMount(File location, AssetServer server) throws IOException {
 		this.server=server;
 		this.location=location.getCanonicalFile();
@@ -80,17 +215,103 @@ public class ResourceMount extends AssetMount {
 	public NamePattern getDefaultExclusions() {
 		return defaultExclusions;
 	}
-	public void setDefaultExclusions(NamePattern defaultExclusions) {
+	public void setDefaultExclusions(NamePattern defaultExclusions) throws IOException {
 		this.defaultExclusions = defaultExclusions;
+		resolvedPaths.clear();
+		if (snapshot!=null) rebuildSnapshot();
 	}
 	
 	public NamePattern getUserExclusions() {
 		return userExclusions;
 	}
-	public void setUserExclusions(NamePattern userExclusions) {
+	public void setUserExclusions(NamePattern userExclusions) throws IOException {
 		this.userExclusions = userExclusions;
+		resolvedPaths.clear();
+		if (snapshot!=null) rebuildSnapshot();
 	}
 	
+	/**
+	 * @return the directories that symbolic links within this mount may point into
+	 */
+	public List<File> getSymlinkRoots() {
+		return Collections.unmodifiableList(symlinkRoots);
+	}
+	
+	/**
+	 * Allow symbolic links that point within the given directory.  Once any root is
+	 * added, links within the mount location are followed as well.
+	 * @param root
+	 * @throws IOException
+	 */
+	public void addSymlinkRoot(File root) throws IOException {
+		symlinkRoots.add(root.getCanonicalFile());
+		resolvedPaths.clear();
+		if (snapshot!=null) rebuildSnapshot();
+	}
+	
+	public long getContextCheckMillis() {
+		return contextCheckMillis;
+	}
+	
+	/**
+	 * @param contextCheckMillis how long a resolved context is used before the
+	 * access files it came from are checked again (0 checks on every use).  Has
+	 * no effect with a snapshot.
+	 */
+	public void setContextCheckMillis(long contextCheckMillis) {
+		this.contextCheckMillis=contextCheckMillis;
+	}
+	
+	public boolean isSnapshotEnabled() {
+		return snapshot!=null;
+	}
+	
+	/**
+	 * Take an in-memory snapshot of the tree and serve from it from now on
+	 * @throws IOException
+	 */
+	public synchronized void enableSnapshot() throws IOException {
+		long start=System.currentTimeMillis();
+		snapshot=DirectorySnapshot.build(location, snapshotFilter, null);
+		if (server!=null) server.getLogger().info("Snapshot of " + location + ": " + snapshot.size() + " entries in " + (System.currentTimeMillis()-start) + "ms");
+	}
+	
+	/**
+	 * Update the snapshot from the file system.  Only directories that have changed
+	 * are listed again.  Does nothing if snapshots are not enabled.
+	 * @throws IOException
+	 */
+	public synchronized void refreshSnapshot() throws IOException {
+		DirectorySnapshot current=snapshot;
+		if (current!=null) snapshot=DirectorySnapshot.build(location, snapshotFilter, current);
+	}
+	
+	private synchronized void rebuildSnapshot() throws IOException {
+		snapshot=DirectorySnapshot.build(location, snapshotFilter, null);
+	}
+	
+	/**
+	 * Applies the same exclusion and symlink rules as resolveToFile while building a
+	 * snapshot
+	 */
+	private DirectorySnapshot.EntryFilter snapshotFilter=new DirectorySnapshot.EntryFilter() {
+		@Override
+		public boolean accept(File parent, String name) throws IOException {
+			if (defaultExclusions!=null && defaultExclusions.matches(name)) return false;
+			if (userExclusions!=null && userExclusions.matches(name)) return false;
+			
+			File file=new File(parent, name);
+			if (!Files.isSymbolicLink(file.toPath())) return true;
+			if (symlinkRoots.isEmpty()) return false;
+			
+			String target=file.getCanonicalPath();
+			if (!isAllowedTarget(target)) return false;
+			
+			// Links to an ancestor would make the tree infinite
+			return !isWithin(parent.getCanonicalPath(), new File(target));
+		}
+	};
+	
 	/**
 	 * Resolve an AssetPath to the physical file that backs it.  Return null if the path 
 	 * is invalid in some way (incorrect case, symlinks, excluded components, etc).
@@ -98,11 +319,48 @@ public class ResourceMount extends AssetMount {
 	 * This method may also return null if the file does not exist, but it may return files
 	 * that do not exist.  Callers should perform their own existence checks.
 	 * 
+	 * <p>
+	 * Results are cached per path and revalidated against the modification time of the
+	 * containing directory and the attributes of the entry itself, so the canonical path
+	 * and exclusion checks only run again once either changes.
+	 * 
 	 * @param assetPath
 	 * @return The backing File or null
 	 * @throws Exception
 	 */
 	private File resolveToFile(AssetPath assetPath) throws Exception {
+		String[] components=assetPath.getPathComponents();
+		DirectorySnapshot currentSnapshot=snapshot;
+		if (currentSnapshot!=null) {
+			int index=currentSnapshot.find(components);
+			return index>=0 ? currentSnapshot.toFile(index) : null;
+		}
+		
+		StringBuilder keyAccum=new StringBuilder(assetPath.getPath().length() + 16);
+		for (String comp: components) {
+			keyAccum.append('/').append(comp);
+		}
+		String key=keyAccum.toString();
+		
+		ResolvedPath cached=resolvedPaths.get(key);
+		if (cached!=null && cached.isValid()) return cached.file;
+		
+		// Note the times before resolving so that a concurrent change leaves
+		// the entry stale rather than wrong
+		File directory=location;
+		if (components.length>1) {
+			directory=new File(location, key.substring(0, key.lastIndexOf('/')).replace('/', File.separatorChar));
+		}
+		File entry=components.length>0 ? new File(location, key.substring(1).replace('/', File.separatorChar)) : location;
+		long directoryModified=directory.lastModified();
+		BasicFileAttributes entryAttributes=readEntryAttributes(entry);
+		File resolvedFile=resolveToFileUncached(assetPath);
+		
+		resolvedPaths.put(key, new ResolvedPath(resolvedFile, directory, directoryModified, entry, entryAttributes));
+		return resolvedFile;
+	}
+	
+	private File resolveToFileUncached(AssetPath assetPath) throws Exception {
 		// Reconstruct the path using native directory separators so that we can
 		// do a string compare with a canonical path in order to determine correctness
 		// This will not work across symbolic links.
@@ -125,8 +383,7 @@ public class ResourceMount extends AssetMount {
 				return null;
 			} else {
 				// Potentially crosses a symlink boundary - do an expensive step-by-step eval
-				// TODO
-				return null;
+				if (symlinkRoots.isEmpty() || !resolveSymlinks(assetPath.getPathComponents())) return null;
 			}
 		}
 		
@@ -139,6 +396,50 @@ public class ResourceMount extends AssetMount {
 		return resolvedFile;
 	}
 	
+	/**
+	 * Walk the path components from the mount location, checking that each component
+	 * matches the filesystem exactly and that every symbolic link crossed points within
+	 * an allowed root.
+	 * @param components
+	 * @return true if the path is valid
+	 * @throws IOException
+	 */
+	private boolean resolveSymlinks(String[] components) throws IOException {
+		String current=location.getPath();
+		for (String comp: components) {
+			String literal=current.endsWith(File.separator) ? current + comp : current + File.separatorChar + comp;
+			String canonical=new File(literal).getCanonicalPath();
+			if (canonical.equals(literal)) {
+				current=literal;
+				continue;
+			}
+			
+			// Case mismatch
+			if (canonical.equalsIgnoreCase(literal)) return false;
+			
+			// Crossed a link.  The target must be allowed.
+			if (!isAllowedTarget(canonical)) return false;
+			current=canonical;
+		}
+		return true;
+	}
+	
+	private boolean isAllowedTarget(String canonicalPath) {
+		if (isWithin(canonicalPath, location)) return true;
+		for (File root: symlinkRoots) {
+			if (isWithin(canonicalPath, root)) return true;
+		}
+		return false;
+	}
+	
+	private static boolean isWithin(String canonicalPath, File root) {
+		String rootPath=root.getPath();
+		if (!canonicalPath.startsWith(rootPath)) return false;
+		return canonicalPath.length()==rootPath.length() ||
+			rootPath.endsWith(File.separator) ||
+			canonicalPath.charAt(rootPath.length())==File.separatorChar;
+	}
+	
 	@Override
 	public AssetLocator resolve(AssetPath assetPath) throws Exception {
 		RequestContext requestContext=server.enterRequestContext();
@@ -150,67 +451,114 @@ public class ResourceMount extends AssetMount {
 	}
 	
 	public AssetLocator resolveInContext(AssetPath assetPath, RequestContext requestContext) throws Exception {
-		File resolvedFile=resolveToFile(assetPath);
-		if (resolvedFile==null || !resolvedFile.isFile()) return null;
+		RequestTimings timings=requestContext.getTimings();
+		RequestTimings.Stage stage=null;
+		if (timings!=null) stage=timings.begin("resolve", assetPath.getFullPath());
+		try {
+			return resolveInContextTimed(assetPath, requestContext, timings);
+		} finally {
+			if (stage!=null) timings.end(stage);
+		}
+	}
+	
+	private AssetLocator resolveInContextTimed(AssetPath assetPath, RequestContext requestContext, RequestTimings timings) throws Exception {
+		RequestTimings.Stage stage=null;
+		if (timings!=null) stage=timings.begin("resolve-file", null);
+		File resolvedFile;
+		boolean found;
+		DirectorySnapshot currentSnapshot=snapshot;
+		if (currentSnapshot!=null) {
+			int index=currentSnapshot.find(assetPath.getPathComponents());
+			found=index>=0 && !currentSnapshot.isDirectory(index);
+			resolvedFile=found ? currentSnapshot.toFile(index) : null;
+		} else {
+			resolvedFile=resolveToFile(assetPath);
+			found=resolvedFile!=null && resolvedFile.isFile();
+		}
+		if (stage!=null) timings.end(stage);
+		if (!found) return null;
 		
-		// See if we have a valid hit in the cache
+		// Results are cached per context so that changing an access file
+		// sidesteps everything produced under the old rules
+		final ResourceContext resourceContext=resolveContext(assetPath);
+		String contextHash=resourceContext.getHash();
+		if (contextHash==null) contextHash=server.getConfigHash();
 		CacheIdentity identity=new CacheIdentity(getClass().getName(),
 				assetPath.getMountPoint(), assetPath.getPath(),
-				"");	// TODO: Add environment options redux
-		Cache cache=server.getSharedCache();
-		CacheEntry cacheEntry;
-		if (cache!=null) {
-			cacheEntry=cache.lookup(identity);
-			if (cacheEntry!=null && cacheEntry.isValid()) {
-				if (cacheEntry.isNullContent()) return null;
-				else return cacheEntry;
+				contextHash);
+		
+		final File file=resolvedFile;
+		FilterPipeline pipeline=new FilterPipeline(server, assetPath, file) {
+			@Override
+			protected AssetLocator createRootLocator() {
+				MimeMapping mimeMapping=server.getMimeMapping();
+				String mimeType=mimeMapping.lookup(file.getName());
+				FileAssetLocator rootLocator=new FileAssetLocator(file);
+				rootLocator.setContentType(mimeType);
+				if (mimeMapping.isTextualMimeType(mimeType)) {
+					// Set encoding
+					rootLocator.setCharacterEncoding(server.getDefaultTextFileEncoding());
+				}
+				return rootLocator;
+			}
+			
+			@Override
+			protected void initializeChain(RequestContext requestContext, FilterChain chain) {
+				requestContext.addDependency(new FileCacheDependency(file));
+				initializeFilterChain(resourceContext, chain, file);
 			}
+		};
+		return pipeline.resolve(requestContext, identity);
+	}
+
+	/**
+	 * @param assetPath
+	 * @return hash of the context that applies to the asset or null if its
+	 * mount does not have contexts
+	 * @throws IOException
+	 */
+	static String contextHash(AssetPath assetPath) throws IOException {
+		AssetMount mount=assetPath.getMount();
+		if (!(mount instanceof ResourceMount)) return null;
+		return ((ResourceMount)mount).resolveContext(assetPath).getHash();
+	}
+	
+	/**
+	 * Resolve the context that applies to a path: the root context refined by the
+	 * access file of each directory from the mount location down to the directory
+	 * containing the resource.  Results are cached per directory (see class
+	 * comment).
+	 * @param assetPath
+	 * @return context
+	 * @throws IOException
+	 */
+	protected ResourceContext resolveContext(AssetPath assetPath) throws IOException {
+		ResourceContextManager contextManager=server.getContextManager();
+		DirectorySnapshot currentSnapshot=snapshot;
+		String[] components=assetPath.getPathComponents();
+		StringBuilder keyAccum=new StringBuilder(assetPath.getPath().length() + 16);
+		for (int i=0; i<components.length-1; i++) {
+			keyAccum.append('/').append(components[i]);
 		}
+		String key=keyAccum.toString();
 		
-		// No hit -
-		// Create the root locator and initialize the filter chain
-		MimeMapping mimeMapping=server.getMimeMapping();
-		String mimeType=mimeMapping.lookup(resolvedFile.getName());
-		FileAssetLocator rootLocator=new FileAssetLocator(resolvedFile);
-		rootLocator.setContentType(mimeType);
-		if (mimeMapping.isTextualMimeType(mimeType)) {
-			// Set encoding
-			rootLocator.setCharacterEncoding(server.getDefaultTextFileEncoding());
+		long now=System.currentTimeMillis();
+		ResolvedContext cached=resolvedContexts.get(key);
+		if (cached!=null && cached.contextManager==contextManager && cached.snapshot==currentSnapshot &&
+				(currentSnapshot!=null || now-cached.checkedAt<contextCheckMillis)) {
+			return cached.context;
 		}
 		
-		FilterChain chain=new FilterChain(server, assetPath, rootLocator, resolvedFile);
-		requestContext.pushActiveFilterChain(chain);
-		try {
-			requestContext.addDependency(new FileCacheDependency(resolvedFile));
-			initializeFilterChain(server.getContextManager().getRootContext(), chain, resolvedFile);
-			chain.processFilters();
-			
-			// Get the resolved locator and handle caching
-			AssetLocator resolvedLocator=chain.getCurrent();
-			if (resolvedLocator==null || resolvedLocator.shouldCache()) {
-				// Cache negative results or things explicitly cacheable
-				CacheDependency[] dependencies=chain.getDependencies().toArray(new CacheDependency[chain.getDependencies().size()]);
-				if (resolvedLocator==null) {
-					// Store a negative cache entry
-					cacheEntry=new CacheEntry(identity, dependencies, null, null, null);
-					cache.store(cacheEntry);
-					return null;
-				} else {
-					// Store a positive cache entry and return it
-					cacheEntry=new CacheEntry(identity, dependencies, resolvedLocator.getContentType(),
-							resolvedLocator.getCharacterEncoding(), slurpLocatorContents(resolvedLocator));
-					cache.store(cacheEntry);
-					return cacheEntry;
-				}
-			} else {
-				// Not cacheable - just return
-				return resolvedLocator;
-			}
-		} finally {
-			requestContext.popActiveFilterChain();
+		ResourceContext context=contextManager.resolveDirectory(contextManager.getRootContext(), location);
+		File directory=location;
+		for (int i=0; i<components.length-1; i++) {
+			directory=new File(directory, components[i]);
+			context=contextManager.resolveDirectory(context, directory);
 		}
+		resolvedContexts.put(key, new ResolvedContext(context, contextManager, currentSnapshot, now));
+		return context;
 	}
-
+	
 	@Override
 	public boolean canStat() {
 		return true;
@@ -218,6 +566,17 @@ public class ResourceMount extends AssetMount {
 
 	@Override
 	public ResourceStat stat(AssetPath assetPath) throws Exception {
+		DirectorySnapshot currentSnapshot=snapshot;
+		if (currentSnapshot!=null) {
+			int index=currentSnapshot.find(assetPath.getPathComponents());
+			if (index<0) return null;
+			ResourceStat ret=new ResourceStat();
+			ret.path=assetPath;
+			ret.physicalPath=currentSnapshot.toFile(index);
+			ret.isDirectory=currentSnapshot.isDirectory(index);
+			return ret;
+		}
+		
 		File resolvedFile=resolveToFile(assetPath);
 		if (resolvedFile==null) return null;
 		
@@ -239,6 +598,9 @@ public class ResourceMount extends AssetMount {
 	@Override
 	public Collection<ResourceStat> listChildren(AssetPath parentPath)
 			throws Exception {
+		DirectorySnapshot currentSnapshot=snapshot;
+		if (currentSnapshot!=null) return listSnapshotChildren(currentSnapshot, parentPath);
+		
 		ResourceStat s=stat(parentPath);
 		if (!s.isDirectory) return Collections.emptySet();
 		
@@ -269,18 +631,31 @@ public class ResourceMount extends AssetMount {
 		return ret;
 	}
 	
-	private byte[] slurpLocatorContents(AssetLocator resolvedLocator) throws IOException {
-		InputStream input=resolvedLocator.openInput();
-		return IOUtil.slurpBinary(input, (int)resolvedLocator.length());
+	private Collection<ResourceStat> listSnapshotChildren(DirectorySnapshot currentSnapshot, AssetPath parentPath) {
+		int parent=currentSnapshot.find(parentPath.getPathComponents());
+		if (parent<0 || !currentSnapshot.isDirectory(parent)) return Collections.emptySet();
+		
+		int count=currentSnapshot.getChildCount(parent);
+		Collection<ResourceStat> ret=new ArrayList<ResourceStat>(count);
+		for (int i=0; i<count; i++) {
+			int child=currentSnapshot.getChild(parent, i);
+			AssetPath childPath=parentPath.createChild(currentSnapshot.getName(child));
+			if (childPath!=null) {
+				ResourceStat childStat=new ResourceStat();
+				childStat.path=childPath;
+				childStat.physicalPath=currentSnapshot.toFile(child);
+				childStat.isDirectory=currentSnapshot.isDirectory(child);
+				ret.add(childStat);
+			}
+		}
+		return ret;
 	}
-
+	
 	protected void initializeFilterChain(ResourceContext resourceContext, FilterChain chain, File resolvedFile) {
 		AssetPath assetPath=chain.getAssetPath();
-		for (ResourceContext.FilterBinding binding: resourceContext.getFilters()) {
-			if (binding.predicate.matches(assetPath)) {
-				// Add to the chain
-				binding.initializer.initializeChain(chain);
-			}
+		for (ResourceContext.FilterBinding binding: resourceContext.getMatchingFilters(assetPath)) {
+			// Add to the chain
+			binding.initializer.initializeChain(chain);
 		}
 	}
 	
@@ -1,7 +1,13 @@
 package net.rcode.assetserver.core;
 
 /**
- * Callaback for apis that produce lists of assets
+ * Callaback for apis that produce lists of assets.
+ * <p>
+ * Unless a scan is configured for parallel, unordered delivery (see ScanConfig),
+ * methods are invoked one at a time on the thread that started the scan.  For
+ * unordered parallel scans, both methods may be invoked concurrently from
+ * several threads and implementations must be thread safe.  handleDirectory is
+ * always invoked for a directory before any of its children.
  * @author stella
  *
  */
@@ -10,6 +10,8 @@ package net.rcode.assetserver.core;
 public class ScanConfig {
 	private String baseDir;
 	private boolean recursive;
+	private int parallelism=1;
+	private boolean ordered=true;
 	
 	public ScanConfig() {
 	}
@@ -29,4 +31,31 @@ public class ScanConfig {
 	public void setRecursive(boolean recursive) {
 		this.recursive = recursive;
 	}
+	
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Number of threads used to list directories.  Values of one or less scan on
+	 * the calling thread.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+	
+	public boolean isOrdered() {
+		return ordered;
+	}
+	
+	/**
+	 * For parallel scans, whether the callback is invoked on the calling thread
+	 * in sequential scan order (true, the default) or from worker threads as
+	 * entries are found (false)
+	 * @param ordered
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
 }
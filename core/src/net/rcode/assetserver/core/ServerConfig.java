@@ -10,6 +10,26 @@ package net.rcode.assetserver.core;
  *     disable the browser from caching the content.
  * <li>noOptimize (default=false): If true, then any resource filters that involve optimizing
  *     or obfuscating a resource will be disabled
+ * <li>debugTiming (default=false): If true, then HTTP handlers will record the time spent in
+ *     each stage of resolving a resource and report it in a Server-Timing header
+ * </ul>
+ * <h2>HTTP Front-end Tuning</h2>
+ * These are read when the HTTP server starts.  A value of zero leaves the Jetty
+ * default in place.
+ * <ul>
+ * <li>httpMinThreads, httpMaxThreads: Size of the request thread pool
+ * <li>httpMaxQueued: Maximum number of requests queued waiting for a thread
+ * <li>httpAcceptors: Number of acceptor threads (also the number of selectors)
+ * <li>httpMaxIdleTime: Milliseconds before an idle connection is closed
+ * <li>httpAcceptQueueSize: Listen backlog for the server socket
+ * <li>httpResponseBufferSize: Size in bytes of the response body buffer
+ * <li>httpVirtualThreads (default=false): If true, requests are handled on virtual
+ *     threads instead of a thread pool (requires Java 21 or later; ignored otherwise)
+ * <li>httpAsyncWriteThreshold (default=262144): Response bodies of at least this many
+ *     bytes are written by the transfer pool instead of the request thread (0 disables)
+ * <li>httpTransferThreads (default=16): Number of threads writing large response bodies
+ * <li>httpTransferQueue (default=256): Maximum number of large response bodies waiting for
+ *     a transfer thread.  When full, bodies are written by the request thread.
  * </ul>
  * 
  * @author stella
@@ -18,6 +38,18 @@ package net.rcode.assetserver.core;
 public class ServerConfig {
 	private boolean httpNoCache=true;
 	private boolean noOptimize;
+	private boolean debugTiming;
+	private int httpMinThreads;
+	private int httpMaxThreads;
+	private int httpMaxQueued;
+	private int httpAcceptors;
+	private int httpMaxIdleTime;
+	private int httpAcceptQueueSize;
+	private int httpResponseBufferSize;
+	private boolean httpVirtualThreads;
+	private int httpAsyncWriteThreshold=256*1024;
+	private int httpTransferThreads=16;
+	private int httpTransferQueue=256;
 	
 	public boolean isHttpNoCache() {
 		return httpNoCache;
@@ -32,4 +64,88 @@ public class ServerConfig {
 	public void setNoOptimize(boolean noOptimize) {
 		this.noOptimize = noOptimize;
 	}
+	
+	public boolean isDebugTiming() {
+		return debugTiming;
+	}
+	public void setDebugTiming(boolean debugTiming) {
+		this.debugTiming = debugTiming;
+	}
+	
+	public int getHttpMinThreads() {
+		return httpMinThreads;
+	}
+	public void setHttpMinThreads(int httpMinThreads) {
+		this.httpMinThreads = httpMinThreads;
+	}
+	
+	public int getHttpMaxThreads() {
+		return httpMaxThreads;
+	}
+	public void setHttpMaxThreads(int httpMaxThreads) {
+		this.httpMaxThreads = httpMaxThreads;
+	}
+	
+	public int getHttpMaxQueued() {
+		return httpMaxQueued;
+	}
+	public void setHttpMaxQueued(int httpMaxQueued) {
+		this.httpMaxQueued = httpMaxQueued;
+	}
+	
+	public int getHttpAcceptors() {
+		return httpAcceptors;
+	}
+	public void setHttpAcceptors(int httpAcceptors) {
+		this.httpAcceptors = httpAcceptors;
+	}
+	
+	public int getHttpMaxIdleTime() {
+		return httpMaxIdleTime;
+	}
+	public void setHttpMaxIdleTime(int httpMaxIdleTime) {
+		this.httpMaxIdleTime = httpMaxIdleTime;
+	}
+	
+	public int getHttpAcceptQueueSize() {
+		return httpAcceptQueueSize;
+	}
+	public void setHttpAcceptQueueSize(int httpAcceptQueueSize) {
+		this.httpAcceptQueueSize = httpAcceptQueueSize;
+	}
+	
+	public int getHttpResponseBufferSize() {
+		return httpResponseBufferSize;
+	}
+	public void setHttpResponseBufferSize(int httpResponseBufferSize) {
+		this.httpResponseBufferSize = httpResponseBufferSize;
+	}
+	
+	public boolean isHttpVirtualThreads() {
+		return httpVirtualThreads;
+	}
+	public void setHttpVirtualThreads(boolean httpVirtualThreads) {
+		this.httpVirtualThreads = httpVirtualThreads;
+	}
+	
+	public int getHttpAsyncWriteThreshold() {
+		return httpAsyncWriteThreshold;
+	}
+	public void setHttpAsyncWriteThreshold(int httpAsyncWriteThreshold) {
+		this.httpAsyncWriteThreshold = httpAsyncWriteThreshold;
+	}
+	
+	public int getHttpTransferThreads() {
+		return httpTransferThreads;
+	}
+	public void setHttpTransferThreads(int httpTransferThreads) {
+		this.httpTransferThreads = httpTransferThreads;
+	}
+	
+	public int getHttpTransferQueue() {
+		return httpTransferQueue;
+	}
+	public void setHttpTransferQueue(int httpTransferQueue) {
+		this.httpTransferQueue = httpTransferQueue;
+	}
 }
@@ -0,0 +1,120 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.rcode.assetserver.util.BlockOutputStream;
+import net.rcode.assetserver.util.NonClosingOutputStream;
+
+/**
+ * AssetLocator for the result of applying a FilterStage to a source locator.
+ * Nothing is computed up front.  writeTo() pushes the source through the stage
+ * straight into the target, and since the source may itself be a streaming
+ * locator, a run of stages produces its output without intermediate buffers.
+ * <p>
+ * openInput(), getBytes() and length() need the whole result, which is
+ * produced into a buffer on first use and kept.  Until then length() is
+ * unknown (-1).
+ *
+ * @author stella
+ *
+ */
+public class StreamingAssetLocator implements AssetLocator {
+	private AssetLocator source;
+	private FilterStage stage;
+	private boolean shouldCache=true;
+	private String contentType;
+	private String characterEncoding;
+	private volatile BlockOutputStream buffer;
+
+	public StreamingAssetLocator(AssetLocator source, FilterStage stage) {
+		this.source=source;
+		this.stage=stage;
+		this.contentType=source.getContentType();
+		this.characterEncoding=source.getCharacterEncoding();
+	}
+
+	public AssetLocator getSource() {
+		return source;
+	}
+
+	public FilterStage getStage() {
+		return stage;
+	}
+
+	public void setShouldCache(boolean shouldCache) {
+		this.shouldCache = shouldCache;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public void setCharacterEncoding(String characterEncoding) {
+		this.characterEncoding = characterEncoding;
+	}
+
+	@Override
+	public boolean shouldCache() {
+		return shouldCache;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	@Override
+	public String getETag() {
+		return null;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		BlockOutputStream current=buffer;
+		if (current!=null) {
+			current.writeTo(out);
+			return;
+		}
+
+		OutputStream stageOut=stage.open(new NonClosingOutputStream(out));
+		source.writeTo(stageOut);
+		stageOut.close();
+	}
+
+	@Override
+	public InputStream openInput() throws IOException {
+		return materialize().openInput();
+	}
+
+	@Override
+	public byte[] getBytes() throws IOException {
+		return materialize().getBytes();
+	}
+
+	@Override
+	public long length() {
+		BlockOutputStream current=buffer;
+		return current!=null ? current.length() : -1;
+	}
+
+	private synchronized BlockOutputStream materialize() throws IOException {
+		if (buffer==null) {
+			BlockOutputStream result=new BlockOutputStream();
+			writeTo(result);
+			buffer=result;
+		}
+		return buffer;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamingAssetLocator(" + stage + " <- " + source + ")";
+	}
+}
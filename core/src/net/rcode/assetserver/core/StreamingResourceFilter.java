@@ -0,0 +1,45 @@
+package net.rcode.assetserver.core;
+
+/**
+ * Base class for filters that can transform their input as a stream.  Instead
+ * of producing a buffer, filter() returns a StreamingAssetLocator that applies
+ * the FilterStage from createStage() when the result is written.  Consecutive
+ * streaming filters compose into one pipeline without buffers in between.
+ * <p>
+ * What this saves is the copies between stages, not the final one.  A result
+ * that is not cached is written to the response as it is produced, but a
+ * cached result is still collected into the byte array of its CacheEntry (and
+ * gzipped from there for textual types).
+ * <p>
+ * Filters that need all of their input before producing output (ie. optimizers)
+ * or whose processing depends on the chain should extend ResourceFilter directly.
+ * None of the built-in filters stream: EJS edits the chain while it runs and
+ * the optimizers need their whole input.
+ *
+ * @author stella
+ *
+ */
+public abstract class StreamingResourceFilter extends ResourceFilter {
+
+	protected StreamingResourceFilter(String id) {
+		super(id);
+	}
+
+	@Override
+	public AssetLocator filter(FilterChain context, AssetLocator source)
+			throws Exception {
+		FilterStage stage=createStage(context, source);
+		if (stage==null) return source;
+		return new StreamingAssetLocator(source, stage);
+	}
+
+	/**
+	 * Create the stage to apply to the source.  This is called while the chain
+	 * is being processed, so dependencies are added here and not by the stage.
+	 * @param context
+	 * @param source
+	 * @return the stage or null to pass the source through unchanged
+	 * @throws Exception
+	 */
+	protected abstract FilterStage createStage(FilterChain context, AssetLocator source) throws Exception;
+}
@@ -0,0 +1,43 @@
+package net.rcode.assetserver.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import net.rcode.assetserver.util.WriterOutputStream;
+
+/**
+ * A FilterStage over characters.  Input is decoded and output encoded with
+ * the same character encoding, so subclasses only implement a Writer that
+ * transforms what is written to it.
+ *
+ * @author stella
+ *
+ */
+public abstract class TextFilterStage implements FilterStage {
+	private Charset charset;
+
+	protected TextFilterStage(String encoding) {
+		this.charset=Charset.forName(encoding);
+	}
+
+	public String getEncoding() {
+		return charset.name();
+	}
+
+	@Override
+	public OutputStream open(OutputStream out) throws IOException {
+		return new WriterOutputStream(open(new OutputStreamWriter(out, charset)), charset);
+	}
+
+	/**
+	 * Open the stage for input.  Closing the returned Writer completes the stage
+	 * and must close out.
+	 * @param out receives the transformed output
+	 * @return Writer to write the input to
+	 * @throws IOException
+	 */
+	protected abstract Writer open(Writer out) throws IOException;
+}
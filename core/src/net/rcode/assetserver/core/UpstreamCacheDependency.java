@@ -0,0 +1,55 @@
+package net.rcode.assetserver.core;
+
+import java.io.Serializable;
+
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+
+/**
+ * Declare a dependency on a resource of an upstream HTTP origin.  Stores the
+ * validator (ETag, Last-Modified or content hash) of the upstream response and
+ * is invalid once the origin serves a different one.  Checking validity goes
+ * through the owning HttpProxyAssetMount, which revalidates with a conditional
+ * request at most once per revalidation interval.
+ *
+ * @author stella
+ *
+ */
+public class UpstreamCacheDependency extends CacheDependency implements Serializable {
+	private static final long serialVersionUID=CacheEntry.GLOBAL_SERIAL_VERSION_UID;
+
+	private String origin;
+	private String path;
+	private String validator;
+
+	protected UpstreamCacheDependency() { }
+	public UpstreamCacheDependency(HttpProxyAssetMount mount, String path, String validator) {
+		this.origin=mount.getOriginKey();
+		this.path=path;
+		this.validator=validator;
+	}
+
+	@Override
+	public boolean isValid() {
+		HttpProxyAssetMount mount=HttpProxyAssetMount.forOrigin(origin);
+		return mount!=null && mount.isCurrent(path, validator);
+	}
+
+	@Override
+	public String toString() {
+		return "upstream:" + origin + path;
+	}
+
+	@Override
+	public int hashCode() {
+		return origin.hashCode() ^ path.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj==null) return false;
+		if (!(obj instanceof UpstreamCacheDependency)) return false;
+		UpstreamCacheDependency other=(UpstreamCacheDependency)obj;
+		return other.origin.equals(origin) && other.path.equals(path);
+	}
+}
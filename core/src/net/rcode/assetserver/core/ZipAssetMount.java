@@ -0,0 +1,562 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import net.rcode.assetserver.util.IOUtil;
+import net.rcode.assetserver.util.NamePattern;
+
+/**
+ * Serves assets directly out of a zip or jar archive.  The central directory is
+ * read into memory when the archive is opened and the archive itself is memory
+ * mapped, so resolving a path never touches the file system and entry contents are
+ * read straight out of the mapping.
+ * <p>
+ * Stored entries are served from a slice of the mapping.  Deflated entries are
+ * inflated for plain clients, but gzip accepting clients get the raw deflate data
+ * wrapped in a gzip header and trailer, so the archive's compression is reused
+ * instead of compressing again.
+ * <p>
+ * Archive entries are served as is: no filter chain is run for them.  If the archive
+ * changes on disk, it is reopened on the next request.  Zip64 archives and encrypted
+ * entries are not supported.
+ * <p>
+ * Because the archive is mapped, a new version must be deployed by renaming it over
+ * the old one (as mv and most deploy tools do), not by rewriting the file in place
+ * (as cp does).  Locators already handed out keep reading the old mapping, which
+ * stays intact only while the old file is left alone.  Locators check that the file
+ * is unchanged before reading from the mapping and fail with an IOException if it
+ * was modified, but a rewrite that races with a read can still fault.
+ *
+ * @author stella
+ *
+ */
+public class ZipAssetMount extends AssetMount {
+	private static final int EOCD_SIGNATURE=0x06054b50;
+	private static final int CENTRAL_SIGNATURE=0x02014b50;
+	private static final int LOCAL_SIGNATURE=0x04034b50;
+	private static final int EOCD_LENGTH=22;
+	private static final int MAX_COMMENT_LENGTH=0xffff;
+
+	private static final int METHOD_STORED=0;
+	private static final int METHOD_DEFLATED=8;
+
+	private static final Charset UTF8=Charset.forName("UTF-8");
+	private static final Charset IBM437=Charset.isSupported("IBM437") ? Charset.forName("IBM437") : Charset.forName("ISO-8859-1");
+
+	/**
+	 * Name patterns that will be excluded by default if encountered
+	 */
+	private NamePattern defaultExclusions=NamePattern.DEFAULT_EXCLUDES;
+
+	private File archiveFile;
+	private AssetServer server;
+
+	/**
+	 * Directory within the archive that is served (no leading or trailing slash)
+	 */
+	private String archiveRoot="";
+
+	private volatile Archive archive;
+
+	public ZipAssetMount(File archiveFile, AssetServer server) throws IOException {
+		this.archiveFile=archiveFile.getCanonicalFile();
+		this.server=server;
+	}
+
+	public File getArchiveFile() {
+		return archiveFile;
+	}
+
+	public String getArchiveRoot() {
+		return archiveRoot;
+	}
+
+	/**
+	 * Serve only the entries under the given directory of the archive (ie.
+	 * "META-INF/resources" for a servlet resource jar)
+	 * @param archiveRoot
+	 */
+	public synchronized void setArchiveRoot(String archiveRoot) {
+		if (archiveRoot==null) archiveRoot="";
+		while (archiveRoot.startsWith("/")) archiveRoot=archiveRoot.substring(1);
+		while (archiveRoot.endsWith("/")) archiveRoot=archiveRoot.substring(0, archiveRoot.length()-1);
+		this.archiveRoot=archiveRoot;
+		this.archive=null;
+	}
+
+	@Override
+	public String toString() {
+		return "ZipAssetMount(" + archiveFile + ")";
+	}
+
+	/**
+	 * In memory view of the central directory
+	 */
+	private static class Archive {
+		final File file;
+		final long lastModified;
+		final long length;
+		final ByteBuffer mapping;
+
+		/**
+		 * Entries keyed by their path under the archive root ("" for the root)
+		 */
+		final Map<String, Entry> entries=new HashMap<String, Entry>();
+
+		Archive(File file, long lastModified, long length, ByteBuffer mapping) {
+			this.file=file;
+			this.lastModified=lastModified;
+			this.length=length;
+			this.mapping=mapping;
+		}
+		
+		/**
+		 * @return true if the file on disk is the one that was mapped
+		 */
+		boolean isCurrent() {
+			return lastModified==file.lastModified() && length==file.length();
+		}
+		
+		/**
+		 * Make sure the mapping can still be read
+		 * @throws IOException if the file was modified since it was mapped
+		 */
+		void checkCurrent() throws IOException {
+			if (!isCurrent()) throw new IOException("Archive " + file + " was modified while in use");
+		}
+	}
+
+	private static class Entry {
+		final String name;
+		final boolean directory;
+		int method;
+		long crc;
+		int compressedSize;
+		int size;
+		int dataOffset;
+		String[] children=AssetPath.EMPTY_STRINGS;
+
+		Entry(String name, boolean directory) {
+			this.name=name;
+			this.directory=directory;
+		}
+	}
+
+	private Archive getArchive() throws IOException {
+		Archive current=archive;
+		if (current!=null && current.isCurrent()) {
+			return current;
+		}
+
+		synchronized (this) {
+			current=archive;
+			if (current==null || !current.isCurrent()) {
+				current=openArchive();
+				archive=current;
+			}
+			return current;
+		}
+	}
+
+	private Archive openArchive() throws IOException {
+		long lastModified=archiveFile.lastModified();
+		RandomAccessFile raf=new RandomAccessFile(archiveFile, "r");
+		MappedByteBuffer mapping;
+		try {
+			long length=raf.length();
+			if (length>Integer.MAX_VALUE) throw new IOException("Archive too large to map: " + archiveFile);
+			mapping=raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+		mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+		Archive ret=new Archive(archiveFile, lastModified, mapping.capacity(), mapping);
+		readCentralDirectory(ret);
+		return ret;
+	}
+
+	private void readCentralDirectory(Archive a) throws IOException {
+		ByteBuffer m=a.mapping;
+		int eocd=findEndOfCentralDirectory(m);
+		if (eocd<0) throw new IOException("Not a zip archive: " + archiveFile);
+
+		int entryCount=m.getShort(eocd+10) & 0xffff;
+		int directoryOffset=m.getInt(eocd+16);
+		if (entryCount==0xffff || directoryOffset==-1) {
+			throw new IOException("Zip64 archives are not supported: " + archiveFile);
+		}
+
+		String prefix=archiveRoot.length()==0 ? "" : archiveRoot + '/';
+		Map<String, TreeSet<String>> children=new HashMap<String, TreeSet<String>>();
+		a.entries.put("", new Entry("", true));
+
+		int pos=directoryOffset;
+		for (int i=0; i<entryCount; i++) {
+			if (pos+46>m.limit() || m.getInt(pos)!=CENTRAL_SIGNATURE) {
+				throw new IOException("Corrupt central directory in " + archiveFile);
+			}
+			int flags=m.getShort(pos+8) & 0xffff;
+			int method=m.getShort(pos+10) & 0xffff;
+			long crc=m.getInt(pos+16) & 0xffffffffL;
+			int compressedSize=m.getInt(pos+20);
+			int size=m.getInt(pos+24);
+			int nameLength=m.getShort(pos+28) & 0xffff;
+			int extraLength=m.getShort(pos+30) & 0xffff;
+			int commentLength=m.getShort(pos+32) & 0xffff;
+			int localOffset=m.getInt(pos+42);
+			String name=readString(m, pos+46, nameLength, (flags & 0x800)!=0 ? UTF8 : IBM437);
+			pos+=46+nameLength+extraLength+commentLength;
+
+			// Skip encrypted entries, entries outside of the root and anything
+			// we do not know how to serve
+			if ((flags & 1)!=0) continue;
+			if (!name.startsWith(prefix)) continue;
+			if (compressedSize<0 || size<0 || localOffset<0) {
+				throw new IOException("Zip64 archives are not supported: " + archiveFile);
+			}
+
+			boolean directory=name.endsWith("/");
+			if (name.length()<=prefix.length()) continue;
+			String path=name.substring(prefix.length(), directory ? name.length()-1 : name.length());
+			if (path.length()==0 || !isValidPath(path)) continue;
+			if (!directory && method!=METHOD_STORED && method!=METHOD_DEFLATED) continue;
+
+			Entry entry=new Entry(path, directory);
+			if (!directory) {
+				entry.method=method;
+				entry.crc=crc;
+				entry.compressedSize=compressedSize;
+				entry.size=size;
+				entry.dataOffset=findData(m, localOffset);
+				if (entry.dataOffset<0 || (long)entry.dataOffset+compressedSize>m.limit()) {
+					throw new IOException("Corrupt entry " + name + " in " + archiveFile);
+				}
+			}
+			addEntry(a, children, entry);
+		}
+
+		for (Map.Entry<String, TreeSet<String>> e: children.entrySet()) {
+			TreeSet<String> names=e.getValue();
+			a.entries.get(e.getKey()).children=names.toArray(new String[names.size()]);
+		}
+	}
+
+	/**
+	 * Add an entry along with any directories implied by its path
+	 */
+	private void addEntry(Archive a, Map<String, TreeSet<String>> children, Entry entry) {
+		Entry existing=a.entries.get(entry.name);
+		if (existing!=null && (existing.directory || !entry.directory)) return;
+		a.entries.put(entry.name, entry);
+
+		String path=entry.name;
+		for (;;) {
+			int slash=path.lastIndexOf('/');
+			String parent=slash<0 ? "" : path.substring(0, slash);
+			TreeSet<String> names=children.get(parent);
+			if (names==null) {
+				names=new TreeSet<String>();
+				children.put(parent, names);
+			}
+			names.add(path.substring(slash+1));
+
+			if (parent.length()==0 || a.entries.containsKey(parent)) break;
+			a.entries.put(parent, new Entry(parent, true));
+			path=parent;
+		}
+	}
+
+	private boolean isValidPath(String path) {
+		for (String component: AssetPath.PATH_SPLIT_PATTERN.split(path)) {
+			if (component.length()==0 || ".".equals(component) || "..".equals(component)) return false;
+			if (component.indexOf('\\')>=0 || component.indexOf(':')>=0) return false;
+			if (defaultExclusions!=null && defaultExclusions.matches(component)) return false;
+		}
+		return true;
+	}
+
+	private static int findEndOfCentralDirectory(ByteBuffer m) {
+		int limit=m.limit();
+		int stop=Math.max(0, limit-EOCD_LENGTH-MAX_COMMENT_LENGTH);
+		for (int pos=limit-EOCD_LENGTH; pos>=stop; pos--) {
+			if (m.getInt(pos)==EOCD_SIGNATURE) return pos;
+		}
+		return -1;
+	}
+
+	/**
+	 * The local header repeats the name and has its own extra field, so the data
+	 * offset can only be found by reading it
+	 */
+	private static int findData(ByteBuffer m, int localOffset) {
+		if (localOffset+30>m.limit() || m.getInt(localOffset)!=LOCAL_SIGNATURE) return -1;
+		int nameLength=m.getShort(localOffset+26) & 0xffff;
+		int extraLength=m.getShort(localOffset+28) & 0xffff;
+		return localOffset+30+nameLength+extraLength;
+	}
+
+	private static String readString(ByteBuffer m, int offset, int length, Charset charset) {
+		byte[] bytes=new byte[length];
+		for (int i=0; i<length; i++) bytes[i]=m.get(offset+i);
+		return new String(bytes, charset);
+	}
+
+	private static String toEntryPath(AssetPath assetPath) {
+		String[] components=assetPath.getPathComponents();
+		if (components.length==0) return "";
+		if (components.length==1) return components[0];
+		StringBuilder sb=new StringBuilder(assetPath.getPath().length());
+		for (int i=0; i<components.length; i++) {
+			if (i>0) sb.append('/');
+			sb.append(components[i]);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public AssetLocator resolve(AssetPath assetPath) throws Exception {
+		Archive a=getArchive();
+		Entry entry=a.entries.get(toEntryPath(assetPath));
+		if (entry==null || entry.directory) return null;
+
+		String contentType="application/octet-string", characterEncoding=null;
+		if (server!=null) {
+			MimeMapping mimeMapping=server.getMimeMapping();
+			String baseName=assetPath.getBaseName();
+			contentType=mimeMapping.lookup(baseName!=null ? baseName : entry.name);
+			if (mimeMapping.isTextualMimeType(contentType)) {
+				characterEncoding=server.getDefaultTextFileEncoding();
+			}
+		}
+		return new ZipEntryLocator(a, entry, contentType, characterEncoding);
+	}
+
+	@Override
+	public boolean canStat() {
+		return true;
+	}
+
+	@Override
+	public ResourceStat stat(AssetPath assetPath) throws Exception {
+		Entry entry=getArchive().entries.get(toEntryPath(assetPath));
+		if (entry==null) return null;
+
+		ResourceStat ret=new ResourceStat();
+		ret.path=assetPath;
+		ret.physicalPath=null;
+		ret.isDirectory=entry.directory;
+		return ret;
+	}
+
+	@Override
+	public Collection<ResourceStat> listChildren(AssetPath parentPath) throws Exception {
+		Archive a=getArchive();
+		Entry parent=a.entries.get(toEntryPath(parentPath));
+		if (parent==null || !parent.directory || parent.children.length==0) return Collections.emptySet();
+
+		Collection<ResourceStat> ret=new ArrayList<ResourceStat>(parent.children.length);
+		for (String childName: parent.children) {
+			AssetPath childPath=parentPath.createChild(childName);
+			if (childPath==null) continue;
+			Entry child=a.entries.get(parent.name.length()==0 ? childName : parent.name + '/' + childName);
+
+			ResourceStat childStat=new ResourceStat();
+			childStat.path=childPath;
+			childStat.physicalPath=null;
+			childStat.isDirectory=child!=null && child.directory;
+			ret.add(childStat);
+		}
+		return ret;
+	}
+
+	/**
+	 * Locator for one archive entry
+	 */
+	private static class ZipEntryLocator implements AssetLocator, GzipContentProvider {
+		private static final byte[] GZIP_HEADER=new byte[] {
+			0x1f, (byte)0x8b, METHOD_DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff
+		};
+
+		private final Archive archive;
+		private final Entry entry;
+		private final String contentType;
+		private final String characterEncoding;
+
+		ZipEntryLocator(Archive archive, Entry entry, String contentType, String characterEncoding) {
+			this.archive=archive;
+			this.entry=entry;
+			this.contentType=contentType;
+			this.characterEncoding=characterEncoding;
+		}
+
+		/**
+		 * @return a private view of the entry's raw data in the mapping
+		 */
+		private ByteBuffer rawData() {
+			ByteBuffer ret=archive.mapping.duplicate();
+			ret.limit(entry.dataOffset+entry.compressedSize);
+			ret.position(entry.dataOffset);
+			return ret.slice();
+		}
+
+		@Override
+		public boolean shouldCache() {
+			return false;
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		@Override
+		public String getETag() {
+			return "Z:" + entry.crc + ":" + entry.size;
+		}
+
+		@Override
+		public InputStream openInput() throws IOException {
+			InputStream raw=new ByteBufferInputStream(archive, rawData());
+			if (entry.method==METHOD_STORED) return raw;
+			return new InflaterInputStream(raw, new Inflater(true), 8192) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					inf.end();
+				}
+			};
+		}
+
+		@Override
+		public byte[] getBytes() throws IOException {
+			return IOUtil.slurpBinary(openInput(), entry.size);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			if (entry.method==METHOD_STORED) {
+				writeBuffer(archive, rawData(), out);
+				return;
+			}
+
+			InputStream input=openInput();
+			try {
+				byte[] buffer=new byte[8192];
+				for (;;) {
+					int r=input.read(buffer);
+					if (r<0) break;
+					out.write(buffer, 0, r);
+				}
+			} finally {
+				input.close();
+			}
+		}
+
+		@Override
+		public long length() {
+			return entry.size;
+		}
+
+		@Override
+		public long getGzipLength() {
+			if (entry.method!=METHOD_DEFLATED) return -1;
+			return GZIP_HEADER.length + entry.compressedSize + 8;
+		}
+
+		@Override
+		public void writeGzipTo(OutputStream out) throws IOException {
+			if (entry.method!=METHOD_DEFLATED) throw new IllegalStateException("Entry is not deflated");
+			out.write(GZIP_HEADER);
+			writeBuffer(archive, rawData(), out);
+
+			byte[] trailer=new byte[8];
+			writeIntLE(trailer, 0, (int)entry.crc);
+			writeIntLE(trailer, 4, entry.size);
+			out.write(trailer);
+		}
+
+		private static void writeIntLE(byte[] buffer, int offset, int value) {
+			buffer[offset]=(byte)value;
+			buffer[offset+1]=(byte)(value>>8);
+			buffer[offset+2]=(byte)(value>>16);
+			buffer[offset+3]=(byte)(value>>24);
+		}
+
+		private static void writeBuffer(Archive archive, ByteBuffer data, OutputStream out) throws IOException {
+			byte[] buffer=new byte[Math.min(data.remaining(), 16384)];
+			while (data.hasRemaining()) {
+				int n=Math.min(data.remaining(), buffer.length);
+				archive.checkCurrent();
+				data.get(buffer, 0, n);
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Reads a view of an archive mapping, checking the archive before each
+	 * bulk read
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final Archive archive;
+		private final ByteBuffer data;
+
+		ByteBufferInputStream(Archive archive, ByteBuffer data) {
+			this.archive=archive;
+			this.data=data;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!data.hasRemaining()) return -1;
+			if (data.position()==0) archive.checkCurrent();
+			return data.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len==0) return 0;
+			if (!data.hasRemaining()) return -1;
+			int n=Math.min(len, data.remaining());
+			archive.checkCurrent();
+			data.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped=(int)Math.min(Math.max(n, 0), data.remaining());
+			data.position(data.position()+skipped);
+			return skipped;
+		}
+	}
+}
@@ -13,29 +13,122 @@
 // Imports
 var core=Packages.net.rcode.assetserver.core,
 	ResourceMount=core.ResourceMount,
+	ZipAssetMount=core.ZipAssetMount,
+	HttpProxyAssetMount=core.HttpProxyAssetMount,
 	File=java.io.File;
 
+/**
+ * Resolve a path relative to the server config location
+ */
+function resolveConfigFile(path) {
+	var file=new File(String(path));
+	if (!file.isAbsolute()) {
+		file=new File(server.getConfigDirectory(), String(path));
+	}
+	return file;
+}
+
 /**
  * Mount a physical directory to a logical server path.
  * Example: mount("/static", "web/static")
  * If the physicalDirectory is not absolute, it is made absolute relative
- * to the server config location
+ * to the server config location.  If it names a zip or jar file instead of
+ * a directory, the contents of the archive are served without unpacking it.
+ * If it is an http or https url, assets are fetched from that origin and run
+ * through the filters and cache as if they were local.
+ * <p>
+ * An optional options object may be given:
+ * <ul>
+ * <li>symlinkRoots: Array of directories that symbolic links within the mount
+ *     may point into.  By default symbolic links are not followed.
+ * <li>snapshot: If true, the directory tree is read into memory at startup and
+ *     requests are resolved against it.  Changes on disk are picked up when the
+ *     snapshot is refreshed (admin api: POST /mounts/refresh).
+ * <li>contextCheckSeconds: For directories without a snapshot, how long the
+ *     .asaccess files that apply to a directory are trusted before they are
+ *     checked again (default 1).
+ * <li>archiveRoot: For archives, the directory within the archive to serve
+ *     (ie. "META-INF/resources").  Defaults to the whole archive.
+ * <li>maxConnections: For origins, the maximum concurrent upstream requests
+ *     (default 8).
+ * <li>revalidateSeconds: For origins, how long a fetched asset is used before
+ *     it is revalidated with a conditional request (default 1).
+ * <li>maxResponseBytes: For origins, the total size of the fetched assets to
+ *     keep in memory (default 64MB).
+ * </ul>
+ * Example: mount("/static", "web/static", { symlinkRoots: ["/srv/shared/vendor"] })
+ *          mount("/lib/jquery", "vendor/jquery-1.4.4.zip")
+ *          mount("/legacy", "http://assets.example.com/static", { revalidateSeconds: 30 })
  */
-global.mount=function(serverPath, physicalDirectory) {
-	var physicalFile=new File(String(physicalDirectory));
+global.mount=function(serverPath, physicalDirectory, options) {
+	if (/^https?:\/\//i.test(String(physicalDirectory))) {
+		var proxyMount=new HttpProxyAssetMount(new java.net.URL(String(physicalDirectory)), server);
+		if (options && options.maxConnections) {
+			proxyMount.setMaxConnections(Number(options.maxConnections));
+		}
+		if (options && options.revalidateSeconds!==undefined) {
+			proxyMount.setRevalidateMillis(Number(options.revalidateSeconds)*1000);
+		}
+		if (options && options.maxResponseBytes!==undefined) {
+			proxyMount.setMaxResponseBytes(Number(options.maxResponseBytes));
+		}
+		server.getRoot().add(String(serverPath), proxyMount);
+		return;
+	}
+	
+	var physicalFile=resolveConfigFile(physicalDirectory);
 	
-	// Make absolute
-	if (!physicalFile.isAbsolute()) {
-		physicalFile=new File(server.getConfigDirectory(), physicalDirectory);
+	if (physicalFile.isFile() && /\.(zip|jar)$/i.test(String(physicalFile.getName()))) {
+		var zipMount=new ZipAssetMount(physicalFile, server);
+		if (options && options.archiveRoot) {
+			zipMount.setArchiveRoot(String(options.archiveRoot));
+		}
+		server.getRoot().add(String(serverPath), zipMount);
+		return;
 	}
 	
 	// Instantiate the mount
 	var resourceMount=new ResourceMount(physicalFile, server);
+	if (options && options.symlinkRoots) {
+		for (var i=0; i<options.symlinkRoots.length; i++) {
+			resourceMount.addSymlinkRoot(resolveConfigFile(options.symlinkRoots[i]));
+		}
+	}
+	if (options && options.snapshot) {
+		resourceMount.enableSnapshot();
+	}
+	if (options && options.contextCheckSeconds!==undefined) {
+		resourceMount.setContextCheckMillis(Number(options.contextCheckSeconds)*1000);
+	}
 	
 	// And add it
 	server.getRoot().add(String(serverPath), resourceMount);
 };
 
+/**
+ * Mount an in-memory tree at a logical server path.  Assets are added through
+ * the Java api (AssetServer.getMemoryMount) or the returned object.
+ * Example: mountMemory("/generated")
+ */
+global.mountMemory=function(serverPath) {
+	return server.getMemoryMount(String(serverPath));
+};
+
+/**
+ * Limit the number of requests concurrently executing filters.  A limit given
+ * on the command line takes precedence.  When the configuration is reloaded,
+ * limits that are no longer given are removed.
+ * Example: limitFilters(8) - at most 8 requests run filters at once
+ *          limitFilters("yuioptimizejs", 2) - at most 2 of them optimize javascript
+ */
+global.limitFilters=function(filterId, limit) {
+	if (arguments.length===1) {
+		server.limitFilters(Number(filterId));
+	} else {
+		server.limitFilters(String(filterId), Number(limit));
+	}
+};
+
 /**
  * Load an addon
  */
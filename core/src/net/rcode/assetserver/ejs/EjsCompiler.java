@@ -105,10 +105,12 @@ public class EjsCompiler {
 						.append(script).append(";return (expr===null||expr===undefined) ? null : String(expr);}");
 					Function interpFunction=cx.compileFunction(scope, interpDefn.toString(), 
 							sourceName, location.getLineStart(), null);
+					runtime.notifyCompiled();
 					fragments.add(interpFunction);
 				}
 				public void handleBlock(CharSequence script, LocationInfo location) {
 					Script blockScript=cx.compileString(script.toString(), sourceName, location.getLineStart(), null);
+					runtime.notifyCompiled();
 					fragments.add(blockScript);
 				}
 			};
@@ -84,7 +84,8 @@ public class EjsResourceFilter extends ResourceFilter {
 		ScriptableObject.putProperty(runtime, "requestContext", RequestContext.getInstance());
 		ScriptableObject.putProperty(runtime, "ejs", instance);
 		
-		Function template=compiler.compileTemplate(scope, templateIn, context.getRootFile().toString());
+		String sourceName=context.getRootFile()!=null ? context.getRootFile().toString() : context.getAssetPath().getFullPath();
+		Function template=compiler.compileTemplate(scope, templateIn, sourceName);
 		
 		// If it was just an identity transform, skip extra work and just return the source
 		if (!compiler.wasNonIdentity()) {
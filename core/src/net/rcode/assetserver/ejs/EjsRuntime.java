@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.lang.reflect.Field;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.rcode.assetserver.util.GenericScriptException;
 
@@ -31,6 +32,7 @@ public class EjsRuntime {
 	private Scriptable hostObjects;
 	private boolean useDynamicScope;
 	private LocalFactory contextFactory=new LocalFactory();
+	private AtomicLong compileCount=new AtomicLong();
 	
 	// HACK ALERT: We need the ability to do nested top calls.
 	// Rhino doesn't provide this, so we have to access some package private
@@ -171,6 +173,20 @@ public class EjsRuntime {
 		this(false);
 	}
 	
+	/**
+	 * @return the number of script fragments compiled against this runtime
+	 */
+	public long getCompileCount() {
+		return compileCount.get();
+	}
+	
+	/**
+	 * Called by compilers each time a script fragment is compiled
+	 */
+	void notifyCompiled() {
+		compileCount.incrementAndGet();
+	}
+	
 	public ScriptableObject getSharedScope() {
 		return sharedScope;
 	}
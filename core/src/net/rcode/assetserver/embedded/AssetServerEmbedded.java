@@ -7,6 +7,7 @@ import java.util.Properties;
 
 import net.rcode.assetserver.core.AssetLocator;
 import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.MemoryAssetMount;
 import net.rcode.assetserver.core.ScanCallback;
 import net.rcode.assetserver.core.ScanConfig;
 import net.rcode.cphelp.LoaderLookup;
@@ -55,6 +56,37 @@ public class AssetServerEmbedded {
 		}
 	}
 	
+	/**
+	 * Get (creating if needed) the in-memory mount at mountPoint.  Assets put
+	 * into it are served and scanned like any other.
+	 * @param mountPoint
+	 * @return memory mount
+	 */
+	public MemoryAssetMount getMemoryMount(String mountPoint) {
+		return server.getMemoryMount(mountPoint);
+	}
+	
+	/**
+	 * Put an in-memory asset
+	 * @param mountPoint
+	 * @param path path under the mount point
+	 * @param contents
+	 * @param contentType content type or null to determine it from the name
+	 */
+	public void putAsset(String mountPoint, String path, byte[] contents, String contentType) {
+		server.getMemoryMount(mountPoint).put(path, contents, contentType);
+	}
+	
+	/**
+	 * Remove an in-memory asset
+	 * @param mountPoint
+	 * @param path path under the mount point
+	 * @return true if the asset existed
+	 */
+	public boolean removeAsset(String mountPoint, String path) {
+		return server.getMemoryMount(mountPoint).remove(path);
+	}
+	
 	public AssetServer getServer() {
 		return server;
 	}
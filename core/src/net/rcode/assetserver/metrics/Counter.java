@@ -0,0 +1,68 @@
+package net.rcode.assetserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A monotonically increasing counter that is cheap to update from many
+ * threads at once.  Updates are spread over a number of cells (stripes) chosen
+ * by the updating thread so that concurrent writers rarely contend on the same
+ * cache line.  Reads sum all of the cells and are therefore slightly more
+ * expensive, which is the right trade-off for something that is written on
+ * every request and read on every scrape.
+ * 
+ * @author stella
+ *
+ */
+public class Counter {
+	/**
+	 * Each stripe occupies this many longs (64 bytes) to keep stripes on
+	 * separate cache lines
+	 */
+	static final int PADDING=8;
+	
+	private final AtomicLongArray cells;
+	private final int mask;
+	
+	public Counter() {
+		int stripes=stripeCount();
+		this.mask=stripes-1;
+		this.cells=new AtomicLongArray(stripes*PADDING);
+	}
+	
+	/**
+	 * @return the number of stripes to use for counters.  Always a power of two.
+	 */
+	static int stripeCount() {
+		int cpus=Runtime.getRuntime().availableProcessors();
+		int stripes=1;
+		while (stripes<cpus && stripes<64) stripes<<=1;
+		return stripes;
+	}
+	
+	/**
+	 * @return the stripe index for the current thread
+	 */
+	static int currentStripe(int mask) {
+		long id=Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & mask);
+	}
+	
+	public void increment() {
+		add(1);
+	}
+	
+	public void add(long delta) {
+		cells.addAndGet(currentStripe(mask)*PADDING, delta);
+	}
+	
+	/**
+	 * @return the current value of the counter
+	 */
+	public long get() {
+		long sum=0;
+		for (int i=0; i<=mask; i++) {
+			sum+=cells.get(i*PADDING);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,15 @@
+package net.rcode.assetserver.metrics;
+
+/**
+ * A value that is sampled at the time metrics are reported rather than
+ * being updated as events happen.
+ * 
+ * @author stella
+ *
+ */
+public interface Gauge {
+	/**
+	 * @return the current value
+	 */
+	public double getValue();
+}
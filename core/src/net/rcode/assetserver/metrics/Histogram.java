@@ -0,0 +1,98 @@
+package net.rcode.assetserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with fixed bucket boundaries.  Like the
+ * Counter, bucket counts are striped by thread so that concurrent observations
+ * do not contend.  Observations are recorded in nanoseconds and reported in
+ * seconds.
+ * 
+ * @author stella
+ *
+ */
+public class Histogram {
+	/**
+	 * Default bucket upper bounds (in seconds), suitable for request and filter
+	 * latencies
+	 */
+	public static final double[] DEFAULT_BUCKETS=new double[] {
+		0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+	};
+	
+	private final double[] bounds;
+	private final long[] boundsNanos;
+	
+	/**
+	 * Width of a stripe.  Holds one slot per bucket plus the overflow bucket,
+	 * rounded up to the padding size.
+	 */
+	private final int stripeWidth;
+	private final int mask;
+	private final AtomicLongArray cells;
+	private final Counter sumNanos=new Counter();
+	
+	public Histogram() {
+		this(DEFAULT_BUCKETS);
+	}
+	
+	public Histogram(double[] bounds) {
+		this.bounds=bounds.clone();
+		this.boundsNanos=new long[bounds.length];
+		for (int i=0; i<bounds.length; i++) {
+			boundsNanos[i]=(long)(bounds[i] * 1000000000.0);
+		}
+		
+		int width=bounds.length+1;
+		width=((width + Counter.PADDING - 1) / Counter.PADDING) * Counter.PADDING;
+		this.stripeWidth=width;
+		
+		int stripes=Counter.stripeCount();
+		this.mask=stripes-1;
+		this.cells=new AtomicLongArray(stripes*stripeWidth);
+	}
+	
+	/**
+	 * Record a duration
+	 * @param nanos
+	 */
+	public void observeNanos(long nanos) {
+		int bucket=0;
+		while (bucket<boundsNanos.length && nanos>boundsNanos[bucket]) bucket++;
+		
+		cells.incrementAndGet(Counter.currentStripe(mask)*stripeWidth + bucket);
+		sumNanos.add(nanos);
+	}
+	
+	/**
+	 * @return the bucket upper bounds in seconds (excluding the implicit +Inf bucket)
+	 */
+	public double[] getBounds() {
+		return bounds.clone();
+	}
+	
+	/**
+	 * @return cumulative counts for each bucket, with the last element being the total count
+	 */
+	public long[] getCumulativeCounts() {
+		long[] ret=new long[bounds.length+1];
+		for (int stripe=0; stripe<=mask; stripe++) {
+			int base=stripe*stripeWidth;
+			for (int i=0; i<ret.length; i++) {
+				ret[i]+=cells.get(base+i);
+			}
+		}
+		
+		for (int i=1; i<ret.length; i++) {
+			ret[i]+=ret[i-1];
+		}
+		return ret;
+	}
+	
+	/**
+	 * @return the sum of all observations in seconds
+	 */
+	public double getSumSeconds() {
+		return sumNanos.get() / 1000000000.0;
+	}
+}
@@ -0,0 +1,212 @@
+package net.rcode.assetserver.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the named metrics for a server instance and renders them in the
+ * Prometheus text exposition format.
+ * <p>
+ * Metrics are grouped into families by name.  A family may optionally have a
+ * single label, in which case each distinct label value gets its own series.
+ * Lookups of existing series do not allocate, so callers on hot paths may
+ * simply ask the registry for the series each time rather than holding on to
+ * it.
+ *
+ * @author stella
+ *
+ */
+public class MetricsRegistry {
+	private static final String TYPE_COUNTER="counter";
+	private static final String TYPE_HISTOGRAM="histogram";
+	private static final String TYPE_GAUGE="gauge";
+
+	/**
+	 * Key used for the series of an unlabeled family
+	 */
+	private static final String NO_LABEL="";
+
+	private static class Family {
+		public final String name;
+		public final String help;
+		public final String type;
+		public final String labelName;
+		public final ConcurrentMap<String, Object> series=new ConcurrentHashMap<String, Object>();
+
+		public Family(String name, String help, String type, String labelName) {
+			this.name=name;
+			this.help=help;
+			this.type=type;
+			this.labelName=labelName;
+		}
+	}
+
+	private ConcurrentMap<String, Family> families=new ConcurrentHashMap<String, Family>();
+
+	public Counter counter(String name, String help) {
+		return counter(name, help, null, NO_LABEL);
+	}
+
+	public Counter counter(String name, String help, String labelName, String labelValue) {
+		Family family=family(name, help, TYPE_COUNTER, labelName);
+		Object ret=family.series.get(labelValue);
+		if (ret==null) {
+			Counter counter=new Counter();
+			ret=family.series.putIfAbsent(labelValue, counter);
+			if (ret==null) ret=counter;
+		}
+		return (Counter) ret;
+	}
+
+	public Histogram histogram(String name, String help) {
+		return histogram(name, help, null, NO_LABEL);
+	}
+
+	public Histogram histogram(String name, String help, String labelName, String labelValue) {
+		Family family=family(name, help, TYPE_HISTOGRAM, labelName);
+		Object ret=family.series.get(labelValue);
+		if (ret==null) {
+			Histogram histogram=new Histogram();
+			ret=family.series.putIfAbsent(labelValue, histogram);
+			if (ret==null) ret=histogram;
+		}
+		return (Histogram) ret;
+	}
+
+	public void gauge(String name, String help, Gauge gauge) {
+		gauge(name, help, null, NO_LABEL, gauge);
+	}
+
+	public void gauge(String name, String help, String labelName, String labelValue, Gauge gauge) {
+		Family family=family(name, help, TYPE_GAUGE, labelName);
+		family.series.put(labelValue, gauge);
+	}
+
+	private Family family(String name, String help, String type, String labelName) {
+		Family ret=families.get(name);
+		if (ret==null) {
+			Family family=new Family(name, help, type, labelName);
+			ret=families.putIfAbsent(name, family);
+			if (ret==null) ret=family;
+		}
+
+		if (!ret.type.equals(type)) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as a " + ret.type);
+		}
+		return ret;
+	}
+
+	/**
+	 * Register gauges describing JVM memory usage
+	 */
+	public void registerJvmGauges() {
+		final MemoryMXBean memory=ManagementFactory.getMemoryMXBean();
+		String usedName="jvm_memory_bytes_used";
+		String usedHelp="Used bytes of a given JVM memory area";
+		gauge(usedName, usedHelp, "area", "heap", new Gauge() {
+			public double getValue() {
+				return memory.getHeapMemoryUsage().getUsed();
+			}
+		});
+		gauge(usedName, usedHelp, "area", "nonheap", new Gauge() {
+			public double getValue() {
+				return memory.getNonHeapMemoryUsage().getUsed();
+			}
+		});
+
+		String committedName="jvm_memory_bytes_committed";
+		String committedHelp="Committed bytes of a given JVM memory area";
+		gauge(committedName, committedHelp, "area", "heap", new Gauge() {
+			public double getValue() {
+				return memory.getHeapMemoryUsage().getCommitted();
+			}
+		});
+		gauge(committedName, committedHelp, "area", "nonheap", new Gauge() {
+			public double getValue() {
+				return memory.getNonHeapMemoryUsage().getCommitted();
+			}
+		});
+
+		gauge("jvm_memory_bytes_max", "Maximum heap size", new Gauge() {
+			public double getValue() {
+				return Runtime.getRuntime().maxMemory();
+			}
+		});
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format (version 0.0.4)
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writePrometheus(Appendable out) throws IOException {
+		Map<String, Family> sorted=new TreeMap<String, Family>(families);
+		for (Family family: sorted.values()) {
+			out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+			Map<String, Object> series=new TreeMap<String, Object>(family.series);
+			for (Map.Entry<String, Object> entry: series.entrySet()) {
+				String labels=formatLabel(family.labelName, entry.getKey());
+				Object metric=entry.getValue();
+				if (metric instanceof Counter) {
+					writeSample(out, family.name, labels, null, ((Counter)metric).get());
+				} else if (metric instanceof Gauge) {
+					writeSample(out, family.name, labels, null, ((Gauge)metric).getValue());
+				} else if (metric instanceof Histogram) {
+					writeHistogram(out, family.name, labels, (Histogram)metric);
+				}
+			}
+		}
+	}
+
+	private void writeHistogram(Appendable out, String name, String labels, Histogram histogram) throws IOException {
+		double[] bounds=histogram.getBounds();
+		long[] counts=histogram.getCumulativeCounts();
+		String bucketName=name + "_bucket";
+		for (int i=0; i<bounds.length; i++) {
+			writeSample(out, bucketName, labels, "le=\"" + formatNumber(bounds[i]) + "\"", counts[i]);
+		}
+		writeSample(out, bucketName, labels, "le=\"+Inf\"", counts[bounds.length]);
+		writeSample(out, name + "_sum", labels, null, histogram.getSumSeconds());
+		writeSample(out, name + "_count", labels, null, counts[bounds.length]);
+	}
+
+	private void writeSample(Appendable out, String name, String labels, String extraLabel, double value) throws IOException {
+		out.append(name);
+		if (labels!=null || extraLabel!=null) {
+			out.append('{');
+			if (labels!=null) out.append(labels);
+			if (labels!=null && extraLabel!=null) out.append(',');
+			if (extraLabel!=null) out.append(extraLabel);
+			out.append('}');
+		}
+		out.append(' ').append(formatNumber(value)).append('\n');
+	}
+
+	private static String formatLabel(String labelName, String labelValue) {
+		if (labelName==null) return null;
+		StringBuilder ret=new StringBuilder(labelName.length() + labelValue.length() + 4);
+		ret.append(labelName).append("=\"");
+		for (int i=0; i<labelValue.length(); i++) {
+			char c=labelValue.charAt(i);
+			if (c=='\\' || c=='"') ret.append('\\').append(c);
+			else if (c=='\n') ret.append("\\n");
+			else ret.append(c);
+		}
+		ret.append('"');
+		return ret.toString();
+	}
+
+	private static String formatNumber(double value) {
+		if (value==Math.rint(value) && !Double.isInfinite(value) && Math.abs(value)<1e15) {
+			return String.valueOf((long)value);
+		}
+		return String.valueOf(value);
+	}
+}
@@ -21,6 +21,15 @@ public class YuiOptimizeCssResourceFilter extends ResourceFilter {
 		compressor=new YuiCompressor();
 	}
 
+	/**
+	 * The output depends only on the source and the compressor options
+	 */
+	@Override
+	public String getStageConfig(FilterChain context) {
+		if (context.getServer().isGlobalDisableOptimization()) return null;
+		return compressor.describeCssOptions();
+	}
+	
 	@Override
 	public AssetLocator filter(FilterChain context, AssetLocator source)
 			throws Exception {
@@ -26,6 +26,15 @@ public class YuiOptimizeJsResourceFilter extends ResourceFilter {
 		compressor=new YuiCompressor();
 	}
 
+	/**
+	 * The output depends only on the source and the compressor options
+	 */
+	@Override
+	public String getStageConfig(FilterChain context) {
+		if (context.getServer().isGlobalDisableOptimization()) return null;
+		return compressor.describeJsOptions();
+	}
+	
 	@Override
 	public AssetLocator filter(FilterChain context, AssetLocator source)
 			throws Exception {
@@ -0,0 +1,336 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.rcode.assetserver.cache.Cache;
+import net.rcode.assetserver.cache.CacheEntrySummary;
+import net.rcode.assetserver.cache.CachePathPredicate;
+import net.rcode.assetserver.cache.StageCache;
+import net.rcode.assetserver.core.AssetLocator;
+import net.rcode.assetserver.core.AssetMount;
+import net.rcode.assetserver.core.AssetPath;
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ManifestBuilder;
+import net.rcode.assetserver.core.ResourceMount;
+import net.rcode.assetserver.core.ScanCallback;
+import net.rcode.assetserver.core.ScanConfig;
+import net.rcode.assetserver.metrics.MetricsRegistry;
+import net.rcode.assetserver.util.JsonWriter;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Jetty handler implementing the administrative HTTP API.  This is intended to
+ * be bound to a separate, local-only listener (see JettyServer.setAdminPort).
+ * Every request must present the admin token, either as
+ * "Authorization: Bearer {token}" or in an "X-Admin-Token" header.
+ * <p>
+ * Supported requests (all responses are JSON):
+ * <ul>
+ * <li>GET /cache/stats - Entry counts, sizes and lookup counters, for the shared
+ *     cache and the stage cache
+ * <li>GET /cache/expensive?limit=n - The entries that took longest to build
+ * <li>POST /cache/purge?path=p or ?prefix=p - Remove matching entries
+ * <li>POST /cache/rebuild?path=p or ?prefix=p - Remove matching entries and resolve
+ *     them again
+ * <li>POST /cache/clear - Remove all entries (including memoized filter stages)
+ * <li>POST /mounts/refresh - Refresh the directory snapshots of mounts that use them
+ * <li>GET /manifest - Manifest of all assets (see ManifestBuilder).  The manifest is
+ *     kept between requests and only assets whose dependencies changed are processed
+ *     again.
+ * </ul>
+ *
+ * @author stella
+ *
+ */
+public class AdminHandler extends AbstractHandler {
+	private static final Logger logger=LoggerFactory.getLogger("admin");
+	private static final int DEFAULT_EXPENSIVE_LIMIT=20;
+
+	private AssetServer server;
+	private String token;
+	private ManifestBuilder manifestBuilder;
+
+	public AdminHandler(AssetServer server, String token) {
+		this.server=server;
+		this.token=token;
+		this.manifestBuilder=new ManifestBuilder(server);
+		this.manifestBuilder.setParallelism(Runtime.getRuntime().availableProcessors());
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+		baseRequest.setHandled(true);
+		response.setHeader("Cache-Control", "no-cache");
+
+		if (!isAuthorized(request)) {
+			response.setHeader("WWW-Authenticate", "Bearer");
+			sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Missing or invalid admin token");
+			return;
+		}
+
+		String method=request.getMethod();
+		try {
+			if ("/cache/stats".equals(target) && "GET".equals(method)) {
+				handleStats(response);
+			} else if ("/cache/expensive".equals(target) && "GET".equals(method)) {
+				handleExpensive(request, response);
+			} else if ("/cache/purge".equals(target) && "POST".equals(method)) {
+				handlePurge(request, response, false);
+			} else if ("/cache/rebuild".equals(target) && "POST".equals(method)) {
+				handlePurge(request, response, true);
+			} else if ("/cache/clear".equals(target) && "POST".equals(method)) {
+				logger.info("Clearing cache");
+				server.getSharedCache().clear();
+				StageCache stageCache=server.getStageCache();
+				if (stageCache!=null) stageCache.clear();
+				JsonWriter json=beginJson(response);
+				json.beginObject().name("cleared").value(true).endObject();
+				response.getWriter().flush();
+			} else if ("/mounts/refresh".equals(target) && "POST".equals(method)) {
+				handleRefreshMounts(response);
+			} else if ("/manifest".equals(target) && "GET".equals(method)) {
+				handleManifest(response);
+			} else {
+				sendError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown admin request " + method + " " + target);
+			}
+		} catch (IllegalArgumentException e) {
+			sendError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+		}
+	}
+
+	private boolean isAuthorized(HttpServletRequest request) {
+		String presented=request.getHeader("X-Admin-Token");
+		if (presented==null) {
+			String authorization=request.getHeader("Authorization");
+			if (authorization!=null && authorization.startsWith("Bearer ")) {
+				presented=authorization.substring(7).trim();
+			}
+		}
+		if (presented==null || token==null) return false;
+
+		// Constant time compare
+		if (presented.length()!=token.length()) return false;
+		int diff=0;
+		for (int i=0; i<token.length(); i++) {
+			diff|=presented.charAt(i) ^ token.charAt(i);
+		}
+		return diff==0;
+	}
+
+	private void handleRefreshMounts(HttpServletResponse response) throws IOException {
+		JsonWriter json=beginJson(response);
+		json.beginObject().name("refreshed").beginArray();
+		for (Map.Entry<String, AssetMount> entry: server.getRoot().getMountPoints().entrySet()) {
+			if (!(entry.getValue() instanceof ResourceMount)) continue;
+			ResourceMount mount=(ResourceMount) entry.getValue();
+			if (!mount.isSnapshotEnabled()) continue;
+
+			String mountPoint=entry.getKey()!=null ? entry.getKey() : "/";
+			logger.info("Refreshing snapshot of " + mountPoint);
+			mount.refreshSnapshot();
+			json.value(mountPoint);
+		}
+		json.endArray().endObject();
+		response.getWriter().flush();
+	}
+
+	private void handleManifest(HttpServletResponse response) throws IOException {
+		ManifestBuilder.UpdateResult result;
+		try {
+			result=manifestBuilder.update();
+		} catch (Exception e) {
+			logger.error("Error building manifest", e);
+			sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error building manifest: " + e.getMessage());
+			return;
+		}
+		logger.info("Updated manifest: " + result);
+		
+		beginJson(response);
+		manifestBuilder.write(response.getWriter());
+		response.getWriter().flush();
+	}
+
+	private void handleStats(HttpServletResponse response) throws IOException {
+		List<CacheEntrySummary> summaries=server.getSharedCache().summarize();
+		long bytes=0, negative=0;
+		for (CacheEntrySummary summary: summaries) {
+			if (summary.length<0) negative++;
+			else bytes+=summary.length;
+		}
+
+		MetricsRegistry metrics=server.getMetrics();
+		JsonWriter json=beginJson(response);
+		json.beginObject();
+		json.name("cache").value(server.getSharedCache().getClass().getSimpleName());
+		json.name("entries").value(summaries.size());
+		json.name("negativeEntries").value(negative);
+		json.name("bytes").value(bytes);
+		json.name("lookups").beginObject();
+		for (String result: new String[] { "hit", "miss", "stale" }) {
+			json.name(result).value(metrics.counter("assetserver_cache_lookups_total", "Shared cache lookups by result", "result", result).get());
+		}
+		json.endObject();
+		StageCache stageCache=server.getStageCache();
+		if (stageCache!=null) {
+			json.name("stageCache").beginObject();
+			json.name("entries").value(stageCache.size());
+			json.name("bytes").value(stageCache.getBytes());
+			json.name("maxBytes").value(stageCache.getMaxBytes());
+			json.name("hits").value(stageCache.getHits());
+			json.name("misses").value(stageCache.getMisses());
+			json.endObject();
+		}
+		json.endObject();
+		response.getWriter().flush();
+	}
+
+	private void handleExpensive(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		int limit=DEFAULT_EXPENSIVE_LIMIT;
+		String limitParam=request.getParameter("limit");
+		if (limitParam!=null) {
+			try {
+				limit=Integer.parseInt(limitParam);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Illegal limit " + limitParam);
+			}
+		}
+
+		List<CacheEntrySummary> summaries=new ArrayList<CacheEntrySummary>(server.getSharedCache().summarize());
+		Collections.sort(summaries, new Comparator<CacheEntrySummary>() {
+			@Override
+			public int compare(CacheEntrySummary a, CacheEntrySummary b) {
+				if (a.buildNanos==b.buildNanos) return 0;
+				return a.buildNanos>b.buildNanos ? -1 : 1;
+			}
+		});
+		if (summaries.size()>limit) summaries=summaries.subList(0, limit);
+
+		JsonWriter json=beginJson(response);
+		json.beginArray();
+		for (CacheEntrySummary summary: summaries) {
+			json.beginObject();
+			json.name("path").value(summary.identity.getFullPath());
+			json.name("handler").value(summary.identity.getHandlerClassName());
+			json.name("length").value(summary.length);
+			json.name("buildMillis").value(summary.buildNanos / 1000000.0);
+			json.name("storedAt").value(summary.storedAt);
+			json.endObject();
+		}
+		json.endArray();
+		response.getWriter().flush();
+	}
+
+	private void handlePurge(HttpServletRequest request, HttpServletResponse response, boolean rebuild) throws IOException {
+		String path=request.getParameter("path");
+		String prefix=request.getParameter("prefix");
+		if ((path==null) == (prefix==null)) {
+			throw new IllegalArgumentException("Exactly one of path or prefix must be given");
+		}
+
+		Cache cache=server.getSharedCache();
+		CachePathPredicate predicate=path!=null ? new CachePathPredicate(path, false) : new CachePathPredicate(prefix, true);
+		int purged=cache.purge(predicate);
+		logger.info("Purged " + purged + " cache entries for " + predicate);
+
+		List<String> rebuilt=new ArrayList<String>();
+		List<String> failed=new ArrayList<String>();
+		if (rebuild) {
+			server.enterRequestContext();
+			try {
+				if (path!=null) {
+					rebuildPath(path, rebuilt, failed);
+				} else {
+					rebuildPrefix(prefix, rebuilt, failed);
+				}
+			} finally {
+				server.exitRequestContext();
+			}
+		}
+
+		JsonWriter json=beginJson(response);
+		json.beginObject();
+		json.name("purged").value(purged);
+		if (rebuild) {
+			json.name("rebuilt").beginArray();
+			for (String p: rebuilt) json.value(p);
+			json.endArray();
+			json.name("failed").beginArray();
+			for (String p: failed) json.value(p);
+			json.endArray();
+		}
+		json.endObject();
+		response.getWriter().flush();
+	}
+
+	private void rebuildPath(String path, List<String> rebuilt, List<String> failed) {
+		try {
+			AssetLocator locator=server.getRoot().resolve(path);
+			if (locator!=null) rebuilt.add(path);
+			else failed.add(path);
+		} catch (Exception e) {
+			logger.warn("Error rebuilding " + path, e);
+			failed.add(path);
+		}
+	}
+
+	private void rebuildPrefix(String prefix, final List<String> rebuilt, final List<String> failed) throws IOException {
+		ScanConfig config=new ScanConfig();
+		config.setRecursive(true);
+
+		// Scan from the directory containing the prefix and filter
+		String baseDir=prefix.substring(0, prefix.lastIndexOf('/')+1);
+		if (baseDir.endsWith("/")) baseDir=baseDir.substring(0, baseDir.length()-1);
+		config.setBaseDir(baseDir);
+
+		final String matchPrefix=prefix;
+		try {
+			server.getRoot().scan(config, new ScanCallback() {
+				@Override
+				public boolean handleAsset(AssetPath path) throws Exception {
+					String fullPath=path.getFullParameterizedPath();
+					if (fullPath.startsWith(matchPrefix)) rebuildPath(fullPath, rebuilt, failed);
+					return true;
+				}
+
+				@Override
+				public boolean handleDirectory(AssetPath path) throws Exception {
+					String fullPath=path.getFullPath() + '/';
+					return fullPath.startsWith(matchPrefix) || matchPrefix.startsWith(fullPath);
+				}
+			});
+		} catch (Exception e) {
+			throw new IOException("Error scanning " + prefix + ": " + e.getMessage());
+		}
+	}
+
+	private JsonWriter beginJson(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		return new JsonWriter(response.getWriter());
+	}
+
+	private void sendError(HttpServletResponse response, int status, String message) throws IOException {
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		Writer out=response.getWriter();
+		new JsonWriter(out).beginObject().name("error").value(message).endObject();
+		out.flush();
+	}
+}
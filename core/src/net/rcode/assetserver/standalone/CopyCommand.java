@@ -34,6 +34,10 @@ public class CopyCommand extends MainCommand {
 		optionParser.posixlyCorrect(true);
 		
 		optionParser.accepts("disable-optimization", "Disable optimization filters");
+		optionParser.accepts("parallel", "Scan and process resources on multiple threads");
+		optionParser.accepts("threads", "Number of threads for --parallel (defaults to the number of processors)")
+			.withRequiredArg()
+			.ofType(Integer.class);
 	}
 	
 	@Override
@@ -86,6 +90,17 @@ public class CopyCommand extends MainCommand {
 		processor.verbosity=10;
 		processor.verboseWriter=new PrintWriter(System.err, true);
 		
+		if (optionSet.has("parallel")) {
+			int threads=Runtime.getRuntime().availableProcessors();
+			if (optionSet.has("threads")) threads=((Integer)optionSet.valueOf("threads")).intValue();
+			
+			// Copy order does not matter, so let the workers process resources as
+			// they are found
+			config.setParallelism(threads);
+			config.setOrdered(false);
+			processor.concurrent=threads>1;
+		}
+		
 		// Case 1. Two arguments and the from is a file and the to either does not exist or is a file
 		// Support single resource copy.  This doesn't actually do a scan
 		if (fromPaths.size()==1 && (!toLocation.exists() || toLocation.isFile())) {
@@ -162,6 +177,12 @@ public class CopyCommand extends MainCommand {
 		public int verbosity;
 		public PrintWriter verboseWriter;
 		public String outputPrefix;
+		
+		/**
+		 * True if callbacks arrive on several threads at once.  Progress is then
+		 * reported as one line per resource so that lines do not interleave.
+		 */
+		public boolean concurrent;
 		private AssetServer server;
 		
 		public CopyProcessor(AssetServer server, File destination) {
@@ -247,6 +268,14 @@ public class CopyCommand extends MainCommand {
 							outputPrefix + ")");
 				}
 				
+				if (concurrent) {
+					AssetLocator locator=path.getMount().resolve(path);
+					localPath.getParentFile().mkdirs();
+					IOUtil.interlockedWriteFile(localPath, locator);
+					if (verbosity>0) verboseWriter.println("Saved '" + fullAssetPath + "' to '" + localPath + "'");
+					return true;
+				}
+				
 				reportOpening(fullAssetPath);
 				AssetLocator locator=path.getMount().resolve(path);
 				reportSaving(localPath);
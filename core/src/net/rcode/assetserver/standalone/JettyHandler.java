@@ -16,6 +16,13 @@ import net.rcode.assetserver.VersionInfo;
 import net.rcode.assetserver.core.AssetLocator;
 import net.rcode.assetserver.core.AssetRoot;
 import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ComboResolver;
+import net.rcode.assetserver.core.FileAssetLocator;
+import net.rcode.assetserver.core.FilterOverloadException;
+import net.rcode.assetserver.core.GzipContentProvider;
+import net.rcode.assetserver.core.RequestContext;
+import net.rcode.assetserver.core.RequestTimings;
+import net.rcode.assetserver.metrics.MetricsRegistry;
 import net.rcode.assetserver.util.CountingOutputStream;
 
 import org.eclipse.jetty.server.Request;
@@ -40,6 +47,7 @@ public class JettyHandler extends AbstractHandler {
 	
 	private AssetServer server;
 	private String serverHeader;
+	private ResponseTransferPool transferPool;
 	
 	public JettyHandler(AssetServer server) {
 		this.server=server;
@@ -61,6 +69,19 @@ public class JettyHandler extends AbstractHandler {
 		this.serverHeader = serverHeader;
 	}
 	
+	public ResponseTransferPool getTransferPool() {
+		return transferPool;
+	}
+	
+	/**
+	 * Bodies of at least ServerConfig.httpAsyncWriteThreshold bytes are written
+	 * from this pool if set
+	 * @param transferPool
+	 */
+	public void setTransferPool(ResponseTransferPool transferPool) {
+		this.transferPool = transferPool;
+	}
+	
 	@Override
 	public Server getServer() {
 		return super.getServer();
@@ -69,11 +90,19 @@ public class JettyHandler extends AbstractHandler {
 	@Override
 	public void handle(String target, Request baseRequest, HttpServletRequest request,
 			HttpServletResponse response) throws IOException, ServletException {
-		server.enterRequestContext();
+		long startTime=System.nanoTime();
+		RequestContext requestContext=server.enterRequestContext();
 		try {
+			if (server.getConfig().isDebugTiming() || RequestTimings.isTraceEnabled()) {
+				requestContext.enableTimings();
+			}
+			
 			handleInContext(target, baseRequest, request, response);
 		} finally {
 			server.exitRequestContext();
+			
+			int status=baseRequest.isHandled() ? baseRequest.getResponse().getStatus() : HttpServletResponse.SC_NOT_FOUND;
+			recordRequestMetrics(status, System.nanoTime()-startTime);
 		}
 	}
 	
@@ -112,7 +141,26 @@ public class JettyHandler extends AbstractHandler {
 		
 		AssetLocator locator;
 		try {
-			locator=root.resolve(request.getRequestURI());
+			String uri=request.getRequestURI();
+			if (ComboResolver.DEFAULT_PATH.equals(uri)) {
+				locator=server.getComboResolver().resolve(ComboResolver.parseQuery(request.getQueryString()));
+			} else {
+				locator=root.resolve(uri);
+			}
+		} catch (ComboResolver.InvalidComboException e) {
+			// Only the combo request itself is the client's fault.  Anything
+			// else raised while resolving is a server error.
+			baseRequest.setHandled(true);
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			logAccess(request, HttpServletResponse.SC_BAD_REQUEST, -1);
+			return;
+		} catch (FilterOverloadException e) {
+			// Shed load rather than queueing indefinitely
+			baseRequest.setHandled(true);
+			response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			logAccess(request, HttpServletResponse.SC_SERVICE_UNAVAILABLE, -1);
+			return;
 		} catch (ServletException e) {
 			throw e;
 		} catch (IOException e) {
@@ -130,6 +178,13 @@ public class JettyHandler extends AbstractHandler {
 			return;
 		}
 		
+		// Report timings
+		RequestTimings timings=RequestContext.getCurrentTimings();
+		if (timings!=null && server.getConfig().isDebugTiming()) {
+			String serverTiming=timings.toServerTiming();
+			if (serverTiming!=null) response.setHeader("Server-Timing", serverTiming);
+		}
+		
 		// Check etag
 		String resourceEtag=locator.getETag();
 		if (resourceEtag!=null) {
@@ -181,27 +236,117 @@ public class JettyHandler extends AbstractHandler {
 			response.addHeader("Cache-Control", "max-age=0");
 		}
 		
-		// Setup output filter for compression
-		OutputStream out;
-		CountingOutputStream countOut;
-		GZIPOutputStream gzipOut=null;
-		if (compressEncoding!=null) {
+		// Serve precompressed content as is
+		GzipContentProvider precompressed=null;
+		long precompressedLength=-1;
+		if ("gzip".equals(compressEncoding) && locator instanceof GzipContentProvider) {
+			precompressed=(GzipContentProvider)locator;
+			precompressedLength=precompressed.getGzipLength();
+			if (precompressedLength<0 || precompressedLength>Integer.MAX_VALUE) precompressed=null;
+		}
+		
+		// Declare the length when it is known so that the connection can stay
+		// open without chunking
+		long bodyLength;
+		if (precompressed!=null) {
+			response.setHeader("Content-Encoding", compressEncoding);
+			response.setContentLength((int)precompressedLength);
+			bodyLength=precompressedLength;
+		} else if (compressEncoding!=null) {
 			// Enable gzip
 			response.setHeader("Content-Encoding", compressEncoding);
-			countOut=new CountingOutputStream(response.getOutputStream());
-			out=gzipOut=new GZIPOutputStream(countOut);
+			bodyLength=locator.length();
 		} else {
-			out=countOut=new CountingOutputStream(response.getOutputStream());
+			// A plain file is read as it is at write time and may no longer
+			// match the length taken here, so only fixed content declares it
+			bodyLength=locator.length();
+			if (bodyLength>=0 && bodyLength<=Integer.MAX_VALUE && !(locator instanceof FileAssetLocator)) {
+				response.setContentLength((int)bodyLength);
+			}
 		}
 		
-		// Write output
-		if (!isHead) {
-			locator.writeTo(out);
-			if (gzipOut!=null) gzipOut.finish();
-			out.flush();
+		// Large bodies are written from the transfer pool so that slow clients
+		// do not hold a request thread
+		BodyWriter body=new BodyWriter(request, response, locator, compressEncoding, precompressed, isHead);
+		int asyncThreshold=server.getConfig().getHttpAsyncWriteThreshold();
+		if (!isHead && transferPool!=null && asyncThreshold>0 && bodyLength>=asyncThreshold) {
+			if (transferPool.transfer(baseRequest, body)) return;
+		}
+		body.write();
+	}
+	
+	/**
+	 * Writes the response body once headers have been set, then records body
+	 * metrics and the access log entry
+	 */
+	private class BodyWriter implements ResponseTransferPool.Transfer {
+		private HttpServletRequest request;
+		private HttpServletResponse response;
+		private AssetLocator locator;
+		private String compressEncoding;
+		private GzipContentProvider precompressed;
+		private boolean isHead;
+		
+		public BodyWriter(HttpServletRequest request, HttpServletResponse response, AssetLocator locator,
+				String compressEncoding, GzipContentProvider precompressed, boolean isHead) {
+			this.request=request;
+			this.response=response;
+			this.locator=locator;
+			this.compressEncoding=compressEncoding;
+			this.precompressed=precompressed;
+			this.isHead=isHead;
 		}
 		
-		logAccess(request, HttpServletResponse.SC_OK, countOut.size);
+		@Override
+		public void write() throws IOException {
+			if (precompressed!=null) {
+				long length=precompressed.getGzipLength();
+				if (!isHead) precompressed.writeGzipTo(response.getOutputStream());
+				
+				recordBodyMetrics(length, locator.length());
+				logAccess(request, HttpServletResponse.SC_OK, length);
+				return;
+			}
+			
+			// Setup output filter for compression
+			OutputStream out;
+			CountingOutputStream countOut;
+			CountingOutputStream uncompressedOut=null;
+			GZIPOutputStream gzipOut=null;
+			if (compressEncoding!=null) {
+				countOut=new CountingOutputStream(response.getOutputStream());
+				gzipOut=new GZIPOutputStream(countOut);
+				out=uncompressedOut=new CountingOutputStream(gzipOut);
+			} else {
+				out=countOut=new CountingOutputStream(response.getOutputStream());
+			}
+			
+			// Write output
+			if (!isHead) {
+				locator.writeTo(out);
+				if (gzipOut!=null) gzipOut.finish();
+				out.flush();
+			}
+			
+			recordBodyMetrics(countOut.size, uncompressedOut!=null ? uncompressedOut.size : -1);
+			logAccess(request, HttpServletResponse.SC_OK, countOut.size);
+		}
+	}
+	
+	private void recordRequestMetrics(int status, long nanos) {
+		MetricsRegistry metrics=server.getMetrics();
+		metrics.counter("assetserver_http_requests_total", "HTTP requests by status code", "status", String.valueOf(status)).increment();
+		metrics.histogram("assetserver_http_request_duration_seconds", "HTTP request latency").observeNanos(nanos);
+	}
+	
+	private void recordBodyMetrics(long bytesSent, long uncompressedBytes) {
+		MetricsRegistry metrics=server.getMetrics();
+		metrics.counter("assetserver_http_response_bytes_total", "Response body bytes sent (after compression)").add(bytesSent);
+		if (uncompressedBytes>=0) {
+			// The gzip ratio is gzip_output/gzip_input
+			metrics.counter("assetserver_http_gzip_input_bytes_total", "Response bytes before compression").add(uncompressedBytes);
+			metrics.counter("assetserver_http_gzip_output_bytes_total", "Response bytes after compression").add(bytesSent);
+		}
 	}
 
 	private void logAccess(HttpServletRequest request, int statusCode, long length) {
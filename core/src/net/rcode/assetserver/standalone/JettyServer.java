@@ -1,13 +1,28 @@
 package net.rcode.assetserver.standalone;
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ServerConfig;
 
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +39,15 @@ public class JettyServer {
 	private int httpPort=8080;
 	private InetAddress bindAddress;
 	private Server jettyServer;
+	private ResponseTransferPool transferPool;
+	private Connector httpConnector;
+	private File unixSocket;
+	private String unixSocketPermissions;
+	private boolean metricsEnabled;
+	private int adminPort;
+	private InetAddress adminBindAddress;
+	private String adminToken;
+	private Server adminServer;
 	
 	public JettyServer(AssetServer server) {
 		this.server=server;
@@ -33,10 +57,46 @@ public class JettyServer {
 	public int getHttpPort() {
 		return httpPort;
 	}
+	
+	/**
+	 * @param httpPort TCP port to listen on, 0 for an ephemeral port or -1 to
+	 * not listen on TCP
+	 */
 	public void setHttpPort(int httpPort) {
 		this.httpPort = httpPort;
 	}
 	
+	public File getUnixSocket() {
+		return unixSocket;
+	}
+	
+	/**
+	 * If set, also serve on a Unix domain socket at this path
+	 * @param unixSocket
+	 */
+	public void setUnixSocket(File unixSocket) {
+		this.unixSocket = unixSocket;
+	}
+	
+	public String getUnixSocketPermissions() {
+		return unixSocketPermissions;
+	}
+	
+	/**
+	 * @param unixSocketPermissions Permissions for the socket file (octal such as "660")
+	 */
+	public void setUnixSocketPermissions(String unixSocketPermissions) {
+		this.unixSocketPermissions = unixSocketPermissions;
+	}
+	
+	/**
+	 * @return the port actually bound once started (differs from httpPort if
+	 * httpPort is 0) or -1 if not started
+	 */
+	public int getLocalPort() {
+		return httpConnector!=null ? httpConnector.getLocalPort() : -1;
+	}
+	
 	public InetAddress getBindAddress() {
 		return bindAddress;
 	}
@@ -44,6 +104,50 @@ public class JettyServer {
 		this.bindAddress = bindAddress;
 	}
 	
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+	
+	/**
+	 * If enabled, server metrics are published at MetricsHandler.DEFAULT_PATH
+	 * @param metricsEnabled
+	 */
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+	
+	public int getAdminPort() {
+		return adminPort;
+	}
+	
+	/**
+	 * If non-zero, the admin api (see AdminHandler) is served on this port
+	 * by a separate listener
+	 * @param adminPort
+	 */
+	public void setAdminPort(int adminPort) {
+		this.adminPort = adminPort;
+	}
+	
+	public InetAddress getAdminBindAddress() {
+		return adminBindAddress;
+	}
+	
+	/**
+	 * Address for the admin listener.  Defaults to the loopback address.
+	 * @param adminBindAddress
+	 */
+	public void setAdminBindAddress(InetAddress adminBindAddress) {
+		this.adminBindAddress = adminBindAddress;
+	}
+	
+	public String getAdminToken() {
+		return adminToken;
+	}
+	public void setAdminToken(String adminToken) {
+		this.adminToken = adminToken;
+	}
+	
 	public AssetServer getServer() {
 		return server;
 	}
@@ -53,26 +157,139 @@ public class JettyServer {
 	}
 	
 	public void start() throws Exception, BindException {
-		// Figure listen address
-		InetSocketAddress sa;
-		if (bindAddress==null) {
-			logger.info("Starting HTTP server on port " + httpPort + " (all addresses)");
-			sa=new InetSocketAddress(httpPort);
-		} else {
-			logger.info("Starting HTTP server on port " + httpPort + " (" +bindAddress + ")");
-			sa=new InetSocketAddress(bindAddress, httpPort);
+		ServerConfig config=server.getConfig();
+		List<Connector> connectors=new ArrayList<Connector>(2);
+		if (httpPort>=0) {
+			// Figure listen address
+			SelectChannelConnector connector=new SelectChannelConnector();
+			connector.setPort(httpPort);
+			if (bindAddress==null) {
+				logger.info("Starting HTTP server on port " + httpPort + " (all addresses)");
+			} else {
+				logger.info("Starting HTTP server on port " + httpPort + " (" +bindAddress + ")");
+				connector.setHost(bindAddress.getHostAddress());
+			}
+			configureConnector(connector, config);
+			httpConnector=connector;
+			connectors.add(connector);
+		}
+		if (unixSocket!=null) {
+			logger.info("Starting HTTP server on unix socket " + unixSocket);
+			UnixSocketConnector connector=new UnixSocketConnector(unixSocket);
+			connector.setPermissions(unixSocketPermissions);
+			configureConnector(connector, config);
+			connectors.add(connector);
+		}
+		if (connectors.isEmpty()) {
+			throw new IllegalStateException("No http port or unix socket configured");
 		}
 		
-		jettyServer=new Server(sa);
-		jettyServer.setHandler(jettyHandler);
+		if (config.getHttpAsyncWriteThreshold()>0 && config.getHttpTransferThreads()>0) {
+			transferPool=new ResponseTransferPool(config.getHttpTransferThreads(), config.getHttpTransferQueue(), server.getMetrics());
+			jettyHandler.setTransferPool(transferPool);
+		}
+		
+		jettyServer=new Server();
+		jettyServer.setConnectors(connectors.toArray(new Connector[connectors.size()]));
+		jettyServer.setThreadPool(createThreadPool(config));
+		if (metricsEnabled) {
+			logger.info("Publishing metrics at " + MetricsHandler.DEFAULT_PATH);
+			HandlerList handlers=new HandlerList();
+			handlers.setHandlers(new Handler[] {
+				new MetricsHandler(server.getMetrics()),
+				jettyHandler
+			});
+			jettyServer.setHandler(handlers);
+		} else {
+			jettyServer.setHandler(jettyHandler);
+		}
 		
 		// Turn down logging, which jetty configures just after it inits
 		java.util.logging.Logger.getLogger("org.eclipse.jetty").setLevel(Level.WARNING);
 		
 		jettyServer.start();
+		
+		if (adminPort!=0) startAdmin();
+	}
+	
+	static void configureConnector(AbstractConnector connector, ServerConfig config) {
+		if (config.getHttpAcceptors()>0) connector.setAcceptors(config.getHttpAcceptors());
+		if (config.getHttpMaxIdleTime()>0) connector.setMaxIdleTime(config.getHttpMaxIdleTime());
+		if (config.getHttpAcceptQueueSize()>0) connector.setAcceptQueueSize(config.getHttpAcceptQueueSize());
+		if (config.getHttpResponseBufferSize()>0) connector.setResponseBufferSize(config.getHttpResponseBufferSize());
+	}
+	
+	private static ThreadPool createThreadPool(ServerConfig config) {
+		return createThreadPool(config, config.isHttpVirtualThreads() ? createVirtualThreadExecutor() : null);
+	}
+	
+	/**
+	 * @param config
+	 * @param virtualExecutor executor running each task on a virtual thread or
+	 * null if virtual threads are not available
+	 * @return the request thread pool
+	 */
+	static ThreadPool createThreadPool(ServerConfig config, ExecutorService virtualExecutor) {
+		if (config.isHttpVirtualThreads()) {
+			if (virtualExecutor!=null) {
+				logger.info("Handling requests on virtual threads");
+				return new ExecutorThreadPool(virtualExecutor);
+			}
+			logger.warn("Virtual threads are not available on this JVM (requires Java 21).  Using a thread pool.");
+		}
+		
+		if (config.getHttpMinThreads()>0 && config.getHttpMaxThreads()>0 && config.getHttpMinThreads()>config.getHttpMaxThreads()) {
+			throw new IllegalArgumentException("httpMinThreads (" + config.getHttpMinThreads() + 
+					") exceeds httpMaxThreads (" + config.getHttpMaxThreads() + ")");
+		}
+		QueuedThreadPool pool=new QueuedThreadPool();
+		pool.setName("http");
+		if (config.getHttpMinThreads()>0) pool.setMinThreads(config.getHttpMinThreads());
+		if (config.getHttpMaxThreads()>0) pool.setMaxThreads(config.getHttpMaxThreads());
+		if (config.getHttpMaxQueued()>0) pool.setMaxQueued(config.getHttpMaxQueued());
+		return pool;
+	}
+	
+	/**
+	 * Create an executor that runs each task on a new virtual thread.  Virtual
+	 * threads need Java 21 and the build targets Java 7, so the factory is looked
+	 * up reflectively.
+	 * @return executor or null if not supported
+	 */
+	static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory=Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			logger.warn("Error creating virtual thread executor", e);
+			return null;
+		}
+	}
+	
+	private void startAdmin() throws Exception {
+		if (adminToken==null || adminToken.length()==0) {
+			throw new IllegalStateException("An admin token is required to start the admin listener");
+		}
+		
+		InetAddress address=adminBindAddress;
+		if (address==null) address=InetAddress.getByName(null);
+		logger.info("Starting admin server on port " + adminPort + " (" + address + ")");
+		
+		adminServer=new Server(new InetSocketAddress(address, adminPort));
+		adminServer.setHandler(new AdminHandler(server, adminToken));
+		adminServer.start();
+	}
+	
+	public void stop() throws Exception {
+		if (adminServer!=null) adminServer.stop();
+		if (jettyServer!=null) jettyServer.stop();
+		if (transferPool!=null) transferPool.shutdown();
 	}
 	
 	public void join() throws Exception {
 		jettyServer.join();
+		if (adminServer!=null) adminServer.join();
 	}
 }
@@ -43,6 +43,7 @@ public class Main {
 		commandClassNames.put("version", CP + "VersionCommand");
 		commandClassNames.put("serve", CP + "ServeCommand");
 		commandClassNames.put("cp", CP + "CopyCommand");
+		commandClassNames.put("manifest", CP + "ManifestCommand");
 		
 		// Init option parser
 		overallParser=new OptionParser();
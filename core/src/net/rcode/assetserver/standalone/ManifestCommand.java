@@ -0,0 +1,114 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.rcode.assetserver.cache.NullCache;
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ManifestBuilder;
+import net.rcode.assetserver.util.BlockOutputStream;
+import net.rcode.assetserver.util.IOUtil;
+
+/**
+ * Implements the CLI manifest command which writes a JSON manifest of the
+ * processed assets of a server tree.
+ * 
+ * @author stella
+ *
+ */
+public class ManifestCommand extends MainCommand {
+	public static final String DESCRIPTION="Write a JSON manifest of asset hashes and sizes";
+	
+	private OptionParser optionParser;
+	
+	public ManifestCommand() {
+		optionParser=new OptionParser();
+		optionParser.posixlyCorrect(true);
+		
+		optionParser.accepts("disable-optimization", "Disable optimization filters");
+		optionParser.accepts("output", "Write the manifest to this file instead of stdout")
+			.withRequiredArg();
+		optionParser.accepts("threads", "Number of threads to scan and process with (defaults to the number of processors)")
+			.withRequiredArg()
+			.ofType(Integer.class);
+	}
+	
+	@Override
+	public boolean usage(PrintWriter out) throws IOException {
+		out.println(IOUtil.slurpResource(getClass(), "manifest.txt"));
+		
+		out.println("Command options:");
+		optionParser.printHelpOn(out);
+		
+		out.println();
+
+		out.flush();
+		return true;
+	}
+	
+	@Override
+	public void invoke(String[] args) throws Throwable {
+		OptionSet optionSet;
+		try {
+			optionSet=optionParser.parse(args);
+		} catch (OptionException e) {
+			syntaxError(e.getMessage());
+			return;
+		}
+		
+		List<String> arguments=optionSet.nonOptionArguments();
+		if (arguments.isEmpty() || arguments.size()>2) {
+			syntaxError("Expected serverroot and an optional base path");
+			return;
+		}
+		
+		String baseDir=arguments.size()>1 ? arguments.get(1) : "";
+		if (!baseDir.isEmpty() && !baseDir.startsWith("/")) baseDir='/' + baseDir;
+		if (baseDir.endsWith("/")) baseDir=baseDir.substring(0, baseDir.length()-1);
+		
+		AssetServer server=new AssetServer(new File(arguments.get(0)));
+		if (optionSet.has("disable-optimization")) {
+			server.setGlobalDisableOptimization(true);
+		}
+		server.setSharedCache(new NullCache());
+		
+		int threads=Runtime.getRuntime().availableProcessors();
+		if (optionSet.has("threads")) threads=((Integer)optionSet.valueOf("threads")).intValue();
+		
+		ManifestBuilder builder=new ManifestBuilder(server);
+		builder.setBaseDir(baseDir);
+		builder.setParallelism(threads);
+		
+		long startTime=System.currentTimeMillis();
+		ManifestBuilder.UpdateResult result=builder.update();
+		
+		if (optionSet.has("output")) {
+			// Replace the file in one step so that readers never see a partial manifest
+			File outputFile=new File((String)optionSet.valueOf("output")).getAbsoluteFile();
+			BlockOutputStream buffer=new BlockOutputStream();
+			Writer out=new OutputStreamWriter(buffer, "UTF-8");
+			builder.write(out);
+			out.close();
+			IOUtil.interlockedWriteFile(outputFile, buffer);
+		} else {
+			Writer out=new OutputStreamWriter(System.out, "UTF-8");
+			builder.write(out);
+			out.write('\n');
+			out.flush();
+		}
+		
+		System.err.println("Wrote manifest of " + builder.getEntries().size() + " assets in " +
+				(((double)(System.currentTimeMillis()-startTime))/1000.0) + "s");
+		for (String failed: result.failed) {
+			System.err.println("ERROR: Could not process " + failed);
+		}
+		if (!result.failed.isEmpty()) System.exit(10);
+	}
+}
@@ -0,0 +1,56 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.rcode.assetserver.metrics.MetricsRegistry;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Jetty handler that publishes the contents of a MetricsRegistry in the
+ * Prometheus text format.  Requests for any other target are passed on.
+ * 
+ * @author stella
+ *
+ */
+public class MetricsHandler extends AbstractHandler {
+	public static final String DEFAULT_PATH="/_assetserver/metrics";
+	
+	private MetricsRegistry metrics;
+	private String path=DEFAULT_PATH;
+	
+	public MetricsHandler(MetricsRegistry metrics) {
+		this.metrics=metrics;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public void setPath(String path) {
+		this.path = path;
+	}
+	
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request,
+			HttpServletResponse response) throws IOException, ServletException {
+		if (!path.equals(target)) return;
+		if (!"GET".equals(request.getMethod())) return;
+		
+		baseRequest.setHandled(true);
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("text/plain; version=0.0.4");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		
+		Writer out=response.getWriter();
+		metrics.writePrometheus(out);
+		out.flush();
+	}
+}
@@ -0,0 +1,151 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.rcode.assetserver.metrics.Counter;
+import net.rcode.assetserver.metrics.Gauge;
+import net.rcode.assetserver.metrics.MetricsRegistry;
+
+import org.eclipse.jetty.server.AsyncContinuation;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes large response bodies off of the request thread pool.  The request is
+ * suspended (as a Jetty continuation), the body is written by one of a fixed
+ * number of transfer threads and the continuation is completed once it has
+ * been sent.  The request thread returns to the pool as soon as the response
+ * headers have been prepared, so clients on slow links downloading large
+ * bundles no longer tie up the threads that resolve and filter assets.
+ * <p>
+ * Only connectors with non-blocking endpoints can suspend.  On blocking
+ * connectors transfer() returns false and the caller should write inline.
+ * <p>
+ * At most maxQueued transfers wait for a thread.  Beyond that transfer()
+ * also returns false and the body is written by the request thread, which
+ * pushes back on the request pool (and from there the connector's queue)
+ * instead of holding an unbounded number of suspended responses in memory.
+ *
+ * @author stella
+ *
+ */
+public class ResponseTransferPool {
+	private static final Logger logger=LoggerFactory.getLogger("httpserver");
+
+	/**
+	 * A body to be written to a suspended response
+	 */
+	public static interface Transfer {
+		public void write() throws IOException;
+	}
+
+	private ThreadPoolExecutor executor;
+	private Counter overflows;
+
+	/**
+	 * @param threads number of transfer threads
+	 * @param maxQueued maximum number of transfers waiting for a thread
+	 * @param metrics registry to report the queue depth and overflows to or null
+	 */
+	public ResponseTransferPool(int threads, int maxQueued, MetricsRegistry metrics) {
+		final AtomicInteger threadCount=new AtomicInteger();
+		executor=new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueued)),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t=new Thread(r, "transfer-" + threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		
+		if (metrics!=null) {
+			metrics.gauge("assetserver_http_transfer_queue_depth", "Response bodies waiting for a transfer thread", new Gauge() {
+				public double getValue() {
+					return getQueueDepth();
+				}
+			});
+			overflows=metrics.counter("assetserver_http_transfer_overflows_total", "Response bodies written by the request thread because the transfer queue was full");
+		} else {
+			overflows=new Counter();
+		}
+	}
+
+	/**
+	 * @return number of transfers waiting for a thread
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return number of transfers that were written by the request thread
+	 * because the queue was full
+	 */
+	public long getOverflowCount() {
+		return overflows.get();
+	}
+
+	/**
+	 * @return number of transfers being written
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * Suspend the request and write the body from the transfer pool.
+	 * @param baseRequest
+	 * @param transfer
+	 * @return true if the transfer was scheduled, false if the request cannot
+	 * be suspended or the queue is full and the body must be written by the caller
+	 */
+	public boolean transfer(Request baseRequest, final Transfer transfer) {
+		if (baseRequest.getConnection().getEndPoint().isBlocking()) return false;
+		final AsyncContinuation continuation=baseRequest.getAsyncContinuation();
+		if (!continuation.isInitial()) return false;
+		if (executor.getQueue().remainingCapacity()==0) {
+			overflows.increment();
+			return false;
+		}
+
+		continuation.setTimeout(0);
+		continuation.suspend();
+		Runnable task=new Runnable() {
+			public void run() {
+				try {
+					transfer.write();
+				} catch (IOException e) {
+					// Typically the client went away
+					logger.debug("Error writing response body", e);
+				} catch (Throwable t) {
+					logger.warn("Uncaught exception writing response body", t);
+				} finally {
+					continuation.complete();
+				}
+			}
+		};
+
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			// Shutting down or the queue filled up since it was checked.  The
+			// response is already suspended, so write it from this thread.
+			if (!executor.isShutdown()) overflows.increment();
+			task.run();
+		}
+		return true;
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
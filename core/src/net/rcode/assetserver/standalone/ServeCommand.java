@@ -6,6 +6,7 @@ import java.io.PrintWriter;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.security.SecureRandom;
 import java.util.List;
 
 import joptsimple.OptionException;
@@ -14,8 +15,12 @@ import joptsimple.OptionSet;
 import net.rcode.assetserver.VersionInfo;
 import net.rcode.assetserver.cache.NullCache;
 import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ConfigurationReloader;
+import net.rcode.assetserver.core.ServerConfig;
 import net.rcode.assetserver.util.IOUtil;
 
+import org.apache.commons.codec.binary.Hex;
+
 public class ServeCommand extends MainCommand {
 	public static final String DESCRIPTION="Run http server";
 	
@@ -29,9 +34,63 @@ public class ServeCommand extends MainCommand {
 			.defaultsTo(4080);
 		optionParser.accepts("bind", "Bind to a specific network interface address (defaults to all addresses)")
 			.withOptionalArg();
+		optionParser.accepts("unix-socket", "Serve on a unix domain socket at this path (disables the tcp listener unless --http is given)")
+			.withRequiredArg();
+		optionParser.accepts("unix-socket-mode", "Permissions of the unix socket file (octal, e.g. 660)")
+			.withRequiredArg();
+		optionParser.accepts("admin-port", "Serve the cache admin api on this port")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("admin-bind", "Bind the admin api to a specific address (defaults to loopback)")
+			.withRequiredArg();
+		optionParser.accepts("admin-token", "Token required by the admin api (generated and logged if not given)")
+			.withRequiredArg();
+		optionParser.accepts("threads-min", "Minimum number of request threads")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("threads-max", "Maximum number of request threads")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("threads-max-queued", "Maximum number of requests queued waiting for a thread")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("acceptors", "Number of acceptor/selector threads")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("idle-timeout", "Milliseconds before idle connections are closed")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("accept-queue", "Listen backlog for the http socket")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("response-buffer", "Size in bytes of the response buffer")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("virtual-threads", "Handle requests on virtual threads (Java 21+)");
+		optionParser.accepts("async-write-threshold", "Write bodies of at least this many bytes from the transfer pool (0 disables)")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("transfer-threads", "Number of threads writing large response bodies")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("transfer-queue", "Maximum number of large response bodies waiting for a transfer thread before the request thread writes them")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("reload", "Reload the configuration when the config file changes");
 		optionParser.accepts("clear-cache", "Clear the cache prior to starting");
 		optionParser.accepts("no-cache", "Disable the cache");
 		optionParser.accepts("disable-optimization", "Disable optimization filters");
+		optionParser.accepts("stage-cache-size", "Memory in bytes for memoized filter stages (0 disables)")
+			.withRequiredArg()
+			.ofType(Long.class);
+		optionParser.accepts("max-filter-concurrency", "Maximum number of requests executing filters at once, overriding limitFilters() in the configuration (0=unlimited)")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("max-filter-queue", "Maximum number of requests waiting to execute filters before responding 503 (0=unlimited)")
+			.withRequiredArg()
+			.ofType(Integer.class);
+		optionParser.accepts("metrics", "Publish Prometheus metrics at " + MetricsHandler.DEFAULT_PATH);
+		optionParser.accepts("debug-timing", "Report per-stage timings in a Server-Timing response header");
 	}
 	
 	@Override
@@ -54,7 +113,7 @@ public class ServeCommand extends MainCommand {
 	public void invoke(String[] args) throws Throwable {
 		OptionSet optionSet;
 		try {
-			optionSet=optionParser.parse(args);
+			optionSet=parse(args);
 		} catch (OptionException e) {
 			syntaxError(e.getMessage());
 			return;
@@ -90,8 +149,37 @@ public class ServeCommand extends MainCommand {
 			server.setGlobalDisableOptimization(true);
 		}
 		
+		if (optionSet.has("stage-cache-size")) {
+			long stageCacheSize=((Long)optionSet.valueOf("stage-cache-size")).longValue();
+			if (stageCacheSize>0) server.getStageCache().setMaxBytes(stageCacheSize);
+			else server.setStageCache(null);
+		}
+		
+		if (optionSet.has("max-filter-concurrency")) {
+			server.getFilterScheduler().setMaxConcurrent(((Integer)optionSet.valueOf("max-filter-concurrency")).intValue());
+		}
+		if (optionSet.has("max-filter-queue")) {
+			server.getFilterScheduler().setMaxQueueDepth(((Integer)optionSet.valueOf("max-filter-queue")).intValue());
+		}
+		
+		if (optionSet.has("debug-timing")) {
+			server.getConfig().setDebugTiming(true);
+		}
+		
+		// Command line tuning overrides settings from the config file
+		try {
+			applyHttpOptions(optionSet, server.getConfig());
+		} catch (IllegalArgumentException e) {
+			syntaxError(e.getMessage());
+			return;
+		}
+		
 		AssetServer.logger.info("Configuration summary:\n" + server.summarizeConfiguration());
 		
+		if (optionSet.has("reload")) {
+			new ConfigurationReloader(server).start();
+		}
+		
 		JettyServer http=new JettyServer(server);
 		Object bindAddress=optionSet.valueOf("bind");
 		try {
@@ -101,7 +189,44 @@ public class ServeCommand extends MainCommand {
 			System.exit(3);
 		}
 		
-		http.setHttpPort(((Integer)optionSet.valueOf("http")).intValue());
+		if (optionSet.has("unix-socket")) {
+			http.setUnixSocket(new File(optionSet.valueOf("unix-socket").toString()));
+			Object mode=optionSet.valueOf("unix-socket-mode");
+			if (mode!=null) {
+				try {
+					UnixSocketConnector.toSymbolicPermissions(mode.toString());
+				} catch (IllegalArgumentException e) {
+					syntaxError(e.getMessage());
+					return;
+				}
+				http.setUnixSocketPermissions(mode.toString());
+			}
+		}
+		
+		if (optionSet.has("unix-socket") && !optionSet.has("http")) {
+			http.setHttpPort(-1);
+		} else {
+			http.setHttpPort(((Integer)optionSet.valueOf("http")).intValue());
+		}
+		http.setMetricsEnabled(optionSet.has("metrics"));
+		
+		if (optionSet.has("admin-port")) {
+			http.setAdminPort(((Integer)optionSet.valueOf("admin-port")).intValue());
+			Object adminBind=optionSet.valueOf("admin-bind");
+			try {
+				if (adminBind!=null) http.setAdminBindAddress(InetAddress.getByName(adminBind.toString()));
+			} catch (UnknownHostException e) {
+				System.err.println("FATAL: Admin bind address '" + adminBind + "' could not be resolved. " + e.getMessage());
+				System.exit(3);
+			}
+			
+			Object adminToken=optionSet.valueOf("admin-token");
+			if (adminToken==null) {
+				adminToken=generateToken();
+				AssetServer.logger.info("Generated admin token: " + adminToken);
+			}
+			http.setAdminToken(adminToken.toString());
+		}
 		
 		try {
 			http.start();
@@ -112,5 +237,39 @@ public class ServeCommand extends MainCommand {
 		
 		http.join();
 	}
+	
+	OptionSet parse(String[] args) throws OptionException {
+		return optionParser.parse(args);
+	}
+	
+	/**
+	 * Copy the http tuning options that were given onto the config
+	 * @throws IllegalArgumentException if a value is negative
+	 */
+	static void applyHttpOptions(OptionSet optionSet, ServerConfig config) throws IllegalArgumentException {
+		if (optionSet.has("threads-min")) config.setHttpMinThreads(intOption(optionSet, "threads-min"));
+		if (optionSet.has("threads-max")) config.setHttpMaxThreads(intOption(optionSet, "threads-max"));
+		if (optionSet.has("threads-max-queued")) config.setHttpMaxQueued(intOption(optionSet, "threads-max-queued"));
+		if (optionSet.has("acceptors")) config.setHttpAcceptors(intOption(optionSet, "acceptors"));
+		if (optionSet.has("idle-timeout")) config.setHttpMaxIdleTime(intOption(optionSet, "idle-timeout"));
+		if (optionSet.has("accept-queue")) config.setHttpAcceptQueueSize(intOption(optionSet, "accept-queue"));
+		if (optionSet.has("response-buffer")) config.setHttpResponseBufferSize(intOption(optionSet, "response-buffer"));
+		if (optionSet.has("virtual-threads")) config.setHttpVirtualThreads(true);
+		if (optionSet.has("async-write-threshold")) config.setHttpAsyncWriteThreshold(intOption(optionSet, "async-write-threshold"));
+		if (optionSet.has("transfer-threads")) config.setHttpTransferThreads(intOption(optionSet, "transfer-threads"));
+		if (optionSet.has("transfer-queue")) config.setHttpTransferQueue(intOption(optionSet, "transfer-queue"));
+	}
+	
+	private static int intOption(OptionSet optionSet, String name) {
+		int value=((Integer)optionSet.valueOf(name)).intValue();
+		if (value<0) throw new IllegalArgumentException("--" + name + " must not be negative");
+		return value;
+	}
+	
+	private static String generateToken() {
+		byte[] bytes=new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		return new String(Hex.encodeHex(bytes));
+	}
 
 }
@@ -0,0 +1,392 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ConnectedEndPoint;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.io.nio.ChannelEndPoint;
+import org.eclipse.jetty.server.HttpConnection;
+import org.eclipse.jetty.server.nio.AbstractNIOConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Jetty connector that accepts HTTP connections on a Unix domain socket.  This
+ * is intended for running behind a reverse proxy on the same host.
+ * <p>
+ * Connections are handled in blocking mode, one pool thread per connection
+ * as with Jetty's BlockingChannelConnector, and idle connections are closed
+ * by a sweeper once maxIdleTime passes.
+ * Domain sockets are opened reflectively because they require Java 16 or
+ * later.
+ * <p>
+ * On open, an existing socket file is removed if nothing is listening on it.
+ * If another process is still accepting on it, or the path exists and is not
+ * a socket, open fails with a BindException.  The socket file is deleted again
+ * on close.
+ * <p>
+ * When permissions are given, the socket is bound in a private directory next
+ * to the path, given its permissions and then renamed into place, so that it
+ * is never reachable with the umask default permissions.
+ *
+ * @author stella
+ *
+ */
+public class UnixSocketConnector extends AbstractNIOConnector {
+	private static final Logger logger=LoggerFactory.getLogger("httpserver");
+	private static final long SWEEP_INTERVAL=1000;
+
+	private File path;
+	private String permissions;
+	private volatile ServerSocketChannel acceptChannel;
+	private Set<UnixEndPoint> endPoints=Collections.newSetFromMap(new ConcurrentHashMap<UnixEndPoint, Boolean>());
+
+	public UnixSocketConnector(File path) {
+		this.path=path;
+	}
+
+	public File getPath() {
+		return path;
+	}
+
+	public String getPermissions() {
+		return permissions;
+	}
+
+	/**
+	 * Permissions to apply to the socket file once bound, in octal ("660")
+	 * or symbolic ("rw-rw----") form.  Null leaves the umask default.
+	 * @param permissions
+	 */
+	public void setPermissions(String permissions) {
+		this.permissions=permissions;
+	}
+
+	/**
+	 * Convert octal permissions ("660") to symbolic form ("rw-rw----").  Symbolic
+	 * permissions are returned unchanged.
+	 * @param permissions
+	 * @return symbolic permissions
+	 * @throws IllegalArgumentException if not a valid mode
+	 */
+	public static String toSymbolicPermissions(String permissions) throws IllegalArgumentException {
+		if (permissions.matches("[0-7]{3}")) {
+			StringBuilder ret=new StringBuilder(9);
+			for (int i=0; i<3; i++) {
+				int digit=permissions.charAt(i)-'0';
+				ret.append((digit & 4)!=0 ? 'r' : '-');
+				ret.append((digit & 2)!=0 ? 'w' : '-');
+				ret.append((digit & 1)!=0 ? 'x' : '-');
+			}
+			return ret.toString();
+		}
+		if (permissions.matches("[r-][w-][x-][r-][w-][x-][r-][w-][x-]")) return permissions;
+		throw new IllegalArgumentException("Illegal permissions '" + permissions + "'");
+	}
+
+	@Override
+	public void open() throws IOException {
+		if (acceptChannel!=null) return;
+
+		ProtocolFamily unixFamily;
+		SocketAddress address;
+		try {
+			unixFamily=StandardProtocolFamily.valueOf("UNIX");
+			address=(SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+					.getMethod("of", String.class).invoke(null, path.getPath());
+		} catch (Exception e) {
+			throw new IOException("Unix domain sockets are not supported on this JVM (requires Java 16)");
+		}
+
+		removeStaleSocket(unixFamily, address);
+
+		ServerSocketChannel channel;
+		try {
+			channel=(ServerSocketChannel) ServerSocketChannel.class
+					.getMethod("open", ProtocolFamily.class).invoke(null, unixFamily);
+		} catch (Exception e) {
+			throw new IOException("Could not open unix domain socket: " + e);
+		}
+		try {
+			channel.configureBlocking(true);
+			if (permissions==null) {
+				channel.bind(address, getAcceptQueueSize());
+			} else {
+				bindPrivately(channel);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		acceptChannel=channel;
+	}
+
+	/**
+	 * Bind in a directory only we can access, apply the permissions and move the
+	 * socket to its final path
+	 * @param channel
+	 * @throws IOException
+	 */
+	private void bindPrivately(ServerSocketChannel channel) throws IOException {
+		Path target=path.getAbsoluteFile().toPath();
+		Path privateDirectory=Files.createTempDirectory(target.getParent(), ".as",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		Path privatePath=privateDirectory.resolve("s");
+		try {
+			SocketAddress privateAddress;
+			try {
+				privateAddress=(SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+						.getMethod("of", Path.class).invoke(null, privatePath);
+			} catch (Exception e) {
+				throw new IOException("Could not create unix domain socket address: " + e);
+			}
+			channel.bind(privateAddress, getAcceptQueueSize());
+			Files.setPosixFilePermissions(privatePath, PosixFilePermissions.fromString(toSymbolicPermissions(permissions)));
+			Files.move(privatePath, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(privatePath);
+			Files.delete(privateDirectory);
+		}
+	}
+
+	private void removeStaleSocket(ProtocolFamily unixFamily, SocketAddress address) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes=Files.readAttributes(path.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		if (attributes.isRegularFile() || attributes.isDirectory() || attributes.isSymbolicLink()) {
+			throw new BindException("Cannot listen on " + path + ": it exists and is not a socket");
+		}
+
+		boolean live=false;
+		try {
+			SocketChannel probe=(SocketChannel) SocketChannel.class
+					.getMethod("open", ProtocolFamily.class).invoke(null, unixFamily);
+			try {
+				probe.connect(address);
+				live=true;
+			} catch (IOException e) {
+				// Nobody listening
+			} finally {
+				probe.close();
+			}
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Could not probe unix domain socket: " + e);
+		}
+
+		if (live) {
+			throw new BindException("Unix socket " + path + " is in use by another process");
+		}
+		logger.info("Removing stale unix socket " + path);
+		if (!path.delete()) {
+			throw new BindException("Could not remove stale unix socket " + path);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ServerSocketChannel channel=acceptChannel;
+		acceptChannel=null;
+		if (channel!=null) {
+			channel.close();
+			path.delete();
+		}
+	}
+
+	@Override
+	public Object getConnection() {
+		return acceptChannel;
+	}
+
+	@Override
+	public int getLocalPort() {
+		return -1;
+	}
+
+	@Override
+	public String getName() {
+		return "unix:" + path;
+	}
+
+	@Override
+	public String toString() {
+		return "UnixSocketConnector@" + path;
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		getThreadPool().dispatch(new Runnable() {
+			public void run() {
+				while (isRunning()) {
+					try {
+						Thread.sleep(SWEEP_INTERVAL);
+					} catch (InterruptedException e) {
+						return;
+					}
+					long now=System.currentTimeMillis();
+					for (UnixEndPoint endPoint: endPoints) {
+						endPoint.checkIdle(now);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void accept(int acceptorID) throws IOException, InterruptedException {
+		ServerSocketChannel channel=acceptChannel;
+		if (channel==null) throw new EofException();
+		SocketChannel socketChannel=channel.accept();
+		socketChannel.configureBlocking(true);
+		UnixEndPoint endPoint=new UnixEndPoint(new DomainByteChannel(socketChannel));
+		if (!getThreadPool().dispatch(endPoint)) {
+			logger.warn("Dispatch failed for unix socket connection");
+			endPoint.close();
+		}
+	}
+
+	/**
+	 * Hides the SocketChannel from ChannelEndPoint, which would otherwise
+	 * ask for its Socket (unsupported for domain sockets).
+	 */
+	private static class DomainByteChannel implements ByteChannel, GatheringByteChannel {
+		private SocketChannel delegate;
+
+		public DomainByteChannel(SocketChannel delegate) {
+			this.delegate=delegate;
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			return delegate.read(dst);
+		}
+
+		public int write(ByteBuffer src) throws IOException {
+			return delegate.write(src);
+		}
+
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			return delegate.write(srcs, offset, length);
+		}
+
+		public long write(ByteBuffer[] srcs) throws IOException {
+			return delegate.write(srcs);
+		}
+
+		public boolean isOpen() {
+			return delegate.isOpen();
+		}
+
+		public void close() throws IOException {
+			delegate.close();
+		}
+	}
+
+	private class UnixEndPoint extends ChannelEndPoint implements ConnectedEndPoint, Runnable {
+		private volatile Connection connection;
+		private volatile long lastActivity=System.currentTimeMillis();
+
+		public UnixEndPoint(DomainByteChannel channel) throws IOException {
+			super(channel);
+			setMaxIdleTime(UnixSocketConnector.this.getMaxIdleTime());
+			connection=new HttpConnection(UnixSocketConnector.this, this, getServer());
+		}
+
+		public Connection getConnection() {
+			return connection;
+		}
+
+		public void setConnection(Connection connection) {
+			connectionUpgraded(this.connection, connection);
+			this.connection=connection;
+		}
+
+		@Override
+		public int fill(Buffer buffer) throws IOException {
+			lastActivity=System.currentTimeMillis();
+			int ret=super.fill(buffer);
+			lastActivity=System.currentTimeMillis();
+			return ret;
+		}
+
+		@Override
+		public int flush(Buffer buffer) throws IOException {
+			lastActivity=System.currentTimeMillis();
+			return super.flush(buffer);
+		}
+
+		@Override
+		public int flush(Buffer header, Buffer buffer, Buffer trailer) throws IOException {
+			lastActivity=System.currentTimeMillis();
+			return super.flush(header, buffer, trailer);
+		}
+
+		void checkIdle(long now) {
+			int maxIdle=isLowResources() ? getLowResourcesMaxIdleTime() : getMaxIdleTime();
+			Connection c=connection;
+			if (maxIdle>0 && c!=null && c.isIdle() && now-lastActivity>maxIdle) {
+				try {
+					close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+		}
+
+		public void run() {
+			connectionOpened(connection);
+			endPoints.add(this);
+			try {
+				while (isOpen()) {
+					Connection next=connection.handle();
+					if (next!=connection) setConnection(next);
+				}
+			} catch (EofException e) {
+				closeQuietly();
+			} catch (IOException e) {
+				// Includes closes by the idle sweeper
+				closeQuietly();
+			} catch (Throwable t) {
+				logger.warn("Error handling unix socket connection", t);
+				closeQuietly();
+			} finally {
+				connectionClosed(connection);
+				endPoints.remove(this);
+			}
+		}
+
+		private void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -34,8 +34,15 @@ public class BlockOutputStream extends OutputStream implements BufferAccessor {
 
 	@Override
 	public long length() {
-		if (blocks.isEmpty()) return 0;
-		return (blocks.size()-1) * blockSize + curPos;
+		return streamLength;
+	}
+	
+	/**
+	 * @return number of bytes used in the last block (which is full if curBlock
+	 * was just completed)
+	 */
+	private int lastBlockLength() {
+		return curBlock==null && !blocks.isEmpty() ? blockSize : curPos;
 	}
 	
 	@Override
@@ -73,15 +80,14 @@ public class BlockOutputStream extends OutputStream implements BufferAccessor {
 	
 	@Override
 	public void write(int ib) throws IOException {
-		byte b=(byte)(ib < 128 ? ib : 127 - ib);
-		write(new byte[] { b }, 0, 1);
+		write(new byte[] { (byte)ib }, 0, 1);
 	}
 
 	@Override
 	public InputStream openInput() {
 		return new BlockInputStream(blocks.toArray(new byte[blocks.size()][]), 
 				blockSize, 
-				curBlock==null && !blocks.isEmpty()? blockSize : curPos);
+				lastBlockLength());
 	}
 
 	@Override
@@ -98,9 +104,9 @@ public class BlockOutputStream extends OutputStream implements BufferAccessor {
 		}
 		
 		// Write the last block
-		if (!blocks.isEmpty() && curPos>0) {
+		if (!blocks.isEmpty()) {
 			byte[] lastBlock=blocks.get(blocks.size()-1);
-			System.arraycopy(lastBlock, 0, ret, (blocks.size()-1)*blockSize, curPos);
+			System.arraycopy(lastBlock, 0, ret, (blocks.size()-1)*blockSize, lastBlockLength());
 		}
 		
 		return ret;
@@ -115,9 +121,9 @@ public class BlockOutputStream extends OutputStream implements BufferAccessor {
 		}
 		
 		// Write the last block
-		if (!blocks.isEmpty() && curPos>0) {
+		if (!blocks.isEmpty()) {
 			byte[] lastBlock=blocks.get(blocks.size()-1);
-			out.write(lastBlock, 0, curPos);
+			out.write(lastBlock, 0, lastBlockLength());
 		}
 	}
 	
@@ -73,6 +73,41 @@ public class IOUtil {
 		}
 	}
 	
+	/**
+	 * Writes the contents of a buffer into a byte array.  If the buffer knows its
+	 * length, the contents are written directly into an array of that size without
+	 * further copies.  Otherwise they are collected in blocks and copied once.
+	 * @param source
+	 * @return contents
+	 * @throws IOException
+	 */
+	public static byte[] toByteArray(BufferAccessor source) throws IOException {
+		long length=source.length();
+		if (length<0 || length>Integer.MAX_VALUE) {
+			BlockOutputStream out=new BlockOutputStream(16384);
+			source.writeTo(out);
+			return out.getBytes();
+		}
+		
+		SizedByteArrayOutputStream out=new SizedByteArrayOutputStream((int)length);
+		source.writeTo(out);
+		return out.toSizedByteArray();
+	}
+	
+	/**
+	 * ByteArrayOutputStream that hands out its array when it was sized exactly
+	 */
+	private static class SizedByteArrayOutputStream extends ByteArrayOutputStream {
+		public SizedByteArrayOutputStream(int size) {
+			super(size);
+		}
+		
+		public byte[] toSizedByteArray() {
+			if (count==buf.length) return buf;
+			return toByteArray();
+		}
+	}
+	
 	/**
 	 * Decodes the given buffer to a String using the given encoding.  The special
 	 * psuedo encoding of "base64" is also recognized.
@@ -0,0 +1,121 @@
+package net.rcode.assetserver.util;
+
+import java.io.IOException;
+
+/**
+ * Minimal streaming JSON writer.  Keeps track of whether a separator is needed
+ * so that callers can simply emit names and values in order.  No validation of
+ * nesting is done.
+ * 
+ * @author stella
+ *
+ */
+public class JsonWriter {
+	private Appendable out;
+	private boolean needComma;
+	
+	public JsonWriter(Appendable out) {
+		this.out=out;
+	}
+	
+	public JsonWriter beginObject() throws IOException {
+		separate();
+		out.append('{');
+		needComma=false;
+		return this;
+	}
+	
+	public JsonWriter endObject() throws IOException {
+		out.append('}');
+		needComma=true;
+		return this;
+	}
+	
+	public JsonWriter beginArray() throws IOException {
+		separate();
+		out.append('[');
+		needComma=false;
+		return this;
+	}
+	
+	public JsonWriter endArray() throws IOException {
+		out.append(']');
+		needComma=true;
+		return this;
+	}
+	
+	/**
+	 * Emit an object member name.  Must be followed by a value, object or array.
+	 * @param name
+	 * @return this
+	 * @throws IOException
+	 */
+	public JsonWriter name(String name) throws IOException {
+		separate();
+		writeString(name);
+		out.append(':');
+		needComma=false;
+		return this;
+	}
+	
+	public JsonWriter value(String value) throws IOException {
+		separate();
+		if (value==null) out.append("null");
+		else writeString(value);
+		needComma=true;
+		return this;
+	}
+	
+	public JsonWriter value(long value) throws IOException {
+		separate();
+		out.append(String.valueOf(value));
+		needComma=true;
+		return this;
+	}
+	
+	public JsonWriter value(double value) throws IOException {
+		separate();
+		if (Double.isNaN(value) || Double.isInfinite(value)) out.append("null");
+		else out.append(String.valueOf(value));
+		needComma=true;
+		return this;
+	}
+	
+	public JsonWriter value(boolean value) throws IOException {
+		separate();
+		out.append(value ? "true" : "false");
+		needComma=true;
+		return this;
+	}
+	
+	private void separate() throws IOException {
+		if (needComma) {
+			out.append(',');
+			needComma=false;
+		}
+	}
+	
+	private void writeString(String s) throws IOException {
+		out.append('"');
+		for (int i=0; i<s.length(); i++) {
+			char c=s.charAt(i);
+			switch (c) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if (c<0x20 || c==0x2028 || c==0x2029) {
+					String hex=Integer.toHexString(c);
+					out.append("\\u");
+					for (int j=hex.length(); j<4; j++) out.append('0');
+					out.append(hex);
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+}
@@ -1,5 +1,7 @@
 package net.rcode.assetserver.util;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -35,6 +37,24 @@ public class MessageDigestBuilder {
 		digest.update(buffer);
 	}
 	
+	/**
+	 * Append the contents of a buffer, streaming them with writeTo()
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public void append(BufferAccessor buffer) throws IOException {
+		buffer.writeTo(new OutputStream() {
+			@Override
+			public void write(int b) {
+				digest.update((byte)b);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) {
+				digest.update(b, off, len);
+			}
+		});
+	}
+	
 	public byte[] getValue() {
 		if (value==null) value=digest.digest();
 		return value;
@@ -1,7 +1,9 @@
 package net.rcode.assetserver.util;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,6 +15,11 @@ import java.util.regex.Pattern;
  * excludes from systematic processing.  This list mirrors Ant's exclusions, which
  * turn out to be pretty sane:
  * http://ant.apache.org/manual/dirtasks.html#defaultexcludes
+ * <p>
+ * Matching does not go through the combined regular expression unless it has to.
+ * Clauses are compiled into a hash set of literal names, a table of simple globs
+ * with a single '*' (prefix, suffix or both) and a regular expression holding
+ * only the remaining clauses, which is null for the default excludes.
  * 
  * @author stella
  *
@@ -52,7 +59,9 @@ public class NamePattern {
 	private static final Pattern GLOB_SPLIT=Pattern.compile("\\*|\\?", Pattern.MULTILINE);
 	
 	private volatile Pattern matchExpression;
+	private volatile CompiledMatcher compiledMatcher;
 	private List<String> rawClauses=new ArrayList<String>();
+	private List<String> globs=new ArrayList<String>();
 	private boolean frozen;
 	
 	/**
@@ -80,7 +89,7 @@ public class NamePattern {
 
 	public NamePattern freeze() {
 		frozen=true;
-		compilePattern();
+		compileMatcher();
 		return this;
 	}
 	
@@ -101,34 +110,105 @@ public class NamePattern {
 		}
 		
 		// Terminal
-		expression.append(pattern.substring(index));
+		expression.append(Pattern.quote(pattern.substring(index)));
 		rawClauses.add(expression.toString());
+		globs.add(pattern);
 		matchExpression=null;
+		compiledMatcher=null;
 	}
 	
 	public boolean matches(String name) {
-		Pattern pattern=compilePattern();
-		if (pattern==null) return false;
-		else return pattern.matcher(name).matches();
+		return compileMatcher().matches(name);
+	}
+	
+	/**
+	 * A glob with a single '*' and no '?', stored as the literal parts on
+	 * either side of the star
+	 */
+	private static class Affix {
+		final String prefix;
+		final String suffix;
+		final int minLength;
+		
+		Affix(String prefix, String suffix) {
+			this.prefix=prefix;
+			this.suffix=suffix;
+			this.minLength=prefix.length() + suffix.length();
+		}
+		
+		boolean matches(String name) {
+			return name.length()>=minLength && name.startsWith(prefix) && name.endsWith(suffix);
+		}
+	}
+	
+	/**
+	 * Immutable compiled form of the clauses
+	 */
+	private static class CompiledMatcher {
+		final Set<String> literals;
+		final Affix[] affixes;
+		final Pattern remainder;
+		
+		CompiledMatcher(Set<String> literals, Affix[] affixes, Pattern remainder) {
+			this.literals=literals;
+			this.affixes=affixes;
+			this.remainder=remainder;
+		}
+		
+		boolean matches(String name) {
+			if (literals.contains(name)) return true;
+			for (Affix affix: affixes) {
+				if (affix.matches(name)) return true;
+			}
+			return remainder!=null && remainder.matcher(name).matches();
+		}
+	}
+	
+	private CompiledMatcher compileMatcher() {
+		CompiledMatcher ret=compiledMatcher;
+		if (ret!=null) return ret;
+		
+		Set<String> literals=new HashSet<String>();
+		List<Affix> affixes=new ArrayList<Affix>();
+		List<String> remainder=new ArrayList<String>();
+		for (int i=0; i<globs.size(); i++) {
+			String glob=globs.get(i);
+			int star=glob.indexOf('*');
+			if (glob.indexOf('?')>=0 || (star>=0 && glob.indexOf('*', star+1)>=0)) {
+				remainder.add(rawClauses.get(i));
+			} else if (star<0) {
+				literals.add(glob);
+			} else {
+				affixes.add(new Affix(glob.substring(0, star), glob.substring(star+1)));
+			}
+		}
+		
+		ret=new CompiledMatcher(literals, affixes.toArray(new Affix[affixes.size()]), joinClauses(remainder));
+		compiledMatcher=ret;
+		return ret;
 	}
 
 	private Pattern compilePattern() {
 		Pattern ret=matchExpression;
 		if (ret!=null) return ret;
-		if (rawClauses.isEmpty()) return null;
+		ret=joinClauses(rawClauses);
+		matchExpression=ret;
+		return ret;
+	}
+	
+	private static Pattern joinClauses(List<String> clauses) {
+		if (clauses.isEmpty()) return null;
 		StringBuilder s=new StringBuilder();
 		boolean first=true;
 		s.append('^');
-		for (String clause: rawClauses) {
+		for (String clause: clauses) {
 			if (first) first=false;
 			else s.append('|');
 			s.append(clause);
 		}
 		s.append('$');
 		
-		ret=Pattern.compile(s.toString());
-		matchExpression=ret;
-		return ret;
+		return Pattern.compile(s.toString());
 	}
 	
 	public Pattern getPattern() {
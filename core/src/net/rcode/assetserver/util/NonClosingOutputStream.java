@@ -0,0 +1,30 @@
+package net.rcode.assetserver.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes writes through to another stream but only flushes it on close.  Used
+ * to hand a stream to code that closes what it is given when the caller still
+ * owns the stream.
+ *
+ * @author stella
+ *
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+
+	public NonClosingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.flush();
+	}
+}
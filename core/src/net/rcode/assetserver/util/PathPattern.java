@@ -21,7 +21,7 @@ public class PathPattern {
 	private static final String M_DEEPSTAR="**";
 	
 	/**
-	 * If encountering this value, then the actual component is a Pattern in the matchAux array
+	 * If encountering this value, then the actual component is a NamePattern in the matchAux array
 	 */
 	private static final String M_NAMEPATTERN="<NAMEPATTERN>";
 	
@@ -44,8 +44,7 @@ public class PathPattern {
 			else if (NamePattern.containsMetaChars(comp)) {
 				// It is a name pattern
 				matchComponents[i]=M_NAMEPATTERN;
-				NamePattern np=new NamePattern(comp);
-				matchAux[i]=np.getPattern();
+				matchAux[i]=new NamePattern(comp).freeze();
 			}
 		}
 	}
@@ -150,9 +149,9 @@ public class PathPattern {
 			
 			// Switch based on special matchComps
 			if (matchComp==M_NAMEPATTERN) {
-				// Apply the regular expression
-				Pattern pattern=(Pattern) matchAux[matchIndex];
-				if (!pattern.matcher(pathComp).matches()) return false;
+				// Apply the name pattern
+				NamePattern pattern=(NamePattern) matchAux[matchIndex];
+				if (!pattern.matches(pathComp)) return false;
 			} else if (matchComp==M_DEEPSTAR) {
 				// Start a recursive match
 				return matchesDeepStar(pathComponents, pathIndex, matchIndex+1);
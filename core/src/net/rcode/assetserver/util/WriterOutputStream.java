@@ -0,0 +1,97 @@
+package net.rcode.assetserver.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+
+/**
+ * The inverse of an OutputStreamWriter: decodes the bytes written to it and
+ * writes the characters to a Writer.  Only a fixed amount of input and output
+ * is buffered.  A multi-byte sequence split across writes is held back until
+ * it is complete.  Malformed input is replaced, as with InputStreamReader.
+ *
+ * @author stella
+ *
+ */
+public class WriterOutputStream extends OutputStream {
+	private static final int BUFFER_SIZE=4096;
+
+	private Writer out;
+	private CharsetDecoder decoder;
+	private ByteBuffer input=ByteBuffer.allocate(BUFFER_SIZE);
+	private CharBuffer output=CharBuffer.allocate(BUFFER_SIZE);
+	private boolean closed;
+
+	public WriterOutputStream(Writer out, Charset charset) {
+		this.out=out;
+		this.decoder=charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	public WriterOutputStream(Writer out, String encoding) {
+		this(out, Charset.forName(encoding));
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len>0) {
+			int count=Math.min(len, input.remaining());
+			input.put(b, off, count);
+			off+=count;
+			len-=count;
+			decode(false);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	/**
+	 * Writes out whatever characters have been completely decoded and
+	 * flushes the Writer
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeOutput();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed=true;
+
+		decode(true);
+		while (decoder.flush(output).isOverflow()) {
+			writeOutput();
+		}
+		writeOutput();
+		out.close();
+	}
+
+	private void decode(boolean endOfInput) throws IOException {
+		input.flip();
+		for (;;) {
+			CoderResult result=decoder.decode(input, output, endOfInput);
+			if (!result.isOverflow()) break;
+			writeOutput();
+		}
+		// Anything left is the start of an incomplete sequence
+		input.compact();
+	}
+
+	private void writeOutput() throws IOException {
+		if (output.position()==0) return;
+		out.write(output.array(), 0, output.position());
+		output.clear();
+	}
+}
@@ -185,4 +185,18 @@ public class YuiCompressor {
 		this.jsDisableOptimizations = jsDisableOptimizations;
 	}
 	
+	/**
+	 * @return the options that affect JavaScript output
+	 */
+	public String describeJsOptions() {
+		return "lineBreakPos=" + lineBreakPos + ",munge=" + jsMunge + 
+			",preserveSemiColons=" + jsPreserveSemiColons + ",disableOptimizations=" + jsDisableOptimizations;
+	}
+	
+	/**
+	 * @return the options that affect CSS output
+	 */
+	public String describeCssOptions() {
+		return "lineBreakPos=" + lineBreakPos;
+	}
 }
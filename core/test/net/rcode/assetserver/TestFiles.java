@@ -0,0 +1,74 @@
+package net.rcode.assetserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * File system fixtures shared by the tests
+ * @author stella
+ *
+ */
+public class TestFiles {
+	/**
+	 * Create a new, empty temporary directory
+	 * @param prefix
+	 * @return directory
+	 * @throws IOException
+	 */
+	public static File createTempDirectory(String prefix) throws IOException {
+		File dir=File.createTempFile(prefix, "");
+		dir.delete();
+		if (!dir.mkdirs()) throw new IOException("Could not create " + dir);
+		return dir;
+	}
+
+	/**
+	 * Delete a file or a directory and everything in it.  Symlinks are
+	 * deleted, not followed.
+	 * @param file
+	 */
+	public static void deleteRecursive(File file) {
+		if (!Files.isSymbolicLink(file.toPath())) {
+			File[] children=file.listFiles();
+			if (children!=null) {
+				for (File child: children) deleteRecursive(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Write a file as UTF-8, creating parent directories as needed
+	 * @param file
+	 * @param contents
+	 * @param modified modification time to set or 0 to leave it as written
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File write(File file, String contents, long modified) throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out=new FileOutputStream(file);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		if (modified!=0) file.setLastModified(modified);
+		return file;
+	}
+
+	/**
+	 * Create an empty file, creating parent directories as needed
+	 * @param file
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File touch(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+		return file;
+	}
+}
@@ -0,0 +1,139 @@
+package net.rcode.assetserver.cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class FileSystemCacheTest {
+	private File dir;
+	private FileSystemCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("fscachetest");
+		cache=new FileSystemCache(dir);
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private static CacheIdentity identity(String mountPoint, String path) {
+		return new CacheIdentity("Handler", mountPoint, path, "config");
+	}
+
+	private CacheEntry store(String mountPoint, String path, int length, long buildNanos) {
+		CacheEntry entry=new CacheEntry(identity(mountPoint, path), null, "text/plain", "UTF-8", new byte[length]);
+		entry.setBuildNanos(buildNanos);
+		cache.store(entry);
+		return entry;
+	}
+
+	private Map<String, CacheEntrySummary> summaries() {
+		Map<String, CacheEntrySummary> ret=new HashMap<String, CacheEntrySummary>();
+		for (CacheEntrySummary summary: cache.summarize()) {
+			ret.put(summary.identity.getFullPath(), summary);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testStoreAndLookup() throws Exception {
+		store("/js", "/a.js", 10, 1000);
+		CacheEntry entry=cache.lookup(identity("/js", "/a.js"));
+		assertNotNull(entry);
+		assertEquals(10, entry.length());
+		assertEquals(1000, entry.getBuildNanos());
+		assertNull(cache.lookup(identity("/js", "/b.js")));
+
+		cache.clear();
+		assertNull(cache.lookup(identity("/js", "/a.js")));
+	}
+
+	@Test
+	public void testSummarize() throws Exception {
+		store("/js", "/a.js", 10, 1000);
+		store(null, "/b.css", 20, 2000);
+		cache.store(new CacheEntry(identity(null, "/missing.js"), null, null, null, null));
+
+		Map<String, CacheEntrySummary> summaries=summaries();
+		assertEquals(3, summaries.size());
+		CacheEntrySummary a=summaries.get("/js/a.js");
+		assertEquals(10, a.length);
+		assertEquals(1000, a.buildNanos);
+		assertTrue(a.storedAt>0);
+		assertEquals(20, summaries.get("/b.css").length);
+		assertEquals(-1, summaries.get("/missing.js").length);
+	}
+
+	@Test
+	public void testSummarizeReadsHeaderOnly() throws Exception {
+		store("/js", "/big.js", 100000, 1000);
+		File[] files=dir.listFiles();
+		assertEquals(1, files.length);
+
+		// Cut the body short: the entry is unreadable but its summary is not
+		RandomAccessFile file=new RandomAccessFile(files[0], "rw");
+		try {
+			file.setLength(file.length()-50000);
+		} finally {
+			file.close();
+		}
+		assertEquals(100000, summaries().get("/js/big.js").length);
+		assertNull(cache.lookup(identity("/js", "/big.js")));
+	}
+
+	@Test
+	public void testPurge() throws Exception {
+		store("/js", "/a.js", 10, 0);
+		store("/js", "/lib/b.js", 10, 0);
+		store("/jslib", "/c.js", 10, 0);
+		store(null, "/d.css", 10, 0);
+
+		assertEquals(1, cache.purge(new CachePathPredicate("/js/lib/b.js", false)));
+		assertNull(cache.lookup(identity("/js", "/lib/b.js")));
+		assertEquals(0, cache.purge(new CachePathPredicate("/js/lib/b.js", false)));
+
+		// A prefix is a string prefix, not a directory
+		assertEquals(2, cache.purge(new CachePathPredicate("/js", true)));
+		assertNull(cache.lookup(identity("/js", "/a.js")));
+		assertNull(cache.lookup(identity("/jslib", "/c.js")));
+		assertNotNull(cache.lookup(identity(null, "/d.css")));
+		assertEquals(1, cache.summarize().size());
+	}
+
+	@Test
+	public void testPathPredicate() {
+		CachePathPredicate exact=new CachePathPredicate("/js/a.js", false);
+		assertTrue(exact.matches(identity("/js", "/a.js")));
+		assertTrue(exact.matches(identity(null, "/js/a.js")));
+		assertFalse(exact.matches(identity("/js", "/a.jsx")));
+
+		CachePathPredicate prefix=new CachePathPredicate("/js/", true);
+		assertTrue(prefix.matches(identity("/js", "/a.js")));
+		assertFalse(prefix.matches(identity("/jslib", "/a.js")));
+		assertFalse(prefix.matches(new CacheIdentity("Handler", null, null, "config")));
+		assertEquals("/js/*", prefix.toString());
+	}
+
+	@Test
+	public void testUnreadableFilesPurged() throws Exception {
+		store("/js", "/a.js", 10, 0);
+		List<CacheEntrySummary> before=cache.summarize();
+		assertEquals(1, before.size());
+
+		write(new File(dir, "garbage-1"), "not a cache entry", 0);
+		assertEquals(1, cache.summarize().size());
+		assertEquals(0, cache.purge(new CachePathPredicate("/nothing", false)));
+		assertFalse(new File(dir, "garbage-1").exists());
+	}
+}
@@ -0,0 +1,180 @@
+package net.rcode.assetserver.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.rcode.assetserver.core.AssetLocator;
+import net.rcode.assetserver.core.AssetPath;
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.BufferAssetLocator;
+import net.rcode.assetserver.core.FilterChain;
+import net.rcode.assetserver.core.ResourceFilter;
+import net.rcode.assetserver.util.BlockOutputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class StageCacheTest {
+	private static StageCache.Entry entry(int size) {
+		return new StageCache.Entry(new byte[size], "text/javascript", "UTF-8", true);
+	}
+
+	private static BlockOutputStream buffer(String contents) throws IOException {
+		BlockOutputStream ret=new BlockOutputStream(4);
+		ret.write(contents.getBytes("UTF-8"));
+		return ret;
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		String key=StageCache.key("yuioptimizejs", "munge=true", buffer("var a=1;"), "text/javascript", "UTF-8");
+		assertEquals(key, StageCache.key("yuioptimizejs", "munge=true", buffer("var a=1;"), "text/javascript", "UTF-8"));
+		assertFalse(key.equals(StageCache.key("yuioptimizejs", "munge=true", buffer("var a=2;"), "text/javascript", "UTF-8")));
+		assertFalse(key.equals(StageCache.key("yuioptimizejs", "munge=false", buffer("var a=1;"), "text/javascript", "UTF-8")));
+		assertFalse(key.equals(StageCache.key("yuioptimizecss", "munge=true", buffer("var a=1;"), "text/javascript", "UTF-8")));
+		assertFalse(key.equals(StageCache.key("yuioptimizejs", "munge=true", buffer("var a=1;"), "text/javascript", "ISO-8859-1")));
+	}
+
+	@Test
+	public void testEviction() {
+		StageCache cache=new StageCache(100);
+		cache.store("a", entry(40));
+		cache.store("b", entry(40));
+		assertEquals(80, cache.getBytes());
+
+		// Touch a so that b is the eldest
+		assertNotNull(cache.lookup("a"));
+		cache.store("c", entry(40));
+		assertEquals(2, cache.size());
+		assertEquals(80, cache.getBytes());
+		assertNull(cache.lookup("b"));
+		assertNotNull(cache.lookup("a"));
+		assertNotNull(cache.lookup("c"));
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// Replacing an entry accounts for the old one
+		cache.store("c", entry(10));
+		assertEquals(50, cache.getBytes());
+
+		// Larger than the budget is not stored
+		cache.store("d", entry(101));
+		assertNull(cache.lookup("d"));
+		assertEquals(50, cache.getBytes());
+
+		cache.setMaxBytes(20);
+		assertEquals(1, cache.size());
+		assertNotNull(cache.lookup("c"));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+	}
+
+	private static String resolve(AssetServer server, String path) throws Exception {
+		return new String(server.getRoot().resolve(path).getBytes(), "UTF-8");
+	}
+
+	@Test
+	public void testOptimizerMemoized() throws Exception {
+		File dir=createTempDirectory("stagecachetest");
+		try {
+			File main=new File(dir, "main.js");
+			write(main, "##EJSON\nvar answer = 42 ;#{''}", 100000);
+
+			AssetServer server=new AssetServer(dir);
+			StageCache cache=server.getStageCache();
+			String first=resolve(server, "/main.js");
+			assertEquals("var answer=42;", first);
+			assertEquals(0, cache.getHits());
+			assertEquals(1, cache.size());
+
+			// The template changed but its output did not: the optimizer is skipped
+			write(main, "##EJSON\nvar answer = 42 ;#{\"\"}", 200000);
+			assertEquals(first, resolve(server, "/main.js"));
+			assertEquals(1, cache.getHits());
+			assertEquals(1, cache.size());
+
+			write(main, "##EJSON\nvar answer = 43 ;#{''}", 300000);
+			assertEquals("var answer=43;", resolve(server, "/main.js"));
+			assertEquals(1, cache.getHits());
+			assertEquals(2, cache.size());
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+
+	/**
+	 * Memoizable filter that upper cases its input and optionally adds a
+	 * dependency or marks its result uncacheable
+	 */
+	private static class UpperCaseFilter extends ResourceFilter {
+		private final File dependency;
+		private final boolean shouldCache;
+		int calls;
+
+		public UpperCaseFilter(File dependency, boolean shouldCache) {
+			super("uppercase");
+			this.dependency=dependency;
+			this.shouldCache=shouldCache;
+		}
+
+		@Override
+		public String getStageConfig(FilterChain context) {
+			return "";
+		}
+
+		@Override
+		public AssetLocator filter(FilterChain context, AssetLocator source) throws Exception {
+			calls++;
+			if (dependency!=null) context.getDependencies().add(new FileCacheDependency(dependency));
+			BufferAssetLocator ret=new BufferAssetLocator(buffer(new String(source.getBytes(), "UTF-8").toUpperCase()));
+			ret.setContentType(source.getContentType());
+			ret.setCharacterEncoding(source.getCharacterEncoding());
+			ret.setShouldCache(shouldCache);
+			return ret;
+		}
+	}
+
+	private static AssetLocator run(AssetServer server, ResourceFilter filter) throws Exception {
+		BufferAssetLocator source=new BufferAssetLocator(buffer("abc"));
+		source.setContentType("text/plain");
+		source.setCharacterEncoding("UTF-8");
+		FilterChain chain=new FilterChain(server, new AssetPath(null, "", "/a.txt"), source, null);
+		chain.getFilters().add(filter);
+		chain.processFilters();
+		return chain.getCurrent();
+	}
+
+	@Test
+	public void testHitKeepsShouldCache() throws Exception {
+		File dir=createTempDirectory("stagecachetest");
+		try {
+			AssetServer server=new AssetServer(dir);
+			UpperCaseFilter filter=new UpperCaseFilter(null, false);
+			assertFalse(run(server, filter).shouldCache());
+			AssetLocator result=run(server, filter);
+			assertEquals(1, filter.calls);
+			assertEquals("ABC", new String(result.getBytes(), "UTF-8"));
+			assertFalse(result.shouldCache());
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+
+	@Test
+	public void testDependenciesNotMemoized() throws Exception {
+		File dir=createTempDirectory("stagecachetest");
+		try {
+			AssetServer server=new AssetServer(dir);
+			UpperCaseFilter filter=new UpperCaseFilter(touch(new File(dir, "dep.txt")), true);
+			assertEquals("ABC", new String(run(server, filter).getBytes(), "UTF-8"));
+			assertEquals("ABC", new String(run(server, filter).getBytes(), "UTF-8"));
+			assertEquals(2, filter.calls);
+			assertEquals(0, server.getStageCache().size());
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+}
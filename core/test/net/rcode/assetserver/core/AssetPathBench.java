@@ -0,0 +1,78 @@
+package net.rcode.assetserver.core;
+
+/**
+ * Microbenchmark comparing the single pass AssetPath parser against the regex
+ * based parser it replaced (LegacyAssetPathParser) on a mix of typical request
+ * paths.  Each round is timed after a warmup so that both have been compiled.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   AssetPathBench [iterations] [rounds]
+ * </pre>
+ *
+ * @author stella
+ *
+ */
+public class AssetPathBench {
+	private static final int DEFAULT_ITERATIONS=200000;
+	private static final int DEFAULT_ROUNDS=5;
+
+	private static final String[] PATHS={
+		"/",
+		"/index.html",
+		"/js/app.js",
+		"/js/lib/jquery/jquery-1.4.2.min.js",
+		"/css/site$theme=dark&compress=true$.css",
+		"/images/icons/16x16/arrow%20left.png",
+		"/locale/en/messages$version=12$.js",
+		"/a/b/c/d/e/f/g/h/i/j/k.txt",
+	};
+
+	/**
+	 * Keeps the results live so the parsing cannot be optimized away
+	 */
+	private static int sink;
+
+	public static void main(String[] args) {
+		int iterations=args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+		int rounds=args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+		System.out.println("Warming up");
+		runLegacy(iterations);
+		runCurrent(iterations);
+
+		for (int round=1; round<=rounds; round++) {
+			long legacyNanos=runLegacy(iterations);
+			long currentNanos=runCurrent(iterations);
+			System.out.println(String.format("Round %d: legacy %.1f ns/path, current %.1f ns/path (%.2fx)",
+					round,
+					(double)legacyNanos / (iterations * PATHS.length),
+					(double)currentNanos / (iterations * PATHS.length),
+					(double)legacyNanos / currentNanos));
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static long runLegacy(int iterations) {
+		long start=System.nanoTime();
+		for (int i=0; i<iterations; i++) {
+			for (String path: PATHS) {
+				LegacyAssetPathParser mountPoint=new LegacyAssetPathParser("/cdn", false);
+				LegacyAssetPathParser parsed=new LegacyAssetPathParser(path, true);
+				sink+=mountPoint.components.length + parsed.components.length;
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runCurrent(int iterations) {
+		long start=System.nanoTime();
+		for (int i=0; i<iterations; i++) {
+			for (String path: PATHS) {
+				AssetPath parsed=new AssetPath(null, "/cdn", path);
+				sink+=parsed.getMountPointComponents().length + parsed.getPathComponents().length;
+			}
+		}
+		return System.nanoTime() - start;
+	}
+}
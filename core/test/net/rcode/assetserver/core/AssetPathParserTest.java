@@ -0,0 +1,131 @@
+package net.rcode.assetserver.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Differential test of the single pass AssetPath parser against the regex
+ * based parser it replaced (LegacyAssetPathParser)
+ * @author stella
+ *
+ */
+public class AssetPathParserTest {
+	private static final String[] CRAFTED={
+		"", "/", "//", "///", "/a", "/a/", "/a//", "/a///", "//a", "/a//b", "a/b",
+		"/some/file.txt", "/some/file$name=value&other=some$.txt",
+		"/some/file$a$b$.min.js", "/file$$.js", "/file$x$.", "/file$x$.js.", "/file$x$js",
+		"/$x$.js", "/dir$x$.js/file.js", "/file$x$.js/", "/file$x$.js//",
+		"/file$x$.js\n", "/file$x$.js\r\n", "/file$x$.js\r", "/file$x$.js\n\n",
+		"/file$x$.js\u0085", "/file$x$.js ", "/file$x$.js ",
+		"/a%20b", "/a+b", "/%41%42", "/%e2%82%ac.js", "/%E2%82", "/%", "/%4", "/%zz",
+		"/%+1", "/%-1", "/%2f.txt", "/%2e", "/%2e%2e", "/%00", "/a%",
+		"/./x", "/../x", "/.../x", "/.x", "/con", "/CON.txt", "/conx", "/com1", "/COM", "/lpt9",
+		"/Lpt0/x", "/aux", "/nul", "/prn", "/a:b", "/a\"b", "/a'b", "/a<b", "/a>b", "/a|b",
+		"/a?b", "/a*b", "/a\\b", "/a\tb", "/a\u001fb", "/a\u007fb", "/été.js",
+		"/file$%41=%42$.js", "/file$a=1$.j%41",
+	};
+
+	private static final String ALPHABET="/$.%+-0123456789abcdefACEFconCONlptLPTx:&=\t\n\r\u0085 é";
+
+	@Test
+	public void testCrafted() {
+		for (String path: CRAFTED) {
+			assertSameResult(path);
+		}
+	}
+
+	@Test
+	public void testRandom() {
+		Random random=new Random(44);
+		StringBuilder sb=new StringBuilder();
+		for (int i=0; i<50000; i++) {
+			sb.setLength(0);
+			if (random.nextInt(10)>0) sb.append('/');
+			int length=random.nextInt(16);
+			for (int j=0; j<length; j++) {
+				sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+			assertSameResult(sb.toString());
+		}
+	}
+
+	@Test
+	public void testParameters() {
+		AssetPath p=new AssetPath(null, "", "/file$a=1&b=%41&&c&d=$.js");
+		assertEquals("1", p.getParameter("a"));
+		assertEquals("A", p.getParameter("b"));
+		assertEquals("", p.getParameter("c"));
+		assertEquals("", p.getParameter("d"));
+		// The empty pair between "&&" is kept under the empty name, as before
+		assertEquals("", p.getParameter(""));
+		assertEquals(5, p.getParameterNames().size());
+	}
+
+	private void assertSameResult(String path) {
+		LegacyAssetPathParser expected=null;
+		Exception expectedError=null;
+		try {
+			expected=new LegacyAssetPathParser(path, true);
+		} catch (IllegalArgumentException e) {
+			expectedError=e;
+		}
+
+		AssetPath actual=null;
+		Exception actualError=null;
+		try {
+			actual=new AssetPath(null, "", path);
+		} catch (IllegalArgumentException e) {
+			actualError=e;
+		}
+
+		String message="Path '" + escape(path) + "'";
+		assertSameOutcome(message, expectedError, actualError);
+		if (expectedError!=null) return;
+		assertTrue(message + ": " + Arrays.toString(actual.getPathComponents()),
+				Arrays.equals(expected.components, actual.getPathComponents()));
+		assertEquals(message, expected.parameterString, actual.getParameterString());
+		
+		// Mount points are parsed without extracting parameters
+		expected=null;
+		expectedError=null;
+		try {
+			expected=new LegacyAssetPathParser(path, false);
+		} catch (IllegalArgumentException e) {
+			expectedError=e;
+		}
+		actual=null;
+		actualError=null;
+		try {
+			actual=new AssetPath(null, path, "/");
+		} catch (IllegalArgumentException e) {
+			actualError=e;
+		}
+		message="Mount point '" + escape(path) + "'";
+		assertSameOutcome(message, expectedError, actualError);
+		if (expectedError!=null) return;
+		assertTrue(message, Arrays.equals(expected.components, actual.getMountPointComponents()));
+	}
+
+	private static void assertSameOutcome(String message, Exception expectedError, Exception actualError) {
+		if (expectedError!=null) {
+			assertNotNull(message + " should be invalid", actualError);
+			assertEquals(message, expectedError.getClass(), actualError.getClass());
+		} else if (actualError!=null) {
+			fail(message + " should be valid: " + actualError.getMessage());
+		}
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb=new StringBuilder();
+		for (int i=0; i<s.length(); i++) {
+			char c=s.charAt(i);
+			if (c<0x20 || c>0x7e) sb.append(String.format("\\u%04x", (int)c));
+			else sb.append(c);
+		}
+		return sb.toString();
+	}
+}
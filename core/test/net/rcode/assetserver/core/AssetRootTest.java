@@ -1,5 +1,10 @@
 package net.rcode.assetserver.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -116,4 +121,112 @@ public class AssetRootTest {
 		assertEquals(null, match.getMountPoint());
 		assertEquals("/some/file.txt", match.getPath());
 	}
+	
+	@Test
+	public void testLongestMatch() {
+		AssetRoot root=new AssetRoot();
+		AssetPath match;
+		DummyMount m1=new DummyMount(), m2=new DummyMount(), m3=new DummyMount();
+		root.add("/", m1);
+		root.add("/lib", m2);
+		root.add("/lib/vendor", m3);
+		
+		match=root.match("/lib/vendor/jquery.js");
+		assertEquals(m3, match.getMount());
+		assertEquals("/lib/vendor", match.getMountPoint());
+		assertEquals("/jquery.js", match.getPath());
+		
+		match=root.match("/lib/app.js");
+		assertEquals(m2, match.getMount());
+		assertEquals("/app.js", match.getPath());
+		
+		// The mount point itself without a trailing slash belongs to the parent
+		match=root.match("/lib/vendor");
+		assertEquals(m2, match.getMount());
+		assertEquals("/vendor", match.getPath());
+	}
+	
+	@Test
+	public void testSegmentBoundary() {
+		AssetRoot root=new AssetRoot();
+		AssetPath match;
+		DummyMount m1=new DummyMount(), m2=new DummyMount();
+		root.add("/cdn", m1);
+		root.add("/cdnx", m2);
+		
+		match=root.match("/cdnx/file.txt");
+		assertEquals(m2, match.getMount());
+		assertEquals("/file.txt", match.getPath());
+		
+		assertNull(root.match("/cdnfile.txt"));
+		assertNull(root.match("cdn/file.txt"));
+	}
+	
+	@Test
+	public void testAddAfterMatch() {
+		AssetRoot root=new AssetRoot();
+		DummyMount m1=new DummyMount(), m2=new DummyMount();
+		root.add("/", m1);
+		assertEquals(m1, root.match("/tools/a.js").getMount());
+		
+		root.add("/tools/", m2);
+		assertEquals(m2, root.match("/tools/a.js").getMount());
+		assertEquals(m1, root.match("/other/a.js").getMount());
+		assertEquals(2, root.getMountPoints().size());
+		
+		// Replacing a mount
+		root.add("/tools", m1);
+		assertEquals(m1, root.match("/tools/a.js").getMount());
+		assertEquals("/tools", root.match("/tools/a.js").getMountPoint());
+	}
+	
+	private static class RecordingCallback implements ScanCallback {
+		final List<String> events=Collections.synchronizedList(new ArrayList<String>());
+		
+		@Override
+		public boolean handleAsset(AssetPath path) {
+			events.add("A:" + path.getFullPath());
+			return true;
+		}
+		
+		@Override
+		public boolean handleDirectory(AssetPath path) {
+			events.add("D:" + path.getFullPath());
+			return !path.getFullPath().endsWith("/skip");
+		}
+	}
+	
+	private static List<String> scan(AssetRoot root, int parallelism, boolean ordered) throws Exception {
+		ScanConfig config=new ScanConfig();
+		config.setRecursive(true);
+		config.setParallelism(parallelism);
+		config.setOrdered(ordered);
+		RecordingCallback callback=new RecordingCallback();
+		root.scan(config, callback);
+		return callback.events;
+	}
+	
+	@Test
+	public void testParallelScan() throws Exception {
+		AssetRoot root=new AssetRoot();
+		MemoryAssetMount mount=new MemoryAssetMount(null);
+		for (int i=0; i<20; i++) {
+			for (int j=0; j<10; j++) {
+				mount.put("/d" + i + "/e" + j + "/f.js", new byte[0]);
+			}
+			mount.put("/d" + i + "/g.js", new byte[0]);
+		}
+		mount.put("/skip/hidden.js", new byte[0]);
+		root.add("/", mount);
+		
+		List<String> sequential=scan(root, 1, true);
+		assertEquals(1 + 20*11 + 1 + 20*11, sequential.size());
+		assertFalse(sequential.contains("A:/skip/hidden.js"));
+		
+		assertEquals(sequential, scan(root, 4, true));
+		
+		List<String> unordered=scan(root, 4, false);
+		assertEquals(sequential.size(), unordered.size());
+		assertEquals(new HashSet<String>(sequential), new HashSet<String>(unordered));
+	}
 }
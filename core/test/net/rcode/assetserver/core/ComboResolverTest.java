@@ -0,0 +1,156 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.rcode.assetserver.cache.CacheDependency;
+import net.rcode.assetserver.cache.CacheEntry;
+import net.rcode.assetserver.cache.CacheEntrySummary;
+import net.rcode.assetserver.cache.FileCacheDependency;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ComboResolverTest {
+	private File dir;
+	private AssetServer server;
+	private ComboResolver resolver;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("combotest");
+		write(new File(dir, "a.txt"), "a", 100000);
+		write(new File(dir, "sub/b.txt"), "b\u00e9", 100000);
+		write(new File(dir, "inc.txt"), "included", 100000);
+		write(new File(dir, "page.html"), "##EJSON\npage", 100000);
+		write(new File(dir, "main.html"), "##EJSON\n#{read('inc.txt')}", 100000);
+		write(new File(dir, "site.css"), "body{}", 100000);
+		write(new File(dir, "image.png"), "not really", 100000);
+		server=new AssetServer(dir);
+		resolver=server.getComboResolver();
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private String resolve(String... paths) throws Exception {
+		AssetLocator locator=resolver.resolve(Arrays.asList(paths));
+		if (locator==null) return null;
+		assertEquals("UTF-8", locator.getCharacterEncoding());
+		return new String(locator.getBytes(), "UTF-8");
+	}
+
+	private void assertInvalid(String... paths) throws Exception {
+		try {
+			resolver.resolve(Arrays.asList(paths));
+			fail("Expected InvalidComboException");
+		} catch (ComboResolver.InvalidComboException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		assertEquals("a\nb\u00e9", resolve("/a.txt", "/sub/b.txt"));
+		assertEquals("b\u00e9\na\na", resolve("/sub/b.txt", "/a.txt", "/a.txt"));
+		assertEquals("text/plain", resolver.resolve(Arrays.asList("/a.txt")).getContentType());
+		assertNull(resolve("/a.txt", "/missing.txt"));
+		assertNull(resolve("/a.txt", "/../a.txt"));
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		assertInvalid();
+		assertInvalid("/a.txt", "/site.css");
+		assertInvalid("/image.png");
+
+		resolver.setMaxMembers(2);
+		resolve("/a.txt", "/a.txt");
+		assertInvalid("/a.txt", "/a.txt", "/a.txt");
+
+		try {
+			ComboResolver.parseQuery("/a.txt&/b%zz.txt");
+			fail("Expected InvalidComboException");
+		} catch (ComboResolver.InvalidComboException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testCachingAndDependencies() throws Exception {
+		List<String> paths=Arrays.asList("/page.html", "/main.html");
+		AssetLocator first=resolver.resolve(paths);
+		assertEquals("page\nincluded", new String(first.getBytes(), "UTF-8"));
+
+		// The dependencies are the union of the members' dependencies,
+		// including what main.html read
+		List<String> dependencies=new ArrayList<String>();
+		for (CacheDependency dependency: ((CacheEntry)first).getDependencies()) {
+			assertTrue(dependency instanceof FileCacheDependency);
+			dependencies.add(new File(dependency.toString().substring(5)).getName());
+		}
+		Collections.sort(dependencies);
+		assertEquals(Arrays.asList("inc.txt", "main.html", "page.html"), dependencies);
+
+		// Served from the cache until a member changes
+		int combos=0;
+		for (CacheEntrySummary summary: server.getSharedCache().summarize()) {
+			if (ComboResolver.class.getName().equals(summary.identity.getHandlerClassName())) combos++;
+		}
+		assertEquals(1, combos);
+		AssetLocator second=resolver.resolve(paths);
+		assertEquals(first.getETag(), second.getETag());
+		write(new File(dir, "inc.txt"), "changed", 200000);
+		assertEquals("page\nchanged", new String(resolver.resolve(paths).getBytes(), "UTF-8"));
+	}
+
+	@Test
+	public void testAccessFileChange() throws Exception {
+		write(new File(dir, "sub/hidden.html"), "##EJSON\nhidden", 100000);
+		((ResourceMount)server.getRoot().getMountPoints().get(null)).setContextCheckMillis(0);
+		assertEquals("page\nhidden", resolve("/page.html", "/sub/hidden.html"));
+
+		// The members' sources did not change but the rules for one of them did
+		write(new File(dir, "sub/" + AssetServer.ACCESS_NAME), "filter.on('hidden.html', 'ignore');", 100000);
+		assertNull(resolve("/page.html", "/sub/hidden.html"));
+
+		new File(dir, "sub/" + AssetServer.ACCESS_NAME).delete();
+		assertEquals("page\nhidden", resolve("/page.html", "/sub/hidden.html"));
+	}
+
+	@Test
+	public void testUncacheableMember() throws Exception {
+		server.setSharedCache(null);
+		assertEquals("a\nb\u00e9", resolve("/a.txt", "/sub/b.txt"));
+	}
+	@Test
+	public void testParseQuery() {
+		assertTrue(ComboResolver.parseQuery(null).isEmpty());
+		assertTrue(ComboResolver.parseQuery("").isEmpty());
+		assertEquals(Arrays.asList("/a.js", "/dir/b c.js"),
+				ComboResolver.parseQuery("/a.js&%2Fdir%2Fb%20c.js"));
+		
+		// Non-path components are ignored
+		assertEquals(Arrays.asList("/a.js", "/b.js"),
+				ComboResolver.parseQuery("/a.js&v=3&&/b.js"));
+	}
+	
+	@Test
+	public void testSeparators() {
+		ComboResolver resolver=new ComboResolver(null);
+		assertEquals("\n;\n", resolver.getSeparator("text/javascript"));
+		assertEquals("\n", resolver.getSeparator("text/css"));
+		assertEquals(ComboResolver.DEFAULT_SEPARATOR, resolver.getSeparator("text/plain"));
+		
+		resolver.setSeparator("text/plain", "\n\n");
+		assertEquals("\n\n", resolver.getSeparator("text/plain"));
+	}
+}
@@ -0,0 +1,141 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ConfigurationReloaderTest {
+	private File dir;
+	private AssetServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("reloadtest");
+		write(new File(dir, "a/x.txt"), "a", 100000);
+		write(new File(dir, "b/x.txt"), "b", 100000);
+		write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'a');", 100000);
+		server=new AssetServer(dir);
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private String resolve(String path) throws Exception {
+		return new String(server.getRoot().resolve(path).getBytes(), "UTF-8");
+	}
+
+	private long reloads(String result) {
+		return server.getMetrics().counter("assetserver_config_reloads_total", "Configuration reloads by result", "result", result).get();
+	}
+
+	@Test
+	public void testInFlightRequestPinned() throws Exception {
+		assertEquals("a", resolve("/x.txt"));
+
+		server.enterRequestContext();
+		String configHash;
+		try {
+			configHash=server.getConfigHash();
+			write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'b');", 200000);
+			assertTrue(server.reload());
+
+			// The request started before the reload still sees the old configuration
+			assertEquals("a", resolve("/x.txt"));
+			assertEquals(configHash, server.getConfigHash());
+		} finally {
+			server.exitRequestContext();
+		}
+
+		assertEquals("b", resolve("/x.txt"));
+		assertFalse(configHash.equals(server.getConfigHash()));
+		assertEquals(1, reloads("success"));
+	}
+
+	@Test
+	public void testFailedReloadKeepsConfiguration() throws Exception {
+		String configHash=server.getConfigHash();
+		write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'b'", 200000);
+		assertFalse(server.reload());
+
+		assertEquals("a", resolve("/x.txt"));
+		assertEquals(configHash, server.getConfigHash());
+		assertEquals(1, reloads("failure"));
+		assertEquals(0, reloads("success"));
+	}
+
+	@Test
+	public void testReloaderPicksUpChange() throws Exception {
+		ConfigurationReloader reloader=new ConfigurationReloader(server);
+		reloader.setInterval(20);
+		reloader.start();
+		try {
+			// Let the reloader take its first look before changing the file
+			Thread.sleep(100);
+			write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'b');", 200000);
+
+			long deadline=System.currentTimeMillis() + 10000;
+			while (reloads("success")==0 && System.currentTimeMillis()<deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(1, reloads("success"));
+			assertEquals("b", resolve("/x.txt"));
+		} finally {
+			reloader.stop();
+		}
+	}
+
+	@Test
+	public void testMemoryMountNotBlockedByReload() throws Exception {
+		MemoryAssetMount mount=server.getMemoryMount("/gen");
+		mount.put("/a.txt", "1".getBytes("UTF-8"), null);
+		assertSame(mount, server.getMemoryMount("/gen/"));
+
+		// Evaluating this configuration takes a while
+		write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'b'); java.lang.Thread.sleep(2000);", 200000);
+		Thread reload=new Thread() {
+			public void run() {
+				server.reload();
+			}
+		};
+		reload.start();
+		Thread.sleep(200);
+
+		long start=System.currentTimeMillis();
+		assertSame(mount, server.getMemoryMount("/gen"));
+		mount.put("/a.txt", "2".getBytes("UTF-8"), null);
+		assertTrue(System.currentTimeMillis()-start<1000);
+
+		reload.join();
+		assertEquals("b", resolve("/x.txt"));
+		assertEquals("2", resolve("/gen/a.txt"));
+	}
+
+	@Test
+	public void testMemoryMountFromPinnedRequest() throws Exception {
+		server.enterRequestContext();
+		try {
+			write(new File(dir, AssetServer.CONFIG_NAME), "mount('/', 'b');", 200000);
+			assertTrue(server.reload());
+
+			// The request still sees the old root but the mount goes into the new one
+			server.getMemoryMount("/gen").put("/a.txt", "a".getBytes("UTF-8"), null);
+		} finally {
+			server.exitRequestContext();
+		}
+		assertEquals("a", resolve("/gen/a.txt"));
+	}
+
+	@Test
+	public void testMemoryMountFromFailedReload() throws Exception {
+		write(new File(dir, AssetServer.CONFIG_NAME), "mountMemory('/gen'); mount(", 200000);
+		assertFalse(server.reload());
+		server.getMemoryMount("/gen").put("/a.txt", "a".getBytes("UTF-8"), null);
+		assertEquals("a", resolve("/gen/a.txt"));
+	}
+}
@@ -0,0 +1,86 @@
+package net.rcode.assetserver.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.rcode.assetserver.core.ResourceContext.FilterBinding;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FilterDispatchIndexTest {
+	private static final String[] PATTERNS={
+		"*.js", "main.js", "*.min.js", "/static/**/*.js", "/static/lib", "/**/css/*.css",
+		"*.css", "/static/lib/**/*", "jquery-*.js", "a?c.txt", "*", "/static/*.js", "*.JS",
+	};
+	private static final String[] PATHS={
+		"/", "/main.js", "/static/main.js", "/static/lib", "/static/lib/jquery-1.4.min.js",
+		"/static/libx/a.js", "/site/css/site.css", "/static/lib/deep/abc.txt", "/abc.txt",
+		"/noextension", "/static/a.JS", "/x.tar.gz", "/static/.js",
+	};
+
+	private static FilterChainInitializer initializer(final String name) {
+		return new FilterChainInitializer() {
+			@Override
+			public void initializeChain(FilterChain chain) {
+			}
+			
+			@Override
+			public String toString() {
+				return name;
+			}
+		};
+	}
+
+	private static List<FilterBinding> bindings() {
+		List<FilterBinding> ret=new ArrayList<FilterBinding>();
+		for (String pattern: PATTERNS) {
+			ret.add(new FilterBinding(PatternPredicateFactory.build(pattern), initializer(pattern)));
+		}
+		
+		// Predicates the index does not understand are evaluated for every path
+		ret.add(new FilterBinding(new AssetPredicate() {
+			@Override
+			public boolean matches(AssetPath assetPath) {
+				return assetPath.getFullPath().length()>12;
+			}
+		}, initializer("long")));
+		return ret;
+	}
+
+	@Test
+	public void testSameAsLinear() {
+		List<FilterBinding> bindings=bindings();
+		FilterDispatchIndex index=new FilterDispatchIndex(bindings);
+		assertEquals(3, index.getGeneralCount());
+
+		for (String path: PATHS) {
+			AssetPath assetPath=new AssetPath(null, "", path);
+			List<FilterBinding> expected=new ArrayList<FilterBinding>();
+			for (FilterBinding binding: bindings) {
+				if (binding.predicate.matches(assetPath)) expected.add(binding);
+			}
+			assertEquals(path, expected, index.match(assetPath));
+		}
+	}
+
+	@Test
+	public void testLiteralExtension() {
+		assertEquals("js", FilterDispatchIndex.literalExtension("*.js"));
+		assertEquals("js", FilterDispatchIndex.literalExtension("jquery-*.min.js"));
+		assertNull(FilterDispatchIndex.literalExtension("*.j?"));
+		assertNull(FilterDispatchIndex.literalExtension("*."));
+		assertNull(FilterDispatchIndex.literalExtension("*"));
+	}
+
+	@Test
+	public void testFrozenContext() {
+		ResourceContext context=new ResourceContext(null);
+		context.getFilters().addAll(bindings());
+		AssetPath assetPath=new AssetPath(null, "", "/static/lib/jquery-1.4.min.js");
+		List<FilterBinding> unfrozen=context.getMatchingFilters(assetPath);
+		context.freeze();
+		assertEquals(unfrozen, context.getMatchingFilters(assetPath));
+		assertEquals(7, unfrozen.size());
+	}
+}
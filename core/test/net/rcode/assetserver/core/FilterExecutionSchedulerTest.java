@@ -0,0 +1,230 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import net.rcode.assetserver.metrics.MetricsRegistry;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class FilterExecutionSchedulerTest {
+	private static FilterChain chainWith(String... filterIds) {
+		FilterChain chain=new FilterChain(null, null, new FileAssetLocator(new File("test.js")), null);
+		for (String id: filterIds) {
+			chain.getFilters().add(new ResourceFilter(id) {
+				@Override
+				public AssetLocator filter(FilterChain context, AssetLocator source) {
+					return source;
+				}
+			});
+		}
+		return chain;
+	}
+
+	/**
+	 * Acquire a permit on another thread and hold it until the returned latch is released
+	 */
+	private static CountDownLatch holdOnOtherThread(final FilterExecutionScheduler scheduler, final FilterChain chain) throws Exception {
+		final CountDownLatch acquired=new CountDownLatch(1);
+		final CountDownLatch done=new CountDownLatch(1);
+		Thread t=new Thread() {
+			public void run() {
+				try {
+					FilterExecutionScheduler.Permit permit=scheduler.acquire(chain);
+					acquired.countDown();
+					done.await();
+					permit.release();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		acquired.await();
+		return done;
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(null);
+		assertNull(scheduler.acquire(chainWith("ejs")));
+	}
+
+	@Test
+	public void testNestedDoesNotAcquire() throws Exception {
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(null);
+		scheduler.setMaxConcurrent(1);
+		FilterExecutionScheduler.Permit outer=scheduler.acquire(chainWith("ejs"));
+		assertNotNull(outer);
+		assertNull(scheduler.acquire(chainWith("ejs")));
+		outer.release();
+
+		FilterExecutionScheduler.Permit again=scheduler.acquire(chainWith("ejs"));
+		assertNotNull(again);
+		again.release();
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		MetricsRegistry metrics=new MetricsRegistry();
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(metrics);
+		scheduler.setFilterLimit("yuioptimizejs", 1);
+		scheduler.setQueueTimeoutMillis(20);
+
+		CountDownLatch done=holdOnOtherThread(scheduler, chainWith("yuioptimizejs"));
+		try {
+			// Unrelated filters are not limited
+			assertNull(scheduler.acquire(chainWith("ejs")));
+
+			try {
+				scheduler.acquire(chainWith("ejs", "yuioptimizejs"));
+				fail("Expected FilterOverloadException");
+			} catch (FilterOverloadException e) {
+				assertEquals(5, e.getRetryAfterSeconds());
+			}
+			assertEquals(1, metrics.counter("assetserver_filter_rejections_total", "", "reason", "timeout").get());
+			assertEquals(0, scheduler.getQueuedCount());
+		} finally {
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(null);
+		scheduler.setMaxConcurrent(1);
+		scheduler.setMaxQueueDepth(1);
+		scheduler.setQueueTimeoutMillis(10000);
+
+		CountDownLatch done=holdOnOtherThread(scheduler, chainWith("ejs"));
+		final CountDownLatch waiterDone=new CountDownLatch(1);
+		try {
+			// Occupy the single queue slot
+			final FilterExecutionScheduler s=scheduler;
+			Thread waiter=new Thread() {
+				public void run() {
+					try {
+						s.acquire(chainWith("ejs")).release();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					} finally {
+						waiterDone.countDown();
+					}
+				}
+			};
+			waiter.setDaemon(true);
+			waiter.start();
+			while (scheduler.getQueuedCount()==0) Thread.sleep(1);
+
+			long start=System.currentTimeMillis();
+			try {
+				scheduler.acquire(chainWith("ejs"));
+				fail("Expected FilterOverloadException");
+			} catch (FilterOverloadException e) {
+				// Rejected without waiting for the timeout
+				assertTrue(System.currentTimeMillis()-start < 5000);
+			}
+		} finally {
+			done.countDown();
+		}
+		waiterDone.await();
+	}
+
+	private static void assertOverloaded(FilterExecutionScheduler scheduler, FilterChain chain) throws Exception {
+		try {
+			scheduler.acquire(chain).release();
+			fail("Expected FilterOverloadException");
+		} catch (FilterOverloadException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testReconfigureKeepsHolders() throws Exception {
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(null);
+		scheduler.setQueueTimeoutMillis(20);
+		Map<String, Integer> none=Collections.emptyMap();
+		scheduler.setConfiguredLimits(1, none);
+
+		CountDownLatch done=holdOnOtherThread(scheduler, chainWith("ejs"));
+		try {
+			// Loading the same configuration again does not admit more chains
+			scheduler.setConfiguredLimits(1, none);
+			assertOverloaded(scheduler, chainWith("ejs"));
+
+			scheduler.setConfiguredLimits(2, none);
+			FilterExecutionScheduler.Permit permit=scheduler.acquire(chainWith("ejs"));
+			assertNotNull(permit);
+
+			// Shrinking counts the chains that are still running
+			scheduler.setConfiguredLimits(1, none);
+			permit.release();
+			assertOverloaded(scheduler, chainWith("ejs"));
+		} finally {
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testOverridesAndConfiguredLimits() throws Exception {
+		FilterExecutionScheduler scheduler=new FilterExecutionScheduler(null);
+		Map<String, Integer> limits=new HashMap<String, Integer>();
+		limits.put("ejs", 2);
+		limits.put("yuioptimizejs", 1);
+		scheduler.setConfiguredLimits(4, limits);
+		assertEquals(4, scheduler.getMaxConcurrent());
+		assertEquals(2, scheduler.getFilterLimit("ejs"));
+
+		// Overrides win over the configuration, whatever the order
+		scheduler.setMaxConcurrent(8);
+		scheduler.setFilterLimit("ejs", 3);
+		scheduler.setConfiguredLimits(4, limits);
+		assertEquals(8, scheduler.getMaxConcurrent());
+		assertEquals(3, scheduler.getFilterLimit("ejs"));
+		assertEquals(1, scheduler.getFilterLimit("yuioptimizejs"));
+
+		// Limits missing from a new configuration are removed
+		scheduler.setConfiguredLimits(0, Collections.<String, Integer>emptyMap());
+		assertEquals(8, scheduler.getMaxConcurrent());
+		assertEquals(3, scheduler.getFilterLimit("ejs"));
+		assertEquals(0, scheduler.getFilterLimit("yuioptimizejs"));
+	}
+
+	@Test
+	public void testLimitsFromConfiguration() throws Exception {
+		File dir=createTempDirectory("schedulertest");
+		try {
+			File config=new File(dir, AssetServer.CONFIG_NAME);
+			write(config, "limitFilters(4); limitFilters('ejs', 2);", 100000);
+			AssetServer server=new AssetServer(dir);
+			FilterExecutionScheduler scheduler=server.getFilterScheduler();
+			assertEquals(4, scheduler.getMaxConcurrent());
+			assertEquals(2, scheduler.getFilterLimit("ejs"));
+
+			write(config, "limitFilters('ejs', 2);", 200000);
+			assertTrue(server.reload());
+			assertEquals(0, scheduler.getMaxConcurrent());
+			assertEquals(2, scheduler.getFilterLimit("ejs"));
+
+			// A failed reload keeps the limits in force
+			write(config, "limitFilters(1); limitFilters(", 300000);
+			assertFalse(server.reload());
+			assertEquals(0, scheduler.getMaxConcurrent());
+
+			try {
+				server.limitFilters(1);
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+}
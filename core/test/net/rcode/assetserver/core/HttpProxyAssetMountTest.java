@@ -0,0 +1,267 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.rcode.assetserver.cache.CacheEntry;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class HttpProxyAssetMountTest {
+	/**
+	 * Serves a fixed set of bodies with ETags and counts requests by outcome
+	 */
+	private static class StubOrigin extends AbstractHandler {
+		final Map<String, String> bodies=new ConcurrentHashMap<String, String>();
+		final AtomicInteger fullResponses=new AtomicInteger();
+		final AtomicInteger notModified=new AtomicInteger();
+		volatile long delayMillis;
+		volatile boolean chunked;
+
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request,
+				HttpServletResponse response) throws IOException, ServletException {
+			baseRequest.setHandled(true);
+			if (delayMillis>0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			String body=bodies.get(target);
+			if (body==null) {
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+
+			String eTag="\"" + Integer.toHexString(body.hashCode()) + "\"";
+			if (eTag.equals(request.getHeader("If-None-Match"))) {
+				notModified.incrementAndGet();
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+
+			fullResponses.incrementAndGet();
+			byte[] bytes=body.getBytes("UTF-8");
+			response.setContentType("text/javascript");
+			response.setHeader("ETag", eTag);
+			if (!chunked) response.setContentLength(bytes.length);
+			response.getOutputStream().write(bytes);
+		}
+	}
+
+	private Server origin;
+	private StubOrigin stub;
+	private SelectChannelConnector originConnector;
+	private URL originUrl;
+	private HttpProxyAssetMount mount;
+
+	@Before
+	public void setUp() throws Exception {
+		stub=new StubOrigin();
+		origin=new Server();
+		originConnector=new SelectChannelConnector();
+		originConnector.setHost("127.0.0.1");
+		originConnector.setPort(0);
+		originConnector.setStatsOn(true);
+		origin.addConnector(originConnector);
+		origin.setHandler(stub);
+		origin.start();
+
+		originUrl=new URL("http://127.0.0.1:" + originConnector.getLocalPort() + "/static/");
+		mount=new HttpProxyAssetMount(originUrl, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		origin.stop();
+	}
+
+	private AssetLocator resolve(String path) throws Exception {
+		return mount.resolve(new AssetPath(mount, "", path));
+	}
+
+	private static String contents(AssetLocator locator) throws IOException {
+		return new String(locator.getBytes(), "UTF-8");
+	}
+
+	@Test
+	public void testFetchAndRevalidate() throws Exception {
+		stub.bodies.put("/static/lib/a.js", "var a=1;");
+
+		AssetLocator locator=resolve("/lib/a.js");
+		assertEquals("var a=1;", contents(locator));
+		assertEquals("text/javascript", locator.getContentType());
+		assertNull(resolve("/lib/missing.js"));
+
+		// Within the revalidation interval, nothing goes upstream
+		resolve("/lib/a.js");
+		assertEquals(1, stub.fullResponses.get());
+		assertEquals(0, stub.notModified.get());
+
+		mount.setRevalidateMillis(0);
+		assertEquals("var a=1;", contents(resolve("/lib/a.js")));
+		assertEquals(1, stub.fullResponses.get());
+		assertEquals(1, stub.notModified.get());
+
+		stub.bodies.put("/static/lib/a.js", "var a=2;");
+		assertEquals("var a=2;", contents(resolve("/lib/a.js")));
+		assertEquals(2, stub.fullResponses.get());
+
+		stub.bodies.remove("/static/lib/a.js");
+		assertNull(resolve("/lib/a.js"));
+	}
+
+	@Test
+	public void testResponseBudget() throws Exception {
+		StringBuilder large=new StringBuilder();
+		for (int i=0; i<100; i++) large.append("var a=1;");
+		stub.bodies.put("/static/a.js", large.toString());
+		stub.bodies.put("/static/b.js", large.toString());
+
+		// Room for one of the two
+		mount.setMaxResponseBytes(1200);
+		resolve("/a.js");
+		long size=mount.getResponseBytes();
+		assertTrue(size>800 && size<=1200);
+		resolve("/b.js");
+		assertEquals(size, mount.getResponseBytes());
+		assertEquals(2, stub.fullResponses.get());
+
+		// b is kept, a was evicted
+		resolve("/b.js");
+		assertEquals(2, stub.fullResponses.get());
+		assertEquals(large.toString(), contents(resolve("/a.js")));
+		assertEquals(3, stub.fullResponses.get());
+
+		// Larger than the whole budget is not kept
+		mount.setMaxResponseBytes(100);
+		assertEquals(0, mount.getResponseBytes());
+		resolve("/a.js");
+		resolve("/a.js");
+		assertEquals(5, stub.fullResponses.get());
+		assertEquals(0, mount.getResponseBytes());
+	}
+
+	private void assertTooLarge(String path) throws Exception {
+		try {
+			resolve(path);
+			fail("Expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exceeds"));
+		}
+
+		// The connection is dropped rather than left for the garbage collector
+		long deadline=System.currentTimeMillis() + 5000;
+		while (originConnector.getConnectionsOpen()>0 && System.currentTimeMillis()<deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, originConnector.getConnectionsOpen());
+	}
+
+	@Test
+	public void testBodyTooLarge() throws Exception {
+		// Larger than the JDK will drain in the background to keep the connection
+		StringBuilder large=new StringBuilder();
+		for (int i=0; i<128*1024; i++) large.append("var a=1;");
+		stub.bodies.put("/static/a.js", large.toString());
+		mount.setMaxBodySize(1000);
+
+		assertTooLarge("/a.js");
+		stub.chunked=true;
+		assertTooLarge("/a.js");
+		assertEquals(2, stub.fullResponses.get());
+	}
+
+	private static long cacheLookups(AssetServer server, String result) {
+		return server.getMetrics().counter("assetserver_cache_lookups_total", "Shared cache lookups by result", "result", result).get();
+	}
+
+	@Test
+	public void testFilteredAndCached() throws Exception {
+		stub.bodies.put("/static/a.js", "var answer = 42 ;");
+		File dir=createTempDirectory("proxytest");
+		try {
+			AssetServer server=new AssetServer(dir);
+			HttpProxyAssetMount serverMount=new HttpProxyAssetMount(originUrl, server);
+			server.getRoot().add("/remote", serverMount);
+
+			AssetLocator first=server.getRoot().resolve("/remote/a.js");
+			assertEquals("var answer=42;", contents(first));
+			assertEquals(1, cacheLookups(server, "miss"));
+
+			AssetLocator second=server.getRoot().resolve("/remote/a.js");
+			assertTrue(second instanceof CacheEntry);
+			assertEquals("var answer=42;", contents(second));
+			assertEquals(1, cacheLookups(server, "hit"));
+			assertEquals(1, stub.fullResponses.get());
+
+			serverMount.setRevalidateMillis(0);
+			stub.bodies.put("/static/a.js", "var answer = 43 ;");
+			assertEquals("var answer=43;", contents(server.getRoot().resolve("/remote/a.js")));
+			assertEquals(1, cacheLookups(server, "stale"));
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+
+	@Test
+	public void testDependency() throws Exception {
+		stub.bodies.put("/static/a.js", "var a=1;");
+		mount.setRevalidateMillis(0);
+		UpstreamCacheDependency dependency=new UpstreamCacheDependency(mount, "/a.js", mount.getValidator("/a.js"));
+		assertTrue(dependency.isValid());
+
+		stub.bodies.put("/static/a.js", "var a=2;");
+		assertFalse(dependency.isValid());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		stub.bodies.put("/static/slow.js", "var slow=1;");
+		stub.delayMillis=300;
+
+		ExecutorService executor=Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results=new ArrayList<Future<String>>();
+			for (int i=0; i<8; i++) {
+				results.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return contents(resolve("/slow.js"));
+					}
+				}));
+			}
+			for (Future<String> result: results) {
+				assertEquals("var slow=1;", result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, stub.fullResponses.get());
+	}
+}
@@ -0,0 +1,84 @@
+package net.rcode.assetserver.core;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex based path parser that AssetPath used before parsing was done in a
+ * single pass.  Kept as the reference for AssetPathParserTest and AssetPathBench.
+ *
+ * @author stella
+ *
+ */
+class LegacyAssetPathParser {
+	static final Pattern PATH_SPLIT_PATTERN=Pattern.compile("\\/");
+	static final Pattern INVALID_COMPONENT=Pattern.compile("^(\\.\\.?)|CON|PRN|AUX|NUL|COM[0-9]|LPT[0-9]$", Pattern.CASE_INSENSITIVE);
+	static final Pattern INVALID_COMPONENT_SPANS=
+		Pattern.compile("[\\\\\\/\\:\"'\\<\\>\\|\\?\\*]|[\\x00-\\x1f]", Pattern.MULTILINE);
+	static final Pattern PARAMSTRING_PATTERN=
+		Pattern.compile("(?:\\$([^\\$]*)\\$)((?:\\.[A-Za-z0-9]+)+)$");
+
+	String[] components;
+	String parameterString;
+
+	LegacyAssetPathParser(String p, boolean scanForParameters) throws IllegalArgumentException {
+		components=parseComponents(p, scanForParameters);
+	}
+
+	private String[] parseComponents(String p, boolean scanForParameters) throws IllegalArgumentException {
+		if (p==null || p.isEmpty()) {
+			return AssetPath.EMPTY_STRINGS;
+		}
+		if (!p.startsWith("/")) {
+			throw new IllegalArgumentException("Path must start with a leading slash");
+		} else {
+			p=p.substring(1);
+		}
+		if (p.endsWith("/")) {
+			p=p.substring(0, p.length()-1);
+		}
+		if (p.isEmpty()) {
+			return AssetPath.EMPTY_STRINGS;
+		}
+
+		String[] components=PATH_SPLIT_PATTERN.split(p);
+		for (int i=0; i<components.length; i++) {
+			components[i]=normalizeComponent(components[i], scanForParameters && i==(components.length-1));
+		}
+		return components;
+	}
+
+	private String normalizeComponent(String comp, boolean scanForParameters) {
+		if (scanForParameters) {
+			Matcher paramMatcher=PARAMSTRING_PATTERN.matcher(comp);
+			if (paramMatcher.find()) {
+				this.parameterString=paramMatcher.group(1);
+				comp=comp.substring(0, paramMatcher.start()) +
+					paramMatcher.group(2);
+			}
+		}
+
+		try {
+			comp=URLDecoder.decode(comp, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (!isValidComponent(comp)) {
+			throw new IllegalArgumentException("Illegal path component " + comp);
+		}
+		return comp;
+	}
+
+	static boolean isValidComponent(String component) {
+		if (INVALID_COMPONENT_SPANS.matcher(component).find()) {
+			return false;
+		}
+		if (INVALID_COMPONENT.matcher(component).matches()) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,115 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.rcode.assetserver.TestFiles;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ManifestBuilderTest {
+	private File dir;
+	private AssetServer server;
+	private ManifestBuilder builder;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("manifesttest");
+
+		write("inc.js", "var inc=1;", 100000);
+		write("main.js", "##EJSON\n#{read(\"inc.js\")}\nvar main=2;", 100000);
+		write("sub/site.css", "body { color: red; }", 100000);
+		write("sub/readme.txt", "hello", 100000);
+
+		server=new AssetServer(dir);
+		builder=new ManifestBuilder(server);
+		builder.setParallelism(4);
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private void write(String path, String contents, long modified) throws IOException {
+		TestFiles.write(new File(dir, path), contents, modified);
+	}
+
+	@Test
+	public void testBuildAndUpdate() throws Exception {
+		ManifestBuilder.UpdateResult result=builder.update();
+		assertEquals(4, result.resolved);
+		assertEquals(0, result.reused);
+		assertEquals(4, builder.getEntries().size());
+
+		ManifestBuilder.Entry readme=builder.getEntries().get("/sub/readme.txt");
+		assertEquals(5, readme.getSize());
+		assertEquals("5d41402abc4b2a76b9719d911017c592", readme.getHash());
+		assertEquals("text/plain", readme.getContentType());
+
+		// The processed contents are described, not the source
+		ManifestBuilder.Entry main=builder.getEntries().get("/main.js");
+		byte[] processed=IOUtil.slurpBinary(server.getRoot().resolve("/main.js").openInput(), 0);
+		assertEquals(processed.length, main.getSize());
+		assertTrue(main.getDependencies().length>=2);
+
+		// Nothing changed
+		result=builder.update();
+		assertEquals(0, result.resolved);
+		assertEquals(4, result.reused);
+
+		// A file that another asset reads
+		write("inc.js", "var inc=12345;", 200000);
+		result=builder.update();
+		assertEquals(2, result.resolved);
+		assertEquals(2, result.reused);
+		assertFalse(main.getHash().equals(builder.getEntries().get("/main.js").getHash()));
+
+		new File(dir, "sub/readme.txt").delete();
+		result=builder.update();
+		assertEquals(1, result.removed);
+		assertNull(builder.getEntries().get("/sub/readme.txt"));
+	}
+
+	@Test
+	public void testAccessFileChange() throws Exception {
+		write("sub/page.txt", "##EJSON\nsum=#{1+1}", 100000);
+		((ResourceMount)server.getRoot().getMountPoints().get(null)).setContextCheckMillis(0);
+		builder.update();
+		ManifestBuilder.Entry page=builder.getEntries().get("/sub/page.txt");
+		assertEquals("##EJSON\nsum=#{1+1}".length(), page.getSize());
+
+		// Only the assets under the access file are resolved again
+		write("sub/" + AssetServer.ACCESS_NAME, "filter.on('*.txt', 'ejs');", 100000);
+		ManifestBuilder.UpdateResult result=builder.update();
+		assertEquals(3, result.resolved);
+		assertEquals(2, result.reused);
+		assertEquals("sum=2".length(), builder.getEntries().get("/sub/page.txt").getSize());
+
+		result=builder.update();
+		assertEquals(0, result.resolved);
+
+		new File(dir, "sub/" + AssetServer.ACCESS_NAME).delete();
+		result=builder.update();
+		assertEquals(3, result.resolved);
+		assertEquals(page.getHash(), builder.getEntries().get("/sub/page.txt").getHash());
+	}
+
+	@Test
+	public void testBaseDirAndJson() throws Exception {
+		builder.setBaseDir("/sub");
+		builder.update();
+		assertEquals(2, builder.getEntries().size());
+
+		StringBuilder json=new StringBuilder();
+		builder.write(json);
+		String s=json.toString();
+		assertTrue(s, s.startsWith("{\"assets\":{\"/sub/readme.txt\":{\"hash\":\"5d41402abc4b2a76b9719d911017c592\",\"size\":5,\"contentType\":\"text/plain\",\"dependencies\":[\"file:"));
+		assertTrue(s, s.contains("\"/sub/site.css\":{"));
+	}
+}
@@ -0,0 +1,112 @@
+package net.rcode.assetserver.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MemoryAssetMountTest {
+	private MemoryAssetMount mount;
+
+	@Before
+	public void setUp() {
+		mount=new MemoryAssetMount(null);
+	}
+
+	private AssetPath path(String path) {
+		return new AssetPath(mount, "", path);
+	}
+
+	private static byte[] bytes(String s) throws Exception {
+		return s.getBytes("UTF-8");
+	}
+
+	@Test
+	public void testPutAndRemove() throws Exception {
+		byte[] contents=bytes("var en={};");
+		mount.put("/locale/en.js", contents, "text/javascript");
+		contents[0]='X';
+
+		AssetLocator locator=mount.resolve(path("/locale/en.js"));
+		assertNotNull(locator);
+		assertEquals("var en={};", new String(locator.getBytes(), "UTF-8"));
+		assertEquals("text/javascript", locator.getContentType());
+		String eTag=locator.getETag();
+
+		// Same contents, same ETag
+		mount.put("locale//en.js", bytes("var en={};"), "text/javascript");
+		assertEquals(eTag, mount.resolve(path("/locale/en.js")).getETag());
+		mount.put("locale/en.js", bytes("var en={a:1};"), "text/javascript");
+		assertFalse(eTag.equals(mount.resolve(path("/locale/en.js")).getETag()));
+
+		assertTrue(mount.remove("/locale/en.js"));
+		assertFalse(mount.remove("/locale/en.js"));
+		assertNull(mount.resolve(path("/locale/en.js")));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testIllegalPath() throws Exception {
+		mount.put("/locale/../en.js", bytes(""), null);
+	}
+
+	@Test
+	public void testStatAndList() throws Exception {
+		mount.put("/a.js", bytes("a"), null);
+		mount.put("/locale/en.js", bytes("en"), null);
+		mount.put("/locale/fr.js", bytes("fr"), null);
+		mount.put("/locale/ext/de.js", bytes("de"), null);
+		mount.put("/locale-old/en.js", bytes("en"), null);
+
+		assertTrue(mount.stat(path("/")).isDirectory);
+		assertTrue(mount.stat(path("/locale")).isDirectory);
+		assertFalse(mount.stat(path("/locale/en.js")).isDirectory);
+		assertNull(mount.stat(path("/loc")));
+		assertNull(mount.resolve(path("/locale")));
+
+		assertEquals(3, mount.listChildren(path("/")).size());
+		assertEquals(3, mount.listChildren(path("/locale")).size());
+		assertEquals(0, mount.listChildren(path("/a.js")).size());
+
+		assertEquals(3, mount.removeTree("/locale"));
+		assertNull(mount.stat(path("/locale")));
+		assertNotNull(mount.stat(path("/locale-old/en.js")));
+	}
+
+	@Test
+	public void testDependency() throws Exception {
+		mount.put("/en.js", bytes("en"), null);
+		MemoryCacheDependency present=new MemoryCacheDependency(mount, "en.js", mount.getVersion("en.js"));
+		MemoryCacheDependency absent=new MemoryCacheDependency(mount, "fr.js", mount.getVersion("fr.js"));
+		assertTrue(present.isValid());
+		assertTrue(absent.isValid());
+
+		// Changes to other entries do not invalidate
+		mount.put("/de.js", bytes("de"), null);
+		assertTrue(present.isValid());
+		assertTrue(absent.isValid());
+
+		mount.put("/fr.js", bytes("fr"), null);
+		assertFalse(absent.isValid());
+		mount.put("/en.js", bytes("en"), null);
+		assertFalse(present.isValid());
+	}
+
+	@Test
+	public void testDependencySerialization() throws Exception {
+		mount.put("/en.js", bytes("en"), null);
+		ByteArrayOutputStream buffer=new ByteArrayOutputStream();
+		ObjectOutputStream out=new ObjectOutputStream(buffer);
+		out.writeObject(new MemoryCacheDependency(mount, "en.js", mount.getVersion("en.js")));
+		out.close();
+
+		ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+		MemoryCacheDependency dependency=(MemoryCacheDependency)in.readObject();
+		assertTrue(dependency.isValid());
+		mount.remove("/en.js");
+		assertFalse(dependency.isValid());
+	}
+}
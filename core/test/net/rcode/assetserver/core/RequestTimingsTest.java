@@ -0,0 +1,118 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class RequestTimingsTest {
+	private static final String DUR=";dur=\\d+\\.\\d{3}";
+
+	@Test
+	public void testNesting() {
+		RequestTimings timings=new RequestTimings();
+		RequestTimings.Stage outer=timings.begin("outer", "/a");
+		RequestTimings.Stage first=timings.begin("first", null);
+		RequestTimings.Stage inner=timings.begin("inner", null);
+		timings.end(inner);
+		timings.end(first);
+		RequestTimings.Stage second=timings.begin("second", null);
+		timings.end(second);
+		timings.end(outer);
+		RequestTimings.Stage last=timings.begin("last", null);
+		timings.end(last);
+
+		List<RequestTimings.Stage> stages=timings.getStages();
+		assertEquals(5, stages.size());
+		assertSame(outer, stages.get(0));
+		assertSame(last, stages.get(4));
+		assertEquals(0, outer.depth);
+		assertEquals(1, first.depth);
+		assertEquals(2, inner.depth);
+		assertEquals(1, second.depth);
+		assertEquals(0, last.depth);
+		assertTrue(outer.durationNanos>=first.durationNanos);
+		assertTrue(first.durationNanos>=inner.durationNanos);
+	}
+
+	@Test
+	public void testServerTiming() {
+		RequestTimings timings=new RequestTimings();
+		assertNull(timings.toServerTiming());
+
+		RequestTimings.Stage outer=timings.begin("resolve", "/a \"b\"\\c\n.js");
+		RequestTimings.Stage inner=timings.begin("cache-lookup", null);
+		timings.end(inner);
+		RequestTimings.Stage nested=timings.begin("filter.ejs", "/b.js");
+		timings.end(nested);
+		RequestTimings.Stage open=timings.begin("never-ended", null);
+
+		// Only completed stages are reported
+		String header=timings.toServerTiming();
+		assertTrue(header, header.startsWith("cache-lookup;dur="));
+		assertFalse(header, header.contains("never-ended"));
+		timings.end(open);
+		timings.end(outer);
+		RequestTimings.Stage plain=timings.begin("plain", null);
+		timings.end(plain);
+
+		header=timings.toServerTiming();
+		String[] entries=header.split(", ");
+		assertEquals(header, 5, entries.length);
+		assertTrue(entries[0], entries[0].matches("resolve" + DUR + ";desc=\"/a \\\\\"b\\\\\"\\\\\\\\c\\.js\""));
+		assertTrue(entries[1], entries[1].matches("cache-lookup" + DUR + ";desc=\">\""));
+		assertTrue(entries[2], entries[2].matches("filter\\.ejs" + DUR + ";desc=\"> /b\\.js\""));
+		assertTrue(entries[3], entries[3].matches("never-ended" + DUR + ";desc=\">\""));
+		assertTrue(entries[4], entries[4].matches("plain" + DUR));
+	}
+
+	@Test
+	public void testResolveRecordsNestedStages() throws Exception {
+		File dir=createTempDirectory("timingstest");
+		try {
+			write(new File(dir, "inc.txt"), "included", 100000);
+			write(new File(dir, "main.html"), "##EJSON\n#{read('inc.txt')}", 100000);
+			AssetServer server=new AssetServer(dir);
+
+			RequestContext requestContext=server.enterRequestContext();
+			try {
+				RequestTimings timings=requestContext.enableTimings();
+				assertSame(timings, requestContext.enableTimings());
+				assertSame(timings, RequestContext.getCurrentTimings());
+				server.getRoot().resolve("/main.html");
+
+				RequestTimings.Stage first=timings.getStages().get(0);
+				assertEquals("resolve", first.name);
+				assertEquals("/main.html", first.detail);
+				assertEquals(0, first.depth);
+
+				// The read() from the template is resolved within the filter stage
+				RequestTimings.Stage filter=null, included=null;
+				for (RequestTimings.Stage stage: timings.getStages()) {
+					assertTrue(stage.name, stage.durationNanos>=0);
+					if (stage.name.equals("filter.ejs")) filter=stage;
+					if ("/inc.txt".equals(stage.detail)) included=stage;
+				}
+				assertNotNull(filter);
+				assertNotNull(included);
+				assertTrue(included.depth>filter.depth);
+			} finally {
+				server.exitRequestContext();
+			}
+
+			// Timings are only recorded when enabled
+			requestContext=server.enterRequestContext();
+			try {
+				assertNull(requestContext.getTimings());
+				server.getRoot().resolve("/main.html");
+				assertNull(RequestContext.getCurrentTimings());
+			} finally {
+				server.exitRequestContext();
+			}
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+}
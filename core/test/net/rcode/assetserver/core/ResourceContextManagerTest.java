@@ -0,0 +1,93 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ResourceContextManagerTest {
+	private File dir;
+	private ResourceContext rootContext;
+	private ResourceContextManager manager;
+
+	@Before
+	public void setUp() throws IOException {
+		dir=createTempDirectory("rcmtest");
+
+		rootContext=new ResourceContext(null);
+		FilterChainInitializerLookup lookup=new FilterChainInitializerLookup();
+		lookup.addBuiltins();
+		rootContext.setFilterLookup(lookup);
+		rootContext.getFilters().add(new ResourceContext.FilterBinding(PatternPredicateFactory.build("*.js"), lookup.lookup("ejs")));
+		rootContext.setHash("root");
+		rootContext.freeze();
+
+		manager=new ResourceContextManager(rootContext, new ResourceContextBuilder());
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	@Test
+	public void testNoAccessFile() throws Exception {
+		assertSame(rootContext, manager.resolveDirectory(rootContext, dir));
+		assertSame(rootContext, manager.resolveDirectory(rootContext, new File(dir, "missing")));
+	}
+
+	@Test
+	public void testAccessFile() throws Exception {
+		File sub=new File(dir, "sub");
+		File accessFile=new File(sub, AssetServer.ACCESS_NAME);
+		write(accessFile, "filter.on('*.css', 'ejs');", 100000);
+
+		ResourceContext context=manager.resolveDirectory(rootContext, sub);
+		assertNotSame(rootContext, context);
+		assertTrue(context.isFrozen());
+		assertSame(rootContext, context.getParent());
+		assertEquals(2, context.getFilters().size());
+		assertFalse("root".equals(context.getHash()));
+		assertEquals(1, context.getMatchingFilters(new AssetPath(null, "", "/sub/a.css")).size());
+
+		// Evaluated once
+		assertSame(context, manager.resolveDirectory(rootContext, sub));
+
+		// Nested directories inherit the bindings
+		ResourceContext nested=manager.resolveDirectory(context, new File(sub, "nested"));
+		assertSame(context, nested);
+
+		// Changing the file rebuilds the context
+		write(accessFile, "filter.on('*.css', '*.html', 'ejs');", 200000);
+		ResourceContext changed=manager.resolveDirectory(rootContext, sub);
+		assertNotSame(context, changed);
+		assertEquals(3, changed.getFilters().size());
+		assertFalse(context.getHash().equals(changed.getHash()));
+
+		// As does removing it
+		accessFile.delete();
+		assertSame(rootContext, manager.resolveDirectory(rootContext, sub));
+	}
+
+	@Test
+	public void testParentChange() throws Exception {
+		File sub=new File(dir, "sub");
+		write(new File(dir, AssetServer.ACCESS_NAME), "filter.on('*.css', 'ejs');", 100000);
+		write(new File(sub, AssetServer.ACCESS_NAME), "filter.on('*.html', 'ejs');", 100000);
+
+		ResourceContext parent=manager.resolveDirectory(rootContext, dir);
+		ResourceContext child=manager.resolveDirectory(parent, sub);
+		assertEquals(3, child.getFilters().size());
+
+		write(new File(dir, AssetServer.ACCESS_NAME), "", 200000);
+		ResourceContext newParent=manager.resolveDirectory(rootContext, dir);
+		ResourceContext newChild=manager.resolveDirectory(newParent, sub);
+		assertNotSame(child, newChild);
+		assertSame(newParent, newChild.getParent());
+		assertEquals(2, newChild.getFilters().size());
+	}
+}
@@ -0,0 +1,161 @@
+package net.rcode.assetserver.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import net.rcode.assetserver.util.NamePattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ResourceMountTest {
+	private File dir;
+	private ResourceMount mount;
+
+	@Before
+	public void setUp() throws IOException {
+		dir=createTempDirectory("rmtest");
+		mount=new ResourceMount(dir, null);
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private ResourceStat stat(String path) throws Exception {
+		return mount.stat(new AssetPath(mount, "", path));
+	}
+
+	@Test
+	public void testResolveTracksChanges() throws Exception {
+		File sub=new File(dir, "sub");
+		touch(new File(sub, "a.js"));
+
+		assertNotNull(stat("/sub/a.js"));
+		assertNotNull(stat("/sub/a.js"));
+		assertNull(stat("/sub/b.js"));
+
+		new File(sub, "a.js").delete();
+		touch(new File(sub, "b.js"));
+		assertNull(stat("/sub/a.js"));
+		assertNotNull(stat("/sub/b.js"));
+	}
+
+	@Test
+	public void testContextCached() throws Exception {
+		touch(new File(dir, "sub/a.css"));
+		AssetServer server=new AssetServer(dir);
+		ResourceMount serverMount=new ResourceMount(dir, server);
+		serverMount.setContextCheckMillis(60000);
+		AssetPath path=new AssetPath(serverMount, "", "/sub/a.css");
+		ResourceContext rootContext=server.getContextManager().getRootContext();
+		assertSame(rootContext, serverMount.resolveContext(path));
+
+		// Used until it is due for a check
+		File accessFile=write(new File(dir, "sub/" + AssetServer.ACCESS_NAME), "filter.on('*.css', 'ejs');", 100000);
+		assertSame(rootContext, serverMount.resolveContext(path));
+		serverMount.setContextCheckMillis(0);
+		ResourceContext subContext=serverMount.resolveContext(path);
+		assertNotSame(rootContext, subContext);
+
+		// With a snapshot, kept until the snapshot is refreshed
+		serverMount.enableSnapshot();
+		assertSame(subContext, serverMount.resolveContext(path));
+		accessFile.delete();
+		assertSame(subContext, serverMount.resolveContext(path));
+		serverMount.refreshSnapshot();
+		assertSame(rootContext, serverMount.resolveContext(path));
+	}
+
+	@Test
+	public void testExclusions() throws Exception {
+		touch(new File(dir, "a.js~"));
+		touch(new File(dir, "b.js"));
+		assertNull(stat("/a.js~"));
+		assertNotNull(stat("/b.js"));
+
+		// Changing exclusions applies to paths resolved before
+		mount.setUserExclusions(new NamePattern("b.*"));
+		assertNull(stat("/b.js"));
+	}
+
+	@Test
+	public void testSymlinkReplaced() throws Exception {
+		File sub=new File(dir, "sub");
+		touch(new File(sub, "a.js"));
+		File link=new File(sub, "link.js");
+		Files.createSymbolicLink(link.toPath(), new File(sub, "a.js").toPath());
+
+		// Symlinks are rejected and the rejection is cached
+		assertNull(stat("/sub/link.js"));
+		assertNull(stat("/sub/link.js"));
+
+		// Replacing the link with a file is noticed even if the directory
+		// time does not change
+		long directoryModified=sub.lastModified();
+		link.delete();
+		touch(link);
+		sub.setLastModified(directoryModified);
+		assertNotNull(stat("/sub/link.js"));
+	}
+
+	@Test
+	public void testSymlinkRoots() throws Exception {
+		File shared=createTempDirectory("rmshared");
+		try {
+			touch(new File(shared, "vendor/lib.js"));
+			touch(new File(shared, "private/secret.js"));
+			Files.createSymbolicLink(new File(dir, "vendor").toPath(), new File(shared, "vendor").toPath());
+			Files.createSymbolicLink(new File(dir, "private").toPath(), new File(shared, "private").toPath());
+			
+			// Links are not followed by default
+			assertNull(stat("/vendor/lib.js"));
+			
+			mount.addSymlinkRoot(new File(shared, "vendor"));
+			ResourceStat libStat=stat("/vendor/lib.js");
+			assertNotNull(libStat);
+			assertFalse(libStat.isDirectory);
+			assertNotNull(stat("/vendor"));
+			assertNull(stat("/private/secret.js"));
+			
+			// Case must still match past the link
+			assertNull(stat("/vendor/LIB.js"));
+		} finally {
+			deleteRecursive(shared);
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File sub=new File(dir, "sub");
+		touch(new File(sub, "a.js"));
+		touch(new File(sub, "b.js~"));
+		touch(new File(dir, "top.css"));
+		mount.enableSnapshot();
+		
+		ResourceStat s=stat("/sub/a.js");
+		assertNotNull(s);
+		assertFalse(s.isDirectory);
+		assertEquals(new File(sub, "a.js"), s.physicalPath);
+		assertTrue(stat("/sub").isDirectory);
+		assertNull(stat("/sub/b.js~"));
+		assertNull(stat("/sub/A.js"));
+		assertNull(stat("/missing/a.js"));
+		assertEquals(2, mount.listChildren(new AssetPath(mount, "", "/")).size());
+		assertEquals(1, mount.listChildren(new AssetPath(mount, "", "/sub")).size());
+		
+		// Changes are only visible after a refresh
+		touch(new File(sub, "c.js"));
+		sub.setLastModified(sub.lastModified() + 2000);
+		assertNull(stat("/sub/c.js"));
+		mount.refreshSnapshot();
+		assertNotNull(stat("/sub/c.js"));
+		assertNotNull(stat("/sub/a.js"));
+		assertNotNull(stat("/top.css"));
+	}
+}
@@ -0,0 +1,169 @@
+package net.rcode.assetserver.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.rcode.assetserver.util.BlockOutputStream;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StreamingResourceFilterTest {
+	private static final AtomicInteger opens=new AtomicInteger();
+
+	/**
+	 * Upper cases text
+	 */
+	private static class UpperCaseFilter extends StreamingResourceFilter {
+		public UpperCaseFilter() {
+			super("uppercase");
+		}
+
+		@Override
+		protected FilterStage createStage(FilterChain context, AssetLocator source) {
+			return new TextFilterStage(source.getCharacterEncoding()) {
+				@Override
+				protected Writer open(Writer out) {
+					opens.incrementAndGet();
+					return new FilterWriter(out) {
+						@Override
+						public void write(char[] cbuf, int off, int len) throws IOException {
+							out.write(new String(cbuf, off, len).toUpperCase());
+						}
+						@Override
+						public void write(int c) throws IOException {
+							out.write(Character.toUpperCase((char)c));
+						}
+						@Override
+						public void write(String str, int off, int len) throws IOException {
+							out.write(str.substring(off, off+len).toUpperCase());
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * Wraps the content in a comment header and footer.  Passes through
+	 * anything named "*.txt".
+	 */
+	private static class BannerFilter extends StreamingResourceFilter {
+		public BannerFilter() {
+			super("banner");
+		}
+
+		@Override
+		protected FilterStage createStage(FilterChain context, AssetLocator source) {
+			if (context.getAssetPath().getBaseName().endsWith(".txt")) return null;
+			return new FilterStage() {
+				@Override
+				public OutputStream open(OutputStream out) throws IOException {
+					opens.incrementAndGet();
+					out.write("/*[*/".getBytes("UTF-8"));
+					return new FilterOutputStream(out) {
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+							out.write(b, off, len);
+						}
+						@Override
+						public void close() throws IOException {
+							out.write("/*]*/".getBytes("UTF-8"));
+							super.close();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	private static AssetLocator text(String contents) throws IOException {
+		BlockOutputStream buffer=new BlockOutputStream(16);
+		buffer.write(contents.getBytes("UTF-8"));
+		BufferAssetLocator ret=new BufferAssetLocator(buffer);
+		ret.setCharacterEncoding("UTF-8");
+		ret.setContentType("text/javascript");
+		return ret;
+	}
+
+	private static FilterChain chain(String path, AssetLocator source) {
+		FilterChain chain=new FilterChain(null, new AssetPath(null, "", path), source, null);
+		chain.getFilters().add(new UpperCaseFilter());
+		chain.getFilters().add(new BannerFilter());
+		return chain;
+	}
+
+	@Test
+	public void testStagesRunWhenWritten() throws Exception {
+		opens.set(0);
+		FilterChain chain=chain("/a.js", text("var héllo='wörld';"));
+		chain.processFilters();
+
+		AssetLocator result=chain.getCurrent();
+		assertTrue(result instanceof StreamingAssetLocator);
+		assertEquals("text/javascript", result.getContentType());
+		assertEquals("UTF-8", result.getCharacterEncoding());
+		assertTrue(result.shouldCache());
+		assertEquals(0, opens.get());
+		assertEquals(-1, result.length());
+
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		result.writeTo(out);
+		assertEquals("/*[*/VAR HÉLLO='WÖRLD';/*]*/", out.toString("UTF-8"));
+		assertEquals(2, opens.get());
+
+		// Random access materializes once
+		byte[] bytes=result.getBytes();
+		assertEquals("/*[*/VAR HÉLLO='WÖRLD';/*]*/", new String(bytes, "UTF-8"));
+		assertEquals(bytes.length, result.length());
+		assertEquals("/*[*/VAR HÉLLO='WÖRLD';/*]*/", IOUtil.slurpStream(result.openInput(), "UTF-8", -1).toString());
+		assertEquals(4, opens.get());
+
+		out=new ByteArrayOutputStream();
+		result.writeTo(out);
+		assertEquals(bytes.length, out.size());
+		assertEquals(4, opens.get());
+	}
+
+	@Test
+	public void testPassThrough() throws Exception {
+		AssetLocator source=text("abc");
+		FilterChain chain=chain("/a.txt", source);
+		chain.processFilters();
+
+		StreamingAssetLocator result=(StreamingAssetLocator)chain.getCurrent();
+		assertSame(source, result.getSource());
+		assertEquals("ABC", new String(result.getBytes(), "UTF-8"));
+	}
+
+	@Test
+	public void testSplitCharacters() throws Exception {
+		String text="€uro ünd ñ and \ud83d\ude00";
+		byte[] bytes=text.getBytes("UTF-8");
+		FilterStage stage=new UpperCaseFilter().createStage(null, text(""));
+
+		// One byte at a time splits every multi-byte sequence
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		OutputStream in=stage.open(out);
+		for (byte b: bytes) in.write(b);
+		in.close();
+		assertEquals(text.toUpperCase(), out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testToByteArray() throws Exception {
+		AssetLocator source=text("0123456789abcdefghij");
+		assertEquals(20, source.length());
+		assertEquals("0123456789abcdefghij", new String(IOUtil.toByteArray(source), "UTF-8"));
+
+		FilterChain chain=chain("/a.js", source);
+		chain.processFilters();
+		assertEquals("/*[*/0123456789ABCDEFGHIJ/*]*/", new String(IOUtil.toByteArray(chain.getCurrent()), "UTF-8"));
+	}
+}
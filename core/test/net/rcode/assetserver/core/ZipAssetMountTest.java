@@ -0,0 +1,142 @@
+package net.rcode.assetserver.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.rcode.assetserver.util.IOUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ZipAssetMountTest {
+	private static final String DEFLATED_TEXT="function hello() { return 'hello hello hello hello'; }\n";
+	private static final String STORED_TEXT="body { color: red; }\n";
+
+	private File zipFile;
+	private ZipAssetMount mount;
+
+	@Before
+	public void setUp() throws IOException {
+		zipFile=File.createTempFile("zamtest", ".zip");
+		ZipOutputStream out=new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			out.putNextEntry(new ZipEntry("dist/"));
+			out.closeEntry();
+
+			out.putNextEntry(new ZipEntry("dist/js/hello.js"));
+			out.write(DEFLATED_TEXT.getBytes("UTF-8"));
+			out.closeEntry();
+
+			byte[] stored=STORED_TEXT.getBytes("UTF-8");
+			CRC32 crc=new CRC32();
+			crc.update(stored);
+			ZipEntry storedEntry=new ZipEntry("dist/css/site.css");
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(stored.length);
+			storedEntry.setCompressedSize(stored.length);
+			storedEntry.setCrc(crc.getValue());
+			out.putNextEntry(storedEntry);
+			out.write(stored);
+			out.closeEntry();
+
+			out.putNextEntry(new ZipEntry("dist/js/hello.js~"));
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+		mount=new ZipAssetMount(zipFile, null);
+	}
+
+	@After
+	public void tearDown() {
+		zipFile.delete();
+	}
+
+	private AssetPath path(String path) {
+		return new AssetPath(mount, "", path);
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		AssetLocator js=mount.resolve(path("/dist/js/hello.js"));
+		assertNotNull(js);
+		assertEquals(DEFLATED_TEXT, new String(js.getBytes(), "UTF-8"));
+		assertEquals(DEFLATED_TEXT.length(), js.length());
+
+		AssetLocator css=mount.resolve(path("/dist/css/site.css"));
+		assertNotNull(css);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		css.writeTo(out);
+		assertEquals(STORED_TEXT, new String(out.toByteArray(), "UTF-8"));
+		assertEquals(-1, ((GzipContentProvider)css).getGzipLength());
+
+		assertNull(mount.resolve(path("/dist/js")));
+		assertNull(mount.resolve(path("/dist/js/missing.js")));
+		assertNull(mount.resolve(path("/dist/js/hello.js~")));
+	}
+
+	@Test
+	public void testGzipPassthrough() throws Exception {
+		GzipContentProvider js=(GzipContentProvider)mount.resolve(path("/dist/js/hello.js"));
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		js.writeGzipTo(out);
+		assertEquals(js.getGzipLength(), out.size());
+
+		byte[] decoded=IOUtil.slurpBinary(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), -1);
+		assertEquals(DEFLATED_TEXT, new String(decoded, "UTF-8"));
+	}
+
+	@Test
+	public void testStatAndList() throws Exception {
+		assertTrue(mount.stat(path("/")).isDirectory);
+		assertTrue(mount.stat(path("/dist/css")).isDirectory);
+		assertFalse(mount.stat(path("/dist/css/site.css")).isDirectory);
+		assertNull(mount.stat(path("/dist/CSS")));
+
+		assertEquals(1, mount.listChildren(path("/")).size());
+		assertEquals(2, mount.listChildren(path("/dist")).size());
+		assertEquals(1, mount.listChildren(path("/dist/js")).size());
+		assertEquals(0, mount.listChildren(path("/dist/js/hello.js")).size());
+	}
+
+	@Test
+	public void testArchiveRoot() throws Exception {
+		mount.setArchiveRoot("/dist/");
+		assertNotNull(mount.resolve(path("/js/hello.js")));
+		assertNull(mount.resolve(path("/dist/js/hello.js")));
+		assertEquals(2, mount.listChildren(path("/")).size());
+	}
+
+	@Test
+	public void testRewrittenInPlace() throws Exception {
+		AssetLocator css=mount.resolve(path("/dist/css/site.css"));
+		AssetLocator js=mount.resolve(path("/dist/js/hello.js"));
+
+		// Truncate the mapped file as an in place copy would
+		RandomAccessFile file=new RandomAccessFile(zipFile, "rw");
+		try {
+			file.setLength(0);
+		} finally {
+			file.close();
+		}
+
+		for (AssetLocator locator: new AssetLocator[] { css, js }) {
+			try {
+				locator.writeTo(new ByteArrayOutputStream());
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package net.rcode.assetserver.metrics;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+	@Test
+	public void testCounter() {
+		MetricsRegistry registry=new MetricsRegistry();
+		registry.counter("test_total", "Test").add(5);
+		registry.counter("test_total", "Test").increment();
+		assertEquals(6, registry.counter("test_total", "Test").get());
+		assertSame(registry.counter("labeled_total", "Test", "k", "a"),
+				registry.counter("labeled_total", "Test", "k", "a"));
+		assertNotSame(registry.counter("labeled_total", "Test", "k", "a"),
+				registry.counter("labeled_total", "Test", "k", "b"));
+	}
+	
+	@Test
+	public void testHistogram() {
+		Histogram h=new Histogram(new double[] { 0.1, 1 });
+		h.observeNanos(50000000L);		// 0.05s
+		h.observeNanos(500000000L);		// 0.5s
+		h.observeNanos(5000000000L);	// 5s
+		long[] counts=h.getCumulativeCounts();
+		assertEquals(1, counts[0]);
+		assertEquals(2, counts[1]);
+		assertEquals(3, counts[2]);
+		assertEquals(5.55, h.getSumSeconds(), 0.0001);
+	}
+	
+	@Test
+	public void testPrometheusFormat() throws Exception {
+		MetricsRegistry registry=new MetricsRegistry();
+		registry.counter("requests_total", "Requests", "status", "200").add(3);
+		registry.histogram("latency_seconds", "Latency").observeNanos(1000);
+		
+		StringBuilder out=new StringBuilder();
+		registry.writePrometheus(out);
+		String text=out.toString();
+		assertTrue(text.contains("# TYPE requests_total counter\n"));
+		assertTrue(text.contains("requests_total{status=\"200\"} 3\n"));
+		assertTrue(text.contains("latency_seconds_bucket{le=\"0.001\"} 1\n"));
+		assertTrue(text.contains("latency_seconds_bucket{le=\"+Inf\"} 1\n"));
+		assertTrue(text.contains("latency_seconds_count 1\n"));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testTypeConflict() {
+		MetricsRegistry registry=new MetricsRegistry();
+		registry.counter("conflict", "Test");
+		registry.histogram("conflict", "Test");
+	}
+}
@@ -0,0 +1,135 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class AdminHandlerTest {
+	private File dir;
+	private AssetServer server;
+	private Server adminServer;
+	private String base;
+
+	/**
+	 * Status and body of a response
+	 */
+	private static class Response {
+		int status;
+		String body;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("admintest");
+		write(new File(dir, "js/a.js"), "var a = 1 ;", 100000);
+		write(new File(dir, "js/b.js"), "var b = 2 ;", 100000);
+		write(new File(dir, "site.css"), "body { color: red; }", 100000);
+		server=new AssetServer(dir);
+
+		adminServer=new Server();
+		SelectChannelConnector connector=new SelectChannelConnector();
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		adminServer.addConnector(connector);
+		adminServer.setHandler(new AdminHandler(server, "secret"));
+		adminServer.start();
+		base="http://127.0.0.1:" + connector.getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		adminServer.stop();
+		deleteRecursive(dir);
+	}
+
+	private Response request(String method, String path, String header, String value) throws IOException {
+		HttpURLConnection conn=(HttpURLConnection)new URL(base + path).openConnection();
+		conn.setRequestMethod(method);
+		if (header!=null) conn.setRequestProperty(header, value);
+		Response ret=new Response();
+		ret.status=conn.getResponseCode();
+		InputStream in=ret.status<400 ? conn.getInputStream() : conn.getErrorStream();
+		ret.body=in!=null ? IOUtil.slurpStream(in, "UTF-8", -1).toString() : "";
+		assertEquals("application/json;charset=UTF-8", conn.getContentType().replace(" ", ""));
+		return ret;
+	}
+
+	private Response request(String method, String path) throws IOException {
+		return request(method, path, "X-Admin-Token", "secret");
+	}
+
+	@Test
+	public void testAuthorization() throws Exception {
+		assertEquals(401, request("GET", "/cache/stats", null, null).status);
+		assertEquals(401, request("GET", "/cache/stats", "X-Admin-Token", "secreT").status);
+		assertEquals(401, request("GET", "/cache/stats", "X-Admin-Token", "secret2").status);
+		assertEquals(401, request("GET", "/cache/stats", "Authorization", "Basic secret").status);
+		assertEquals(200, request("GET", "/cache/stats", "Authorization", "Bearer secret").status);
+		assertEquals(200, request("GET", "/cache/stats").status);
+	}
+
+	@Test
+	public void testRoutes() throws Exception {
+		Response response=request("GET", "/nothing");
+		assertEquals(404, response.status);
+		assertTrue(response.body, response.body.startsWith("{\"error\":"));
+
+		// Wrong method
+		assertEquals(404, request("GET", "/cache/clear").status);
+		assertEquals(404, request("POST", "/cache/stats").status);
+
+		// Bad parameters
+		assertEquals(400, request("POST", "/cache/purge").status);
+		assertEquals(400, request("POST", "/cache/purge?path=/a&prefix=/b").status);
+		assertEquals(400, request("GET", "/cache/expensive?limit=x").status);
+	}
+
+	@Test
+	public void testStatsPurgeAndRebuild() throws Exception {
+		server.getRoot().resolve("/js/a.js");
+		server.getRoot().resolve("/js/b.js");
+		server.getRoot().resolve("/site.css");
+
+		Response response=request("GET", "/cache/stats");
+		assertTrue(response.body, response.body.contains("\"entries\":3,"));
+		assertTrue(response.body, response.body.contains("\"miss\":3"));
+
+		response=request("GET", "/cache/expensive?limit=2");
+		assertEquals(200, response.status);
+		assertEquals(2, response.body.split("\"path\"").length-1);
+
+		response=request("POST", "/cache/purge?path=/js/a.js");
+		assertEquals("{\"purged\":1}", response.body);
+
+		response=request("POST", "/cache/rebuild?prefix=/js/");
+		assertEquals("{\"purged\":1,\"rebuilt\":[\"/js/a.js\",\"/js/b.js\"],\"failed\":[]}", response.body);
+		assertEquals(3, server.getSharedCache().summarize().size());
+
+		response=request("POST", "/cache/clear");
+		assertEquals("{\"cleared\":true}", response.body);
+		assertEquals(0, server.getSharedCache().summarize().size());
+	}
+
+	@Test
+	public void testManifestAndRefresh() throws Exception {
+		Response response=request("GET", "/manifest");
+		assertEquals(200, response.status);
+		assertTrue(response.body, response.body.contains("\"/js/a.js\":{\"hash\":"));
+
+		// The root mount does not use a snapshot
+		assertEquals("{\"refreshed\":[]}", request("POST", "/mounts/refresh").body);
+	}
+}
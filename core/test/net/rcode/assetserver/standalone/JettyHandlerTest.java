@@ -0,0 +1,94 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class JettyHandlerTest {
+	private File dir;
+	private AssetServer server;
+	private Server httpServer;
+	private String base;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("jettyhandlertest");
+		write(new File(dir, "a.js"), "var a = 1 ;", 100000);
+		write(new File(dir, "b.txt"), "plain", 100000);
+		server=new AssetServer(dir);
+
+		httpServer=new Server();
+		SelectChannelConnector connector=new SelectChannelConnector();
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		httpServer.addConnector(connector);
+		httpServer.setHandler(new JettyHandler(server));
+		httpServer.start();
+		base="http://127.0.0.1:" + connector.getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		httpServer.stop();
+		deleteRecursive(dir);
+	}
+
+	/**
+	 * @param path
+	 * @return the Server-Timing header of a successful response or null
+	 * @throws Exception
+	 */
+	private String serverTiming(String path) throws Exception {
+		HttpURLConnection conn=(HttpURLConnection)new URL(base + path).openConnection();
+		assertEquals(200, conn.getResponseCode());
+		IOUtil.slurpStream(conn.getInputStream(), "UTF-8", -1);
+		return conn.getHeaderField("Server-Timing");
+	}
+
+	@Test
+	public void testDebugTiming() throws Exception {
+		assertNull(serverTiming("/a.js"));
+
+		server.getConfig().setDebugTiming(true);
+		String header=serverTiming("/a.js");
+		assertNotNull(header);
+		assertTrue(header, header.startsWith("resolve;dur="));
+		assertTrue(header, header.contains(";desc=\"/a.js\""));
+		assertTrue(header, header.contains("cache-lookup;dur="));
+
+		server.getConfig().setDebugTiming(false);
+		assertNull(serverTiming("/a.js"));
+	}
+
+	private HttpURLConnection get(String path) throws Exception {
+		HttpURLConnection conn=(HttpURLConnection)new URL(base + path).openConnection();
+		assertEquals(200, conn.getResponseCode());
+		return conn;
+	}
+
+	@Test
+	public void testContentLength() throws Exception {
+		// A plain file may change while it is written so it is sent chunked
+		HttpURLConnection conn=get("/b.txt");
+		assertEquals("plain", IOUtil.slurpStream(conn.getInputStream(), "UTF-8", -1).toString());
+		assertNull(conn.getHeaderField("Content-Length"));
+		assertEquals("chunked", conn.getHeaderField("Transfer-Encoding"));
+
+		// Cached content is fixed so its length is declared
+		IOUtil.slurpStream(get("/a.js").getInputStream(), "UTF-8", -1);
+		conn=get("/a.js");
+		assertEquals("var a=1;", IOUtil.slurpStream(conn.getInputStream(), "UTF-8", -1).toString());
+		assertEquals("8", conn.getHeaderField("Content-Length"));
+	}
+}
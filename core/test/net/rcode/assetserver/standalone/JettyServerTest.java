@@ -0,0 +1,122 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ServerConfig;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class JettyServerTest {
+	private static boolean hasVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	@Test
+	public void testThreadPool() {
+		ServerConfig config=new ServerConfig();
+		config.setHttpMinThreads(2);
+		config.setHttpMaxThreads(10);
+		config.setHttpMaxQueued(5);
+		QueuedThreadPool pool=(QueuedThreadPool)JettyServer.createThreadPool(config, null);
+		assertEquals(2, pool.getMinThreads());
+		assertEquals(10, pool.getMaxThreads());
+		assertEquals(5, pool.getMaxQueued());
+
+		config.setHttpMinThreads(20);
+		try {
+			JettyServer.createThreadPool(config, null);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testVirtualThreadFallback() {
+		ServerConfig config=new ServerConfig();
+		config.setHttpVirtualThreads(true);
+		config.setHttpMaxThreads(10);
+
+		// Without virtual threads the configured pool is used
+		ThreadPool pool=JettyServer.createThreadPool(config, null);
+		assertTrue(pool instanceof QueuedThreadPool);
+		assertEquals(10, ((QueuedThreadPool)pool).getMaxThreads());
+
+		ExecutorService executor=Executors.newCachedThreadPool();
+		try {
+			assertTrue(JettyServer.createThreadPool(config, executor) instanceof ExecutorThreadPool);
+		} finally {
+			executor.shutdown();
+		}
+
+		// The lookup only finds the factory where the JVM has it
+		ExecutorService virtualExecutor=JettyServer.createVirtualThreadExecutor();
+		assertEquals(hasVirtualThreads(), virtualExecutor!=null);
+		if (virtualExecutor!=null) virtualExecutor.shutdown();
+	}
+
+	@Test
+	public void testConnectorOptions() {
+		SelectChannelConnector defaults=new SelectChannelConnector();
+		SelectChannelConnector connector=new SelectChannelConnector();
+		JettyServer.configureConnector(connector, new ServerConfig());
+		assertEquals(defaults.getAcceptors(), connector.getAcceptors());
+		assertEquals(defaults.getMaxIdleTime(), connector.getMaxIdleTime());
+		assertEquals(defaults.getResponseBufferSize(), connector.getResponseBufferSize());
+
+		ServerConfig config=new ServerConfig();
+		config.setHttpAcceptors(3);
+		config.setHttpMaxIdleTime(7000);
+		config.setHttpAcceptQueueSize(64);
+		config.setHttpResponseBufferSize(16384);
+		JettyServer.configureConnector(connector, config);
+		assertEquals(3, connector.getAcceptors());
+		assertEquals(7000, connector.getMaxIdleTime());
+		assertEquals(64, connector.getAcceptQueueSize());
+		assertEquals(16384, connector.getResponseBufferSize());
+	}
+
+	@Test
+	public void testStartWithVirtualThreadsRequested() throws Exception {
+		File dir=createTempDirectory("jettyservertest");
+		try {
+			write(new File(dir, "a.txt"), "a", 100000);
+			AssetServer server=new AssetServer(dir);
+			server.getConfig().setHttpVirtualThreads(true);
+			server.getConfig().setHttpMaxThreads(8);
+
+			// Serves requests whether or not virtual threads are available
+			JettyServer http=new JettyServer(server);
+			http.setHttpPort(0);
+			http.setBindAddress(InetAddress.getByName("127.0.0.1"));
+			http.start();
+			try {
+				HttpURLConnection conn=(HttpURLConnection)new URL("http://127.0.0.1:" + http.getLocalPort() + "/a.txt").openConnection();
+				assertEquals(200, conn.getResponseCode());
+				assertEquals("a", IOUtil.slurpStream(conn.getInputStream(), "UTF-8", -1).toString());
+			} finally {
+				http.stop();
+			}
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+}
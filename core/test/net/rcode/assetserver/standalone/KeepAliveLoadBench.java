@@ -0,0 +1,163 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.util.IOUtil;
+
+/**
+ * Local load test that simulates browser page loads (a burst of asset
+ * requests spread over a fixed number of parallel connections, as HTTP/1.1
+ * browsers do) and compares latency with persistent connections against
+ * opening a new connection for every request.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   KeepAliveLoadBench [assetCount] [pageLoads] [connections]
+ * </pre>
+ *
+ * @author stella
+ *
+ */
+public class KeepAliveLoadBench {
+	private static final int DEFAULT_ASSETS=30;
+	private static final int DEFAULT_PAGE_LOADS=200;
+	private static final int DEFAULT_CONNECTIONS=6;
+
+	private int port;
+	private List<String> assetPaths;
+	private int connections;
+
+	public KeepAliveLoadBench(int port, List<String> assetPaths, int connections) {
+		this.port=port;
+		this.assetPaths=assetPaths;
+		this.connections=connections;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int assetCount=args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_ASSETS;
+		int pageLoads=args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_PAGE_LOADS;
+		int connections=args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_CONNECTIONS;
+
+		// Keep the access log out of the results
+		java.util.logging.Logger.getLogger("").setLevel(Level.WARNING);
+		
+		File siteDir=createSite(assetCount);
+		List<String> paths=new ArrayList<String>();
+		for (int i=0; i<assetCount; i++) paths.add("/asset" + i + ".js");
+
+		AssetServer server=new AssetServer(siteDir);
+		JettyServer http=new JettyServer(server);
+		http.setHttpPort(0);
+		http.start();
+		try {
+			KeepAliveLoadBench bench=new KeepAliveLoadBench(http.getLocalPort(), paths, connections);
+
+			// Warm the cache and the JIT
+			bench.run(true, pageLoads/4 + 1);
+			bench.run(false, pageLoads/4 + 1);
+
+			report("keep-alive", bench.run(true, pageLoads));
+			report("close", bench.run(false, pageLoads));
+		} finally {
+			http.stop();
+		}
+	}
+
+	private static File createSite(int assetCount) throws IOException {
+		File dir=File.createTempFile("kabench", "");
+		dir.delete();
+		dir.mkdirs();
+		IOUtil.deleteOnExit(dir);
+		for (int i=0; i<assetCount; i++) {
+			File f=new File(dir, "asset" + i + ".js");
+			OutputStream out=new FileOutputStream(f);
+			try {
+				for (int j=0; j<40; j++) {
+					out.write(("var asset" + i + "_" + j + "=" + j + ";\n").getBytes("UTF-8"));
+				}
+			} finally {
+				out.close();
+			}
+			IOUtil.deleteOnExit(f);
+		}
+		return dir;
+	}
+
+	/**
+	 * Run page loads sequentially, each spreading its requests across the
+	 * configured number of connections
+	 * @return page load times in nanoseconds
+	 */
+	public long[] run(final boolean keepAlive, int pageLoads) throws Exception {
+		ExecutorService pool=Executors.newFixedThreadPool(connections);
+		try {
+			long[] ret=new long[pageLoads];
+			for (int i=0; i<pageLoads; i++) {
+				final AtomicInteger next=new AtomicInteger();
+				List<Callable<Object>> workers=new ArrayList<Callable<Object>>(connections);
+				for (int c=0; c<connections; c++) {
+					workers.add(new Callable<Object>() {
+						public Object call() throws Exception {
+							for (;;) {
+								int index=next.getAndIncrement();
+								if (index>=assetPaths.size()) return null;
+								fetch(assetPaths.get(index), keepAlive);
+							}
+						}
+					});
+				}
+
+				long start=System.nanoTime();
+				for (Future<Object> f: pool.invokeAll(workers)) f.get();
+				ret[i]=System.nanoTime()-start;
+			}
+			return ret;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void fetch(String path, boolean keepAlive) throws IOException {
+		HttpURLConnection conn=(HttpURLConnection) new URL("http", "127.0.0.1", port, path).openConnection();
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		if (!keepAlive) conn.setRequestProperty("Connection", "close");
+		int status=conn.getResponseCode();
+		if (status!=200) throw new IOException("Unexpected status " + status + " for " + path);
+
+		// Fully consume the body so that the connection can be reused
+		InputStream in=conn.getInputStream();
+		byte[] buffer=new byte[4096];
+		while (in.read(buffer)>=0);
+		in.close();
+		if (!keepAlive) conn.disconnect();
+	}
+
+	private static void report(String label, long[] nanos) {
+		long[] sorted=nanos.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format("%-12s pages=%d  p50=%.2fms  p90=%.2fms  p99=%.2fms",
+				label, sorted.length,
+				percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99)));
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		int index=(int)Math.min(sorted.length-1, Math.round(p * (sorted.length-1)));
+		return sorted[index] / 1000000.0;
+	}
+}
@@ -0,0 +1,126 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.rcode.assetserver.metrics.MetricsRegistry;
+import net.rcode.assetserver.util.IOUtil;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResponseTransferPoolTest {
+	private MetricsRegistry metrics;
+	private ResponseTransferPool pool;
+	private CountDownLatch release;
+	private Server httpServer;
+	private String base;
+
+	/**
+	 * Writes "pooled" from the transfer pool once released, or "inline" if the
+	 * pool does not take the transfer
+	 */
+	private class TransferHandler extends AbstractHandler {
+		@Override
+		public void handle(String target, Request baseRequest, HttpServletRequest request,
+				final HttpServletResponse response) throws IOException, ServletException {
+			baseRequest.setHandled(true);
+			response.setContentType("text/plain");
+			boolean scheduled=pool.transfer(baseRequest, new ResponseTransferPool.Transfer() {
+				public void write() throws IOException {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						throw new IOException(e);
+					}
+					response.getOutputStream().write("pooled".getBytes("UTF-8"));
+				}
+			});
+			if (!scheduled) response.getOutputStream().write("inline".getBytes("UTF-8"));
+		}
+	}
+
+	/**
+	 * Fetches a url on its own thread
+	 */
+	private class Fetch extends Thread {
+		private String body;
+
+		@Override
+		public void run() {
+			try {
+				body=fetch();
+			} catch (IOException e) {
+				body=e.toString();
+			}
+		}
+
+		public String getBody() throws InterruptedException {
+			join(10000);
+			return body;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		metrics=new MetricsRegistry();
+		pool=new ResponseTransferPool(1, 1, metrics);
+		release=new CountDownLatch(1);
+
+		httpServer=new Server();
+		SelectChannelConnector connector=new SelectChannelConnector();
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		httpServer.addConnector(connector);
+		httpServer.setHandler(new TransferHandler());
+		httpServer.start();
+		base="http://127.0.0.1:" + connector.getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		release.countDown();
+		httpServer.stop();
+		pool.shutdown();
+	}
+
+	private String fetch() throws IOException {
+		return IOUtil.slurpStream(new URL(base + "/").openStream(), "UTF-8", -1).toString();
+	}
+
+	@Test
+	public void testFullQueueWritesInline() throws Exception {
+		Fetch first=new Fetch();
+		first.start();
+		long deadline=System.currentTimeMillis() + 10000;
+		while (pool.getActiveCount()==0 && System.currentTimeMillis()<deadline) Thread.sleep(10);
+		assertEquals(1, pool.getActiveCount());
+
+		Fetch second=new Fetch();
+		second.start();
+		while (pool.getQueueDepth()==0 && System.currentTimeMillis()<deadline) Thread.sleep(10);
+		assertEquals(1, pool.getQueueDepth());
+
+		// The thread is busy and the queue is full
+		assertEquals("inline", fetch());
+		assertEquals(1, pool.getOverflowCount());
+
+		release.countDown();
+		assertEquals("pooled", first.getBody());
+		assertEquals("pooled", second.getBody());
+		assertEquals(1, metrics.counter("assetserver_http_transfer_overflows_total", "").get());
+		assertEquals(0, pool.getQueueDepth());
+	}
+}
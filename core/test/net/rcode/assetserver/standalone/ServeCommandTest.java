@@ -0,0 +1,90 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+
+import joptsimple.OptionException;
+import joptsimple.OptionSet;
+import net.rcode.assetserver.core.AssetServer;
+import net.rcode.assetserver.core.ServerConfig;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class ServeCommandTest {
+	private static ServerConfig apply(ServerConfig config, String... args) {
+		OptionSet optionSet=new ServeCommand().parse(args);
+		ServeCommand.applyHttpOptions(optionSet, config);
+		return config;
+	}
+
+	@Test
+	public void testHttpOptions() {
+		ServerConfig config=apply(new ServerConfig(),
+				"--threads-min", "4", "--threads-max", "64", "--threads-max-queued", "100",
+				"--acceptors", "2", "--idle-timeout", "5000", "--accept-queue", "50",
+				"--response-buffer", "16384", "--virtual-threads", "--async-write-threshold", "0",
+				"--transfer-threads", "4", "--transfer-queue", "8", "root");
+		assertEquals(4, config.getHttpMinThreads());
+		assertEquals(64, config.getHttpMaxThreads());
+		assertEquals(100, config.getHttpMaxQueued());
+		assertEquals(2, config.getHttpAcceptors());
+		assertEquals(5000, config.getHttpMaxIdleTime());
+		assertEquals(50, config.getHttpAcceptQueueSize());
+		assertEquals(16384, config.getHttpResponseBufferSize());
+		assertTrue(config.isHttpVirtualThreads());
+		assertEquals(0, config.getHttpAsyncWriteThreshold());
+		assertEquals(4, config.getHttpTransferThreads());
+		assertEquals(8, config.getHttpTransferQueue());
+
+		// Options not given leave the defaults alone
+		config=apply(new ServerConfig(), "root");
+		assertEquals(0, config.getHttpMaxThreads());
+		assertFalse(config.isHttpVirtualThreads());
+		assertEquals(256*1024, config.getHttpAsyncWriteThreshold());
+		assertEquals(16, config.getHttpTransferThreads());
+		assertEquals(256, config.getHttpTransferQueue());
+	}
+
+	@Test
+	public void testInvalidOptions() {
+		try {
+			apply(new ServerConfig(), "--threads-max", "many", "root");
+			fail("Expected OptionException");
+		} catch (OptionException e) {
+			// Expected
+		}
+
+		for (String name: new String[] { "threads-min", "threads-max", "acceptors", "transfer-queue" }) {
+			try {
+				apply(new ServerConfig(), "--" + name, "-1", "root");
+				fail("Expected IllegalArgumentException for --" + name);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("--" + name));
+			}
+		}
+	}
+
+	@Test
+	public void testOptionsOverrideConfigFile() throws Exception {
+		File dir=createTempDirectory("servetest");
+		try {
+			write(new File(dir, AssetServer.CONFIG_NAME),
+					"server.getConfig().setHttpMaxThreads(40);\n" +
+					"server.getConfig().setHttpAcceptors(3);\n" +
+					"server.getConfig().setHttpVirtualThreads(true);\n", 100000);
+			AssetServer server=new AssetServer(dir);
+			ServerConfig config=server.getConfig();
+			assertEquals(40, config.getHttpMaxThreads());
+			assertEquals(3, config.getHttpAcceptors());
+			assertTrue(config.isHttpVirtualThreads());
+
+			apply(config, "--threads-max", "60", dir.toString());
+			assertEquals(60, config.getHttpMaxThreads());
+			assertEquals(3, config.getHttpAcceptors());
+			assertTrue(config.isHttpVirtualThreads());
+		} finally {
+			deleteRecursive(dir);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package net.rcode.assetserver.standalone;
+
+import java.io.File;
+import java.net.BindException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static net.rcode.assetserver.TestFiles.*;
+
+public class UnixSocketConnectorTest {
+	private File dir;
+	private File socket;
+
+	@Before
+	public void setUp() throws Exception {
+		dir=createTempDirectory("unixtest");
+		socket=new File(dir, "as.sock");
+	}
+
+	@After
+	public void tearDown() {
+		deleteRecursive(dir);
+	}
+
+	private static boolean isSupported() {
+		try {
+			Class.forName("java.net.UnixDomainSocketAddress");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static boolean isSocket(File file) throws Exception {
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+	}
+
+	private void assertRefused(UnixSocketConnector connector) throws Exception {
+		try {
+			connector.open();
+			connector.close();
+			fail("Expected BindException");
+		} catch (BindException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testToSymbolicPermissions() {
+		assertEquals("rw-rw----", UnixSocketConnector.toSymbolicPermissions("660"));
+		assertEquals("rwxr-x--x", UnixSocketConnector.toSymbolicPermissions("751"));
+		assertEquals("---------", UnixSocketConnector.toSymbolicPermissions("000"));
+		assertEquals("rw-r-----", UnixSocketConnector.toSymbolicPermissions("rw-r-----"));
+		for (String illegal: new String[] { "", "66", "0660", "680", "rw-rw---", "rw-rw---x-", "rwxrwxrwt" }) {
+			try {
+				UnixSocketConnector.toSymbolicPermissions(illegal);
+				fail("Expected IllegalArgumentException for '" + illegal + "'");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testOpenWithPermissions() throws Exception {
+		Assume.assumeTrue(isSupported());
+		UnixSocketConnector connector=new UnixSocketConnector(socket);
+		connector.setPermissions("600");
+		connector.open();
+		try {
+			assertTrue(isSocket(socket));
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket.toPath())));
+
+			// Only the socket is left behind
+			assertEquals(1, dir.list().length);
+		} finally {
+			connector.close();
+		}
+		assertFalse(socket.exists());
+	}
+
+	@Test
+	public void testStaleSocketRemoved() throws Exception {
+		Assume.assumeTrue(isSupported());
+		UnixSocketConnector first=new UnixSocketConnector(socket);
+		first.open();
+
+		// Close the channel but leave the socket file, as a crashed process would
+		((ServerSocketChannel)first.getConnection()).close();
+		assertTrue(isSocket(socket));
+
+		UnixSocketConnector second=new UnixSocketConnector(socket);
+		second.open();
+		try {
+			assertTrue(isSocket(socket));
+		} finally {
+			second.close();
+		}
+	}
+
+	@Test
+	public void testLiveSocketRefused() throws Exception {
+		Assume.assumeTrue(isSupported());
+		UnixSocketConnector first=new UnixSocketConnector(socket);
+		first.open();
+		try {
+			assertRefused(new UnixSocketConnector(socket));
+			assertTrue(isSocket(socket));
+		} finally {
+			first.close();
+		}
+	}
+
+	@Test
+	public void testNonSocketRefused() throws Exception {
+		Assume.assumeTrue(isSupported());
+		write(socket, "not a socket", 0);
+		assertRefused(new UnixSocketConnector(socket));
+		assertTrue(socket.isFile());
+
+		File directory=new File(dir, "directory.sock");
+		assertTrue(directory.mkdir());
+		assertRefused(new UnixSocketConnector(directory));
+		assertTrue(directory.isDirectory());
+
+		File link=new File(dir, "link.sock");
+		Files.createSymbolicLink(link.toPath(), new File(dir, "missing").toPath());
+		assertRefused(new UnixSocketConnector(link));
+		assertTrue(Files.isSymbolicLink(link.toPath()));
+	}
+}
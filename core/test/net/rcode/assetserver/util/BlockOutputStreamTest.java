@@ -14,14 +14,14 @@ public class BlockOutputStreamTest {
 
 	/**
 	 * Create a new buffer of the given size where each entry is a number
-	 * between 0...9 where its value is the mod 10 of its position.
+	 * between 0...255 where its value is the mod 256 of its position.
 	 * @param size
 	 * @return byte array
 	 */
 	private byte[] createBuffer(int size) {
 		byte[] b=new byte[size];
 		for (int i=0; i<size; i++) {
-			b[i]=(byte) (i%10);
+			b[i]=(byte) (i%256);
 		}
 		return b;
 	}
@@ -80,5 +80,18 @@ public class BlockOutputStreamTest {
 		assertEquals("actual buffer length", src.length, actual.length);
 		assertTrue("buffers equal", Arrays.equals(src, actual));
 	}
+	
+	@Test
+	public void testExactBlocks() throws IOException {
+		byte[] src=createBuffer(32);
+		BlockOutputStream blockOut=new BlockOutputStream(16);
+		blockOut.write(src);
+		
+		assertEquals("reported length", 32, blockOut.length());
+		assertTrue("getBytes", Arrays.equals(src, blockOut.getBytes()));
+		ByteArrayOutputStream verifyOut=new ByteArrayOutputStream();
+		blockOut.writeTo(verifyOut);
+		assertTrue("writeTo", Arrays.equals(src, verifyOut.toByteArray()));
+	}
 
 }
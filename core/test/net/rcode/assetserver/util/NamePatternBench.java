@@ -0,0 +1,97 @@
+package net.rcode.assetserver.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmark of exclusion matching the way ResourceMount applies it: the
+ * default excludes and a set of user exclusions checked against every component
+ * of a path.  Compares the combined regular expression (NamePattern.getPattern())
+ * against the compiled matcher used by NamePattern.matches() on deep paths.
+ * <p>
+ * Not run as part of the unit tests.  Usage:
+ * <pre>
+ *   NamePatternBench [depth] [iterations] [rounds]
+ * </pre>
+ *
+ * @author stella
+ *
+ */
+public class NamePatternBench {
+	private static final int DEFAULT_DEPTH=12;
+	private static final int DEFAULT_ITERATIONS=200000;
+	private static final int DEFAULT_ROUNDS=5;
+
+	private static final String[] NAMES={
+		"src", "main", "webapp", "static", "js", "lib", "vendor", "jquery", "plugins", "ui",
+		"widgets", "core", "components", "theme", "images", "icons",
+	};
+	private static final String[] LEAVES={
+		"app.js", "jquery-1.4.2.min.js", "site.css", "logo.png", "index.html", "messages.properties",
+	};
+
+	/**
+	 * Keeps the results live so the matching cannot be optimized away
+	 */
+	private static int sink;
+
+	public static void main(String[] args) {
+		int depth=args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+		int iterations=args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+		int rounds=args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+
+		NamePattern defaults=NamePattern.DEFAULT_EXCLUDES;
+		NamePattern user=new NamePattern("*.bak", "*.orig", "Thumbs.db", "node_modules", "tmp-*", "*.sw?").freeze();
+
+		List<String[]> paths=new ArrayList<String[]>();
+		for (int i=0; i<LEAVES.length; i++) {
+			String[] path=new String[depth];
+			for (int j=0; j<depth-1; j++) {
+				path[j]=NAMES[(i + j) % NAMES.length];
+			}
+			path[depth-1]=LEAVES[i];
+			paths.add(path);
+		}
+		int componentCount=depth * paths.size();
+
+		System.out.println("Warming up");
+		runRegex(defaults.getPattern(), user.getPattern(), paths, iterations);
+		runCompiled(defaults, user, paths, iterations);
+
+		for (int round=1; round<=rounds; round++) {
+			long regexNanos=runRegex(defaults.getPattern(), user.getPattern(), paths, iterations);
+			long compiledNanos=runCompiled(defaults, user, paths, iterations);
+			System.out.println(String.format("Round %d: regex %.1f ns/component, compiled %.1f ns/component (%.2fx)",
+					round,
+					(double)regexNanos / ((long)iterations * componentCount),
+					(double)compiledNanos / ((long)iterations * componentCount),
+					(double)regexNanos / compiledNanos));
+		}
+		System.out.println("(" + sink + ")");
+	}
+
+	private static long runRegex(Pattern defaults, Pattern user, List<String[]> paths, int iterations) {
+		long start=System.nanoTime();
+		for (int i=0; i<iterations; i++) {
+			for (String[] path: paths) {
+				for (String component: path) {
+					if (defaults.matcher(component).matches() || user.matcher(component).matches()) sink++;
+				}
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long runCompiled(NamePattern defaults, NamePattern user, List<String[]> paths, int iterations) {
+		long start=System.nanoTime();
+		for (int i=0; i<iterations; i++) {
+			for (String[] path: paths) {
+				for (String component: path) {
+					if (defaults.matches(component) || user.matches(component)) sink++;
+				}
+			}
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -52,4 +52,55 @@ public class NamePatternTest {
 		assertMatch(".bzr");
 		assertMatch(".bzrignore");
 	}
+	
+	@Test
+	public void testLiteralsAreNotRegexes() {
+		pattern = NamePattern.DEFAULT_EXCLUDES;
+		
+		assertNoMatch("xgit");
+		assertNoMatch("vssverXscc");
+		
+		pattern = new NamePattern("a.b", "(c)", "d|e");
+		assertMatch("a.b");
+		assertMatch("(c)");
+		assertMatch("d|e");
+		assertNoMatch("axb");
+		assertNoMatch("c");
+		assertNoMatch("d");
+	}
+	
+	@Test
+	public void testGlobs() {
+		pattern = new NamePattern("*.min.js", "test-*", "#*#", "a?c", "x*y*z", "*");
+		assertMatch("jquery.min.js");
+		assertMatch(".min.js");
+		assertMatch("test-");
+		assertMatch("#x#");
+		assertMatch("abc");
+		assertMatch("xyz");
+		assertMatch("x-y-z");
+		assertMatch("anything");
+		
+		pattern = new NamePattern("#*#", "a?c", "x*y*z");
+		assertMatch("##");
+		assertNoMatch("#");
+		assertNoMatch("ac");
+		assertNoMatch("xz");
+		assertNoMatch("x.y");
+		
+		// Clauses included after matching are picked up
+		assertNoMatch("new");
+		pattern.include("n*");
+		assertMatch("new");
+	}
+	
+	@Test
+	public void testSameAsRegex() {
+		pattern = new NamePattern("*~", "#*#", ".#*", "CVS", "a?c", "x*y*z", "*.js", "a.b");
+		String[] names = { "", "~", "a~", "#", "##", "#a#", ".#", ".#x", "CVS", "cvs", "abc", "ac",
+				"xyz", "xz", "x1y2z", ".js", "a.js", "a.jsx", "a.b", "axb", "z" };
+		for (String name: names) {
+			assertEquals(name, pattern.getPattern().matcher(name).matches(), pattern.matches(name));
+		}
+	}
 }